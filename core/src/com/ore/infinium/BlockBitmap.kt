@@ -0,0 +1,192 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+/**
+ * One bit per block, row by row. Each row starts on a fresh word, so
+ * range queries along a row come down to a few masked Long ops instead
+ * of a loop over the blocks.
+ *
+ * World generation threads each own spans of WorldGenerator.TILE_WIDTH
+ * (64) columns, which start on a word boundary, so they never share a
+ * word and can set bits without locking.
+ *
+ * Kept up to date by BlockStorage, see BlockStorage.solidBits.
+ */
+@Suppress("NOTHING_TO_INLINE")
+class BlockBitmap(val width: Int, val height: Int) {
+
+    val wordsPerRow = (width + 63) ushr 6
+
+    val words = LongArray(wordsPerRow * height)
+
+    inline fun wordIndex(x: Int, y: Int) = y * wordsPerRow + (x ushr 6)
+
+    inline operator fun get(x: Int, y: Int) = (words[wordIndex(x, y)] and (1L shl x)) != 0L
+
+    inline operator fun set(x: Int, y: Int, value: Boolean) {
+        val index = wordIndex(x, y)
+        if (value) {
+            words[index] = words[index] or (1L shl x)
+        } else {
+            words[index] = words[index] and (1L shl x).inv()
+        }
+    }
+
+    /**
+     * @return true if any bit in left..right (inclusive) of row @param y is set
+     */
+    fun anyInRow(y: Int, left: Int, right: Int) = firstInRow(y, left, right) != -1
+
+    /**
+     * @return true if every bit in left..right (inclusive) of row @param y is set.
+     * an empty range counts as all set
+     */
+    fun allInRow(y: Int, left: Int, right: Int) = countInRow(y, left, right) == maxOf(right - left + 1, 0)
+
+    /**
+     * @return x of the first (leftmost) set bit in left..right (inclusive)
+     * of row @param y, or -1 if there isn't one
+     */
+    fun firstInRow(y: Int, left: Int, right: Int): Int {
+        if (left > right) {
+            return -1
+        }
+
+        val rowStart = y * wordsPerRow
+        val firstWord = left ushr 6
+        val lastWord = right ushr 6
+        for (w in firstWord..lastWord) {
+            var bits = words[rowStart + w]
+            if (w == firstWord) {
+                bits = bits and (-1L shl left)
+            }
+
+            if (w == lastWord) {
+                bits = bits and (-1L ushr (63 - (right and 63)))
+            }
+
+            if (bits != 0L) {
+                return (w shl 6) + java.lang.Long.numberOfTrailingZeros(bits)
+            }
+        }
+
+        return -1
+    }
+
+    /**
+     * @return number of set bits in left..right (inclusive) of row @param y
+     */
+    fun countInRow(y: Int, left: Int, right: Int): Int {
+        if (left > right) {
+            return 0
+        }
+
+        val rowStart = y * wordsPerRow
+        val firstWord = left ushr 6
+        val lastWord = right ushr 6
+        var count = 0
+        for (w in firstWord..lastWord) {
+            var bits = words[rowStart + w]
+            if (w == firstWord) {
+                bits = bits and (-1L shl left)
+            }
+
+            if (w == lastWord) {
+                bits = bits and (-1L ushr (63 - (right and 63)))
+            }
+
+            count += java.lang.Long.bitCount(bits)
+        }
+
+        return count
+    }
+
+    /**
+     * @return y of the first (topmost) set bit in top..bottom (inclusive)
+     * of column @param x, or -1 if there isn't one.
+     * one bit test per row, columns aren't contiguous
+     */
+    fun firstInColumn(x: Int, top: Int, bottom: Int): Int {
+        val bit = 1L shl x
+        var index = wordIndex(x, top)
+        for (y in top..bottom) {
+            if ((words[index] and bit) != 0L) {
+                return y
+            }
+
+            index += wordsPerRow
+        }
+
+        return -1
+    }
+
+    /**
+     * @return true if any bit in the rect (inclusive) is set
+     */
+    fun anyInRect(left: Int, top: Int, right: Int, bottom: Int): Boolean {
+        return (top..bottom).any { y -> anyInRow(y, left, right) }
+    }
+
+    /**
+     * @return true if every bit in the rect (inclusive) is set
+     */
+    fun allInRect(left: Int, top: Int, right: Int, bottom: Int): Boolean {
+        return (top..bottom).all { y -> allInRow(y, left, right) }
+    }
+
+    /**
+     * sets or clears every bit in the rect (inclusive)
+     */
+    fun fillRect(left: Int, top: Int, right: Int, bottom: Int, value: Boolean) {
+        if (left > right) {
+            return
+        }
+
+        val firstWord = left ushr 6
+        val lastWord = right ushr 6
+        for (y in top..bottom) {
+            val rowStart = y * wordsPerRow
+            for (w in firstWord..lastWord) {
+                var mask = -1L
+                if (w == firstWord) {
+                    mask = mask and (-1L shl left)
+                }
+
+                if (w == lastWord) {
+                    mask = mask and (-1L ushr (63 - (right and 63)))
+                }
+
+                if (value) {
+                    words[rowStart + w] = words[rowStart + w] or mask
+                } else {
+                    words[rowStart + w] = words[rowStart + w] and mask.inv()
+                }
+            }
+        }
+    }
+
+    fun sizeBytes() = words.size.toLong() * 8
+}
@@ -0,0 +1,207 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+/**
+ * Ring buffer of every block write that actually changed something,
+ * packed into one long per record (x, y, field, old value, new value).
+ *
+ * BlockStorage appends to it on every write, once it's been handed one.
+ * Systems that react to block changes (networking, lighting, tile
+ * transitions) each keep a Cursor, and drain whatever was written since
+ * they last looked, usually once per tick. That way their work scales
+ * with how much got changed, instead of guessing at a region to redo.
+ *
+ * If a consumer falls more than capacity records behind, the oldest
+ * records are gone; drain tells it so, and it has to resync whatever
+ * it cares about from scratch (e.g. resend the whole viewport). Unless
+ * none of what it lost was of the fields it cares about, in which case
+ * it just gets what's left.
+ *
+ * Not thread safe, it's meant for the (single threaded) game loop. World
+ * generation runs before a journal is attached, so it doesn't flood it.
+ */
+class BlockChangeJournal(capacityShift: Int = 16) {
+
+    /**
+     * a consumer's position in the journal
+     */
+    class Cursor internal constructor(internal var position: Long)
+
+    val capacity = 1 shl capacityShift
+    private val mask = capacity - 1L
+
+    private val records = LongArray(capacity)
+
+    /**
+     * total records ever written. the ring only holds the last capacity of them
+     */
+    var written = 0L
+        private set
+
+    /**
+     * cursors that haven't drained past this point have to resync
+     */
+    private var resyncPosition = 0L
+
+    /**
+     * per field, the position of the last record of it that got overwritten
+     * by a newer one. -1 if none has been yet
+     */
+    private val overwrittenPositions = LongArray(FIELD_LIQUID_LEVEL + 1) { -1L }
+
+    /**
+     * @return a cursor that starts out caught up, it will only
+     * see records written from now on
+     */
+    fun newCursor() = Cursor(written)
+
+    /**
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_* or FIELD_LIQUID_LEVEL
+     */
+    fun record(x: Int, y: Int, field: Int, oldValue: Int, newValue: Int) {
+        if (oldValue == newValue) {
+            return
+        }
+
+        val slot = (written and mask).toInt()
+        if (written >= capacity) {
+            overwrittenPositions[field(records[slot])] = written - capacity
+        }
+
+        records[slot] = pack(x, y, field, oldValue, newValue)
+        ++written
+    }
+
+    /**
+     * tells every consumer to resync, as though they had all fallen behind.
+     * for bulk writes that would just overflow the journal anyway, so there's
+     * no point recording them block by block
+     */
+    fun markResync() {
+        //write a harmless record, so the position actually moves past every existing cursor
+        records[(written and mask).toInt()] = 0L
+        ++written
+        resyncPosition = written
+    }
+
+    /**
+     * calls @param action with every record written since the cursor's last
+     * drain, oldest first, and moves the cursor up to now.
+     *
+     * @param fields the fieldBits the consumer cares about. if it fell behind,
+     * but only lost records of other fields, it's passed whatever is left
+     *
+     * @return false if the cursor fell behind and records of @param fields
+     * were lost. nothing is passed to @param action in that case, the consumer
+     * should resync everything it cares about instead.
+     */
+    fun drain(cursor: Cursor, fields: Int = ALL_FIELDS, action: (record: Long) -> Unit): Boolean {
+        val start = cursor.position
+        val end = written
+        cursor.position = end
+
+        if (start < resyncPosition) {
+            return false
+        }
+
+        var first = start
+        if (end - start > capacity) {
+            if (lostSince(start, fields)) {
+                return false
+            }
+
+            first = end - capacity
+        }
+
+        for (i in first until end) {
+            action(records[(i and mask).toInt()])
+        }
+
+        return true
+    }
+
+    /**
+     * @return true if any record of @param fields from @param position on has been overwritten
+     */
+    private fun lostSince(position: Long, fields: Int): Boolean {
+        for (field in overwrittenPositions.indices) {
+            if (fields and fieldBit(field) != 0 && overwrittenPositions[field] >= position) {
+                return true
+            }
+        }
+
+        return false
+    }
+
+    /**
+     * how many records the cursor hasn't seen yet (may exceed capacity,
+     * if it has fallen behind)
+     */
+    fun pending(cursor: Cursor) = written - cursor.position
+
+    companion object {
+        /**
+         * field id for liquid level records, which don't have a byte plane
+         * of their own. values are the stored nibble (level - 1)
+         */
+        const val FIELD_LIQUID_LEVEL = OreBlock.BLOCK_BYTE_FIELD_COUNT
+
+        fun fieldBit(field: Int) = 1 shl field
+
+        val ALL_FIELDS = (1 shl (FIELD_LIQUID_LEVEL + 1)) - 1
+
+        /**
+         * every field except mesh type, which clients work out
+         * for themselves (see TileTransitionSystem)
+         */
+        val NETWORKED_FIELDS = fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) or
+                fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE) or
+                fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) or
+                fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL) or
+                fieldBit(FIELD_LIQUID_LEVEL)
+
+        fun pack(x: Int, y: Int, field: Int, oldValue: Int, newValue: Int): Long =
+                (x.toLong() and 0xFFFFL shl 40) or
+                        (y.toLong() and 0xFFFFL shl 24) or
+                        (field.toLong() and 0xFFL shl 16) or
+                        (oldValue.toLong() and 0xFFL shl 8) or
+                        (newValue.toLong() and 0xFFL)
+
+        fun x(record: Long) = (record ushr 40).toInt() and 0xFFFF
+        fun y(record: Long) = (record ushr 24).toInt() and 0xFFFF
+        fun field(record: Long) = (record ushr 16).toInt() and 0xFF
+        fun oldValue(record: Long) = (record ushr 8).toByte()
+        fun newValue(record: Long) = record.toByte()
+
+        /**
+         * x and y of a record packed into one int, for deduplicating
+         * records by block position
+         */
+        fun position(record: Long) = (record ushr 24).toInt()
+
+        fun positionX(position: Int) = position ushr 16
+        fun positionY(position: Int) = position and 0xFFFF
+    }
+}
@@ -0,0 +1,330 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.nio.ByteBuffer
+
+/**
+ * A fixed size, square region of blocks (SIZE x SIZE). The world's
+ * blocks are split up into these, so that huge stretches of air don't
+ * have to take up any memory at all, and so other systems (networking,
+ * lighting, saving) have a natural unit of work.
+ *
+ * Each block field lives in its own plane (structure of arrays), so a pass
+ * that only cares about e.g. block types only pulls block types through
+ * the cache. Blocks are column-major within each plane.
+ *
+ * A plane is either a raw byte array, or palette packed (see PalettedPlane)
+ * when it only holds a few distinct values. Packed planes get promoted back
+ * to raw as soon as a write doesn't fit their palette.
+ * Packed planes are not safe for concurrent writers, raw planes are (as long
+ * as they write to different blocks), which is why chunks are only ever
+ * packed by compact(), never on allocation.
+ *
+ * A plane can also be mapped (see mapPlane), read straight out of a memory
+ * mapped world save. Those get copied into a raw plane on their first write.
+ *
+ * @see BlockStorage
+ */
+class BlockChunk(val chunkX: Int, val chunkY: Int, packed: Boolean = false) {
+
+    /**
+     * indexed by OreBlock.BLOCK_BYTE_FIELD_INDEX_*.
+     * null while that plane is palette packed or mapped instead.
+     * exactly one of the three is non-null for each field
+     */
+    private val rawPlanes = arrayOfNulls<ByteArray>(OreBlock.BLOCK_BYTE_FIELD_COUNT)
+
+    private val packedPlanes = arrayOfNulls<PalettedPlane>(OreBlock.BLOCK_BYTE_FIELD_COUNT)
+
+    private val mappedPlanes = arrayOfNulls<ByteBuffer>(OreBlock.BLOCK_BYTE_FIELD_COUNT)
+
+    /**
+     * 4 bits per block, two blocks per byte. the even index is the low nibble.
+     * only meaningful for liquid blocks, see OreWorld.liquidLevel.
+     * already as small as a packed plane would get it, so it is always raw
+     */
+    val liquidLevels = ByteArray(BLOCK_COUNT / 2)
+
+    /**
+     * incremented on every write to this chunk. consumers remember the last
+     * version they've seen, to find out if it has changed since then
+     */
+    var version = 0
+
+    init {
+        for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+            if (packed) {
+                packedPlanes[field] = PalettedPlane(BLOCK_COUNT)
+            } else {
+                rawPlanes[field] = ByteArray(BLOCK_COUNT)
+            }
+        }
+    }
+
+    /**
+     * true if this is the shared, read-only all-air chunk
+     */
+    val isEmptySentinel: Boolean
+        get() = this === EMPTY
+
+    /**
+     * true for either of the placeholder chunks (EMPTY, PAGED_OUT),
+     * which don't hold any blocks of their own
+     */
+    val isSentinel: Boolean
+        get() = this === EMPTY || this === PAGED_OUT
+
+    /**
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     * @param index block index within the chunk, see BlockStorage.localIndex
+     */
+    fun get(field: Int, index: Int): Byte {
+        val raw = rawPlanes[field]
+        if (raw != null) {
+            return raw[index]
+        }
+
+        val packed = packedPlanes[field]
+        if (packed != null) {
+            return packed[index]
+        }
+
+        return mappedPlanes[field]!!.get(index)
+    }
+
+    /**
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     * @param index block index within the chunk, see BlockStorage.localIndex
+     */
+    fun set(field: Int, index: Int, value: Byte) {
+        val raw = rawPlanes[field]
+        if (raw != null) {
+            raw[index] = value
+            return
+        }
+
+        val packed = packedPlanes[field]
+        if (packed != null && packed.set(index, value)) {
+            return
+        }
+
+        //palette overflowed, or it's mapped
+        promote(field)[index] = value
+    }
+
+    fun isPacked(field: Int) = packedPlanes[field] != null
+
+    fun isMapped(field: Int) = mappedPlanes[field] != null
+
+    /**
+     * serves @param field straight out of @param plane until the first
+     * write to it, which copies it into a raw plane. for memory mapped
+     * world saves (see WorldIO.mapBlocks), so loading a chunk doesn't
+     * have to copy anything.
+     *
+     * @param plane BLOCK_COUNT bytes starting at index 0, in the column-major
+     * layout. it's only read with absolute gets, so it can be shared
+     * between threads, and must not change after this
+     */
+    fun mapPlane(field: Int, plane: ByteBuffer) {
+        rawPlanes[field] = null
+        packedPlanes[field] = null
+        mappedPlanes[field] = plane
+    }
+
+    /**
+     * copies @param length blocks of @param field, starting at @param index,
+     * into @param dest. packed planes are read without unpacking them
+     */
+    fun copyOut(field: Int, index: Int, dest: ByteArray, destOffset: Int, length: Int) {
+        val raw = rawPlanes[field]
+        if (raw != null) {
+            System.arraycopy(raw, index, dest, destOffset, length)
+            return
+        }
+
+        val packed = packedPlanes[field]
+        if (packed != null) {
+            for (i in 0 until length) {
+                dest[destOffset + i] = packed[index + i]
+            }
+            return
+        }
+
+        val mapped = mappedPlanes[field]!!
+        for (i in 0 until length) {
+            dest[destOffset + i] = mapped.get(index + i)
+        }
+    }
+
+    /**
+     * @return the raw plane for @param field, unpacking (or copying) it first if it is packed (or mapped).
+     * for bulk access, where going through get() per block would be a waste
+     */
+    fun rawPlane(field: Int): ByteArray = rawPlanes[field] ?: promote(field)
+
+    private fun promote(field: Int): ByteArray {
+        val raw = ByteArray(BLOCK_COUNT)
+        decodeInto(field, raw)
+
+        rawPlanes[field] = raw
+        packedPlanes[field] = null
+        mappedPlanes[field] = null
+
+        return raw
+    }
+
+    /**
+     * copies a packed or mapped plane into @param dest
+     */
+    private fun decodeInto(field: Int, dest: ByteArray) {
+        val packed = packedPlanes[field]
+        if (packed != null) {
+            packed.decodeInto(dest)
+        } else {
+            mappedPlanes[field]!!.duplicate().get(dest)
+        }
+    }
+
+    /**
+     * palette packs every raw plane that has few enough distinct values.
+     * must not be called while anything else may be writing to this chunk.
+     *
+     * @return number of planes that got packed
+     */
+    fun compact(): Int {
+        var packedCount = 0
+        for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+            val raw = rawPlanes[field] ?: continue
+            val packed = PalettedPlane.pack(raw) ?: continue
+
+            packedPlanes[field] = packed
+            rawPlanes[field] = null
+            ++packedCount
+        }
+
+        return packedCount
+    }
+
+    /**
+     * bytes of block data held by this chunk, all planes included
+     * (not counting object headers). mapped planes aren't counted,
+     * they're in the OS page cache, not the heap
+     */
+    val sizeBytes: Int
+        get() {
+            var size = liquidLevels.size
+            for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+                size += rawPlanes[field]?.size ?: packedPlanes[field]?.sizeBytes ?: 0
+            }
+
+            return size
+        }
+
+    /**
+     * writes every plane (unpacked), then the liquid plane, then the version.
+     * always exactly SERIALIZED_SIZE bytes
+     */
+    fun writeTo(buffer: ByteBuffer) {
+        for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+            val raw = rawPlanes[field]
+            if (raw != null) {
+                buffer.put(raw)
+            } else {
+                val decoded = ByteArray(BLOCK_COUNT)
+                decodeInto(field, decoded)
+                buffer.put(decoded)
+            }
+        }
+
+        buffer.put(liquidLevels)
+        buffer.putInt(version)
+    }
+
+    fun liquidNibble(index: Int): Int {
+        return (liquidLevels[index shr 1].toInt() shr ((index and 1) shl 2)) and 0xF
+    }
+
+    fun setLiquidNibble(index: Int, value: Int) {
+        val byteIndex = index shr 1
+        val shift = (index and 1) shl 2
+        val others = liquidLevels[byteIndex].toInt() and (0xF shl shift).inv()
+
+        liquidLevels[byteIndex] = (others or ((value and 0xF) shl shift)).toByte()
+    }
+
+    companion object {
+        const val SHIFT = 5
+
+        /**
+         * blocks along each side of a chunk
+         */
+        const val SIZE = 1 shl SHIFT
+
+        const val MASK = SIZE - 1
+
+        const val BLOCK_COUNT = SIZE * SIZE
+
+        /**
+         * bytes of block data held by each unpacked chunk, all planes included
+         */
+        const val BYTES_PER_RAW_CHUNK = BLOCK_COUNT * OreBlock.BLOCK_BYTE_FIELD_COUNT + BLOCK_COUNT / 2
+
+        /**
+         * size of a chunk written by writeTo
+         */
+        const val SERIALIZED_SIZE = BYTES_PER_RAW_CHUNK + 4
+
+        /**
+         * reads back a chunk written by writeTo, with all planes raw
+         */
+        fun readFrom(chunkX: Int, chunkY: Int, buffer: ByteBuffer): BlockChunk {
+            val chunk = BlockChunk(chunkX, chunkY)
+            for (field in 0 until OreBlock.BLOCK_BYTE_FIELD_COUNT) {
+                buffer.get(chunk.rawPlane(field))
+            }
+
+            buffer.get(chunk.liquidLevels)
+            chunk.version = buffer.int
+
+            return chunk
+        }
+
+        /**
+         * stands in for chunks that have been paged out to disk by the
+         * ChunkResidencyManager. never read from or written to, BlockStorage
+         * pages the real one back in first.
+         */
+        val PAGED_OUT = BlockChunk(-1, -1, packed = true)
+
+        /**
+         * shared by every chunk slot that has never been written to.
+         * it is all air, and must never be written to. writing to a
+         * block inside of it will allocate a real chunk first.
+         */
+        val EMPTY = BlockChunk(-1, -1, packed = true)
+    }
+}
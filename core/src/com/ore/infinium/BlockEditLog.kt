@@ -0,0 +1,399 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
+
+/**
+ * Append-only log of block edits made since the world was last saved, so a
+ * crash only loses whatever was written since the last sync(), instead of
+ * everything since the last save.
+ *
+ * Every tick, append() drains the BlockChangeJournal (so it covers every
+ * path that changes blocks: digging, placing, explosions, liquids) and
+ * writes what changed as one batch: record count, the journal's packed
+ * records, then a CRC32 of them. sync() fsyncs, which is the expensive part,
+ * so it's only done every so often (see BlockEditLogSystem), and on a
+ * background thread, so the game thread never waits on it.
+ *
+ * The log is split into numbered segment files (basePath.1, basePath.2, ...).
+ * Before a save, rollOver() seals the current segment. Once the save is on
+ * disk, discardThrough() deletes the sealed ones, since the save now has
+ * everything in them. The next segment is opened ahead of time, and the sealed
+ * one fsynced and closed in the background, so rolling over doesn't wait on
+ * the disk either. On startup, replay() applies whatever segments are
+ * left over on top of the save. A batch that was only partly written when
+ * we died (or fails its CRC) ends the replay.
+ *
+ * Light levels and mesh types aren't logged, they're recomputed from the blocks.
+ *
+ * Only meant to be used from the server's game loop thread, except for
+ * discardThrough.
+ */
+class BlockEditLog(private val basePath: File) : Closeable {
+
+    /**
+     * records appended, since this log was opened
+     */
+    var recordsWritten = 0L
+        private set
+
+    var bytesWritten = 0L
+        private set
+
+    @Volatile var syncCount = 0
+        private set
+
+    /**
+     * segment that was current when the journal last overflowed before we
+     * drained it, so some edits never made it into the log. NO_GAP if none
+     */
+    private val gapSegment = AtomicInteger(NO_GAP)
+
+    /**
+     * true if edits were lost since the last save, so the log can't be trusted
+     * until the next one. see BlockEditLogSystem
+     */
+    val needsSave: Boolean
+        get() = gapSegment.get() != NO_GAP
+
+    private var cursor: BlockChangeJournal.Cursor? = null
+
+    private var segment: Int
+    private var channel: FileChannel
+
+    private var batch = ByteBuffer.allocate(INITIAL_BATCH_BYTES)
+    private val crc = CRC32()
+
+    /**
+     * written since the last sync
+     */
+    private var unsynced = false
+
+    /**
+     * fsyncs, seals segments and opens new ones, in the order they were asked for
+     */
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "block edit log").apply { isDaemon = true }
+    }
+
+    private var pendingSync: Future<*>? = null
+
+    /**
+     * the segment after the current one, opened ahead of rollOver
+     */
+    private var nextChannel: Future<FileChannel>
+
+    init {
+        basePath.absoluteFile.parentFile.mkdirs()
+
+        //always start a new segment, a torn batch at the end of the last one stays there
+        segment = (segmentNumbers().max() ?: 0) + 1
+        channel = openSegment(segment)
+        nextChannel = openSegmentLater(segment + 1)
+    }
+
+    /**
+     * applies every edit in the log to @param storage, oldest first.
+     * call before start(), or the replayed edits get logged a second time
+     *
+     * @return number of edits replayed
+     */
+    fun replay(storage: BlockStorage): Int {
+        var replayed = 0
+        for (number in segmentNumbers().filter { it != segment }) {
+            replayed += replaySegment(segmentFile(number), storage)
+        }
+
+        return replayed
+    }
+
+    private fun replaySegment(file: File, storage: BlockStorage): Int {
+        val bytes = file.readBytes()
+        val buffer = ByteBuffer.wrap(bytes)
+
+        var replayed = 0
+        while (buffer.remaining() >= 4) {
+            val count = buffer.int
+            if (count < 0 || buffer.remaining() < count * 8L + 4) {
+                OreWorld.log("block edit log", "${file.name} ends in a partly written batch, ignoring it")
+                break
+            }
+
+            crc.reset()
+            crc.update(bytes, buffer.position(), count * 8)
+
+            val records = buffer.slice()
+            buffer.position(buffer.position() + count * 8)
+            if (buffer.int != crc.value.toInt()) {
+                OreWorld.log("block edit log", "${file.name} has a batch that fails its CRC check, " +
+                        "ignoring the rest of it")
+                break
+            }
+
+            for (i in 0 until count) {
+                apply(storage, records.long)
+            }
+
+            replayed += count
+        }
+
+        return replayed
+    }
+
+    private fun apply(storage: BlockStorage, record: Long) {
+        val x = BlockChangeJournal.x(record)
+        val y = BlockChangeJournal.y(record)
+        val field = BlockChangeJournal.field(record)
+        val value = BlockChangeJournal.newValue(record)
+
+        if (field == BlockChangeJournal.FIELD_LIQUID_LEVEL) {
+            storage.setLiquidNibble(x, y, value.toInt())
+        } else {
+            storage.set(field, x, y, value)
+        }
+    }
+
+    /**
+     * starts logging edits recorded in @param journal from now on
+     */
+    fun start(journal: BlockChangeJournal) {
+        cursor = journal.newCursor()
+    }
+
+    /**
+     * writes everything recorded in the journal since the last append,
+     * as one batch. doesn't wait for it to reach the disk, see sync
+     */
+    fun append(journal: BlockChangeJournal) {
+        val cursor = cursor ?: return
+
+        val pending = journal.pending(cursor)
+        if (pending == 0L) {
+            return
+        }
+
+        //light levels overflowing the journal is fine, they're not logged
+        ensureBatchCapacity(minOf(pending, journal.capacity.toLong()).toInt())
+
+        batch.clear()
+        batch.position(4)
+        val journalIntact = journal.drain(cursor, LOGGED_FIELDS) { record ->
+            if (BlockChangeJournal.fieldBit(BlockChangeJournal.field(record)) and LOGGED_FIELDS != 0) {
+                batch.putLong(record)
+            }
+        }
+
+        if (!journalIntact) {
+            if (!needsSave) {
+                OreWorld.log("block edit log", "block change journal overflowed, edits were lost " +
+                        "until the next save")
+            }
+            gapSegment.set(segment)
+            return
+        }
+
+        val count = (batch.position() - 4) / 8
+        if (count == 0) {
+            return
+        }
+
+        crc.reset()
+        crc.update(batch.array(), 4, count * 8)
+        batch.putInt(crc.value.toInt())
+        batch.putInt(0, count)
+        batch.flip()
+
+        val length = batch.remaining()
+        while (batch.hasRemaining()) {
+            channel.write(batch)
+        }
+
+        recordsWritten += count
+        bytesWritten += length
+        unsynced = true
+    }
+
+    private fun ensureBatchCapacity(records: Int) {
+        val needed = records * 8 + 8
+        if (batch.capacity() < needed) {
+            batch = ByteBuffer.allocate(Integer.highestOneBit(needed) shl 1)
+        }
+    }
+
+    /**
+     * starts fsyncing everything appended so far, in the background.
+     * skipped if the last one is still going, the next one picks it up
+     */
+    fun sync() {
+        if (!unsynced || pendingSync?.isDone == false) {
+            return
+        }
+
+        val syncing = channel
+        unsynced = false
+        pendingSync = executor.submit {
+            try {
+                syncing.force(false)
+                ++syncCount
+            } catch (e: IOException) {
+                OreWorld.log("block edit log", "sync failed: $e")
+            }
+        }
+    }
+
+    /**
+     * seals the current segment and starts a new one, for a save that's about
+     * to capture everything logged so far. the sealed one is fsynced and
+     * closed in the background
+     *
+     * @return the sealed segment, for discardThrough once that save is on disk
+     */
+    fun rollOver(): Int {
+        val sealedChannel = channel
+        val sealed = segment
+
+        channel = try {
+            nextChannel.get()
+        } catch (e: ExecutionException) {
+            //opening it ahead of time failed, it'll likely fail again, but here that's thrown
+            openSegment(sealed + 1)
+        }
+        nextChannel = openSegmentLater(++segment + 1)
+        unsynced = false
+
+        executor.execute {
+            try {
+                sealedChannel.force(false)
+                ++syncCount
+            } catch (e: IOException) {
+                OreWorld.log("block edit log", "sealing segment $sealed failed: $e")
+            } finally {
+                sealedChannel.close()
+            }
+        }
+
+        return sealed
+    }
+
+    /**
+     * deletes segments up to and including @param sealed (from rollOver),
+     * once a save that has everything in them is safely on disk.
+     * may be called from any thread
+     */
+    fun discardThrough(sealed: Int) {
+        //after the sealed segments are closed, which is queued up ahead of this
+        try {
+            executor.execute { deleteThrough(sealed) }
+        } catch (e: RejectedExecutionException) {
+            //closed already, so they are too
+            deleteThrough(sealed)
+        }
+
+        //a save that was taken after the edits were lost has them
+        val gap = gapSegment.get()
+        if (gap != NO_GAP && gap <= sealed) {
+            gapSegment.compareAndSet(gap, NO_GAP)
+        }
+    }
+
+    private fun deleteThrough(sealed: Int) {
+        for (number in segmentNumbers()) {
+            if (number <= sealed) {
+                segmentFile(number).delete()
+            }
+        }
+    }
+
+    /**
+     * waits for everything queued up in the background, then fsyncs and
+     * closes the current segment. the one opened ahead of time is never
+     * written to, so it's deleted
+     */
+    override fun close() {
+        executor.shutdown()
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+
+        if (unsynced) {
+            channel.force(false)
+            unsynced = false
+            ++syncCount
+        }
+        channel.close()
+
+        try {
+            nextChannel.get().close()
+            segmentFile(segment + 1).delete()
+        } catch (e: ExecutionException) {
+            //never opened
+        }
+    }
+
+    fun statsReport() = "block edit log: $recordsWritten edits, ${bytesWritten / 1024} KB appended, $syncCount syncs"
+
+    private fun openSegment(number: Int): FileChannel =
+            FileChannel.open(segmentFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.APPEND)
+
+    private fun openSegmentLater(number: Int): Future<FileChannel> =
+            executor.submit(Callable { openSegment(number) })
+
+    private fun segmentFile(number: Int) = File(basePath.path + "." + number)
+
+    /**
+     * numbers of the segments on disk, in order
+     */
+    private fun segmentNumbers(): List<Int> {
+        val prefix = basePath.name + "."
+        val files = basePath.absoluteFile.parentFile.listFiles() ?: return emptyList()
+
+        return files.map { it.name }
+                .filter { it.startsWith(prefix) }
+                .mapNotNull { it.substring(prefix.length).toIntOrNull() }
+                .sorted()
+    }
+
+    companion object {
+        const val INITIAL_BATCH_BYTES = 4096
+
+        private const val NO_GAP = -1
+
+        /**
+         * what's worth logging, everything that's saved except light levels
+         */
+        val LOGGED_FIELDS = BlockChangeJournal.fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) or
+                BlockChangeJournal.fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE) or
+                BlockChangeJournal.fieldBit(OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) or
+                BlockChangeJournal.fieldBit(BlockChangeJournal.FIELD_LIQUID_LEVEL)
+    }
+}
@@ -0,0 +1,72 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+/**
+ * Order of the blocks within each chunk's planes. The world is already
+ * tiled into 32x32 chunks, so this only decides how a chunk's 1024 blocks
+ * are laid out relative to each other.
+ *
+ * Both are expressed as a pair of 32 entry offset tables, so that the
+ * index of a block is always xOffsets[localX] or yOffsets[localY].
+ *
+ * Picked once at world creation, chunks are never converted between them.
+ */
+enum class BlockIndexLayout(val xOffsets: IntArray, val yOffsets: IntArray,
+                            /**
+                             * true if the blocks of a column within a chunk
+                             * are contiguous, so bulk column copies and fills
+                             * can be a single arraycopy
+                             */
+                            val columnContiguous: Boolean) {
+    /**
+     * whole columns stored one after another. cheapest for the
+     * column based bulk copies (saving, region sends)
+     */
+    ColumnMajor(IntArray(BlockChunk.SIZE) { it shl BlockChunk.SHIFT },
+                IntArray(BlockChunk.SIZE) { it },
+                columnContiguous = true),
+
+    /**
+     * z-order curve, x and y bits interleaved (x in the odd bits).
+     * a block's 8 neighbours are usually within a cache line or two of it,
+     * which suits the neighbourhood passes (transitions, grass, lighting)
+     */
+    Morton(IntArray(BlockChunk.SIZE) { spreadBits(it) shl 1 },
+           IntArray(BlockChunk.SIZE) { spreadBits(it) },
+           columnContiguous = false);
+}
+
+/**
+ * spreads the low 5 bits of value out to the even bits
+ */
+private fun spreadBits(value: Int): Int {
+    var result = 0
+    for (bit in 0 until BlockChunk.SHIFT) {
+        result = result or ((value shr bit and 1) shl (bit * 2))
+    }
+
+    return result
+}
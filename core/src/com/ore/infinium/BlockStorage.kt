@@ -0,0 +1,783 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.util.*
+
+/**
+ * Chunked backing store for all of the world's blocks.
+ *
+ * The world is divided into BlockChunk.SIZE square chunks. Chunks that
+ * have never been written to all point at BlockChunk.EMPTY, which is
+ * all air, so an untouched sky costs us one reference per chunk instead
+ * of BLOCK_BYTE_FIELD_COUNT bytes per block.
+ *
+ * If a ChunkResidencyManager is attached, cold chunks may be paged out to
+ * disk (BlockChunk.PAGED_OUT); every accessor pages them back in first.
+ * So don't hang on to a chunk across accesses, it may get evicted.
+ * Worlds opened from a save start out with every chunk paged out, and
+ * load them from the save the same way. Lazily generated worlds start out
+ * with every chunk paged out too, and generate them (see ungeneratedChunks).
+ *
+ * Only OreWorld should really be talking to this, through its block accessors.
+ */
+@Suppress("NOTHING_TO_INLINE")
+class BlockStorage(val width: Int, val height: Int, val layout: BlockIndexLayout = BlockIndexLayout.ColumnMajor) {
+
+    val chunksWide = (width + BlockChunk.MASK) shr BlockChunk.SHIFT
+    val chunksHigh = (height + BlockChunk.MASK) shr BlockChunk.SHIFT
+
+    /**
+     * column-major. the blocks within each chunk are ordered by layout
+     */
+    val chunks = Array(chunksWide * chunksHigh) { BlockChunk.EMPTY }
+
+    /**
+     * every write that changes a block gets recorded here, if set.
+     * left null during world generation, which writes from many threads
+     * and would only overflow it anyway
+     */
+    var journal: BlockChangeJournal? = null
+
+    /**
+     * pages chunks out to disk and back, if set. null keeps every chunk resident
+     */
+    var residency: ChunkResidencyManager? = null
+
+    /**
+     * the world save chunks are loaded from on demand, if the world was
+     * opened lazily (WorldIO.openBlocks)
+     */
+    var save: WorldSaveReader? = null
+
+    /**
+     * chunks that are PAGED_OUT because they're still only in the save
+     */
+    val unloadedSaveChunks = BitSet(chunks.size)
+
+    /**
+     * where the chunks of a lazily generated world come from, see ungeneratedChunks
+     */
+    var generator: ChunkGenerator? = null
+
+    /**
+     * chunks that are PAGED_OUT because they haven't been generated yet, and
+     * get generated by the generator the first time they're touched.
+     * chunks above one are always generated before it, so a column's surface
+     * height is right once its surface has been generated
+     */
+    val ungeneratedChunks = BitSet(chunks.size)
+
+    /**
+     * generated since the last takeGeneratedChunks
+     */
+    private val newlyGeneratedChunks = BitSet(chunks.size)
+
+    /**
+     * the seed the world was generated from, saved with it so that
+     * ungenerated chunks still come out the same after loading
+     */
+    var worldSeed = 0L
+
+    private var generatedPayload: ByteArray? = null
+
+    /**
+     * each chunk's version as of the last autosave, while autosaving (see WorldAutosaver)
+     */
+    var savedVersions: IntArray? = null
+
+    /**
+     * true if the chunk has changed since the last autosave. never, when not autosaving
+     */
+    fun hasUnsavedChanges(index: Int): Boolean {
+        val savedVersions = savedVersions ?: return false
+        return chunks[index].version != savedVersions[index]
+    }
+
+    /**
+     * which blocks entities collide with / which hold liquid (by type, not
+     * by liquid level), kept up to date on every type write. for the
+     * collision, placement and range checks, which can then go a word at a time
+     */
+    val solidBits = BlockBitmap(width, height)
+    val liquidBits = BlockBitmap(width, height)
+
+    /**
+     * y of the topmost solid block of each column, or height if it has none.
+     * kept up to date along with solidBits, except while world generation
+     * threads are writing (they share columns), which is followed by
+     * rebuildSurfaceHeights
+     */
+    val surfaceHeights = IntArray(width) { height }
+
+    /**
+     * for each chunk, the TileLightingSystem.LIGHTING_VERSION its light
+     * levels were last computed with, 0 if they never were. saved with
+     * the world, so chunks that are still current don't get relit on load
+     */
+    val lightingStamps = IntArray(chunks.size)
+
+    inline fun chunkIndex(x: Int, y: Int) = (x shr BlockChunk.SHIFT) * chunksHigh + (y shr BlockChunk.SHIFT)
+
+    /**
+     * see BlockIndexLayout. copied out here so localIndex doesn't chase an extra pointer
+     */
+    val localXOffsets = layout.xOffsets
+    val localYOffsets = layout.yOffsets
+
+    /**
+     * index of the block within each of its chunk's planes
+     */
+    inline fun localIndex(x: Int, y: Int) = localXOffsets[x and BlockChunk.MASK] or localYOffsets[y and BlockChunk.MASK]
+
+    inline fun chunkAt(x: Int, y: Int) = chunks[chunkIndex(x, y)]
+
+    /**
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     */
+    inline fun get(field: Int, x: Int, y: Int) = chunkForRead(x, y).get(field, localIndex(x, y))
+
+    inline fun type(x: Int, y: Int) = get(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, x, y)
+    inline fun wallType(x: Int, y: Int) = get(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, x, y)
+    inline fun flags(x: Int, y: Int) = get(OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, x, y)
+    inline fun lightLevel(x: Int, y: Int) = get(OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL, x, y)
+    inline fun meshType(x: Int, y: Int) = get(OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE, x, y)
+    inline fun liquidNibble(x: Int, y: Int) = chunkForRead(x, y).liquidNibble(localIndex(x, y))
+
+    /**
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     */
+    inline fun set(field: Int, x: Int, y: Int, value: Byte) {
+        val chunk = chunkForWrite(x, y, value.toInt()) ?: return
+        val index = localIndex(x, y)
+
+        journal?.record(x, y, field, chunk.get(field, index).toInt(), value.toInt())
+
+        chunk.set(field, index, value)
+        chunk.version++
+
+        if (field == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) {
+            updateTypeBits(x, y, value)
+        }
+    }
+
+    inline fun updateTypeBits(x: Int, y: Int, type: Byte) {
+        val solid = OreBlock.isSolid(type)
+        solidBits[x, y] = solid
+        liquidBits[x, y] = OreBlock.isLiquid(type)
+
+        val surface = surfaceHeights[x]
+        if (solid) {
+            if (y < surface) {
+                surfaceHeights[x] = y
+            }
+        } else if (y == surface) {
+            surfaceHeights[x] = surfaceBelow(x, y + 1)
+        }
+    }
+
+    /**
+     * @return y of the topmost solid block in column @param x, from @param top
+     * downward, or height if there is none
+     */
+    fun surfaceBelow(x: Int, top: Int): Int {
+        val y = solidBits.firstInColumn(x, top, height - 1)
+        return if (y == -1) height else y
+    }
+
+    /**
+     * recomputes every column's surface height from solidBits, a row at
+     * a time, stopping once every column has found its surface.
+     *
+     * only the columns of bitmap words @param firstWord..@param lastWord,
+     * if given. so disjoint ranges of words can be rebuilt at the same time
+     */
+    fun rebuildSurfaceHeights(firstWord: Int = 0, lastWord: Int = solidBits.wordsPerRow - 1) {
+        val wordsPerRow = solidBits.wordsPerRow
+        val left = firstWord shl 6
+        val right = minOf((lastWord + 1) shl 6, width)
+        Arrays.fill(surfaceHeights, left, right, height)
+
+        //columns that haven't hit a solid block yet. none past the world's right edge
+        val unresolved = LongArray(wordsPerRow) { -1L }
+        if ((width and 63) != 0) {
+            unresolved[wordsPerRow - 1] = -1L ushr (64 - (width and 63))
+        }
+
+        var remaining = right - left
+        for (y in 0 until height) {
+            val rowStart = y * wordsPerRow
+            for (w in firstWord..lastWord) {
+                var found = solidBits.words[rowStart + w] and unresolved[w]
+                if (found == 0L) {
+                    continue
+                }
+
+                unresolved[w] = unresolved[w] and found.inv()
+                while (found != 0L) {
+                    surfaceHeights[(w shl 6) + java.lang.Long.numberOfTrailingZeros(found)] = y
+                    found = found and (found - 1)
+                    remaining--
+                }
+            }
+
+            if (remaining == 0) {
+                break
+            }
+        }
+    }
+
+    inline fun setType(x: Int, y: Int, value: Byte) = set(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, x, y, value)
+
+    inline fun setWallType(x: Int, y: Int, value: Byte) = set(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, x, y, value)
+
+    inline fun setFlags(x: Int, y: Int, value: Byte) = set(OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS, x, y, value)
+
+    inline fun setLightLevel(x: Int, y: Int, value: Byte) = set(OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL, x, y, value)
+
+    inline fun setMeshType(x: Int, y: Int, value: Byte) = set(OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE, x, y, value)
+
+    inline fun setLiquidNibble(x: Int, y: Int, value: Int) {
+        val chunk = chunkForWrite(x, y, value) ?: return
+        val index = localIndex(x, y)
+
+        journal?.record(x, y, BlockChangeJournal.FIELD_LIQUID_LEVEL, chunk.liquidNibble(index), value and 0xF)
+
+        chunk.setLiquidNibble(index, value)
+        chunk.version++
+    }
+
+    /**
+     * @return the chunk holding this block, paging it back in first if it's been paged out
+     */
+    inline fun chunkForRead(x: Int, y: Int): BlockChunk {
+        val index = chunkIndex(x, y)
+        val chunk = chunks[index]
+        if (chunk !== BlockChunk.PAGED_OUT) {
+            return chunk
+        }
+
+        return pageIn(index)
+    }
+
+    /**
+     * @return the chunk to write into, allocating it if it is still the
+     * empty sentinel. null if the write is a no-op (writing 0 into an
+     * untouched chunk, which is already all 0)
+     */
+    inline fun chunkForWrite(x: Int, y: Int, value: Int): BlockChunk? {
+        val index = chunkIndex(x, y)
+        var chunk = chunks[index]
+        if (chunk === BlockChunk.PAGED_OUT) {
+            //may just have been generated as all air
+            chunk = pageIn(index)
+        }
+
+        if (chunk !== BlockChunk.EMPTY) {
+            return chunk
+        }
+
+        if (value == 0) {
+            return null
+        }
+
+        return allocateChunk(index)
+    }
+
+    /**
+     * replaces the sentinel at this index with a real chunk.
+     * world generation threads each own spans of WorldGenerator.TILE_WIDTH
+     * columns, which line up with chunk boundaries, so they never allocate
+     * the same chunk. synchronized anyway, since lazy generation and paging
+     * (see pageIn) can allocate too, and it's nothing next to the allocation
+     */
+    @Synchronized
+    fun allocateChunk(index: Int): BlockChunk {
+        val existing = chunks[index]
+        if (existing !== BlockChunk.EMPTY) {
+            //another thread beat us to it
+            return existing
+        }
+
+        val chunk = BlockChunk(chunkX = index / chunksHigh, chunkY = index % chunksHigh)
+        chunks[index] = chunk
+
+        residency?.chunkBecameResident(index)
+
+        return chunk
+    }
+
+    /**
+     * brings a paged out chunk back into memory, from the save if
+     * it hasn't been loaded yet, by generating it if it hasn't been
+     * generated yet, or else from the residency page file.
+     *
+     * @return the chunk, which is BlockChunk.EMPTY if it was just generated as all air
+     */
+    @Synchronized
+    fun pageIn(index: Int): BlockChunk {
+        val existing = chunks[index]
+        if (existing !== BlockChunk.PAGED_OUT) {
+            return existing
+        }
+
+        if (unloadedSaveChunks.get(index)) {
+            return loadSavedChunk(index)
+        }
+
+        if (ungeneratedChunks.get(index)) {
+            return generateChunk(index)
+        }
+
+        return residency!!.pageIn(index)
+    }
+
+    /**
+     * every chunk gets generated when it's first touched, from now on.
+     * for a world that hasn't had anything written to it yet
+     */
+    fun markAllUngenerated() {
+        Arrays.fill(chunks, BlockChunk.PAGED_OUT)
+        ungeneratedChunks.set(0, chunks.size)
+    }
+
+    /**
+     * moves the chunks generated since last time into @param into, and forgets them
+     */
+    @Synchronized
+    fun takeGeneratedChunks(into: BitSet) {
+        into.or(newlyGeneratedChunks)
+        newlyGeneratedChunks.clear()
+    }
+
+    /**
+     * generates the chunks of column @param x from the top down until
+     * its surface turns up, so its surface height can be trusted
+     */
+    fun generateDownToSurface(x: Int) {
+        val columnStart = (x shr BlockChunk.SHIFT) * chunksHigh
+        for (chunkY in 0 until chunksHigh) {
+            if (surfaceHeights[x] < chunkY * BlockChunk.SIZE) {
+                return
+            }
+
+            if (ungeneratedChunks.get(columnStart + chunkY)) {
+                pageIn(columnStart + chunkY)
+            }
+        }
+    }
+
+    inline fun isGenerated(x: Int, y: Int) = !ungeneratedChunks.get(chunkIndex(x, y))
+
+    private fun generateChunk(index: Int): BlockChunk {
+        val columnStart = index - index % chunksHigh
+        for (above in columnStart until index) {
+            if (ungeneratedChunks.get(above)) {
+                generateOneChunk(above)
+            }
+        }
+
+        return generateOneChunk(index)
+    }
+
+    private fun generateOneChunk(index: Int): BlockChunk {
+        val chunkX = index / chunksHigh
+        val chunkY = index % chunksHigh
+
+        val payload = generatedPayload ?: ByteArray(ChunkGenerator.FIELDS.size * BlockChunk.BLOCK_COUNT)
+        generatedPayload = payload
+
+        val anythingGenerated = generator!!.generateChunk(chunkX, chunkY, payload)
+
+        ungeneratedChunks.clear(index)
+        newlyGeneratedChunks.set(index)
+        lightingStamps[index] = 0
+
+        if (!anythingGenerated) {
+            chunks[index] = BlockChunk.EMPTY
+            return BlockChunk.EMPTY
+        }
+
+        val chunk = chunkFromPayload(chunkX, chunkY, ChunkGenerator.FIELDS, payload)
+
+        //nothing's been here before, so only the blocks that aren't air change the bitmaps
+        val left = chunkX * BlockChunk.SIZE
+        val top = chunkY * BlockChunk.SIZE
+        for (x in left..minOf(left + BlockChunk.SIZE, width) - 1) {
+            for (y in top..minOf(top + BlockChunk.SIZE, height) - 1) {
+                val type = chunk.get(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, localIndex(x, y))
+                if (type != 0.toByte()) {
+                    updateTypeBits(x, y, type)
+                }
+            }
+        }
+
+        chunks[index] = chunk
+
+        residency?.chunkBecameResident(index)
+
+        return chunk
+    }
+
+    private fun loadSavedChunk(index: Int): BlockChunk {
+        val chunkX = index / chunksHigh
+        val chunkY = index % chunksHigh
+        val payload = save!!.readChunk(chunkX, chunkY)!!
+
+        //nothing changed, as far as the journal and bitmaps go
+        val chunk = chunkFromPayload(chunkX, chunkY, WorldIO.SAVED_FIELDS, payload)
+
+        chunks[index] = chunk
+        unloadedSaveChunks.clear(index)
+
+        residency?.chunkBecameResident(index)
+
+        return chunk
+    }
+
+    /**
+     * @return a new chunk holding @param payload, a copyRegionTo of @param fields
+     * over the chunk's rect. written straight into the chunk rather than through
+     * the usual writes
+     */
+    private fun chunkFromPayload(chunkX: Int, chunkY: Int, fields: IntArray, payload: ByteArray): BlockChunk {
+        val chunk = BlockChunk(chunkX, chunkY)
+        val columns = minOf(BlockChunk.SIZE, width - chunkX * BlockChunk.SIZE)
+        val rows = minOf(BlockChunk.SIZE, height - chunkY * BlockChunk.SIZE)
+        val blockCount = columns * rows
+        for (f in fields.indices) {
+            val field = fields[f]
+            for (x in 0 until columns) {
+                val offset = f * blockCount + x * rows
+                for (y in 0 until rows) {
+                    val value = payload[offset + y]
+                    if (field == BlockChangeJournal.FIELD_LIQUID_LEVEL) {
+                        chunk.setLiquidNibble(localIndex(x, y), value.toInt())
+                    } else {
+                        chunk.set(field, localIndex(x, y), value)
+                    }
+                }
+            }
+        }
+
+        return chunk
+    }
+
+    /**
+     * copies blocks top..bottom (inclusive) of column @param x into @param dest.
+     * one arraycopy per chunk the column passes through, if the layout
+     * keeps columns contiguous
+     *
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*, or BlockChangeJournal.FIELD_LIQUID_LEVEL
+     * (which copies the raw liquid nibbles)
+     */
+    fun copyColumn(field: Int, x: Int, top: Int, bottom: Int, dest: ByteArray, destOffset: Int = 0) {
+        var y = top
+        var offset = destOffset
+        while (y <= bottom) {
+            //up to the end of this chunk, or the end of the column
+            val runLength = minOf(bottom - y + 1, BlockChunk.SIZE - (y and BlockChunk.MASK))
+            val chunk = chunkForRead(x, y)
+            val index = localIndex(x, y)
+
+            if (field == BlockChangeJournal.FIELD_LIQUID_LEVEL) {
+                for (i in 0 until runLength) {
+                    dest[offset + i] = chunk.liquidNibble(localIndex(x, y + i)).toByte()
+                }
+            } else if (layout.columnContiguous) {
+                chunk.copyOut(field, index, dest, offset, runLength)
+            } else {
+                for (i in 0 until runLength) {
+                    dest[offset + i] = chunk.get(field, localIndex(x, y + i))
+                }
+            }
+
+            y += runLength
+            offset += runLength
+        }
+    }
+
+    /**
+     * the reverse of copyColumn, writes blocks top..bottom of column @param x from @param src
+     */
+    fun applyColumn(field: Int, x: Int, top: Int, bottom: Int, src: ByteArray, srcOffset: Int = 0) {
+        writeColumn(field, x, top, bottom, src, srcOffset, recordChanges = true)
+    }
+
+    /**
+     * copies blocks left..right (inclusive) of row @param y into @param dest.
+     * rows cut across the planes, so this is a loop, but it only looks each chunk up once
+     */
+    fun copyRow(field: Int, y: Int, left: Int, right: Int, dest: ByteArray, destOffset: Int = 0) {
+        var x = left
+        var offset = destOffset
+        while (x <= right) {
+            val runLength = minOf(right - x + 1, BlockChunk.SIZE - (x and BlockChunk.MASK))
+            val chunk = chunkForRead(x, y)
+
+            for (i in 0 until runLength) {
+                val blockIndex = localIndex(x + i, y)
+                dest[offset + i] = if (field == BlockChangeJournal.FIELD_LIQUID_LEVEL) {
+                    chunk.liquidNibble(blockIndex).toByte()
+                } else {
+                    chunk.get(field, blockIndex)
+                }
+            }
+
+            x += runLength
+            offset += runLength
+        }
+    }
+
+    /**
+     * copies every block in the rect (inclusive) into @param dest, one plane
+     * after another in the order of @param fields, each plane column-major.
+     * i.e. field f of block (x, y) ends up at
+     * f * blockCount + (x - left) * (bottom - top + 1) + (y - top)
+     *
+     * @param dest must hold at least regionSize(...) bytes
+     */
+    fun copyRegionTo(fields: IntArray, left: Int, top: Int, right: Int, bottom: Int, dest: ByteArray) {
+        val columnHeight = bottom - top + 1
+        val blockCount = (right - left + 1) * columnHeight
+
+        for (f in fields.indices) {
+            for (x in left..right) {
+                copyColumn(fields[f], x, top, bottom, dest, f * blockCount + (x - left) * columnHeight)
+            }
+        }
+    }
+
+    /**
+     * the reverse of copyRegionTo
+     */
+    fun applyRegionFrom(fields: IntArray, left: Int, top: Int, right: Int, bottom: Int, src: ByteArray) {
+        val columnHeight = bottom - top + 1
+        val blockCount = (right - left + 1) * columnHeight
+        val recordChanges = shouldRecordBlockByBlock(blockCount * fields.size)
+
+        for (f in fields.indices) {
+            for (x in left..right) {
+                writeColumn(fields[f], x, top, bottom, src, f * blockCount + (x - left) * columnHeight,
+                            recordChanges)
+            }
+        }
+    }
+
+    fun regionSize(fieldCount: Int, left: Int, top: Int, right: Int, bottom: Int) =
+            (right - left + 1) * (bottom - top + 1) * fieldCount
+
+    /**
+     * sets @param field of every block in the rect (inclusive) to @param value
+     *
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     */
+    fun fillRect(field: Int, left: Int, top: Int, right: Int, bottom: Int, value: Byte) {
+        val recordChanges = shouldRecordBlockByBlock((right - left + 1) * (bottom - top + 1))
+        val journal = journal
+
+        if (field == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) {
+            val solid = OreBlock.isSolid(value)
+            solidBits.fillRect(left, top, right, bottom, solid)
+            liquidBits.fillRect(left, top, right, bottom, OreBlock.isLiquid(value))
+
+            for (x in left..right) {
+                if (solid) {
+                    surfaceHeights[x] = minOf(surfaceHeights[x], top)
+                } else if (surfaceHeights[x] in top..bottom) {
+                    surfaceHeights[x] = surfaceBelow(x, bottom + 1)
+                }
+            }
+        }
+
+        for (x in left..right) {
+            var y = top
+            while (y <= bottom) {
+                val runLength = minOf(bottom - y + 1, BlockChunk.SIZE - (y and BlockChunk.MASK))
+                val chunk = chunkForWrite(x, y, value.toInt())
+                if (chunk != null) {
+                    if (recordChanges && journal != null) {
+                        for (i in 0 until runLength) {
+                            journal.record(x, y + i, field, chunk.get(field, localIndex(x, y + i)).toInt(),
+                                           value.toInt())
+                        }
+                    }
+
+                    val plane = chunk.rawPlane(field)
+                    if (layout.columnContiguous) {
+                        val index = localIndex(x, y)
+                        Arrays.fill(plane, index, index + runLength, value)
+                    } else {
+                        for (i in 0 until runLength) {
+                            plane[localIndex(x, y + i)] = value
+                        }
+                    }
+
+                    chunk.version++
+                }
+
+                y += runLength
+            }
+        }
+    }
+
+    /**
+     * bulk writes record each block in the journal, unless there are
+     * so many that it'd overflow anyway, in which case consumers are
+     * just told to resync.
+     */
+    private fun shouldRecordBlockByBlock(blockWrites: Int): Boolean {
+        val journal = journal ?: return false
+        if (blockWrites <= journal.capacity) {
+            return true
+        }
+
+        journal.markResync()
+        return false
+    }
+
+    private fun writeColumn(field: Int, x: Int, top: Int, bottom: Int, src: ByteArray, srcOffset: Int,
+                            recordChanges: Boolean) {
+        val journal = journal
+        var y = top
+        var offset = srcOffset
+        while (y <= bottom) {
+            val runLength = minOf(bottom - y + 1, BlockChunk.SIZE - (y and BlockChunk.MASK))
+            //writing nothing but air into an untouched chunk needn't allocate it
+            if (chunkAt(x, y) !== BlockChunk.EMPTY || !isAllZero(src, offset, runLength)) {
+                val chunk = chunkForWrite(x, y, 1)!!
+
+                if (field == BlockChangeJournal.FIELD_LIQUID_LEVEL) {
+                    for (i in 0 until runLength) {
+                        val index = localIndex(x, y + i)
+                        val nibble = src[offset + i].toInt() and 0xF
+                        if (recordChanges) {
+                            journal?.record(x, y + i, field, chunk.liquidNibble(index), nibble)
+                        }
+
+                        chunk.setLiquidNibble(index, nibble)
+                    }
+                } else {
+                    if (recordChanges && journal != null) {
+                        for (i in 0 until runLength) {
+                            journal.record(x, y + i, field, chunk.get(field, localIndex(x, y + i)).toInt(),
+                                           src[offset + i].toInt())
+                        }
+                    }
+
+                    val plane = chunk.rawPlane(field)
+                    if (layout.columnContiguous) {
+                        System.arraycopy(src, offset, plane, localIndex(x, y), runLength)
+                    } else {
+                        for (i in 0 until runLength) {
+                            plane[localIndex(x, y + i)] = src[offset + i]
+                        }
+                    }
+
+                    if (field == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) {
+                        for (i in 0 until runLength) {
+                            updateTypeBits(x, y + i, src[offset + i])
+                        }
+                    }
+                }
+
+                chunk.version++
+            }
+
+            y += runLength
+            offset += runLength
+        }
+    }
+
+    private fun isAllZero(array: ByteArray, offset: Int, length: Int): Boolean {
+        for (i in offset until offset + length) {
+            if (array[i] != 0.toByte()) {
+                return false
+            }
+        }
+
+        return true
+    }
+
+    /**
+     * number of chunks that have real storage behind them, in memory
+     */
+    fun allocatedChunkCount() = chunks.count { !it.isSentinel }
+
+    /**
+     * approximate heap used by block data (not counting object headers)
+     */
+    fun blockDataBytes(): Long {
+        var size = 0L
+        for (chunk in chunks) {
+            if (!chunk.isSentinel) {
+                size += chunk.sizeBytes
+            }
+        }
+
+        return size
+    }
+
+    /**
+     * what the old flat layout (BLOCK_BYTE_FIELD_COUNT bytes for every block
+     * in the world, in one array) would have cost for this world
+     */
+    fun flatLayoutBytes(): Long = width.toLong() * height.toLong() * OreBlock.BLOCK_BYTE_FIELD_COUNT
+
+    /**
+     * palette packs every allocated chunk's planes that have few enough
+     * distinct values. chunks promote back to raw planes as writes overflow
+     * their palettes.
+     * must not be called while anything else may be writing blocks
+     * (e.g. world generation threads)
+     *
+     * @return number of planes that got packed
+     */
+    fun compactChunks(): Int {
+        var packedCount = 0
+        for (chunk in chunks) {
+            if (!chunk.isSentinel) {
+                packedCount += chunk.compact()
+            }
+        }
+
+        return packedCount
+    }
+
+    /**
+     * human readable summary of how much memory blocks are taking,
+     * compared to the old flat layout
+     */
+    fun memoryReport(): String {
+        val flatMb = flatLayoutBytes() / (1024.0 * 1024.0)
+        val chunkedMb = blockDataBytes() / (1024.0 * 1024.0)
+
+        val bitmapsMb = (solidBits.sizeBytes() + liquidBits.sizeBytes()) / (1024.0 * 1024.0)
+
+        return ("${width}x$height: flat %.1f MB, chunked %.1f MB (%.1f%%), %d of %d chunks allocated, " +
+                "+ %.1f MB solid/liquid bitmaps").format(flatMb, chunkedMb, chunkedMb / flatMb * 100.0,
+                                                        allocatedChunkCount(), chunks.size, bitmapsMb)
+    }
+}
@@ -0,0 +1,51 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+/**
+ * Makes the blocks of a lazily generated world's chunks, the first time
+ * something touches them. See BlockStorage.ungeneratedChunks.
+ *
+ * A chunk has to come out the same no matter when it's generated, or what
+ * else has been generated by then, since chunks that are never changed
+ * aren't saved; they get generated all over again after loading.
+ */
+interface ChunkGenerator {
+    companion object {
+        /**
+         * what gets generated for each block, everything else starts out 0
+         */
+        val FIELDS = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE,
+                                OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE,
+                                BlockChangeJournal.FIELD_LIQUID_LEVEL)
+    }
+
+    /**
+     * fills @param dest with the chunk's blocks, laid out as
+     * BlockStorage.copyRegionTo with FIELDS over the chunk's rect
+     *
+     * @return false if the whole chunk is 0 (all air), dest can be left alone
+     */
+    fun generateChunk(chunkX: Int, chunkY: Int, dest: ByteArray): Boolean
+}
@@ -0,0 +1,268 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.*
+
+/**
+ * Keeps only a bounded number of chunks in memory, paging the rest out
+ * to a page file on disk.
+ *
+ * Every pin pass (see ChunkResidencySystem), the chunks around each player's
+ * loaded viewport and active machinery get pinned. Whenever more than
+ * maxResidentChunks are in memory, the least recently used unpinned ones
+ * get written out and replaced with BlockChunk.PAGED_OUT. BlockStorage pages
+ * them back in (a fault) the next time anything touches them.
+ *
+ * The page file is a cache, not a save. It lives in the temp dir and is
+ * thrown away on exit. While autosaving, chunks with changes that haven't
+ * been autosaved yet are never paged out, so memory can go over budget
+ * by however much changes between autosaves.
+ *
+ * Only meant to be used from the server's game loop thread.
+ */
+class ChunkResidencyManager(private val storage: BlockStorage,
+                            val maxResidentChunks: Int,
+                            pageFile: File = File.createTempFile("ore-infinium-chunks", ".page")) {
+
+    /**
+     * chunk pinned by a pin pass that was already in memory.
+     * (plain block accesses aren't counted, that'd cost more than it's worth)
+     */
+    var hits = 0L
+        private set
+
+    /**
+     * chunk pinned or touched while paged out, so it had to be read back in.
+     * also counts as a fault
+     */
+    var misses = 0L
+        private set
+
+    var evictions = 0L
+        private set
+
+    /**
+     * evicted chunks that were unchanged since they were last paged in,
+     * so didn't need writing out again
+     */
+    var cleanEvictions = 0L
+        private set
+
+    /**
+     * resident chunk indices, least recently used first
+     */
+    private val lru = LinkedHashMap<Int, Boolean>(maxResidentChunks, 0.75f, true)
+
+    private val pinned = BitSet(storage.chunks.size)
+
+    /**
+     * between beginPinPass and endPinPass. nothing gets evicted until the
+     * pass ends, or chunks a later pinBlockRect of the same pass is about
+     * to pin could get paged out to make room and straight back in
+     */
+    private var pinPassOpen = false
+
+    /**
+     * slot in the page file for each chunk index, -1 if it has never been paged out
+     */
+    private val pageSlots = IntArray(storage.chunks.size) { -1 }
+    private var nextPageSlot = 0
+
+    /**
+     * chunk version at the time it was last written to its page slot,
+     * so unchanged chunks don't have to be written again
+     */
+    private val pagedVersions = IntArray(storage.chunks.size)
+
+    private val pageChannel: FileChannel
+    private val pageBuffer = ByteBuffer.allocateDirect(BlockChunk.SERIALIZED_SIZE)
+
+    init {
+        pageFile.deleteOnExit()
+        pageChannel = RandomAccessFile(pageFile, "rw").channel
+
+        for (index in storage.chunks.indices) {
+            if (!storage.chunks[index].isSentinel) {
+                lru.put(index, true)
+            }
+        }
+    }
+
+    val residentChunkCount: Int
+        get() = lru.size
+
+    val pagedOutChunkCount: Int
+        get() = storage.chunks.count { it === BlockChunk.PAGED_OUT }
+
+    /**
+     * starts a new pin pass, unpinning everything that was pinned by the last one
+     */
+    fun beginPinPass() {
+        pinned.clear()
+        pinPassOpen = true
+    }
+
+    /**
+     * pins (and pages in) all of the chunks overlapping this block rect, inclusive.
+     * coordinates outside of the world are clamped
+     */
+    fun pinBlockRect(left: Int, top: Int, right: Int, bottom: Int) {
+        val startChunkX = left.coerceIn(0, storage.width - 1) shr BlockChunk.SHIFT
+        val endChunkX = right.coerceIn(0, storage.width - 1) shr BlockChunk.SHIFT
+        val startChunkY = top.coerceIn(0, storage.height - 1) shr BlockChunk.SHIFT
+        val endChunkY = bottom.coerceIn(0, storage.height - 1) shr BlockChunk.SHIFT
+
+        for (chunkX in startChunkX..endChunkX) {
+            for (chunkY in startChunkY..endChunkY) {
+                val index = chunkX * storage.chunksHigh + chunkY
+                pinned.set(index)
+
+                val chunk = storage.chunks[index]
+                if (chunk === BlockChunk.PAGED_OUT) {
+                    storage.pageIn(index)
+                } else if (!chunk.isSentinel) {
+                    ++hits
+                    lru.get(index)
+                }
+            }
+        }
+    }
+
+    /**
+     * finishes the pin pass, evicting least recently used chunks
+     * until we're back under budget
+     */
+    fun endPinPass() {
+        pinPassOpen = false
+        evictOverBudget(keepIndex = -1)
+    }
+
+    /**
+     * called by BlockStorage when a chunk gets allocated
+     */
+    fun chunkBecameResident(index: Int) {
+        lru.put(index, true)
+        evictOverBudget(keepIndex = index)
+    }
+
+    /**
+     * called by BlockStorage, when something touches a paged out chunk
+     */
+    fun pageIn(index: Int): BlockChunk {
+        ++misses
+
+        val slot = pageSlots[index]
+        assert(slot != -1) { "paging in chunk $index, which was never paged out" }
+
+        pageBuffer.clear()
+        readFully(slot.toLong() * BlockChunk.SERIALIZED_SIZE)
+        pageBuffer.flip()
+
+        val chunk = BlockChunk.readFrom(chunkX = index / storage.chunksHigh, chunkY = index % storage.chunksHigh,
+                                        buffer = pageBuffer)
+        pagedVersions[index] = chunk.version
+        storage.chunks[index] = chunk
+
+        lru.put(index, true)
+        evictOverBudget(keepIndex = index)
+
+        return chunk
+    }
+
+    private fun evictOverBudget(keepIndex: Int) {
+        if (pinPassOpen || lru.size <= maxResidentChunks) {
+            return
+        }
+
+        val iterator = lru.keys.iterator()
+        while (lru.size > maxResidentChunks && iterator.hasNext()) {
+            val index = iterator.next()
+            //chunks the autosave hasn't written out yet have to stay in memory for it
+            if (index == keepIndex || pinned.get(index) || storage.hasUnsavedChanges(index)) {
+                continue
+            }
+
+            iterator.remove()
+            pageOut(index)
+        }
+    }
+
+    private fun pageOut(index: Int) {
+        val chunk = storage.chunks[index]
+        ++evictions
+
+        var slot = pageSlots[index]
+        if (slot != -1 && pagedVersions[index] == chunk.version) {
+            //what's on disk is still current
+            ++cleanEvictions
+        } else {
+            if (slot == -1) {
+                slot = nextPageSlot++
+                pageSlots[index] = slot
+            }
+
+            pageBuffer.clear()
+            chunk.writeTo(pageBuffer)
+            pageBuffer.flip()
+
+            var position = slot.toLong() * BlockChunk.SERIALIZED_SIZE
+            while (pageBuffer.hasRemaining()) {
+                position += pageChannel.write(pageBuffer, position)
+            }
+
+            pagedVersions[index] = chunk.version
+        }
+
+        storage.chunks[index] = BlockChunk.PAGED_OUT
+    }
+
+    private fun readFully(startPosition: Long) {
+        var position = startPosition
+        while (pageBuffer.hasRemaining()) {
+            val read = pageChannel.read(pageBuffer, position)
+            if (read == -1) {
+                throw IllegalStateException("chunk page file truncated at $position")
+            }
+
+            position += read
+        }
+    }
+
+    /**
+     * closes the page file. paged out chunks are gone after this,
+     * so only call it once the world is done with (and saved)
+     */
+    fun dispose() {
+        pageChannel.close()
+    }
+
+    fun statsReport() =
+            "resident chunks: $residentChunkCount/$maxResidentChunks, hits: $hits, misses: $misses, " +
+                    "evictions: $evictions ($cleanEvictions clean)"
+}
@@ -0,0 +1,503 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import com.artemis.Archetype
+import com.artemis.ArchetypeBuilder
+import com.artemis.Component
+import com.artemis.ComponentMapper
+import com.ore.infinium.components.*
+import com.ore.infinium.util.INVALID_ENTITY_ID
+import com.ore.infinium.util.allOf
+import com.ore.infinium.util.entities
+import com.ore.infinium.util.forEach
+import com.ore.infinium.util.isValidEntity
+import com.ore.infinium.util.opt
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.*
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+/**
+ * Saves and restores the world's entities, for WorldIO. That's everything
+ * but the players and whatever they're carrying: placed doors, lights,
+ * generators (and the fuel in them), dropped items, trees..
+ *
+ * Entities are saved a column per component field (PbEntities, in
+ * PbWorld.proto) rather than a message per entity, so a save is a handful
+ * of packed arrays, and neither saving nor restoring reflects over
+ * components. Restoring creates all the entities with the same set of
+ * components from one archetype, then copies the columns into them.
+ * They all show up in the entity systems together on the next tick, so
+ * e.g. the SpatialSystem indexes them in one pass.
+ *
+ * Server only.
+ */
+class EntityIO(private val oreWorld: OreWorld) {
+    private lateinit var mPlayer: ComponentMapper<PlayerComponent>
+    private lateinit var mSprite: ComponentMapper<SpriteComponent>
+    private lateinit var mItem: ComponentMapper<ItemComponent>
+    private lateinit var mVelocity: ComponentMapper<VelocityComponent>
+    private lateinit var mBlock: ComponentMapper<BlockComponent>
+    private lateinit var mTool: ComponentMapper<ToolComponent>
+    private lateinit var mLight: ComponentMapper<LightComponent>
+    private lateinit var mDoor: ComponentMapper<DoorComponent>
+    private lateinit var mFlora: ComponentMapper<FloraComponent>
+    private lateinit var mHealth: ComponentMapper<HealthComponent>
+    private lateinit var mAir: ComponentMapper<AirComponent>
+    private lateinit var mPowerDevice: ComponentMapper<PowerDeviceComponent>
+    private lateinit var mPowerConsumer: ComponentMapper<PowerConsumerComponent>
+    private lateinit var mPowerGenerator: ComponentMapper<PowerGeneratorComponent>
+
+    private val artemisWorld = oreWorld.artemisWorld
+
+    init {
+        oreWorld.artemisWorld.inject(this, true)
+    }
+
+    /**
+     * the entities to save, as of the last tick (that's when artemis
+     * catches up on created and deleted entities). has to be taken on
+     * the game thread, but the result can be written out from any thread
+     */
+    fun snapshot(): PbEntities {
+        val all = artemisWorld.entities(allOf())
+
+        //inventories belong to players, except generators' fuel
+        val fuelItems = BitSet()
+        all.forEach { entity ->
+            mPowerGenerator.opt(entity)?.fuelSources?.slots?.forEach {
+                if (isValidEntity(it.entityId)) {
+                    fuelItems.set(it.entityId)
+                }
+            }
+        }
+
+        val saved = IntArray(all.size())
+        var count = 0
+        all.forEach { entity ->
+            val inInventory = mItem.has(entity) && mItem.get(entity).state == ItemComponent.State.InInventoryState
+            if (!mPlayer.has(entity) && (!inInventory || fuelItems.get(entity))) {
+                saved[count++] = entity
+            }
+        }
+
+        //entity id -> its number in the save
+        var highestSaved = -1
+        for (number in 0 until count) {
+            highestSaved = maxOf(highestSaved, saved[number])
+        }
+
+        val numbers = IntArray(highestSaved + 1)
+        for (number in 0 until count) {
+            numbers[saved[number]] = number
+        }
+
+        val strings = HashMap<String, Int>()
+        fun stringIndex(string: String?) = if (string == null) -1 else strings.getOrPut(string) { strings.size }
+
+        val entities = PbEntities.newBuilder().setCount(count)
+
+        val sprites = PbSpriteColumns.newBuilder()
+        forEachWith(mSprite, saved, count, { sprites.addEntityDeltas(it) }) { cSprite ->
+            sprites.addX(cSprite.sprite.x).addY(cSprite.sprite.y)
+                    .addWidth(cSprite.sprite.width).addHeight(cSprite.sprite.height)
+                    .addCategory(cSprite.category.ordinal)
+                    .addTextureName(stringIndex(cSprite.textureName))
+                    .addVisible(cSprite.visible)
+                    .addNoClip(cSprite.noClip)
+        }
+        entities.setSprites(sprites)
+
+        val items = PbItemColumns.newBuilder()
+        forEachWith(mItem, saved, count, { items.addEntityDeltas(it) }) { cItem ->
+            var hints = 0
+            cItem.placementAdjacencyHints.forEach { hints = hints or (1 shl it.ordinal) }
+
+            items.addStackSize(cItem.stackSize)
+                    .addMaxStackSize(cItem.maxStackSize)
+                    .addName(stringIndex(cItem.name))
+                    .addState(cItem.state.ordinal)
+                    .addInventoryIndex(cItem.inventoryIndex)
+                    .addSizeBeforeDropX(cItem.sizeBeforeDrop.x)
+                    .addSizeBeforeDropY(cItem.sizeBeforeDrop.y)
+                    .addPlacementAdjacencyHints(hints)
+        }
+        entities.setItems(items)
+
+        val velocities = PbVelocityColumns.newBuilder()
+        forEachWith(mVelocity, saved, count, { velocities.addEntityDeltas(it) }) { cVelocity ->
+            velocities.addX(cVelocity.velocity.x).addY(cVelocity.velocity.y)
+        }
+        entities.setVelocities(velocities)
+
+        val blocks = PbBlockColumns.newBuilder()
+        forEachWith(mBlock, saved, count, { blocks.addEntityDeltas(it) }) { cBlock ->
+            blocks.addBlockType(cBlock.blockType.toInt())
+        }
+        entities.setBlocks(blocks)
+
+        val tools = PbToolColumns.newBuilder()
+        forEachWith(mTool, saved, count, { tools.addEntityDeltas(it) }) { cTool ->
+            tools.addType(cTool.type.ordinal)
+                    .addMaterial(cTool.material.ordinal)
+                    .addAttackRadius(cTool.attackRadius)
+                    .addExplosiveRadius(cTool.explosiveRadius)
+                    .addExplosiveTime(cTool.explosiveTime)
+                    .addExplosiveArmed(cTool.explosiveArmed)
+                    .addAttackIntervalMs(cTool.attackIntervalMs)
+                    .addBlockDamage(cTool.blockDamage)
+        }
+        entities.setTools(tools)
+
+        val lights = PbLightColumns.newBuilder()
+        forEachWith(mLight, saved, count, { lights.addEntityDeltas(it) }) { lights.addRadius(it.radius) }
+        entities.setLights(lights)
+
+        val doors = PbDoorColumns.newBuilder()
+        forEachWith(mDoor, saved, count, { doors.addEntityDeltas(it) }) { doors.addState(it.state.ordinal) }
+        entities.setDoors(doors)
+
+        val floras = PbFloraColumns.newBuilder()
+        forEachWith(mFlora, saved, count, { floras.addEntityDeltas(it) }) { cFlora ->
+            floras.addNumberOfDropsWhenDestroyed(cFlora.numberOfDropsWhenDestroyed)
+                    .addStackSizePerDrop(cFlora.stackSizePerDrop)
+        }
+        entities.setFloras(floras)
+
+        val healths = PbHealthColumns.newBuilder()
+        forEachWith(mHealth, saved, count, { healths.addEntityDeltas(it) }) { cHealth ->
+            healths.addMaxHealth(cHealth.maxHealth).addHealth(cHealth.health)
+        }
+        entities.setHealths(healths)
+
+        val airs = PbAirColumns.newBuilder()
+        forEachWith(mAir, saved, count, { airs.addEntityDeltas(it) }) { cAir ->
+            airs.addMaxAir(cAir.maxAir).addAir(cAir.air)
+        }
+        entities.setAirs(airs)
+
+        val powerDevices = PbPowerDeviceColumns.newBuilder()
+        forEachWith(mPowerDevice, saved, count, { powerDevices.addEntityDeltas(it) }) {
+            powerDevices.addRunning(it.running)
+        }
+        entities.setPowerDevices(powerDevices)
+
+        val powerConsumers = PbPowerConsumerColumns.newBuilder()
+        forEachWith(mPowerConsumer, saved, count, { powerConsumers.addEntityDeltas(it) }) {
+            powerConsumers.addPowerDemandRate(it.powerDemandRate)
+        }
+        entities.setPowerConsumers(powerConsumers)
+
+        val powerGenerators = PbPowerGeneratorColumns.newBuilder()
+        forEachWith(mPowerGenerator, saved, count, { powerGenerators.addEntityDeltas(it) }) { cGen ->
+            val fuelSources = cGen.fuelSources
+            powerGenerators.addSupplyRateEU(cGen.supplyRateEU)
+                    .addType(cGen.type.ordinal)
+                    .addFuelSourceHealth(fuelSources?.fuelSourceHealth ?: 0)
+                    .addFuelSlotCount(fuelSources?.slots?.size ?: 0)
+
+            fuelSources?.slots?.forEach {
+                powerGenerators.addFuelSlotEntity(if (isValidEntity(it.entityId)) numbers[it.entityId] else -1)
+            }
+        }
+        entities.setPowerGenerators(powerGenerators)
+
+        val stringsByIndex = arrayOfNulls<String>(strings.size)
+        strings.forEach { stringsByIndex[it.value] = it.key }
+        stringsByIndex.forEach { entities.addStrings(it) }
+
+        return entities.build()
+    }
+
+    /**
+     * creates the saved entities
+     *
+     * @return the number of entities created
+     */
+    fun restore(entities: PbEntities): Int {
+        val count = entities.count
+
+        //which of SAVED_TYPES each one has
+        val compositions = IntArray(count)
+        fun mark(deltaCount: Int, delta: (Int) -> Int, type: Int) =
+                forEachListed(deltaCount, delta) { i, number -> compositions[number] = compositions[number] or (1 shl type) }
+
+        val sprites = entities.sprites
+        val items = entities.items
+        val velocities = entities.velocities
+        val blocks = entities.blocks
+        val tools = entities.tools
+        val lights = entities.lights
+        val doors = entities.doors
+        val floras = entities.floras
+        val healths = entities.healths
+        val airs = entities.airs
+        val powerDevices = entities.powerDevices
+        val powerConsumers = entities.powerConsumers
+        val powerGenerators = entities.powerGenerators
+
+        mark(sprites.entityDeltasCount, { sprites.getEntityDeltas(it) }, SPRITE)
+        mark(items.entityDeltasCount, { items.getEntityDeltas(it) }, ITEM)
+        mark(velocities.entityDeltasCount, { velocities.getEntityDeltas(it) }, VELOCITY)
+        mark(blocks.entityDeltasCount, { blocks.getEntityDeltas(it) }, BLOCK)
+        mark(tools.entityDeltasCount, { tools.getEntityDeltas(it) }, TOOL)
+        mark(lights.entityDeltasCount, { lights.getEntityDeltas(it) }, LIGHT)
+        mark(doors.entityDeltasCount, { doors.getEntityDeltas(it) }, DOOR)
+        mark(floras.entityDeltasCount, { floras.getEntityDeltas(it) }, FLORA)
+        mark(healths.entityDeltasCount, { healths.getEntityDeltas(it) }, HEALTH)
+        mark(airs.entityDeltasCount, { airs.getEntityDeltas(it) }, AIR)
+        mark(powerDevices.entityDeltasCount, { powerDevices.getEntityDeltas(it) }, POWER_DEVICE)
+        mark(powerConsumers.entityDeltasCount, { powerConsumers.getEntityDeltas(it) }, POWER_CONSUMER)
+        mark(powerGenerators.entityDeltasCount, { powerGenerators.getEntityDeltas(it) }, POWER_GENERATOR)
+
+        val archetypes = HashMap<Int, Archetype>()
+        val created = IntArray(count) {
+            val composition = compositions[it]
+            artemisWorld.create(archetypes.getOrPut(composition) { archetype(composition) })
+        }
+
+        fun string(index: Int): String? = if (index == -1) null else entities.getStrings(index)
+
+        forEachListed(sprites.entityDeltasCount, { sprites.getEntityDeltas(it) }) { i, number ->
+            mSprite.get(created[number]).apply {
+                sprite.setPosition(sprites.getX(i), sprites.getY(i))
+                sprite.setSize(sprites.getWidth(i), sprites.getHeight(i))
+                category = SPRITE_CATEGORIES[sprites.getCategory(i)]
+                textureName = string(sprites.getTextureName(i))
+                visible = sprites.getVisible(i)
+                noClip = sprites.getNoClip(i)
+            }
+        }
+
+        forEachListed(items.entityDeltasCount, { items.getEntityDeltas(it) }) { i, number ->
+            mItem.get(created[number]).apply {
+                stackSize = items.getStackSize(i)
+                maxStackSize = items.getMaxStackSize(i)
+                name = string(items.getName(i))!!
+                state = ITEM_STATES[items.getState(i)]
+                inventoryIndex = items.getInventoryIndex(i)
+                sizeBeforeDrop.set(items.getSizeBeforeDropX(i), items.getSizeBeforeDropY(i))
+
+                val hints = items.getPlacementAdjacencyHints(i)
+                for (hint in PLACEMENT_HINTS) {
+                    if (hints and (1 shl hint.ordinal) != 0) {
+                        placementAdjacencyHints.add(hint)
+                    }
+                }
+            }
+        }
+
+        forEachListed(velocities.entityDeltasCount, { velocities.getEntityDeltas(it) }) { i, number ->
+            mVelocity.get(created[number]).velocity.set(velocities.getX(i), velocities.getY(i))
+        }
+
+        forEachListed(blocks.entityDeltasCount, { blocks.getEntityDeltas(it) }) { i, number ->
+            mBlock.get(created[number]).blockType = blocks.getBlockType(i).toByte()
+        }
+
+        forEachListed(tools.entityDeltasCount, { tools.getEntityDeltas(it) }) { i, number ->
+            mTool.get(created[number]).apply {
+                type = TOOL_TYPES[tools.getType(i)]
+                material = TOOL_MATERIALS[tools.getMaterial(i)]
+                attackRadius = tools.getAttackRadius(i)
+                explosiveRadius = tools.getExplosiveRadius(i)
+                explosiveTime = tools.getExplosiveTime(i)
+                explosiveArmed = tools.getExplosiveArmed(i)
+                attackIntervalMs = tools.getAttackIntervalMs(i)
+                blockDamage = tools.getBlockDamage(i)
+            }
+        }
+
+        forEachListed(lights.entityDeltasCount, { lights.getEntityDeltas(it) }) { i, number ->
+            mLight.get(created[number]).radius = lights.getRadius(i)
+        }
+
+        forEachListed(doors.entityDeltasCount, { doors.getEntityDeltas(it) }) { i, number ->
+            mDoor.get(created[number]).state = DOOR_STATES[doors.getState(i)]
+        }
+
+        forEachListed(floras.entityDeltasCount, { floras.getEntityDeltas(it) }) { i, number ->
+            mFlora.get(created[number]).apply {
+                numberOfDropsWhenDestroyed = floras.getNumberOfDropsWhenDestroyed(i)
+                stackSizePerDrop = floras.getStackSizePerDrop(i)
+            }
+        }
+
+        forEachListed(healths.entityDeltasCount, { healths.getEntityDeltas(it) }) { i, number ->
+            mHealth.get(created[number]).apply {
+                maxHealth = healths.getMaxHealth(i)
+                health = healths.getHealth(i)
+            }
+        }
+
+        forEachListed(airs.entityDeltasCount, { airs.getEntityDeltas(it) }) { i, number ->
+            mAir.get(created[number]).apply {
+                maxAir = airs.getMaxAir(i)
+                air = airs.getAir(i)
+            }
+        }
+
+        forEachListed(powerDevices.entityDeltasCount, { powerDevices.getEntityDeltas(it) }) { i, number ->
+            mPowerDevice.get(created[number]).running = powerDevices.getRunning(i)
+        }
+
+        forEachListed(powerConsumers.entityDeltasCount, { powerConsumers.getEntityDeltas(it) }) { i, number ->
+            mPowerConsumer.get(created[number]).powerDemandRate = powerConsumers.getPowerDemandRate(i)
+        }
+
+        var fuelSlot = 0
+        forEachListed(powerGenerators.entityDeltasCount, { powerGenerators.getEntityDeltas(it) }) { i, number ->
+            mPowerGenerator.get(created[number]).apply {
+                supplyRateEU = powerGenerators.getSupplyRateEU(i)
+                type = GENERATOR_TYPES[powerGenerators.getType(i)]
+
+                val inventory = GeneratorInventory(GeneratorInventory.MAX_SLOTS)
+                artemisWorld.inject(inventory, true)
+                inventory.fuelSourceHealth = powerGenerators.getFuelSourceHealth(i)
+
+                //the items already say they're in here, so the slots are set directly
+                for (slot in 0 until powerGenerators.getFuelSlotCount(i)) {
+                    val item = powerGenerators.getFuelSlotEntity(fuelSlot++)
+                    if (slot < inventory.slots.size) {
+                        inventory.slots[slot].entityId = if (item == -1) INVALID_ENTITY_ID else created[item]
+                    }
+                }
+
+                fuelSources = inventory
+            }
+        }
+
+        return count
+    }
+
+    private fun archetype(composition: Int): Archetype {
+        val builder = ArchetypeBuilder()
+        SAVED_TYPES.forEachIndexed { type, componentClass ->
+            if (composition and (1 shl type) != 0) {
+                builder.add(componentClass)
+            }
+        }
+
+        return builder.build(artemisWorld)
+    }
+
+    /**
+     * calls action with each of the first count saved entities that have
+     * the mapper's component, and addDelta with the distance from the last one
+     */
+    private inline fun <T : Component> forEachWith(mapper: ComponentMapper<T>, saved: IntArray, count: Int,
+                                                   addDelta: (Int) -> Unit, action: (T) -> Unit) {
+        var last = -1
+        for (number in 0 until count) {
+            val entity = saved[number]
+            if (mapper.has(entity)) {
+                addDelta(number - last)
+                last = number
+                action(mapper.get(entity))
+            }
+        }
+    }
+
+    /**
+     * calls action with each column index and the saved entity's number it's for
+     */
+    private inline fun forEachListed(deltaCount: Int, delta: (Int) -> Int, action: (Int, Int) -> Unit) {
+        var number = -1
+        for (i in 0 until deltaCount) {
+            number += delta(i)
+            action(i, number)
+        }
+    }
+
+    companion object {
+        /**
+         * the components that get saved, their composition bits are their index in here
+         */
+        private val SAVED_TYPES = arrayOf(SpriteComponent::class.java,
+                                          ItemComponent::class.java,
+                                          VelocityComponent::class.java,
+                                          BlockComponent::class.java,
+                                          ToolComponent::class.java,
+                                          LightComponent::class.java,
+                                          DoorComponent::class.java,
+                                          FloraComponent::class.java,
+                                          HealthComponent::class.java,
+                                          AirComponent::class.java,
+                                          PowerDeviceComponent::class.java,
+                                          PowerConsumerComponent::class.java,
+                                          PowerGeneratorComponent::class.java)
+
+        private const val SPRITE = 0
+        private const val ITEM = 1
+        private const val VELOCITY = 2
+        private const val BLOCK = 3
+        private const val TOOL = 4
+        private const val LIGHT = 5
+        private const val DOOR = 6
+        private const val FLORA = 7
+        private const val HEALTH = 8
+        private const val AIR = 9
+        private const val POWER_DEVICE = 10
+        private const val POWER_CONSUMER = 11
+        private const val POWER_GENERATOR = 12
+
+        private val SPRITE_CATEGORIES = SpriteComponent.EntityCategory.values()
+        private val ITEM_STATES = ItemComponent.State.values()
+        private val PLACEMENT_HINTS = ItemComponent.PlacementAdjacencyHints.values()
+        private val TOOL_TYPES = ToolComponent.ToolType.values()
+        private val TOOL_MATERIALS = ToolComponent.ToolMaterial.values()
+        private val DOOR_STATES = DoorComponent.DoorState.values()
+        private val GENERATOR_TYPES = PowerGeneratorComponent.GeneratorType.values()
+
+        /**
+         * writes entities deflated, alongside path and then moved over it,
+         * so a crash never leaves half a file
+         */
+        fun write(entities: PbEntities, path: Path) {
+            val tempPath = path.resolveSibling(path.fileName.toString() + ".tmp")
+            val deflater = Deflater(Deflater.BEST_SPEED)
+            try {
+                DeflaterOutputStream(BufferedOutputStream(Files.newOutputStream(tempPath)), deflater).use {
+                    entities.writeTo(it)
+                }
+            } finally {
+                deflater.end()
+            }
+
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING)
+        }
+
+        fun read(path: Path): PbEntities =
+                InflaterInputStream(BufferedInputStream(Files.newInputStream(path))).use {
+                    PbEntities.parseFrom(it)
+                }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.ore.infinium.systems.server.LiquidSimulationSystem
+import java.util.*
+
+/**
+ * Generates a lazily generated world (see WorldGenerator.generateWorldLazily)
+ * a chunk at a time, from the same noise as WorldGenerator.generateWorld.
+ *
+ * Lakes and volcanoes go where the surface peaks, same as generateWorld, but
+ * the surface is probed straight from the noise, a feature region
+ * (FEATURE_REGION_WIDTH columns) at a time, rather than read off the whole
+ * generated world. And they're shaped without settling any liquid: lakes
+ * fill their valley up to its lower rim. So each one only depends on the
+ * seed and its region, and a chunk just fills in whatever parts of them fall
+ * inside it, no matter which of its neighbours have been generated yet.
+ *
+ * Only ever called through BlockStorage.pageIn, which is synchronized.
+ */
+class LazyChunkGenerator(private val worldSize: OreWorld.WorldSize,
+                         private val modules: WorldGenerator.WorldModules) : ChunkGenerator {
+    companion object {
+        const val FEATURE_REGION_WIDTH = 256
+
+        /**
+         * columns either side of a region that get probed as well, so
+         * peaks right at its edges are still found
+         */
+        const val PEAK_MARGIN = 32
+
+        /**
+         * same as WorldGenerator.generateLakesAndVolcanoes
+         */
+        const val PEAK_DELTA = WorldGenerator.PEAK_DELTA
+        const val LAKE_RADIUS = WorldGenerator.LAKE_RADIUS
+        const val VOLCANO_DEPTH = 100
+        const val VOLCANO_BRANCH_INTERVAL = 6
+        const val VOLCANO_BRANCH_LENGTH = WorldGenerator.VOLCANO_BRANCH_LENGTH
+
+        /**
+         * how far outside of its region a feature can reach
+         */
+        const val FEATURE_REACH = LAKE_RADIUS
+
+        /**
+         * rows between the samples the surface probe starts out with. ground
+         * thinner than this, hanging over the surface, can be missed
+         */
+        const val PROBE_STEP = 8
+
+        /**
+         * coarse rows the probe samples at a time, until every column's surface turns up
+         */
+        const val PROBE_BAND_ROWS = 32
+    }
+
+    private class Volcano(val x: Int, val top: Int)
+
+    /**
+     * water fills column left + i from waterTop down to (not including) bottoms[i]
+     */
+    private class Lake(val left: Int, val waterTop: Int, val bottoms: IntArray)
+
+    private class RegionFeatures(val volcanoes: List<Volcano>, val lakes: List<Lake>)
+
+    private val regionFeatures = HashMap<Int, RegionFeatures>()
+
+    private val scale = 1.0 / worldSize.height
+
+    private val samples = DoubleArray(BlockChunk.BLOCK_COUNT)
+
+    private val air = OreBlock.BlockType.Air.oreValue
+    private val noWall = OreBlock.WallType.Air.oreValue
+    private val undergroundWall = OreBlock.WallType.DirtUnderground.oreValue
+
+    override fun generateChunk(chunkX: Int, chunkY: Int, dest: ByteArray): Boolean {
+        val left = chunkX * BlockChunk.SIZE
+        val top = chunkY * BlockChunk.SIZE
+        val right = minOf(left + BlockChunk.SIZE, worldSize.width) - 1
+        val bottom = minOf(top + BlockChunk.SIZE, worldSize.height) - 1
+        val columnHeight = bottom - top + 1
+        val blockCount = (right - left + 1) * columnHeight
+
+        NoiseBatch.evaluate(modules.blocks, left, top, right - left + 1, columnHeight, scale, samples)
+
+        var anythingGenerated = false
+        for (index in 0 until blockCount) {
+            //same as WorldGenerator.generateTile
+            val type = samples[index].toByte()
+            dest[index] = type
+            dest[blockCount + index] = if (type != air) undergroundWall else noWall
+            dest[2 * blockCount + index] = 0
+
+            if (type != air) {
+                anythingGenerated = true
+            }
+        }
+
+        val chunk = ChunkRect(left, top, right, bottom, dest)
+
+        val firstRegion = maxOf(left - FEATURE_REACH, 0) / FEATURE_REGION_WIDTH
+        val lastRegion = minOf(right + FEATURE_REACH, worldSize.width - 1) / FEATURE_REGION_WIDTH
+        for (region in firstRegion..lastRegion) {
+            val features = regionFeatures.getOrPut(region) { findFeatures(region) }
+
+            for (volcano in features.volcanoes) {
+                anythingGenerated = fillVolcano(volcano, chunk) || anythingGenerated
+            }
+
+            for (lake in features.lakes) {
+                anythingGenerated = fillLake(lake, chunk) || anythingGenerated
+            }
+        }
+
+        return anythingGenerated
+    }
+
+    /**
+     * the chunk being generated, and its blocks (see ChunkGenerator.generateChunk)
+     */
+    private class ChunkRect(val left: Int, val top: Int, val right: Int, val bottom: Int, val blocks: ByteArray) {
+        val columnHeight = bottom - top + 1
+        val blockCount = (right - left + 1) * columnHeight
+
+        fun index(x: Int, y: Int) = (x - left) * columnHeight + (y - top)
+
+        fun setLiquid(x: Int, y: Int, type: Byte) {
+            val index = index(x, y)
+            blocks[index] = type
+            //the payload holds the raw nibble, which is the level minus 1 (see OreWorld.liquidLevel)
+            blocks[2 * blockCount + index] = (LiquidSimulationSystem.MAX_LIQUID_LEVEL - 1).toByte()
+        }
+    }
+
+    /**
+     * a shaft of lava from the peak down, branching out every so often.
+     * same shape as WorldGenerator.fillVolcano
+     */
+    private fun fillVolcano(volcano: Volcano, chunk: ChunkRect): Boolean {
+        var filled = false
+        for (y in maxOf(volcano.top, chunk.top)..minOf(volcano.top + VOLCANO_DEPTH - 1, chunk.bottom)) {
+            val depth = y - volcano.top
+            val reach = if (depth > 0 && depth % VOLCANO_BRANCH_INTERVAL == 0) VOLCANO_BRANCH_LENGTH else 0
+
+            for (x in maxOf(volcano.x - reach, chunk.left)..minOf(volcano.x + reach, chunk.right)) {
+                chunk.setLiquid(x, y, OreBlock.BlockType.Lava.oreValue)
+                filled = true
+            }
+        }
+
+        return filled
+    }
+
+    private fun fillLake(lake: Lake, chunk: ChunkRect): Boolean {
+        var filled = false
+        for (i in lake.bottoms.indices) {
+            val x = lake.left + i
+            if (x < chunk.left || x > chunk.right) {
+                continue
+            }
+
+            for (y in maxOf(lake.waterTop, chunk.top)..minOf(lake.bottoms[i] - 1, chunk.bottom)) {
+                if (!OreBlock.isSolid(chunk.blocks[chunk.index(x, y)])) {
+                    chunk.setLiquid(x, y, OreBlock.BlockType.Water.oreValue)
+                    filled = true
+                }
+            }
+        }
+
+        return filled
+    }
+
+    /**
+     * the volcanoes and lakes whose peaks lie within @param region
+     */
+    private fun findFeatures(region: Int): RegionFeatures {
+        val regionLeft = region * FEATURE_REGION_WIDTH
+        val regionRight = minOf(regionLeft + FEATURE_REGION_WIDTH, worldSize.width) - 1
+
+        val probeLeft = maxOf(regionLeft - PEAK_MARGIN, 0)
+        val probeRight = minOf(regionRight + PEAK_MARGIN, worldSize.width - 1)
+        val contour = probeSurface(probeLeft, probeRight)
+
+        //see generateLakesAndVolcanoes, minima are mountains and maxima valleys
+        val peaks = WorldGenerator.findPeaks(contour, PEAK_DELTA)
+
+        val volcanoes = mutableListOf<Volcano>()
+        for (peak in 0 until peaks.minima.count) {
+            val i = peaks.minima.xs[peak]
+            val x = probeLeft + i
+            if (x in regionLeft..regionRight && contour[i] < worldSize.height) {
+                volcanoes.add(Volcano(x, contour[i]))
+            }
+        }
+
+        val lakes = mutableListOf<Lake>()
+        for (peak in 0 until peaks.maxima.count) {
+            val x = probeLeft + peaks.maxima.xs[peak]
+            if (x in regionLeft..regionRight) {
+                lakeAt(x, contour, probeLeft, probeRight)?.let { lakes.add(it) }
+            }
+        }
+
+        return RegionFeatures(volcanoes, lakes)
+    }
+
+    /**
+     * a lake in the valley at @param lakeX, filled up to the lower of the
+     * highest ground on either side of it (within LAKE_RADIUS). null if
+     * there's nothing for it to sit in
+     */
+    private fun lakeAt(lakeX: Int, contour: IntArray, probeLeft: Int, probeRight: Int): Lake? {
+        val valleyBottom = contour[lakeX - probeLeft]
+        val leftEdge = maxOf(lakeX - LAKE_RADIUS, probeLeft)
+        val rightEdge = minOf(lakeX + LAKE_RADIUS, probeRight)
+        if (valleyBottom >= worldSize.height || leftEdge == lakeX || rightEdge == lakeX) {
+            return null
+        }
+
+        var leftRim = worldSize.height
+        for (x in leftEdge until lakeX) {
+            leftRim = minOf(leftRim, contour[x - probeLeft])
+        }
+
+        var rightRim = worldSize.height
+        for (x in lakeX + 1..rightEdge) {
+            rightRim = minOf(rightRim, contour[x - probeLeft])
+        }
+
+        val waterTop = maxOf(leftRim, rightRim)
+        if (waterTop >= valleyBottom) {
+            return null
+        }
+
+        //the rims are lower than the water, so this stays within them
+        var left = lakeX
+        while (contour[left - 1 - probeLeft] > waterTop) {
+            --left
+        }
+
+        var right = lakeX
+        while (contour[right + 1 - probeLeft] > waterTop) {
+            ++right
+        }
+
+        return Lake(left, waterTop, IntArray(right - left + 1) { contour[left + it - probeLeft] })
+    }
+
+    /**
+     * @return y of the topmost ground of each column left..right (inclusive),
+     * or worldSize.height if it has none. sampled every PROBE_STEP rows
+     * until it turns up, then narrowed down to the block
+     */
+    private fun probeSurface(left: Int, right: Int): IntArray {
+        val columns = right - left + 1
+        val contour = IntArray(columns) { -1 }
+        val coarseRows = (worldSize.height + PROBE_STEP - 1) / PROBE_STEP
+
+        //the coarse row each column's ground first turned up in, coarseRows if it didn't
+        val groundRow = IntArray(columns) { coarseRows }
+        val band = DoubleArray(columns * PROBE_BAND_ROWS)
+
+        var unresolved = columns
+        var bandStart = 0
+        while (unresolved > 0 && bandStart < coarseRows) {
+            val rows = minOf(PROBE_BAND_ROWS, coarseRows - bandStart)
+            NoiseBatch.evaluate(modules.ground, left, bandStart * PROBE_STEP, columns, rows, scale, band,
+                                rowStep = PROBE_STEP)
+
+            for (i in 0 until columns) {
+                if (groundRow[i] != coarseRows) {
+                    continue
+                }
+
+                for (j in 0 until rows) {
+                    if (band[i * rows + j] >= 0.5) {
+                        groundRow[i] = bandStart + j
+                        --unresolved
+                        break
+                    }
+                }
+            }
+
+            bandStart += rows
+        }
+
+        val fine = DoubleArray(PROBE_STEP)
+        for (i in 0 until columns) {
+            val row = groundRow[i]
+            if (row == 0) {
+                contour[i] = 0
+                continue
+            }
+
+            //the ground starts somewhere after the last coarse sample above it
+            val top = (row - 1) * PROBE_STEP + 1
+            val bottom = if (row == coarseRows) worldSize.height - 1 else row * PROBE_STEP
+            val rows = bottom - top + 1
+            contour[i] = worldSize.height
+            if (rows <= 0) {
+                continue
+            }
+
+            NoiseBatch.evaluate(modules.ground, left + i, top, 1, rows, scale, fine)
+            for (j in 0 until rows) {
+                if (fine[j] >= 0.5) {
+                    contour[i] = top + j
+                    break
+                }
+            }
+        }
+
+        return contour
+    }
+}
@@ -440,15 +440,19 @@ object Network {
             constructor() {
             }
 
-            constructor(_type: Byte, _wallType: Byte, _flags: Byte) {
+            constructor(_type: Byte, _wallType: Byte, _flags: Byte, _liquidLevel: Byte, _lightLevel: Byte) {
                 type = _type
                 wallType = _wallType
                 flags = _flags
+                liquidLevel = _liquidLevel
+                lightLevel = _lightLevel
             }
 
             internal var type: Byte = 0
             internal var wallType: Byte = 0
             internal var flags: Byte = 0
+            internal var liquidLevel: Byte = 0
+            internal var lightLevel: Byte = 0
 
             //mesh type is not passed, but recalculated as each chunk is merged with the running world
         }
@@ -462,8 +466,8 @@ object Network {
             constructor() {
             }
 
-            constructor(x: Int, y: Int, type: Byte, wallType: Byte, flags: Byte) {
-                block = SingleBlock(type, wallType, flags)
+            constructor(x: Int, y: Int, type: Byte, wallType: Byte, flags: Byte, liquidLevel: Byte, lightLevel: Byte) {
+                block = SingleBlock(type, wallType, flags, liquidLevel, lightLevel)
                 this.x = x
                 this.y = y
             }
@@ -484,9 +488,9 @@ object Network {
         class BlockRegion {
 
             /**
-             * uses similar logic as world
-             * amount of fields per each block. e.g. every 3 bytes
-             * is for each block. but we don't send mesh type
+             * one plane per field (see FIELDS, in BLOCK_FIELD_INDEX_* order),
+             * each plane column-major. laid out by OreWorld.copyRegionTo.
+             * we don't send mesh type
              */
             lateinit var blocks: ByteArray
             //start and end indices, inclusive(a rect)
@@ -508,12 +512,22 @@ object Network {
             companion object {
                 //different than what is in the Block class, because we don't send everything
                 //over. some things are client only, some are serverside only.
-                const val BLOCK_FIELD_COUNT = 4
+                const val BLOCK_FIELD_COUNT = 5
 
                 const val BLOCK_FIELD_INDEX_TYPE = 0
                 const val BLOCK_FIELD_INDEX_WALLTYPE = 1
                 const val BLOCK_FIELD_INDEX_LIGHT_LEVEL = 2
                 const val BLOCK_FIELD_INDEX_FLAGS = 3
+                const val BLOCK_FIELD_INDEX_LIQUID_LEVEL = 4
+
+                /**
+                 * the world field (OreBlock.BLOCK_BYTE_FIELD_INDEX_* etc.) for each plane
+                 */
+                val FIELDS = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE,
+                                        OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE,
+                                        OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL,
+                                        OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS,
+                                        BlockChangeJournal.FIELD_LIQUID_LEVEL)
             }
         }
 
@@ -0,0 +1,333 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.sudoplay.joise.module.Module
+import com.sudoplay.joise.module.ModuleCache
+import java.util.*
+
+/**
+ * evaluates joise module graphs over a whole grid of blocks at once, into
+ * primitive buffers. a module graph samples one point per get() call, so
+ * anything shared further upstream gets recomputed for every block; graphs
+ * put ModuleGridCache/ModuleColumnCache in front of those parts, which hold
+ * onto their outputs for the grid currently being evaluated on that thread.
+ *
+ * block (x, y) is sampled at (x * scale, y * scale)
+ */
+object NoiseBatch {
+    private val grids = object : ThreadLocal<NoiseGrid>() {
+        override fun initialValue() = NoiseGrid()
+    }
+
+    /**
+     * the grid being evaluated on the calling thread, if any
+     */
+    internal fun currentGrid(): NoiseGrid = grids.get()
+
+    /**
+     * samples @param module at every block of the rect, column-major,
+     * i.e. block (left + i * columnStep, top + j * rowStep) ends up at out[i * rows + j]
+     *
+     * @param rowStep > 1 only samples every rowStep'th row, for coarse searches
+     * @param columnStep likewise for columns, for previews
+     */
+    fun evaluate(module: Module, left: Int, top: Int, columns: Int, rows: Int, scale: Double, out: DoubleArray,
+                 rowStep: Int = 1, columnStep: Int = 1) {
+        val grid = grids.get()
+        grid.begin(left, top, columns, rows, scale, rowStep, columnStep)
+        try {
+            var index = 0
+            for (i in 0 until columns) {
+                val x = grid.xs[i]
+                for (j in 0 until rows) {
+                    out[index] = module.get(x, grid.ys[j])
+                    ++index
+                }
+            }
+        } finally {
+            grid.end()
+        }
+    }
+}
+
+/**
+ * one thread's grid currently being evaluated. caches recognize whether
+ * they're being asked for a point on it by the sample coordinates alone,
+ * since that's all a module gets to see; points that aren't (e.g. ones
+ * moved around by a translate domain) just aren't cached.
+ */
+internal class NoiseGrid {
+    var left = 0
+        private set
+    var top = 0
+        private set
+    var columns = 0
+        private set
+    var rows = 0
+        private set
+    var scale = 1.0
+        private set
+    var rowStep = 1
+        private set
+    var columnStep = 1
+        private set
+
+    /**
+     * bumped for every grid, so caches know when what they hold is stale
+     */
+    var generation = 0
+        private set
+
+    var active = false
+        private set
+
+    var xs = DoubleArray(0)
+        private set
+    var ys = DoubleArray(0)
+        private set
+
+    fun begin(left: Int, top: Int, columns: Int, rows: Int, scale: Double, rowStep: Int, columnStep: Int) {
+        this.left = left
+        this.top = top
+        this.columns = columns
+        this.rows = rows
+        this.scale = scale
+        this.rowStep = rowStep
+        this.columnStep = columnStep
+
+        if (xs.size < columns) {
+            xs = DoubleArray(columns)
+        }
+        if (ys.size < rows) {
+            ys = DoubleArray(rows)
+        }
+
+        for (i in 0 until columns) {
+            xs[i] = blockX(i) * scale
+        }
+        for (j in 0 until rows) {
+            ys[j] = (top + j * rowStep) * scale
+        }
+
+        ++generation
+        active = true
+    }
+
+    fun end() {
+        active = false
+    }
+
+    /**
+     * x of the blocks in column @param i
+     */
+    fun blockX(i: Int) = left + i * columnStep
+
+    /**
+     * @return the column @param x was sampled for, or -1 if it's not one of the grid's
+     */
+    fun columnOf(x: Double): Int {
+        if (!active) {
+            return -1
+        }
+
+        val offset = Math.round(x / scale).toInt() - left
+        if (offset < 0 || offset % columnStep != 0) {
+            return -1
+        }
+
+        val i = offset / columnStep
+        return if (i < columns && xs[i] == x) i else -1
+    }
+
+    /**
+     * @return the row @param y was sampled for, or -1 if it's not one of the grid's
+     */
+    fun rowOf(y: Double): Int {
+        if (!active) {
+            return -1
+        }
+
+        val offset = Math.round(y / scale).toInt() - top
+        if (offset < 0 || offset % rowStep != 0) {
+            return -1
+        }
+
+        val j = offset / rowStep
+        return if (j < rows && ys[j] == y) j else -1
+    }
+}
+
+/**
+ * holds onto its source's output at every point of the grid being evaluated,
+ * for modules that are reached down more than one path of the graph.
+ *
+ * unlike ModuleCache, this is safe to share between threads. (only 2d
+ * lookups are handled, which is all world generation does)
+ */
+class ModuleGridCache(source: Module) : ModuleCache() {
+    private class Entry {
+        var generation = -1
+        var values = DoubleArray(0)
+    }
+
+    private var cachedSource: Module? = null
+
+    private val entries = object : ThreadLocal<Entry>() {
+        override fun initialValue() = Entry()
+    }
+
+    init {
+        setSource(source)
+    }
+
+    override fun setSource(source: Module) {
+        super.setSource(source)
+        cachedSource = source
+    }
+
+    override fun get(x: Double, y: Double): Double {
+        val grid = NoiseBatch.currentGrid()
+        val column = grid.columnOf(x)
+        val row = grid.rowOf(y)
+        if (column == -1 || row == -1) {
+            return cachedSource!!.get(x, y)
+        }
+
+        val entry = entries.get()
+        if (entry.generation != grid.generation) {
+            val size = grid.columns * grid.rows
+            if (entry.values.size < size) {
+                entry.values = DoubleArray(size)
+            }
+
+            Arrays.fill(entry.values, 0, size, Double.NaN)
+            entry.generation = grid.generation
+        }
+
+        val index = column * grid.rows + row
+        var value = entry.values[index]
+        if (value.isNaN()) {
+            value = cachedSource!!.get(x, y)
+            entry.values[index] = value
+        }
+
+        return value
+    }
+}
+
+/**
+ * for sources that only vary along x (e.g. scale domains with a y scale of 0,
+ * which is how the terrain contours are made). each column of the grid is
+ * only sampled once, rather than once per block.
+ *
+ * low frequency sources can be sampled more coarsely still, with a
+ * @param latticeStep > 1: only every latticeStep'th column (of the world,
+ * so it doesn't depend on how it's split into grids) is sampled, and the
+ * columns between are linearly interpolated.
+ */
+class ModuleColumnCache(source: Module, private val latticeStep: Int = 1) : ModuleCache() {
+    private class Entry {
+        var generation = -1
+        var values = DoubleArray(0)
+    }
+
+    private var cachedSource: Module? = null
+
+    private val entries = object : ThreadLocal<Entry>() {
+        override fun initialValue() = Entry()
+    }
+
+    init {
+        require(latticeStep >= 1) { "lattice step must be at least 1" }
+        setSource(source)
+    }
+
+    override fun setSource(source: Module) {
+        super.setSource(source)
+        cachedSource = source
+    }
+
+    override fun get(x: Double, y: Double): Double {
+        val grid = NoiseBatch.currentGrid()
+        val column = grid.columnOf(x)
+        if (column == -1) {
+            return cachedSource!!.get(x, y)
+        }
+
+        val entry = entries.get()
+        if (entry.generation != grid.generation) {
+            fillColumns(grid, entry)
+            entry.generation = grid.generation
+        }
+
+        return entry.values[column]
+    }
+
+    private fun fillColumns(grid: NoiseGrid, entry: Entry) {
+        if (entry.values.size < grid.columns) {
+            entry.values = DoubleArray(grid.columns)
+        }
+
+        val source = cachedSource!!
+        val values = entry.values
+
+        if (latticeStep == 1) {
+            for (i in 0 until grid.columns) {
+                values[i] = source.get(grid.xs[i], 0.0)
+            }
+            return
+        }
+
+        //the lattice columns either side of the current column, sampled as they're needed
+        var lattice = Int.MIN_VALUE
+        var latticeValue = 0.0
+        var nextValue = 0.0
+        var nextSampled = false
+
+        for (i in 0 until grid.columns) {
+            val x = grid.blockX(i)
+            val columnLattice = x - Math.floorMod(x, latticeStep)
+            if (columnLattice != lattice) {
+                val followsOn = nextSampled && columnLattice == lattice + latticeStep
+                latticeValue = if (followsOn) nextValue else source.get(columnLattice * grid.scale, 0.0)
+                lattice = columnLattice
+                nextSampled = false
+            }
+
+            if (x == lattice) {
+                values[i] = latticeValue
+                continue
+            }
+
+            if (!nextSampled) {
+                nextValue = source.get((lattice + latticeStep) * grid.scale, 0.0)
+                nextSampled = true
+            }
+
+            val t = (x - lattice).toDouble() / latticeStep
+            values[i] = latticeValue + (nextValue - latticeValue) * t
+        }
+    }
+}
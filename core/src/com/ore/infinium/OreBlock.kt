@@ -137,9 +137,32 @@ class OreBlock private constructor() {
 
         /**
          * looks up the texture prefix name for each block type. e.g. Dirt -> "dirt", etc.
+         *
+         * the source of truth for block attributes. hot paths should not look things
+         * up in here (it boxes the Byte key), use the flat tables below instead
+         * (isSolid, isLiquid, category, totalHealth), which are compiled from this.
          */
         val blockAttributes = HashMap<Byte, BlockAttributes>()
 
+        /**
+         * block types are a byte, so every table is indexed by the unsigned type
+         */
+        private const val BLOCK_TYPE_COUNT = 256
+
+        /**
+         * one bit per block type, set if it collides
+         */
+        private val collisionBits = LongArray(BLOCK_TYPE_COUNT / 64)
+
+        /**
+         * one bit per block type, set if it is a liquid
+         */
+        private val liquidBits = LongArray(BLOCK_TYPE_COUNT / 64)
+
+        private val categoryTable = Array(BLOCK_TYPE_COUNT) { BlockAttributes.BlockCategory.Null }
+
+        private val totalHealthTable = FloatArray(BLOCK_TYPE_COUNT)
+
         init {
             blockAttributes.put(OreBlock.BlockType.Air.oreValue,
                                 BlockAttributes(textureName = "NULL because it's air",
@@ -224,12 +247,60 @@ class OreBlock private constructor() {
                                                 collision = BlockAttributes.Collision.False,
                                                 category = BlockAttributes.BlockCategory.Liquid,
                                                 blockTotalHealth = 300))
+
+            compileAttributeTables()
+        }
+
+        /**
+         * flattens blockAttributes into the primitive lookup tables.
+         * must be called again if blockAttributes is ever changed
+         */
+        fun compileAttributeTables() {
+            collisionBits.fill(0L)
+            liquidBits.fill(0L)
+            categoryTable.fill(BlockAttributes.BlockCategory.Null)
+            totalHealthTable.fill(0f)
+
+            for ((type, attributes) in blockAttributes) {
+                val index = type.toInt() and 0xFF
+
+                if (attributes.collision == BlockAttributes.Collision.True) {
+                    collisionBits[index ushr 6] = collisionBits[index ushr 6] or (1L shl index)
+                }
+
+                if (attributes.category == BlockAttributes.BlockCategory.Liquid) {
+                    liquidBits[index ushr 6] = liquidBits[index ushr 6] or (1L shl index)
+                }
+
+                categoryTable[index] = attributes.category
+                totalHealthTable[index] = attributes.blockTotalHealth
+            }
+        }
+
+        /**
+         * @return true if entities collide with this block type
+         */
+        fun isSolid(type: Byte): Boolean {
+            val index = type.toInt() and 0xFF
+            return (collisionBits[index ushr 6] and (1L shl index)) != 0L
         }
 
+        fun isLiquid(type: Byte): Boolean {
+            val index = type.toInt() and 0xFF
+            return (liquidBits[index ushr 6] and (1L shl index)) != 0L
+        }
+
+        fun category(type: Byte): BlockAttributes.BlockCategory = categoryTable[type.toInt() and 0xFF]
+
         /**
-         * number of byte fields we use for each block.
-         * because they're all stored in one array, as primitives.
-         * each is a byte..obviously
+         * max starting health of this block type
+         */
+        fun totalHealth(type: Byte): Float = totalHealthTable[type.toInt() and 0xFF]
+
+        /**
+         * number of byte fields (planes) we use for each block.
+         * each one is stored in its own primitive array per chunk,
+         * see BlockChunk. each is a byte..obviously
          *
          *
          * As follows are:
@@ -238,13 +309,16 @@ class OreBlock private constructor() {
          * -wallType
          * -flags
          * -light level
+         *
+         * liquid level is not one of these, it is packed into
+         * its own 4 bit plane
          */
         const val BLOCK_BYTE_FIELD_COUNT = 5
 
         /**
-         * these are all index offsets within the big byte block array,
-         * since BLOCK_FIELD_COUNT elements are stored for each
-         * actual block
+         * these identify each plane, e.g. for BlockChunk.get(),
+         * for code that wants to handle every field the same way
+         * (networking, saving)
          */
 
         /**
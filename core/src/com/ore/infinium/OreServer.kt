@@ -29,6 +29,7 @@ import com.ore.infinium.components.ItemComponent
 import com.ore.infinium.components.PlayerComponent
 import com.ore.infinium.components.SpriteComponent
 import com.ore.infinium.systems.server.ServerNetworkSystem
+import com.ore.infinium.util.floor
 import com.ore.infinium.util.isValidEntity
 import java.util.concurrent.CountDownLatch
 
@@ -36,6 +37,12 @@ class OreServer(val worldSize: OreWorld.WorldSize) : Runnable {
     var connectHostLatch = CountDownLatch(1)
     var shutdownLatch = CountDownLatch(1)
 
+    /**
+     * how world generation is going, for a hosting client to show while it
+     * waits on connectHostLatch. it can poll this from its own thread
+     */
+    val worldGenProgress = WorldGenProgress()
+
     /**
      * Entity id of hosting player.
      * the player that hosted this server.
@@ -141,6 +148,14 @@ class OreServer(val worldSize: OreWorld.WorldSize) : Runnable {
         }
 
         val playerSprite = mSprite.get(player).apply {
+            //stand on the highest ground beneath us, if there is any
+            val left = oreWorld.blockXSafe((posX - sprite.width * 0.5f).floor())
+            val right = oreWorld.blockXSafe((posX + sprite.width * 0.5f).floor())
+            val surfaceY = oreWorld.highestSurfaceY(left, right)
+            if (surfaceY < worldSize.height) {
+                posY = surfaceY - sprite.height * 0.5f
+            }
+
             sprite.setPosition(posX, posY)
         }
 
@@ -122,6 +122,16 @@ object OreSettings {
     @JvmField
     var generateWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--previewWorlds"),
+               description = "Renders low resolution previews of this many random seeds' worlds to images, without generating them, and immediately exits. For hunting seeds.")
+    @JvmField
+    var previewWorlds: Int = 0
+
+    @Parameter(names = arrayOf("--previewStep"),
+               description = "blocks across and down each pixel of a --previewWorlds image covers.")
+    @JvmField
+    var previewStep: Int = 8
+
     /// lock movement of player to continue moving right
     @JvmField
     var lockRight: Boolean = false
@@ -142,11 +152,51 @@ object OreSettings {
     @JvmField
     var saveLoadWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--autosaveInterval"),
+               description = "seconds between background saves of changed world chunks, with --saveLoadWorld. 0 disables.")
+    @JvmField
+    var autosaveInterval: Int = 60
+
+    @Parameter(names = arrayOf("--editLogSyncInterval"),
+               description = "ms between fsyncs of the log of block edits made since the last save, with --saveLoadWorld. 0 disables the log.")
+    @JvmField
+    var editLogSyncInterval: Int = 1000
+
+    @Parameter(names = arrayOf("--mappedWorldSave"),
+               description = "with --saveLoadWorld, save world chunks uncompressed and memory map them on load, for fast restarts of big worlds. saves are much bigger. not supported on windows, where it's ignored.")
+    @JvmField
+    var mappedWorldSave: Boolean = false
+
     @Parameter(names = arrayOf("--flatWorld"),
                description = "create a flat simple world at startup, because it's fast (debug)")
     @JvmField
     var flatWorld: Boolean = false
 
+    @Parameter(names = arrayOf("--lazyWorldGeneration"),
+               description = "generate new worlds a chunk at a time as they're explored, instead of all at startup.")
+    @JvmField
+    var lazyWorldGeneration: Boolean = false
+
+    @Parameter(names = arrayOf("--worldCache"),
+               description = "keep generated worlds in a cache, by seed and world size, and load them from it rather than generating the same world again.")
+    @JvmField
+    var worldCache: Boolean = false
+
+    @Parameter(names = arrayOf("--paletteCompression"),
+               description = "palette pack world chunks after generating, to save memory on huge worlds.")
+    @JvmField
+    var paletteCompression: Boolean = false
+
+    @Parameter(names = arrayOf("--chunkResidencyBudget"),
+               description = "max world chunks the server keeps in memory, the rest get paged to disk. 0 keeps them all.")
+    @JvmField
+    var chunkResidencyBudget: Int = 0
+
+    @Parameter(names = arrayOf("--blockIndexLayout"),
+               description = "order of blocks within each world chunk, ColumnMajor or Morton. picked at world creation.")
+    @JvmField
+    var blockIndexLayout: BlockIndexLayout = BlockIndexLayout.ColumnMajor
+
     var debugRenderGui: Boolean = true
 
     var profilerEnabled = false
@@ -48,6 +48,7 @@ import com.ore.infinium.systems.*
 import com.ore.infinium.systems.client.*
 import com.ore.infinium.systems.server.*
 import com.ore.infinium.util.*
+import java.io.File
 
 @Suppress("NOTHING_TO_INLINE")
 
@@ -99,8 +100,26 @@ class OreWorld
             = !ClassReflection.isAssignableFrom(EntityProcessingSystem::class.java, ClientNetworkSystem::class.java)
 
     //each unit is 1 block(16x16 px), in the game world
-    //public OreBlock[] blocks;
-    var blocks: ByteArray
+    /**
+     * all of the world's blocks, split up into chunks.
+     * use the block accessors (blockType, setBlockType etc.) below
+     * instead of poking at this directly.
+     */
+    val blockStorage = BlockStorage(worldSize.width, worldSize.height, OreSettings.blockIndexLayout)
+
+    /**
+     * every block change made once the world is up and running.
+     * systems that need to react to block changes drain this,
+     * rather than each guessing at what to redo
+     */
+    val blockChangeJournal = BlockChangeJournal()
+
+    /**
+     * logs block edits between saves, so a crash doesn't lose them (server only,
+     * with OreSettings.saveLoadWorld). see BlockEditLog
+     */
+    var blockEditLog: BlockEditLog? = null
+        private set
     lateinit var assetManager: AssetManager
     lateinit var camera: OrthographicCamera
 
@@ -112,6 +131,25 @@ class OreWorld
     lateinit var artemisWorld: World
     val worldIO = WorldIO(this)
 
+    /**
+     * true if the server opened an existing save rather than generating
+     * the world. (the save already has everything computed, like lighting)
+     */
+    var loadedFromSave = false
+        private set
+
+    /**
+     * true if the server generated the world by loading it from the
+     * world cache (see WorldCache), which is lit already as well
+     */
+    var loadedFromCache = false
+        private set
+
+    /**
+     * the hosting server's, so its client can follow along
+     */
+    val worldGenProgress = server?.worldGenProgress ?: WorldGenProgress()
+
     lateinit var entityFactory: OreEntityFactory
 
     /**
@@ -132,13 +170,6 @@ class OreWorld
     fun isClient() = worldInstanceType == WorldInstanceType.Client ||
             worldInstanceType == WorldInstanceType.ClientHostingServer
 
-    init {
-
-        //blocks[(x * 2400 + y) << 2 + i] where i = 0, 1, 2 or 3
-        //        blocks = new OreBlock[worldSize.height * worldSize.width];
-        blocks = ByteArray(worldSize.height * worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT)
-    }
-
     fun init() {
         assert(isHotspotOptimizationEnabled) { "error, hotspot optimization (artemis-odb weaving) is not enabled" }
 
@@ -183,6 +214,7 @@ class OreWorld
         //inject the mappers into the world, before we start doing things
         artemisWorld.inject(this, true)
 
+        blockStorage.journal = blockChangeJournal
 
         entityFactory = OreEntityFactory(this)
     }
@@ -200,11 +232,14 @@ class OreWorld
                                      .with(ServerNetworkEntitySystem(this))
                                      .with(ServerBlockDiggingSystem(this))
                                      .with(PlayerSystem(this))
+                                     .with(ChunkResidencySystem(this))
                                      .with(ExplosiveSystem(this))
                                      .with(AirSystem(this))
                                      .with(ServerNetworkSystem(this, server!!))
                                      .with(TileLightingSystem(this))
                                      .with(LiquidSimulationSystem(this))
+                                     .with(BlockEditLogSystem(this))
+                                     .with(AutosaveSystem(this))
                                      .register(GameLoopSystemInvocationStrategy(msPerTick = 25, isServer = true))
                                      .build())
         //inject the mappers into the world, before we start doing things
@@ -214,17 +249,71 @@ class OreWorld
 
         entityFactory = OreEntityFactory(this)
 
-        //else {
-        if (OreSettings.flatWorld) {
+        loadedFromSave = OreSettings.saveLoadWorld && worldIO.saveExists()
+        if (loadedFromSave) {
+            //chunks get loaded as they're touched, so this doesn't take long
+            worldIO.loadWorld()
+
+            //needed before anything touches the chunks it never got around to generating
+            if (!blockStorage.ungeneratedChunks.isEmpty) {
+                worldGenerator!!.resumeLazyGeneration(worldSize)
+            }
+        } else if (OreSettings.flatWorld) {
             worldGenerator!!.flatWorld(worldSize)
+        } else if (OreSettings.lazyWorldGeneration) {
+            worldGenerator!!.generateWorldLazily(worldSize)
         } else {
             generateWorld()
         }
-//            }
 
-        if (OreSettings.saveLoadWorld) {
+        if (OreSettings.paletteCompression) {
+            blockStorage.compactChunks()
+            OreWorld.log("server world init", blockStorage.memoryReport())
+        }
+
+        //only start journaling once the world exists, generation isn't a change anyone needs to hear about
+        blockStorage.journal = blockChangeJournal
+
+        //entities made while generating (trees) don't show up until the first tick,
+        //so that's when they get saved
+        if (OreSettings.saveLoadWorld && !loadedFromSave) {
             worldIO.saveWorld()
+            worldIO.entitiesUnsaved = true
+        }
+
+        //the save is current right now, so autosaves can start from it
+        if (OreSettings.saveLoadWorld && OreSettings.autosaveInterval > 0) {
+            worldIO.startAutosave()
+        }
+
+        if (OreSettings.saveLoadWorld && OreSettings.editLogSyncInterval > 0) {
+            openBlockEditLog()
+        }
+
+        if (OreSettings.chunkResidencyBudget > 0) {
+            blockStorage.residency = ChunkResidencyManager(blockStorage, OreSettings.chunkResidencyBudget)
+        }
+    }
+
+    /**
+     * replays the edits made after the save was last written, if we just loaded it.
+     * has to come after autosaving starts, so the replayed edits count as unsaved
+     */
+    private fun openBlockEditLog() {
+        val editLog = BlockEditLog(File(worldIO.editLogPath))
+
+        if (loadedFromSave) {
+            val start = System.currentTimeMillis()
+            val replayed = editLog.replay(blockStorage)
+            OreWorld.log("server world init", "replayed $replayed block edits made since the last save, " +
+                    "in ${System.currentTimeMillis() - start} ms")
+        } else {
+            //left over from some other world
+            editLog.discardThrough(editLog.rollOver())
         }
+
+        editLog.start(blockChangeJournal)
+        blockEditLog = editLog
     }
 
     private fun initCamera() {
@@ -321,7 +410,11 @@ class OreWorld
     }
 
     private fun generateWorld() {
-        worldGenerator!!.generateWorld(worldSize)
+        if (OreSettings.worldCache) {
+            loadedFromCache = WorldCache(this).generateOrLoad(worldGenerator!!)
+        } else {
+            worldGenerator!!.generateWorld(worldSize)
+        }
     }
 
     /**
@@ -349,26 +442,20 @@ class OreWorld
         val leftSide = (entityX - (entityWidth * 0.5f)).floor().coerceIn(0, worldSize.width - 10)
         val bottomY = (entityY + (entityHeight * 0.5f)).floor()
 
-        val solidBlocks = mutableListOf<Boolean>()
-
-        (leftSide..rightSide).forEach { tileX -> solidBlocks.add(isBlockSolid(tileX, bottomY)) }
+        val solidCount = blockStorage.solidBits.countInRow(bottomY, leftSide, rightSide)
 
         //all solid,
-        if (solidBlocks.all { blockSolid -> blockSolid == true }) {
+        if (solidCount == maxOf(rightSide - leftSide + 1, 0)) {
             return EntitySolidGroundStatus.FullySolid
         }
 
         //all empty
-        if (solidBlocks.all { blockSolid -> blockSolid == false }) {
+        if (solidCount == 0) {
             return EntitySolidGroundStatus.FullyEmpty
         }
 
         //some empty
-        if (solidBlocks.any { blockSolid -> blockSolid == false }) {
-            return EntitySolidGroundStatus.PartiallyGrounded
-        }
-
-        throw InternalError()
+        return EntitySolidGroundStatus.PartiallyGrounded
     }
 
     /**
@@ -384,7 +471,7 @@ class OreWorld
     inline fun blockTypeSafely(x: Int, y: Int): Byte {
         val safeX = x.coerceIn(0, worldSize.width - 1)
         val safeY = y.coerceIn(0, worldSize.height - 1)
-        return blocks[(safeX * worldSize.height + safeY) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
+        return blockStorage.type(safeX, safeY)
     }
 
     /**
@@ -425,60 +512,33 @@ class OreWorld
         return blockType(x, y) == OreBlock.BlockType.Water.oreValue
     }
 
-    //blocks[(x * 2400 + y) * 4 + i] where i = 0, 1, 2 or 3
     inline fun blockType(x: Int, y: Int): Byte {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) {
-            "blockType index out of range. x: $x, y: $y"
-        }
-        */
-
-        //todo can change it to bitshift if we want to...the jvm should already know to do this though..but idk if it
-        // will do it
-        //blocks[(x * 2400 + y) << 2 + i] where i = 0, 1, 2 or 3
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE]
+        return blockStorage.type(x, y)
     }
 
     inline fun blockWallType(x: Int, y: Int): Byte {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALLTYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALLTYPE) {
-            "blockWallType index out of range. x: $x, y: $y"
-        }
-        */
-
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE]
+        return blockStorage.wallType(x, y)
     }
 
     inline fun blockLightLevel(x: Int, y: Int): Byte {
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL]
+        return blockStorage.lightLevel(x, y)
     }
 
     inline fun blockMeshType(x: Int, y: Int): Byte {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE) {
-            "blockMeshType index out of range. x: $x, y: $y"
-        }
-        */
-
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE]
+        return blockStorage.meshType(x, y)
     }
 
     /**
-     * would return range from 1 to 16.
-     * in-data it is actually represented as 0-15, but we offset by 1 to make calculations
+     * would return range from 1 to 16, or 0 if the block is not a liquid.
+     * in-data it is actually represented as 0-15 (4 bits), but we offset by 1 to make calculations
      * more sane (wouldn't make sense to move over 0 water from one cell to another)
      */
     inline fun liquidLevel(x: Int, y: Int): Byte {
-        //hack
-        //val level = OreBlock.MAX_LIQUID_LEVEL.toInt().and(0b00001111)
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
+        if (!isBlockLiquid(x, y)) {
+            return 0
+        }
 
+        return (blockStorage.liquidNibble(x, y) + 1).toByte()
     }
 
     /**
@@ -503,40 +563,24 @@ class OreWorld
         setLiquidLevel(x, y, level)
     }
 
-    //fixme we can mess with using adding bit flags and stuff to them. right now i just have
+    /**
+     * stores the liquid level in its own plane, so the block's flags
+     * are left alone. the level only means something once the block
+     * type is a liquid.
+     *
+     * @param level 0 to MAX_LIQUID_LEVEL (16)
+     */
     inline fun setLiquidLevel(x: Int, y: Int, level: Byte) {
-        //val level = OreBlock.MAX_LIQUID_LEVEL.toInt().and(0b00001111)
-        //val current = blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt()
-
-        //the flags to not wipe
-        //val upper4Bits = current
-        //hack
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] = level
+        val nibble = (level - 1).coerceIn(0, 15)
+        blockStorage.setLiquidNibble(x, y, nibble)
     }
 
     inline fun blockFlags(x: Int, y: Int): Byte {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
-            "blockFlags index out of range. x: $x, y: $y"
-        }
-        */
-
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS]
+        return blockStorage.flags(x, y)
     }
 
     inline fun blockHasFlag(x: Int, y: Int, flag: Byte): Boolean {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
-            "blockHasFlag index out of range. x: $x, y: $y"
-        }
-        */
-
-        return blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
-                flag.toInt()) != 0
+        return blockStorage.flags(x, y).toInt().and(flag.toInt()) != 0
     }
 
     inline fun setBlockType(x: Int, y: Int, type: OreBlock.BlockType) {
@@ -544,43 +588,19 @@ class OreWorld
     }
 
     inline fun setBlockType(x: Int, y: Int, type: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE) {
-            "setBlockType index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE] = type
+        blockStorage.setType(x, y, type)
     }
 
     inline fun setBlockWallType(x: Int, y: Int, wallType: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALLTYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALLTYPE) {
-            "setBlockWallType index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE] = wallType
+        blockStorage.setWallType(x, y, wallType)
     }
 
     inline fun setBlockMeshType(x: Int, y: Int, meshType: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE) {
-            "setBlockMeshType index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_MESHTYPE] = meshType
+        blockStorage.setMeshType(x, y, meshType)
     }
 
     inline fun setBlockLightLevel(x: Int, y: Int, lightLevel: Byte) {
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL] = lightLevel
+        blockStorage.setLightLevel(x, y, lightLevel)
     }
 
     /**
@@ -593,15 +613,7 @@ class OreWorld
      * @param flags
      */
     inline fun setBlockFlags(x: Int, y: Int, flags: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
-            "setBlockFlags index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] = flags
+        blockStorage.setFlags(x, y, flags)
     }
 
     /**
@@ -611,20 +623,11 @@ class OreWorld
      * *
      * @param y
      * *
-     * @param flagToEnable
+     * @param flagToDisable
      */
-    inline fun unsetBlockFlag(x: Int, y: Int, flagToEnable: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
-            "enableBlockFlags index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] =
-                blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().and(
-                        flagToEnable.toInt()).inv().toByte()
+    inline fun unsetBlockFlag(x: Int, y: Int, flagToDisable: Byte) {
+        val flags = blockFlags(x, y).toInt().and(flagToDisable.toInt().inv()).toByte()
+        blockStorage.setFlags(x, y, flags)
     }
 
     /**
@@ -637,17 +640,8 @@ class OreWorld
      * @param flagToEnable
      */
     inline fun setBlockFlag(x: Int, y: Int, flagToEnable: Byte) {
-        /*
-        assert(x >= 0 && y >= 0 &&
-                       x <= worldSize.width * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS &&
-                       y <= worldSize.height * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
-            "enableBlockFlags index out of range. x: $x, y: $y"
-        }
-        */
-
-        blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS] =
-                blocks[(x * worldSize.height + y) * OreBlock.BLOCK_BYTE_FIELD_COUNT + OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS].toInt().or(
-                        flagToEnable.toInt()).toByte()
+        val flags = blockFlags(x, y).toInt().or(flagToEnable.toInt()).toByte()
+        blockStorage.setFlags(x, y, flags)
     }
 
     /**
@@ -661,19 +655,119 @@ class OreWorld
         setBlockFlags(x, y, 0)
     }
 
+    /**
+     * copies every block in the rect (inclusive) into @param dest, a plane per field
+     * in the order of @param fields (OreBlock.BLOCK_BYTE_FIELD_INDEX_* or
+     * BlockChangeJournal.FIELD_LIQUID_LEVEL), each plane column-major.
+     * see BlockStorage.copyRegionTo for the exact layout
+     *
+     * @param dest must be at least regionSize(fields.size, ...) long
+     */
+    fun copyRegionTo(fields: IntArray, left: Int, top: Int, right: Int, bottom: Int, dest: ByteArray) {
+        blockStorage.copyRegionTo(fields, left, top, right, bottom, dest)
+    }
+
+    /**
+     * writes every block in the rect (inclusive) from @param src, which is laid out
+     * like copyRegionTo leaves it
+     */
+    fun applyRegionFrom(fields: IntArray, left: Int, top: Int, right: Int, bottom: Int, src: ByteArray) {
+        blockStorage.applyRegionFrom(fields, left, top, right, bottom, src)
+    }
+
+    fun regionSize(fieldCount: Int, left: Int, top: Int, right: Int, bottom: Int) =
+            blockStorage.regionSize(fieldCount, left, top, right, bottom)
+
+    /**
+     * sets a field of every block in the rect (inclusive) to @param value.
+     * @param field one of OreBlock.BLOCK_BYTE_FIELD_INDEX_*
+     */
+    fun fillRect(field: Int, left: Int, top: Int, right: Int, bottom: Int, value: Byte) {
+        blockStorage.fillRect(field, left, top, right, bottom, value)
+    }
+
+    /**
+     * copies one field of blocks top..bottom (inclusive) in column @param x
+     */
+    fun copyColumn(field: Int, x: Int, top: Int, bottom: Int, dest: ByteArray, destOffset: Int = 0) {
+        blockStorage.copyColumn(field, x, top, bottom, dest, destOffset)
+    }
+
+    /**
+     * copies one field of blocks left..right (inclusive) in row @param y
+     */
+    fun copyRow(field: Int, y: Int, left: Int, right: Int, dest: ByteArray, destOffset: Int = 0) {
+        blockStorage.copyRow(field, y, left, right, dest, destOffset)
+    }
+
     inline fun isBlockTypeLiquid(type: Byte): Boolean {
-        return OreBlock.blockAttributes[type]!!.category == OreBlock.BlockAttributes.BlockCategory.Liquid
+        return OreBlock.isLiquid(type)
     }
 
     inline fun isBlockLiquid(x: Int, y: Int): Boolean {
-        val type = blockType(x, y)
-        return OreBlock.blockAttributes[type]!!.category == OreBlock.BlockAttributes.BlockCategory.Liquid
+        return blockStorage.liquidBits[x, y]
     }
 
     inline fun isBlockSolid(x: Int, y: Int): Boolean {
-        val type = blockType(x, y)
+        return blockStorage.solidBits[x, y]
+    }
 
-        return OreBlock.blockAttributes[type]!!.collision == OreBlock.BlockAttributes.Collision.True
+    /**
+     * @return true if any block in left..right (inclusive) of row @param y is solid
+     */
+    fun isAnyBlockSolidInRow(y: Int, left: Int, right: Int): Boolean {
+        return blockStorage.solidBits.anyInRow(y, left, right)
+    }
+
+    /**
+     * @return y of the topmost solid block in top..bottom (inclusive) of column @param x,
+     * or -1 if none are
+     */
+    fun firstSolidBlockInColumn(x: Int, top: Int, bottom: Int): Int {
+        return blockStorage.solidBits.firstInColumn(x, top, bottom)
+    }
+
+    /**
+     * @return y of the topmost solid block in column @param x,
+     * or worldSize.height if the column has none (generated so far)
+     */
+    inline fun surfaceY(x: Int): Int {
+        return blockStorage.surfaceHeights[x]
+    }
+
+    /**
+     * @return the highest (smallest y) surface of columns left..right (inclusive).
+     * generates those columns down to their surface first, if need be
+     */
+    fun highestSurfaceY(left: Int, right: Int): Int {
+        var highest = worldSize.height
+        for (x in left..right) {
+            blockStorage.generateDownToSurface(x)
+            highest = minOf(highest, surfaceY(x))
+        }
+
+        return highest
+    }
+
+    /**
+     * false if the block's chunk hasn't been generated yet (see
+     * BlockStorage.ungeneratedChunks). touching it would generate it
+     */
+    inline fun isBlockGenerated(x: Int, y: Int) = blockStorage.isGenerated(x, y)
+
+    /**
+     * for after the world has been written to in a way that doesn't keep
+     * the surface heights up to date (threaded world generation)
+     */
+    fun rebuildSurfaceHeights() {
+        blockStorage.rebuildSurfaceHeights()
+    }
+
+    /**
+     * @return true if any block in the rect (inclusive) holds liquid
+     */
+    fun isAnyBlockLiquidInRect(left: Int, top: Int, right: Int, bottom: Int): Boolean {
+        return blockStorage.liquidBits.anyInRect(left, top, right, bottom)
     }
 
     fun entityAtPosition(pos: Vector2): Int? {
@@ -717,6 +811,11 @@ class OreWorld
     fun shutdown() {
         log("world", "shutdown")
         artemisWorld.dispose()
+        blockStorage.save?.close()
+        blockEditLog?.let {
+            log("world", it.statsReport())
+            it.close()
+        }
     }
 
     /**
@@ -932,15 +1031,7 @@ class OreWorld
      * checks all blocks in given range for solidity.
      */
     fun isBlockRangeSolid(startX: Int, endX: Int, startY: Int, endY: Int): Boolean {
-        for (x in startX..endX) {
-            for (y in startY..endY) {
-                if (!isBlockSolid(x, y)) {
-                    return false
-                }
-            }
-        }
-
-        return true
+        return blockStorage.solidBits.allInRect(startX, startY, endX, endY)
     }
 
     private fun entityCollides(first: Int, second: Int): Boolean {
@@ -979,6 +1070,8 @@ class OreWorld
                 setBlockType(x, y, block.type)
                 setBlockWallType(x, y, block.wallType)
                 setBlockFlags(x, y, block.flags)
+                setLiquidLevel(x, y, block.liquidLevel)
+                setBlockLightLevel(x, y, block.lightLevel)
             }
         }
     }
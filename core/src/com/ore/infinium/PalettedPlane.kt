@@ -0,0 +1,189 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+/**
+ * A compressed plane of block bytes (one per block in a chunk), for planes
+ * that only hold a handful of distinct values. e.g. a chunk deep underground
+ * usually only has stone, dirt and a couple of ores in its type plane, and
+ * nothing but 0 in its light plane.
+ *
+ * Stores a small palette of the distinct values, and a bit-packed index into
+ * it for each block. 0, 1, 2 or 4 bits per block (up to 1, 2, 4, 16 distinct
+ * values). Those all divide 64, so an entry never straddles two longs.
+ *
+ * @see BlockChunk
+ */
+class PalettedPlane(private val blockCount: Int, initialValue: Byte = 0) {
+
+    private val palette = ByteArray(MAX_PALETTE_SIZE)
+    var paletteSize = 1
+        private set
+
+    var bitsPerEntry = 0
+        private set
+
+    private var data = LongArray(0)
+
+    init {
+        palette[0] = initialValue
+    }
+
+    /**
+     * bytes used by this plane's packed data and palette
+     */
+    val sizeBytes: Int
+        get() = data.size * 8 + MAX_PALETTE_SIZE
+
+    operator fun get(index: Int): Byte {
+        if (bitsPerEntry == 0) {
+            return palette[0]
+        }
+
+        val bitIndex = index * bitsPerEntry
+        val word = data[bitIndex ushr 6]
+        val paletteIndex = (word ushr (bitIndex and 63)).toInt() and ((1 shl bitsPerEntry) - 1)
+
+        return palette[paletteIndex]
+    }
+
+    /**
+     * @return false if the value could not be stored, because the palette
+     * is full. the caller should promote this plane to a raw byte array.
+     */
+    fun set(index: Int, value: Byte): Boolean {
+        var paletteIndex = paletteIndexOf(value)
+        if (paletteIndex == -1) {
+            if (paletteSize == MAX_PALETTE_SIZE) {
+                return false
+            }
+
+            if (paletteSize == capacityForBits(bitsPerEntry)) {
+                repack(bitsForPaletteSize(paletteSize + 1))
+            }
+
+            paletteIndex = paletteSize
+            palette[paletteSize++] = value
+        }
+
+        if (bitsPerEntry == 0) {
+            //only one value in the palette, and it is this one
+            return true
+        }
+
+        val bitIndex = index * bitsPerEntry
+        val wordIndex = bitIndex ushr 6
+        val shift = bitIndex and 63
+        val mask = ((1L shl bitsPerEntry) - 1) shl shift
+
+        data[wordIndex] = (data[wordIndex] and mask.inv()) or (paletteIndex.toLong() shl shift)
+
+        return true
+    }
+
+    /**
+     * unpacks the whole plane into @param dest
+     */
+    fun decodeInto(dest: ByteArray) {
+        for (i in 0 until blockCount) {
+            dest[i] = get(i)
+        }
+    }
+
+    private fun paletteIndexOf(value: Byte): Int {
+        for (i in 0 until paletteSize) {
+            if (palette[i] == value) {
+                return i
+            }
+        }
+
+        return -1
+    }
+
+    private fun repack(newBits: Int) {
+        val newData = LongArray(blockCount * newBits / 64)
+        for (i in 0 until blockCount) {
+            val paletteIndex = paletteIndexAt(i)
+            val bitIndex = i * newBits
+            newData[bitIndex ushr 6] = newData[bitIndex ushr 6] or (paletteIndex.toLong() shl (bitIndex and 63))
+        }
+
+        data = newData
+        bitsPerEntry = newBits
+    }
+
+    private fun paletteIndexAt(index: Int): Int {
+        if (bitsPerEntry == 0) {
+            return 0
+        }
+
+        val bitIndex = index * bitsPerEntry
+        return (data[bitIndex ushr 6] ushr (bitIndex and 63)).toInt() and ((1 shl bitsPerEntry) - 1)
+    }
+
+    companion object {
+        const val MAX_PALETTE_SIZE = 16
+
+        private fun capacityForBits(bits: Int) = 1 shl bits
+
+        private fun bitsForPaletteSize(size: Int) =
+                when {
+                    size <= 1 -> 0
+                    size <= 2 -> 1
+                    size <= 4 -> 2
+                    else -> 4
+                }
+
+        /**
+         * packs a raw plane, if it has few enough distinct values.
+         * @return null if it has more than MAX_PALETTE_SIZE distinct values
+         */
+        fun pack(raw: ByteArray): PalettedPlane? {
+            val plane = PalettedPlane(raw.size, raw[0])
+
+            //find the palette first, so we only ever pack once
+            for (value in raw) {
+                if (plane.paletteIndexOf(value) == -1) {
+                    if (plane.paletteSize == MAX_PALETTE_SIZE) {
+                        return null
+                    }
+
+                    plane.palette[plane.paletteSize++] = value
+                }
+            }
+
+            plane.bitsPerEntry = bitsForPaletteSize(plane.paletteSize)
+            plane.data = LongArray(raw.size * plane.bitsPerEntry / 64)
+
+            if (plane.bitsPerEntry != 0) {
+                for (i in raw.indices) {
+                    plane.set(i, raw[i])
+                }
+            }
+
+            return plane
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+
+/**
+ * Saves only the chunks that changed since the last save, without ever
+ * making the game thread wait on the disk.
+ *
+ * snapshot() runs on the game thread, between ticks. It copies out every
+ * chunk whose version changed since it was last saved, plus the bitmaps,
+ * so the save is consistent as of that tick. A background thread then
+ * compresses those, appends them to the save along with a new index, and
+ * only then points the save's header at the new index. If we die part way
+ * through, the header still points at the last complete one.
+ *
+ * The appended data leaves the replaced chunks behind as garbage, see
+ * shouldCompact.
+ *
+ * While this is attached (BlockStorage.savedVersions is set), chunks with
+ * unsaved changes don't get paged out, so they're all in memory to snapshot.
+ */
+class WorldAutosaver(private val storage: BlockStorage, path: Path) {
+
+    /**
+     * number of autosaves written
+     */
+    @Volatile var saveCount = 0
+        private set
+
+    /**
+     * snapshots skipped because the last autosave was still being written
+     */
+    @Volatile var skippedSnapshots = 0
+        private set
+
+    /**
+     * how long the game thread spent copying the last snapshot
+     */
+    @Volatile var lastSnapshotMicros = 0L
+        private set
+
+    /**
+     * how long the background thread spent compressing and writing the last autosave
+     */
+    @Volatile var lastSaveMillis = 0L
+        private set
+
+    @Volatile var lastDirtyChunks = 0
+        private set
+
+    @Volatile var lastBytesWritten = 0L
+        private set
+
+    @Volatile var totalDirtyChunks = 0L
+        private set
+
+    @Volatile var totalBytesWritten = 0L
+        private set
+
+    private val channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+
+    //everything from here down to the executor is only touched by the background thread, once constructed
+    private var offsets: LongArray
+    private var lengths: IntArray
+    private var crcs: IntArray
+    private var bitmapsLength: Int
+    private val deflateChunks: Boolean
+
+    @Volatile private var fileEnd = channel.size()
+
+    private val deflater = Deflater(Deflater.BEST_SPEED)
+    private val crc = CRC32()
+    private val compressed = ByteArray(WorldIO.maxDeflatedSize(WorldIO.SAVED_FIELDS.size * BlockChunk.BLOCK_COUNT))
+
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "world autosave").apply { isDaemon = true }
+    }
+
+    private var pendingSave: Future<*>? = null
+
+    /**
+     * true while an autosave is being written
+     */
+    val isSaving: Boolean
+        get() = pendingSave?.isDone == false
+
+    /**
+     * chunks whose autosave failed, to be marked unsaved again by the next snapshot
+     */
+    private val failedChunks = ConcurrentLinkedQueue<Int>()
+
+    private class DirtyChunk(val index: Int, val payload: ByteArray)
+
+    init {
+        WorldSaveReader(path).use { reader ->
+            val (savedOffsets, savedLengths, savedCrcs) = reader.copyIndex()
+            offsets = savedOffsets
+            lengths = savedLengths
+            crcs = savedCrcs
+            bitmapsLength = reader.bitmapsLength
+            deflateChunks = reader.chunksDeflated
+        }
+
+        //the save is current, as of right now
+        storage.savedVersions = IntArray(storage.chunks.size) { storage.chunks[it].version }
+    }
+
+    /**
+     * bytes in the save that are still in use
+     */
+    @Volatile var liveBytes = computeLiveBytes()
+        private set
+
+    /**
+     * true once more than half of the save is replaced chunks,
+     * and it'd be worth rewriting the whole thing
+     */
+    val shouldCompact: Boolean
+        get() = fileEnd > liveBytes * 2
+
+    /**
+     * copies out the chunks that changed since they were last saved and
+     * starts writing them in the background. game thread only.
+     *
+     * @param onSaved called once everything in the snapshot is on disk,
+     * on the autosave thread (even if nothing changed)
+     *
+     * @return false if the last autosave is still being written, in which
+     * case this one is skipped, those changes get picked up by the next
+     */
+    fun snapshot(onSaved: (() -> Unit)? = null): Boolean {
+        if (isSaving) {
+            ++skippedSnapshots
+            return false
+        }
+
+        val start = System.nanoTime()
+        val savedVersions = storage.savedVersions!!
+
+        while (true) {
+            val failed = failedChunks.poll() ?: break
+            //no chunk version will ever match this
+            savedVersions[failed] = -1
+            //and it may have been paged out while it looked saved
+            storage.pageIn(failed)
+        }
+
+        val dirty = mutableListOf<DirtyChunk>()
+        for (index in storage.chunks.indices) {
+            val chunk = storage.chunks[index]
+            if (chunk.isSentinel || chunk.version == savedVersions[index]) {
+                continue
+            }
+
+            val left = (index / storage.chunksHigh) * BlockChunk.SIZE
+            val top = (index % storage.chunksHigh) * BlockChunk.SIZE
+            val right = minOf(left + BlockChunk.SIZE, storage.width) - 1
+            val bottom = minOf(top + BlockChunk.SIZE, storage.height) - 1
+
+            val payload = ByteArray(storage.regionSize(WorldIO.SAVED_FIELDS.size, left, top, right, bottom))
+            storage.copyRegionTo(WorldIO.SAVED_FIELDS, left, top, right, bottom, payload)
+            dirty.add(DirtyChunk(index, payload))
+
+            savedVersions[index] = chunk.version
+        }
+
+        if (dirty.isEmpty()) {
+            //bitmaps can't have changed without some chunk changing
+            if (onSaved != null) {
+                pendingSave = executor.submit { onSaved() }
+            }
+
+            return true
+        }
+
+        val solidWords = storage.solidBits.words.copyOf()
+        val liquidWords = storage.liquidBits.words.copyOf()
+        val surfaceHeights = storage.surfaceHeights.copyOf()
+        val lightingStamps = storage.lightingStamps.copyOf()
+
+        lastSnapshotMicros = (System.nanoTime() - start) / 1000
+
+        pendingSave = executor.submit {
+            try {
+                write(dirty, WorldIO.bitmapsBytes(solidWords, liquidWords, surfaceHeights, lightingStamps,
+                                                  storage.worldSeed))
+                onSaved?.invoke()
+            } catch (e: Exception) {
+                //anything left in the future would come back out of saveAndStop, and end the shutdown save
+                OreWorld.log("world autosave", "autosave failed, will retry those chunks next time: $e")
+                dirty.forEach { failedChunks.add(it.index) }
+            }
+        }
+
+        return true
+    }
+
+    /**
+     * background thread
+     */
+    private fun write(dirty: List<DirtyChunk>, bitmaps: ByteArray) {
+        val start = System.currentTimeMillis()
+
+        //build the new index on the side, the current one stays valid until the header says otherwise
+        val newOffsets = offsets.copyOf()
+        val newLengths = lengths.copyOf()
+        val newCrcs = crcs.copyOf()
+
+        var position = fileEnd
+        for (chunk in dirty) {
+            crc.reset()
+            crc.update(chunk.payload)
+
+            //stored saves stay stored, they may be mapped
+            val length: Int
+            if (deflateChunks) {
+                length = WorldIO.deflate(deflater, chunk.payload, chunk.payload.size, compressed)
+                WorldIO.writeFully(channel, ByteBuffer.wrap(compressed, 0, length), position)
+            } else {
+                length = chunk.payload.size
+                WorldIO.writeFully(channel, ByteBuffer.wrap(chunk.payload), position)
+            }
+
+            newOffsets[chunk.index] = position
+            newLengths[chunk.index] = length
+            newCrcs[chunk.index] = crc.value.toInt()
+            position += length
+        }
+
+        crc.reset()
+        crc.update(bitmaps)
+        val bitmapsCrc = crc.value.toInt()
+        val bitmapsCompressed = ByteArray(WorldIO.maxDeflatedSize(bitmaps.size))
+        val newBitmapsLength = WorldIO.deflate(deflater, bitmaps, bitmaps.size, bitmapsCompressed)
+        val bitmapsOffset = position
+        WorldIO.writeFully(channel, ByteBuffer.wrap(bitmapsCompressed, 0, newBitmapsLength), position)
+        position += newBitmapsLength
+
+        val index = ByteBuffer.allocate(newOffsets.size * WorldIO.INDEX_ENTRY_SIZE)
+        for (i in newOffsets.indices) {
+            index.putLong(newOffsets[i]).putInt(newLengths[i]).putInt(newCrcs[i])
+        }
+
+        index.flip()
+        val indexOffset = position
+        WorldIO.writeFully(channel, index, position)
+        position += index.capacity()
+
+        //everything the new header points at has to be on disk before the header is
+        channel.force(false)
+
+        val header = ByteBuffer.allocate(WorldIO.HEADER_SIZE)
+        WorldIO.putHeader(header, storage.width, storage.height, deflateChunks, bitmapsOffset = bitmapsOffset,
+                          bitmapsLength = newBitmapsLength, bitmapsCrc = bitmapsCrc, indexOffset = indexOffset)
+        header.flip()
+        WorldIO.writeFully(channel, header, 0)
+        channel.force(false)
+
+        offsets = newOffsets
+        lengths = newLengths
+        crcs = newCrcs
+        bitmapsLength = newBitmapsLength
+        liveBytes = computeLiveBytes()
+
+        val bytesWritten = position - fileEnd
+        fileEnd = position
+
+        lastSaveMillis = System.currentTimeMillis() - start
+        lastDirtyChunks = dirty.size
+        lastBytesWritten = bytesWritten
+        totalDirtyChunks += dirty.size
+        totalBytesWritten += bytesWritten
+        ++saveCount
+
+        OreWorld.log("world autosave", "saved ${dirty.size} changed chunks, ${bytesWritten / 1024} KB " +
+                "in $lastSaveMillis ms (snapshot took $lastSnapshotMicros us)")
+    }
+
+    private fun computeLiveBytes(): Long =
+            WorldIO.HEADER_SIZE + offsets.size.toLong() * WorldIO.INDEX_ENTRY_SIZE + lengths.sumBy { it } +
+                    bitmapsLength
+
+    /**
+     * waits for the autosave in progress, if any
+     */
+    fun awaitPendingSave() {
+        pendingSave?.get()
+    }
+
+    /**
+     * runs @param task on the autosave thread, after everything already queued
+     * there. saveAndStop waits for it. game thread only
+     */
+    fun runInBackground(task: () -> Unit) {
+        executor.execute(task)
+    }
+
+    /**
+     * saves whatever's changed and waits for it to be written, then
+     * stops autosaving. for shutdown
+     *
+     * @return false if some of it couldn't be written, so the save is
+     * missing changes and needs rewriting in full
+     */
+    fun saveAndStop(): Boolean {
+        awaitPendingSave()
+        //picks up whatever the last autosave failed to write, too
+        snapshot()
+        awaitPendingSave()
+
+        executor.shutdown()
+        deflater.end()
+        channel.close()
+
+        storage.savedVersions = null
+
+        return failedChunks.isEmpty()
+    }
+
+    fun statsReport() =
+            "autosaves: $saveCount ($skippedSnapshots skipped), last: $lastDirtyChunks chunks, " +
+                    "${lastBytesWritten / 1024} KB in $lastSaveMillis ms (snapshot $lastSnapshotMicros us), " +
+                    "total: $totalDirtyChunks chunks, ${totalBytesWritten / 1024} KB, " +
+                    "save file ${fileEnd / 1024} KB of which ${liveBytes / 1024} KB live"
+}
@@ -0,0 +1,124 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import com.ore.infinium.systems.server.TileLightingSystem
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import kotlin.system.measureTimeMillis
+
+/**
+ * Keeps the worlds the server generates, already lit, so restarting with
+ * the same seed loads the world rather than generating all of it again.
+ *
+ * Cached worlds are saves (see WorldIO), named by world size, seed and the
+ * generator's fingerprint of the world (WorldGenerator.fingerprint). a world
+ * whose generator has changed since it was cached doesn't match its file, so
+ * it gets generated and replaces the stale one. only blocks are cached, trees
+ * get planted again each time one's loaded.
+ */
+class WorldCache(private val oreWorld: OreWorld) {
+
+    val cacheDirectory = File(oreWorld.worldIO.FILESAVE_BASE_PATH + "worldcache")
+
+    /**
+     * generates the world, unless it's in the cache, then it's opened from there
+     * (like a save, so its chunks load as they're needed).
+     *
+     * @return true if it came from the cache
+     */
+    fun generateOrLoad(generator: WorldGenerator): Boolean {
+        val worldSize = oreWorld.worldSize
+        val seed = generator.chooseSeed()
+
+        var modules: WorldGenerator.WorldModules? = null
+        var fingerprint = 0L
+        val fingerprintMs = measureTimeMillis {
+            modules = generator.buildWorldModules(worldSize, seed)
+            fingerprint = generator.fingerprint(worldSize, modules!!)
+        }
+
+        val file = File(cacheDirectory, cacheFileName(worldSize, seed, fingerprint))
+        if (file.exists()) {
+            try {
+                oreWorld.worldIO.openWorldBlocks(file.toPath())
+                generator.plantTrees()
+
+                OreWorld.log("world cache", "loaded seed $seed from the cache, " +
+                        "fingerprinting the generator took $fingerprintMs ms")
+                return true
+            } catch (e: IOException) {
+                OreWorld.log("world cache", "cached world ${file.name} can't be read, generating it again: $e")
+            }
+        } else {
+            OreWorld.log("world cache", "seed $seed isn't cached, generating it")
+        }
+
+        generator.generateWorld(worldSize, seed, modules!!)
+
+        //lit before it's cached, so loading it doesn't have to light the whole world every time
+        oreWorld.artemisWorld.getSystem(TileLightingSystem::class.java).lightWholeWorld()
+
+        store(file, cacheFilePrefix(worldSize, seed))
+
+        return false
+    }
+
+    /**
+     * caching is only ever worth trying, failing to is just logged
+     */
+    private fun store(file: File, prefix: String) {
+        try {
+            cacheDirectory.mkdirs()
+
+            //whatever's cached for this seed already came from some other generator
+            cacheDirectory.listFiles { dir, name -> name.startsWith(prefix) }?.forEach { it.delete() }
+
+            //written alongside and moved into place, so nothing ever opens half a world
+            val temp = File.createTempFile(prefix, ".tmp", cacheDirectory)
+            try {
+                val writeMs = measureTimeMillis {
+                    WorldIO.writeBlocks(oreWorld.blockStorage, temp.toPath(),
+                                        deflateChunks = !WorldIO.mapSaves)
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                }
+
+                OreWorld.log("world cache", "cached ${file.name} in $writeMs ms, ${file.length() / 1024} KB")
+            } finally {
+                temp.delete()
+            }
+        } catch (e: IOException) {
+            OreWorld.log("world cache", "caching the world failed: $e")
+        }
+    }
+
+    companion object {
+        fun cacheFilePrefix(worldSize: OreWorld.WorldSize, seed: Long) = "${worldSize.name}-$seed-"
+
+        fun cacheFileName(worldSize: OreWorld.WorldSize, seed: Long, fingerprint: Long) =
+                cacheFilePrefix(worldSize, seed) + java.lang.Long.toHexString(fingerprint) + ".save"
+    }
+}
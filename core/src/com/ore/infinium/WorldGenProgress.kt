@@ -0,0 +1,202 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium
+
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * How far along world generation is, and how each stage of it went: how
+ * much is done, how many units (tiles, lakes...) a second it got through
+ * and how busy it kept its threads.
+ *
+ * Written to by the generating threads, and safe to poll from any other
+ * (the hosting client's loading screen, say) without locking, it's all
+ * atomics. A stage's numbers can be a unit or so apart from each other
+ * while it's running.
+ */
+class WorldGenProgress {
+    enum class Stage(val description: String, val unitName: String) {
+        Modules("noise modules", "module graphs"),
+        /**
+         * terrain, caves, ores and walls all come out of the same pass over the noise
+         */
+        Blocks("terrain, caves, ores and walls", "tiles"),
+        Surface("surface heights", "column spans"),
+        Volcanoes("volcanoes", "volcanoes"),
+        Lakes("lakes", "lakes"),
+        Grass("grass", "column spans"),
+        Trees("trees", "column spans"),
+        Lighting("lighting", "columns")
+    }
+
+    private val stageCount = Stage.values().size
+
+    private val totalUnits = AtomicLongArray(stageCount)
+    private val doneUnits = AtomicLongArray(stageCount)
+
+    /**
+     * summed over every thread working on the stage
+     */
+    private val busyNanos = AtomicLongArray(stageCount)
+    private val startNanos = AtomicLongArray(stageCount)
+    private val endNanos = AtomicLongArray(stageCount)
+    private val threads = AtomicIntegerArray(stageCount)
+
+    /**
+     * what this generation is going to run, in order
+     */
+    @Volatile
+    var plannedStages: List<Stage> = emptyList()
+        private set
+
+    /**
+     * null before generation starts
+     */
+    @Volatile
+    var currentStage: Stage? = null
+        private set
+
+    /**
+     * forgets the last generation, for one that will run @param stages
+     */
+    fun start(stages: List<Stage>) {
+        for (i in 0 until stageCount) {
+            totalUnits.set(i, 0)
+            doneUnits.set(i, 0)
+            busyNanos.set(i, 0)
+            startNanos.set(i, 0)
+            endNanos.set(i, 0)
+            threads.set(i, 0)
+        }
+
+        currentStage = null
+        plannedStages = stages
+    }
+
+    fun beginStage(stage: Stage, units: Long, threadCount: Int) {
+        val i = stage.ordinal
+        totalUnits.set(i, units)
+        threads.set(i, threadCount)
+        startNanos.set(i, System.nanoTime())
+
+        currentStage = stage
+    }
+
+    /**
+     * a thread finished @param units more of @param stage, which kept it busy for @param nanos
+     */
+    fun advance(stage: Stage, units: Long, nanos: Long) {
+        doneUnits.addAndGet(stage.ordinal, units)
+        busyNanos.addAndGet(stage.ordinal, nanos)
+    }
+
+    /**
+     * does @param work, counting it as @param units of @param stage done by this thread
+     */
+    inline fun <T> timed(stage: Stage, units: Long, work: () -> T): T {
+        val start = System.nanoTime()
+        val result = work()
+        advance(stage, units, System.nanoTime() - start)
+
+        return result
+    }
+
+    fun endStage(stage: Stage) {
+        endNanos.set(stage.ordinal, System.nanoTime())
+    }
+
+    fun isStageDone(stage: Stage) = endNanos.get(stage.ordinal) != 0L
+
+    /**
+     * 0 to 1
+     */
+    fun fractionDone(stage: Stage): Float {
+        val total = totalUnits.get(stage.ordinal)
+        if (total == 0L) {
+            return if (isStageDone(stage)) 1f else 0f
+        }
+
+        return (doneUnits.get(stage.ordinal).toDouble() / total).toFloat().coerceIn(0f, 1f)
+    }
+
+    /**
+     * 0 to 1, every planned stage counting the same
+     */
+    fun fractionDone(): Float {
+        val stages = plannedStages
+        if (stages.isEmpty()) {
+            return 0f
+        }
+
+        return stages.map { fractionDone(it) }.sum() / stages.size
+    }
+
+    /**
+     * so far, if it's still going. 0 if it hasn't started
+     */
+    fun elapsedNanos(stage: Stage): Long {
+        val start = startNanos.get(stage.ordinal)
+        if (start == 0L) {
+            return 0
+        }
+
+        val end = endNanos.get(stage.ordinal)
+        return (if (end != 0L) end else System.nanoTime()) - start
+    }
+
+    fun unitsPerSecond(stage: Stage): Double {
+        val elapsed = elapsedNanos(stage)
+        if (elapsed == 0L) {
+            return 0.0
+        }
+
+        return doneUnits.get(stage.ordinal) * 1e9 / elapsed
+    }
+
+    /**
+     * 0 to 1, how much of the time the stage has been running its threads spent working on it
+     */
+    fun threadUtilisation(stage: Stage): Double {
+        val capacity = elapsedNanos(stage) * threads.get(stage.ordinal)
+        if (capacity == 0L) {
+            return 0.0
+        }
+
+        return (busyNanos.get(stage.ordinal).toDouble() / capacity).coerceIn(0.0, 1.0)
+    }
+
+    fun stageReport(stage: Stage): String {
+        val i = stage.ordinal
+        return "${stage.description}: ${(fractionDone(stage) * 100).toInt()}%, " +
+                "${doneUnits.get(i)}/${totalUnits.get(i)} ${stage.unitName} in ${elapsedNanos(stage) / 1000000} ms, " +
+                "${"%.1f".format(unitsPerSecond(stage))} ${stage.unitName}/s, " +
+                "${(threadUtilisation(stage) * 100).toInt()}% of ${threads.get(i)} threads busy"
+    }
+
+    /**
+     * every planned stage that's started, a line each
+     */
+    fun report() = plannedStages.filter { startNanos.get(it.ordinal) != 0L }.joinToString("\n") { stageReport(it) }
+}
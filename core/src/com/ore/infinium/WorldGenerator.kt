@@ -26,187 +26,275 @@ package com.ore.infinium
 
 import com.artemis.ComponentMapper
 import com.artemis.annotations.Wire
-import com.badlogic.gdx.Gdx
 import com.badlogic.gdx.math.RandomXS128
 import com.badlogic.gdx.utils.PerformanceCounter
 import com.ore.infinium.components.FloraComponent
 import com.ore.infinium.components.SpriteComponent
 import com.ore.infinium.systems.server.LiquidSimulationSystem
+import com.ore.infinium.util.floor
 import com.ore.infinium.util.oreInject
 import com.sudoplay.joise.module.*
 import java.awt.Color
 import java.awt.Font
 import java.awt.image.BufferedImage
 import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
 import java.time.Instant
 import java.util.*
-import java.util.concurrent.CountDownLatch
+import java.util.concurrent.*
+import java.util.zip.CRC32
 import javax.imageio.ImageIO
-import kotlin.concurrent.thread
 import kotlin.system.measureTimeMillis
 
 @Wire
 class WorldGenerator(private val world: OreWorld) {
-    private lateinit var mSprite: ComponentMapper<SpriteComponent>
-    private lateinit var liquidSimulationSystem: LiquidSimulationSystem
-
-    init {
-        world.artemisWorld.oreInject(this)
-    }
-
-    fun generateWorld() {
+    companion object {
+        /**
+         * two chunks wide, which is also one solid/liquid bitmap word
+         */
+        const val TILE_WIDTH = BlockChunk.SIZE * 2
 
-        Gdx.app.log("server world gen", "worldgen starting")
-        val counter = PerformanceCounter("test")
-        counter.start()
+        /**
+         * tiles a fork join task generates itself, rather than splitting further
+         */
+        const val TILES_PER_TASK = 4
 
-        generateGrassTiles()
-        generateTrees()
+        /**
+         * columns between samples of the terrain type, the rest are interpolated
+         */
+        const val TERRAIN_TYPE_LATTICE_STEP = 4
 
-        counter.stop()
-        val s = "total world gen took (incl transitioning, etc): $counter.current seconds"
-        Gdx.app.log("", s)
-    }
+        /**
+         * TILE_WIDTH column spans a fork join task of a post pass (grass,
+         * surface heights, etc) does itself, rather than splitting further
+         */
+        const val COLUMN_SPANS_PER_TASK = 4
 
-    fun flatWorld(worldSize: OreWorld.WorldSize) {
-        for (y in 0 until worldSize.height) {
-            for (x in 0 until worldSize.width) {
-                if (y > 60) {
-                    world.setBlockType(x, y, OreBlock.BlockType.Dirt)
-                }
-            }
-        }
+        /**
+         * how much the surface has to rise or fall from a peak for it to count
+         */
+        const val PEAK_DELTA = 6
+        const val LAKE_RADIUS = 10
 
-        for (y in 0 until worldSize.height) {
-            for (x in 0 until worldSize.width) {
-                if (world.blockType(x, y) != OreBlock.BlockType.Air.oreValue) {
-                    world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
-                }
-            }
-        }
-    }
+        /**
+         * extra columns/rows around a lake that get settled along with it
+         */
+        const val LAKE_SETTLE_BUFFER = 150
+        const val VOLCANO_BRANCH_LENGTH = 5
 
-    private fun generateTrees() {
-        /*
-        var bottomY = (pos.y + (size.y * 0.5f)).toInt()
-        val leftX = (pos.x - (size.x * 0.5f)).toInt().coerceIn(0, worldSize.width)
-        val rightX = (pos.x + (size.x * 0.5f)).toInt().coerceIn(0, worldSize.height)
-        for (y in bottomY..worldSize.height)
-        {
-            for (x in leftX..rightX) {
-
-                if (isBlockSolid(x, y)) {
-                    //can't proceed, we'll leave it where it last wasn't solid
-                    return
-                }
+        /**
+         * columns between the spots trees get tried at
+         */
+        const val TREE_SPACING = 4
 
-            }
+        /**
+         * part of every world's fingerprint. bump it whenever generation changes
+         * in a way sampling the noise can't tell, like how lakes get filled
+         */
+        const val GENERATOR_VERSION = 1
 
-            //full row was found to be lying on empty stuff,  move down
-            //until we hit solid, and then abort
-            pos.y = (y.toFloat() - size.y * 0.5f) + 1
-        }
-        */
+        /**
+         * points across and down the world that get sampled for its fingerprint
+         */
+        const val FINGERPRINT_GRID = 32
 
-        val rand = RandomXS128()
-        //        for (int y = 0; y < worldSize.height; ++y) {
-        //       }
-        //randomRange(, 20, rand)
+        /**
+         * columns of a preview a pool task renders at once
+         */
+        const val PREVIEW_STRIP_COLUMNS = 32
 
-        /*
-        we want to start at the top, at a random sample, work our way down,
-        checking each block we move the potential tree down, looking for
+        /**
+         * encodes and writes world images, so that isn't on the generation path.
+         * its thread goes away once it's idle, so it doesn't keep the game from
+         * exiting, but anything queued still gets written first
          */
+        private val imageWriter = ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>(),
+                                                     ThreadFactory { Thread(it, "world image writer") }).apply {
+            allowCoreThreadTimeOut(true)
+        }
+
+        private val TILE_FIELDS = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE,
+                                             OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE)
+
+        /**
+         *
+         * @param values y values on a contour, to be checked for
+         * min and max. X values are currently implicitly the indices
+         * of this array
+         *
+         * @param delta difference between values to consider if it is
+         * a local max or min
+         *
+         * @return minima and maxima, each left to right
+         *
+         * based on http://billauer.co.il/peakdet.html
+         */
+        fun findPeaks(values: IntArray, delta: Int): PeakResult {
+            val peakResult = PeakResult()
 
-        var treePlanted = true
-        var tree: Int? = null
-        for (x in 0..world.worldSize.width - 50 step 4) {
+            var maximum = 0
+            var minimum = 0
 
-            //we reuse the previous tree, if not planted, since we have to spawn them to know how big they
-            //may end up being. but we have to know the size to know where to place them,
-            //or if their placement is even valid!!
-            if (treePlanted) {
-                //todo randomize tree sizes
-                tree = world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
-            }
+            var maximumPos = 0
+            var minimumPos = 0
 
-            val cSprite = mSprite.get(tree!!)
-            val halfTreeHeight = cSprite.sprite.height
+            var lookForMax = true
 
-            treeY@ for (y in 0..world.worldSize.height - 50) {
-                val treeX = x.toFloat()
-                val treeY = y.toFloat()
+            for (index in values.indices) {
+                val value = values[index]
+                if (value > maximum) {
+                    maximum = value
+                    maximumPos = index
+                }
 
-                when (world.isEntityFullyGrounded(entityX = treeX, entityY = treeY,
-                        entityWidth = cSprite.sprite.width,
-                        entityHeight = cSprite.sprite.height)) {
-                    OreWorld.EntitySolidGroundStatus.FullyEmpty -> {
-                    }
+                if (value < minimum) {
+                    minimum = value
+                    minimumPos = index
+                }
+
+                if (lookForMax) {
+                    if (value < maximum - delta) {
+                        //(x, y)
+                        peakResult.maxima.add(maximumPos, value)
 
-                    OreWorld.EntitySolidGroundStatus.PartiallyGrounded -> {
-                        //fail here. abort, can't grow a tree
-                        break@treeY
+                        minimum = value
+                        minimumPos = index
+                        lookForMax = false
                     }
+                } else {
+                    if (value > minimum + delta) {
+                        peakResult.minima.add(minimumPos, value)
 
-                    OreWorld.EntitySolidGroundStatus.FullySolid -> {
-                        cSprite.sprite.setPosition(treeX, treeY)
-                        treePlanted = true
-                        //found our tree, already planted at this y value. skip
-                        break@treeY
+                        maximum = value
+                        maximumPos = index
+                        lookForMax = true
                     }
                 }
             }
-        }
 
-        if (!treePlanted) {
-            //last tree, couldn't find a spot for it..delete
-            world.artemisWorld.delete(tree!!)
+            return peakResult
         }
+    }
 
+    private lateinit var mSprite: ComponentMapper<SpriteComponent>
+    private lateinit var liquidSimulationSystem: LiquidSimulationSystem
+
+    init {
+        world.artemisWorld.oreInject(this)
     }
 
     /**
-     * world gen, generates the initial grass of the world
+     * plants the trees of a world whose blocks were generated some other time,
+     * and only the blocks kept (see WorldCache). trees are entities, so
+     * they're not kept with them
      */
-    private fun generateGrassTiles() {
-        for (x in 0 until world.worldSize.width) {
-            var y = 0
-            while (y < world.worldSize.height) {
-                val blockType = world.blockType(x, y)
+    fun plantTrees() {
+        world.worldGenProgress.start(listOf(WorldGenProgress.Stage.Trees))
 
-                //fixme check biomes and their ranges
-                //fill the surface/exposed dirt blocks with grass blocks
-                if (blockType == OreBlock.BlockType.Dirt.oreValue) {
-                    val topBlockType = world.blockTypeSafely(x, y - 1)
+        val pool = ForkJoinPool(Runtime.getRuntime().availableProcessors())
+        try {
+            generateTrees(pool)
+        } finally {
+            pool.shutdown()
+        }
+    }
 
-                    if (topBlockType == OreBlock.BlockType.Air.oreValue) {
-                        world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
+    fun flatWorld(worldSize: OreWorld.WorldSize) {
+        //dirt (with underground walls behind it) everywhere below y 60, air above
+        val right = worldSize.width - 1
+        val bottom = worldSize.height - 1
+        world.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 61, right, bottom, OreBlock.BlockType.Dirt.oreValue)
+        world.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, 0, 61, right, bottom,
+                       OreBlock.WallType.DirtUnderground.oreValue)
+    }
 
-                        y = world.worldSize.height
-                    }
-                }
-                ++y
+    private fun generateTrees(pool: ForkJoinPool) {
+        //every tree is the same size for now, so this one tells us where they all fit.
+        //todo randomize tree sizes
+        var unplacedTree: Int? = world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
+        val treeSprite = mSprite.get(unplacedTree!!).sprite
+        val treeWidth = treeSprite.width
+        val treeHeight = treeSprite.height
+
+        //finding the spots only reads blocks, so it's done on the pool. but
+        //entities can only be made from this thread
+        val lastTreeX = world.worldSize.width - 50
+        val treeYs = IntArray((lastTreeX / TREE_SPACING + 1).coerceAtLeast(0)) { -1 }
+        forEachColumnSpan(pool, WorldGenProgress.Stage.Trees) { left, right ->
+            var x = (left + TREE_SPACING - 1) / TREE_SPACING * TREE_SPACING
+            while (x <= minOf(right, lastTreeX)) {
+                treeYs[x / TREE_SPACING] = findTreeY(x, treeWidth, treeHeight)
+                x += TREE_SPACING
             }
         }
 
-        for (x in 0 until world.worldSize.width) {
-            for (y in 0 until world.worldSize.height) {
-                val blockType = world.blockType(x, y)
+        for (i in treeYs.indices) {
+            if (treeYs[i] == -1) {
+                continue
+            }
 
-                if (blockType == OreBlock.BlockType.Dirt.oreValue && world.blockHasFlag(x, y,
-                        OreBlock.BlockFlags.GrassBlock)) {
+            val tree = unplacedTree ?: world.entityFactory.createWoodenTree(FloraComponent.TreeSize.Large)
+            unplacedTree = null
 
-                    val topBlockType = world.blockTypeSafely(x, y - 1)
-                    //OreBlock bottomBlock = blockTypeSafely(x, y + 1);
-                    //OreBlock bottomLeftBlock = blockTypeSafely(x - 1, y + 1);
-                    //OreBlock bottomRightBlock = blockTypeSafely(x + 1, y + 1);
+            mSprite.get(tree).sprite.setPosition((i * TREE_SPACING).toFloat(), treeYs[i].toFloat())
+        }
 
-                    //                    boolean leftEmpty =
+        if (unplacedTree != null) {
+            //couldn't find a spot for any tree..delete
+            world.artemisWorld.delete(unplacedTree)
+        }
+    }
 
-                    //grows grass here
-                    if (topBlockType == OreBlock.BlockType.Air.oreValue) {
-                        world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
-                    }
+    /**
+     * @return the y a tree of this size centered on column @param x can be
+     * planted at, so it sits fully on solid ground. -1 if there's none
+     */
+    private fun findTreeY(x: Int, treeWidth: Float, treeHeight: Float): Int {
+        //the tree is fully in the air until its bottom reaches the highest
+        //ground beneath it, so start looking just above there
+        val treeLeft = world.blockXSafe((x - treeWidth * 0.5f).floor())
+        val treeRight = world.blockXSafe((x + treeWidth * 0.5f).floor())
+        val startY = (world.highestSurfaceY(treeLeft, treeRight) - treeHeight).floor().coerceAtLeast(0)
+
+        for (y in startY..world.worldSize.height - 50) {
+            when (world.isEntityFullyGrounded(entityX = x.toFloat(), entityY = y.toFloat(),
+                    entityWidth = treeWidth,
+                    entityHeight = treeHeight)) {
+                OreWorld.EntitySolidGroundStatus.FullyEmpty -> {
+                }
+
+                OreWorld.EntitySolidGroundStatus.PartiallyGrounded -> {
+                    //fail here. abort, can't grow a tree
+                    return -1
+                }
+
+                OreWorld.EntitySolidGroundStatus.FullySolid -> {
+                    //found our tree, already planted at this y value
+                    return y
+                }
+            }
+        }
+
+        return -1
+    }
+
+    /**
+     * world gen, generates the initial grass of the world
+     */
+    private fun generateGrassTiles(pool: ForkJoinPool) {
+        forEachColumnSpan(pool, WorldGenProgress.Stage.Grass) { left, right ->
+            for (x in left..right) {
+                val y = world.surfaceY(x)
+                if (y == world.worldSize.height) {
+                    continue
+                }
+
+                //fixme check biomes and their ranges
+                //fill the surface/exposed dirt blocks with grass blocks
+                if (world.blockType(x, y) == OreBlock.BlockType.Dirt.oreValue &&
+                        world.blockTypeSafely(x, y - 1) == OreBlock.BlockType.Air.oreValue) {
+                    world.setBlockFlag(x, y, OreBlock.BlockFlags.GrassBlock)
                 }
             }
         }
@@ -237,37 +325,143 @@ class WorldGenerator(private val world: OreWorld) {
 
 
     /**
-     * how many worker threads are running write now.
-     * 0 indicates we are all done, each one counted
-     * down their latch and returned
+     * previews @param numberOfImages random seeds, each output as its own
+     * image. for batch testing of world gen, without generating every world
+     *
+     * @param step blocks across and down each preview pixel covers
      */
-    var workerThreadsRemainingLatch: CountDownLatch? = null
+    fun previewSeeds(worldSize: OreWorld.WorldSize = OreWorld.WorldSize.Small,
+                     numberOfImages: Int,
+                     step: Int = 8) {
+        require(step >= 1) { "preview step must be at least 1" }
+        val random = Random()
+        val pool = ForkJoinPool(Runtime.getRuntime().availableProcessors())
+
+        try {
+            val ms = measureTimeMillis {
+                for (i in 1..numberOfImages) {
+                    val seed = random.nextLong()
+                    queueImageWrite(renderPreview(worldSize, seed, step, pool), "worldpreview-$seed.png")
+                }
+            }
+
+            OreWorld.log("world gen", "previewed $numberOfImages seeds in $ms ms, at 1/$step scale")
+        } finally {
+            pool.shutdown()
+        }
+    }
 
     /**
-     * generates @param numberOfImages number of worlds to generate, and each one
-     * will get output as a unique image. for batch testing of world gen
+     * renders @param seed's world straight from its noise, a pixel per @param step
+     * blocks across and down, without generating any of it. it's only the noise,
+     * so there's no lakes or volcanoes, but it's plenty to judge a seed by
      */
-    /*
-    HACK no longer used since we hooked it up to physically generating the blocks world/array
-    fun generateWorldAndOutputMultipleImages(worldSize: OreWorld.WorldSize = OreWorld.WorldSize.Small,
-                                             threadCount: Int = 8,
-                                             numberOfImages: Int) {
-
-        for (i in 1..numberOfImages) {
-            generateWorldAndOutputImage(worldSize, useUniqueImageName = true)
+    fun renderPreview(worldSize: OreWorld.WorldSize, seed: Long, step: Int, pool: ForkJoinPool): BufferedImage {
+        require(step >= 1) { "preview step must be at least 1" }
+        val modules = buildWorldModules(worldSize, seed)
+
+        val columns = (worldSize.width + step - 1) / step
+        val rows = (worldSize.height + step - 1) / step
+        val pixels = IntArray(columns * rows)
+
+        val strips = (0 until columns step PREVIEW_STRIP_COLUMNS).map { firstColumn ->
+            Callable {
+                val stripColumns = minOf(PREVIEW_STRIP_COLUMNS, columns - firstColumn)
+                val samples = DoubleArray(stripColumns * rows)
+                NoiseBatch.evaluate(modules.blocks, firstColumn * step, 0, stripColumns, rows,
+                                    1.0 / worldSize.height, samples, rowStep = step, columnStep = step)
+
+                for (i in 0 until stripColumns) {
+                    for (j in 0 until rows) {
+                        val colorForOre = OreBlock.OreNoiseColorMap[samples[i * rows + j].toByte()]!!
+                        pixels[j * columns + firstColumn + i] = colorForOre.rgb
+                    }
+                }
+            }
         }
+
+        pool.invokeAll(strips).forEach { it.get() }
+
+        val bufferedImage = BufferedImage(columns, rows, BufferedImage.TYPE_INT_RGB)
+        bufferedImage.setRGB(0, 0, columns, rows, pixels, 0, columns)
+
+        val graphics = bufferedImage.graphics
+        graphics.color = Color.magenta
+        graphics.font = Font("SansSerif", Font.PLAIN, 8)
+        graphics.drawString("world seed: $seed", 100, 10)
+
+        writeWorldImageLegendImprint(bufferedImage)
+
+        return bufferedImage
     }
-    */
 
     /**
      * Performs all world generation according to parameters
      * Multithreaded to the number of cpus (logical) the system has, automatically
+     *
+     * @param builtModules the modules for @param seed, if they've already been built
      */
-    fun generateWorld(worldSize: OreWorld.WorldSize) {
+    fun generateWorld(worldSize: OreWorld.WorldSize, seed: Long = chooseSeed(), builtModules: WorldModules? = null) {
         val threadCount = Runtime.getRuntime().availableProcessors()
 
-        workerThreadsRemainingLatch = CountDownLatch(threadCount)
+        world.blockStorage.worldSeed = seed
+
+        OreWorld.log("world gen", "inputSeed was $seed")
+
+        OreWorld.log("world gen", "worldgen starting on $threadCount threads")
+
+        val counter = PerformanceCounter("world gen")
+        counter.start()
+
+        val stages = mutableListOf<WorldGenProgress.Stage>()
+        if (builtModules == null) {
+            stages.add(WorldGenProgress.Stage.Modules)
+        }
+
+        //lighting's up to the lighting system, which does it right after, or on the first tick
+        stages.addAll(listOf(WorldGenProgress.Stage.Blocks, WorldGenProgress.Stage.Surface,
+                             WorldGenProgress.Stage.Volcanoes, WorldGenProgress.Stage.Lakes,
+                             WorldGenProgress.Stage.Grass, WorldGenProgress.Stage.Trees,
+                             WorldGenProgress.Stage.Lighting))
+        world.worldGenProgress.start(stages)
+
+        var modules = builtModules
+        if (modules == null) {
+            runStage(WorldGenProgress.Stage.Modules, units = 1, threadCount = 1) {
+                modules = world.worldGenProgress.timed(WorldGenProgress.Stage.Modules, 1) {
+                    buildWorldModules(worldSize, seed)
+                }
+            }
+        }
+
+        val pool = ForkJoinPool(threadCount)
+        try {
+            generateTiles(modules!!.blocks, worldSize, pool)
+
+            //tiles stacked in the same columns all wrote to the same surface heights,
+            //so they couldn't be kept up
+            forEachColumnSpan(pool, WorldGenProgress.Stage.Surface) { left, right ->
+                world.blockStorage.rebuildSurfaceHeights(left / TILE_WIDTH, right / TILE_WIDTH)
+            }
+
+            generateLakesAndVolcanoes(pool)
 
+            generateGrassTiles(pool)
+            generateTrees(pool)
+        } finally {
+            pool.shutdown()
+        }
+
+        counter.stop()
+        val s = "total world generation finished after ${counter.current} seconds"
+        OreWorld.log("world gen", s)
+
+        val worldGenInfo = WorldGenOutputInfo(worldSize, seed, useUniqueImageName = false)
+        val imageMs = measureTimeMillis { writeWorldImage(worldGenInfo) }
+        OreWorld.log("world gen", "rendered world image in $imageMs ms, it's being written in the background")
+    }
+
+    fun chooseSeed(): Long {
         val random = Random()
 
         var seed = random.nextLong()
@@ -304,65 +498,141 @@ class WorldGenerator(private val world: OreWorld) {
         //inputSeed = -4058144727897976167 //problematic caves, caves are too..long and..pipey/flat
         //inputSeed = 5243159850199723543
 
-        OreWorld.log("world gen", "inputSeed was $seed")
+        return seed
+    }
 
-        OreWorld.log("world gen", "worldgen starting on $threadCount threads")
+    /**
+     * sets the world up to generate each chunk the first time it's touched,
+     * rather than all of it now (see BlockStorage.ungeneratedChunks). so this
+     * takes about as long for any world size.
+     *
+     * lakes and volcanoes can't be found from the surface of the whole world
+     * like generateWorld does, see LazyChunkGenerator for what's done instead
+     */
+    fun generateWorldLazily(worldSize: OreWorld.WorldSize) {
+        val seed = chooseSeed()
+        OreWorld.log("world gen", "inputSeed was $seed, generating lazily")
 
-        val counter = PerformanceCounter("world gen")
-        counter.start()
+        world.blockStorage.worldSeed = seed
+        world.blockStorage.markAllUngenerated()
 
-        for (thread in 1..threadCount) {
-            thread { generateWorldThreaded(worldSize, thread, threadCount, seed) }
-        }
-
-        //halt until all threads come back up. remember, for client-hosted server,
-        //user clicks button on client thread, client thread calls into server code, drops off
-        // (not network) params for world gen, server eventually picks it up,
-        // calls into this main generation method,
-        //passes parameters the client gave it. client then wants to know the status, for loading bars etc.
-        //it'll want to know how many threads are going on. it can probably just call right into the
-        //server code, then into the world generator, and find that information, and set appropriate
-        //ui values
-        workerThreadsRemainingLatch!!.await()
-
-        //hack, set block wall type for each part that's underground!
-        //obviously will need replaced with something less stupid
-        for (y in 0 until worldSize.height) {
-            for (x in 0 until worldSize.width) {
-                if (world.blockType(x, y) != OreBlock.BlockType.Air.oreValue) {
-                    world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
-                }
-            }
+        resumeLazyGeneration(worldSize)
+    }
+
+    /**
+     * for a lazily generated world, which may have been loaded from a save.
+     * hooks up the generator for its ungenerated chunks, from its seed
+     */
+    fun resumeLazyGeneration(worldSize: OreWorld.WorldSize) {
+        val storage = world.blockStorage
+
+        var modules: WorldModules? = null
+        val buildMs = measureTimeMillis { modules = buildWorldModules(worldSize, storage.worldSeed) }
+        OreWorld.log("world gen", "built noise modules in $buildMs ms, " +
+                "${storage.ungeneratedChunks.cardinality()} chunks left to generate on demand")
+
+        storage.generator = LazyChunkGenerator(worldSize, modules!!)
+    }
+
+    /**
+     * samples @param finalModule into every block of the world, on a fork join
+     * pool over tiles of TILE_WIDTH x BlockChunk.SIZE blocks. tiles are aligned
+     * to both chunks and the 64 bit words of the solid/liquid bitmaps, so no
+     * two tiles ever write to the same chunk or word, and idle workers steal
+     * whatever is left rather than waiting on a fixed share of rows.
+     */
+    private fun generateTiles(finalModule: Module, worldSize: OreWorld.WorldSize, pool: ForkJoinPool) {
+        val tilesWide = (worldSize.width + TILE_WIDTH - 1) / TILE_WIDTH
+        val tilesHigh = (worldSize.height + BlockChunk.SIZE - 1) / BlockChunk.SIZE
+
+        val tiles = tilesWide * tilesHigh
+        runStage(WorldGenProgress.Stage.Blocks, tiles.toLong(), pool.parallelism) {
+            pool.invoke(GenerateTilesTask(finalModule, worldSize, tilesHigh, 0, tiles - 1))
         }
+    }
 
-        generateLakesAndVolcanoes(worldSize)
+    /**
+     * runs @param work as @param stage of the world gen progress (it's up to
+     * work to advance it), then logs how the stage went
+     */
+    private inline fun runStage(stage: WorldGenProgress.Stage, units: Long, threadCount: Int, work: () -> Unit) {
+        val progress = world.worldGenProgress
+        progress.beginStage(stage, units, threadCount)
 
-        counter.stop()
-        val s = "total world generation finished after ${counter.current} seconds"
-        OreWorld.log("world gen", s)
+        work()
 
-        val worldGenInfo = WorldGenOutputInfo(worldSize, seed, useUniqueImageName = false)
-        writeWorldImage(worldGenInfo)
+        progress.endStage(stage)
+        OreWorld.log("world gen", progress.stageReport(stage))
     }
 
-    private fun generateLakesAndVolcanoes(worldSize: OreWorld.WorldSize) {
-        val terrainContour = ArrayList <Int>()
-        for (x in 0 until worldSize.width) {
-            for (y in 0 until worldSize.height) {
-                if (world.isBlockSolid(x, y)) {
-                    //we create a n entire list of y values
-                    // x is implied via index.
-                    //this forms a contour (horizontal line following the terrain surface)
-                    terrainContour.add(y)
-                    break
+    /**
+     * splits the tile range [first, last] until it's small enough to just
+     * generate. tiles are numbered column by column, like chunks are, so
+     * each leaf works its way down through storage in order.
+     */
+    private inner class GenerateTilesTask(private val finalModule: Module,
+                                          private val worldSize: OreWorld.WorldSize,
+                                          private val tilesHigh: Int,
+                                          private val first: Int,
+                                          private val last: Int) : RecursiveAction() {
+        override fun compute() {
+            if (last - first < TILES_PER_TASK) {
+                val samples = DoubleArray(TILE_WIDTH * BlockChunk.SIZE)
+                val tileBlocks = ByteArray(TILE_WIDTH * BlockChunk.SIZE * TILE_FIELDS.size)
+                for (tile in first..last) {
+                    world.worldGenProgress.timed(WorldGenProgress.Stage.Blocks, 1) {
+                        generateTile(finalModule, worldSize, tilesHigh, tile, samples, tileBlocks)
+                    }
                 }
+                return
             }
+
+            val middle = (first + last) ushr 1
+            invokeAll(GenerateTilesTask(finalModule, worldSize, tilesHigh, first, middle),
+                      GenerateTilesTask(finalModule, worldSize, tilesHigh, middle + 1, last))
         }
+    }
+
+    /**
+     * runs @param pass over every column of the world on @param pool, a few
+     * TILE_WIDTH column spans at a time, as @param stage. like tiles, spans
+     * line up with chunks and bitmap words, so a pass that only writes within
+     * the columns (left..right, inclusive) it's given needs no locking
+     */
+    private fun forEachColumnSpan(pool: ForkJoinPool, stage: WorldGenProgress.Stage,
+                                  pass: (left: Int, right: Int) -> Unit) {
+        val spans = (world.worldSize.width + TILE_WIDTH - 1) / TILE_WIDTH
+        runStage(stage, spans.toLong(), pool.parallelism) {
+            pool.invoke(ColumnSpansTask(stage, pass, 0, spans - 1))
+        }
+    }
+
+    private inner class ColumnSpansTask(private val stage: WorldGenProgress.Stage,
+                                        private val pass: (left: Int, right: Int) -> Unit,
+                                        private val first: Int,
+                                        private val last: Int) : RecursiveAction() {
+        override fun compute() {
+            if (last - first < COLUMN_SPANS_PER_TASK) {
+                world.worldGenProgress.timed(stage, (last - first + 1).toLong()) {
+                    pass(first * TILE_WIDTH, minOf((last + 1) * TILE_WIDTH, world.worldSize.width) - 1)
+                }
+                return
+            }
+
+            val middle = (first + last) ushr 1
+            invokeAll(ColumnSpansTask(stage, pass, first, middle), ColumnSpansTask(stage, pass, middle + 1, last))
+        }
+    }
+
+    private fun generateLakesAndVolcanoes(pool: ForkJoinPool) {
+        //we take every column's y value, x is implied via index.
+        //this forms a contour (horizontal line following the terrain surface).
+        //a copy, since filling changes the surface
+        val terrainContour = world.blockStorage.surfaceHeights.copyOf()
 
-        val delta = 6
         //pass our contour so we can find the min/max, which will give us where our mountains
         // and valley points are
-        val peakResult = findPeaks(terrainContour, delta)
+        val peakResult = findPeaks(terrainContour, PEAK_DELTA)
 
         //NOTE: we swap minima and maxima, because when we're going downward
         //on the map, from top y, a mountain would appear smaller.
@@ -370,20 +640,56 @@ class WorldGenerator(private val world: OreWorld) {
         //readd it back afterwards. so, minimas would be mountains..where
         //lava is and stuff
 
-        val volcanoTime = measureTimeMillis { fillVolcanoes(peakResult.minima) }
-        OreWorld.log("world gen - volcanoes", "...volcanoes filled and settled. took $volcanoTime ms")
-
-        val lakeTime = measureTimeMillis { fillLakes(peakResult.maxima) }
-        OreWorld.log("world gen - lakes", "...lakes filled and settled. took $lakeTime ms")
+        fillPeaks(pool, peakResult.minima, reach = VOLCANO_BRANCH_LENGTH,
+                  stage = WorldGenProgress.Stage.Volcanoes) { x, y ->
+            fillVolcano(x, y)
+            world.setBlockType(x, y, OreBlock.BlockType.Lava.oreValue)
+        }
 
+        //settling a lake can move liquid a block past the range it settles
+        val lakeReach = LAKE_RADIUS + LAKE_SETTLE_BUFFER + 1
+        fillPeaks(pool, peakResult.maxima, reach = lakeReach, stage = WorldGenProgress.Stage.Lakes) { x, y ->
+            fillLake(x, y)
+        }
     }
 
-    private fun fillVolcanoes(minima: HashMap<Int, Int>) {
-        for ((x, y) in minima) {
-            fillVolcano(x, y)
-            world.setBlockType(x, y, OreBlock.BlockType.Lava.oreValue)
+    /**
+     * runs @param fill for each of @param peaks on @param pool, where @param reach
+     * is how many columns either side of a peak its fill can read or write.
+     * peaks whose reach falls within the same TILE_WIDTH column spans are
+     * filled one after another (left to right), so no two fills running at
+     * the same time ever touch the same chunk or bitmap word. runs as @param stage
+     */
+    private fun fillPeaks(pool: ForkJoinPool, peaks: Peaks, reach: Int, stage: WorldGenProgress.Stage,
+                          fill: (x: Int, y: Int) -> Unit) {
+        val clusters = mutableListOf<Callable<Unit>>()
+
+        var first = 0
+        while (first < peaks.count) {
+            var last = first
+            var lastSpan = (peaks.xs[first] + reach) / TILE_WIDTH
+            while (last + 1 < peaks.count && (peaks.xs[last + 1] - reach) / TILE_WIDTH <= lastSpan) {
+                ++last
+                lastSpan = (peaks.xs[last] + reach) / TILE_WIDTH
+            }
+
+            val clusterFirst = first
+            val clusterLast = last
+            clusters.add(Callable {
+                world.worldGenProgress.timed(stage, (clusterLast - clusterFirst + 1).toLong()) {
+                    for (i in clusterFirst..clusterLast) {
+                        fill(peaks.xs[i], peaks.ys[i])
+                    }
+                }
+            })
+
+            first = last + 1
         }
 
+        runStage(stage, peaks.count.toLong(), pool.parallelism) {
+            //get() rethrows whatever a fill threw
+            pool.invokeAll(clusters).forEach { it.get() }
+        }
     }
 
     private fun fillVolcano(volcanoX: Int, volcanoY: Int) {
@@ -414,13 +720,13 @@ class WorldGenerator(private val world: OreWorld) {
             //decide to start some branch(es) here
             if (count > 5) {
                 //left side branch
-                for (x2 in x downTo x - 5) {
+                for (x2 in x downTo x - VOLCANO_BRANCH_LENGTH) {
                     world.setBlockType(x2, y, OreBlock.BlockType.Lava.oreValue)
                     world.setLiquidLevel(x2, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
                 }
 
                 //right side branch
-                for (x2 in x..x + 5) {
+                for (x2 in x..x + VOLCANO_BRANCH_LENGTH) {
                     world.setBlockType(x2, y, OreBlock.BlockType.Lava.oreValue)
                     world.setLiquidLevel(x2, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
                 }
@@ -435,23 +741,6 @@ class WorldGenerator(private val world: OreWorld) {
         }
     }
 
-    private fun fillLakes(maxima: HashMap<Int, Int>) {
-        OreWorld.log("world gen - lakes", "filling lakes...")
-
-        var count = 1
-        for ((x, y) in maxima) {
-            OreWorld.log("world gen - lakes", "filling in lake $count of ${maxima.size}...")
-
-            fillLake(x, y)
-            //hack debug
-//            world.setBlockType(x, y, OreBlock.BlockType.Uranium.oreValue)
-//            world.setLiquidLevel(x, y, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
-
-            OreWorld.log("world gen - lakes", "...finished filling in & settling a lake.")
-            count++
-        }
-    }
-
     private fun fillLake(lakeX: Int, lakeY: Int) {
         if (world.isBlockSolid(lakeX, lakeY)) {
             error("world gen error, fill lake attempt, block solid ($lakeX, $lakeY)")
@@ -467,9 +756,8 @@ class WorldGenerator(private val world: OreWorld) {
         }
         //hack (0..4).first {  }
 
-        val radius = 10
-        val leftMax = world.blockXSafe(lakeX - radius)
-        val rightMax = world.blockXSafe(lakeX + radius)
+        val leftMax = world.blockXSafe(lakeX - LAKE_RADIUS)
+        val rightMax = world.blockXSafe(lakeX + LAKE_RADIUS)
 
         var lastLeft = lakeX
         var lastRight = lakeX
@@ -527,7 +815,7 @@ class WorldGenerator(private val world: OreWorld) {
             //hack, dunno...might be needed?
             repeat(500) {
                 //hack i'm sure it needs settled out more than the exact range, but hardcoded extra range for now
-                val buffer = 150
+                val buffer = LAKE_SETTLE_BUFFER
                 liquidSimulationSystem.processLiquidRange(left = lastLeft - buffer, right = lastRight + buffer,
                         top = lakeFillY - buffer,
                         bottom = lakeBottom + buffer)
@@ -536,19 +824,20 @@ class WorldGenerator(private val world: OreWorld) {
     }
 
     /**
-     * threaded behind the scenes implementation of generating the world,
-     * nobody outside of us should need to know that detail
+     * @property blocks the final module, block types
+     * @property ground 1 for solid ground, 0 for air. blocks is 0 wherever this is
      */
-    private fun generateWorldThreaded(worldSize: OreWorld.WorldSize,
-                                      threadNumber: Int,
-                                      threadCount: Int,
-                                      seed: Long) {
-        val counter = PerformanceCounter("world gen thread $threadNumber")
-        counter.start()
+    class WorldModules(val blocks: Module, val ground: Module)
 
+    /**
+     * builds the whole noise module graph, once. it's sampled by every
+     * generation worker at the same time, which is fine since modules only
+     * hold their parameters; the caches within are per thread.
+     */
+    fun buildWorldModules(worldSize: OreWorld.WorldSize, seed: Long): WorldModules {
         val (groundSelect, highlandLowlandSelectCache, mountain) = generateTerrain(seed)
 
-        val cavesModule = generateCavesThreaded(worldSize, seed,
+        val cavesModule = generateCaves(worldSize, seed,
                 highlandLowlandSelectCache = highlandLowlandSelectCache,
                 groundSelect = groundSelect)
 
@@ -557,18 +846,41 @@ class WorldGenerator(private val world: OreWorld) {
         //hack, debug
         val noCaves = true
         if (noCaves) {
-            finalOreModule = generateOresThreaded(worldSize, seed, groundSelect, mountain)
+            finalOreModule = generateOres(worldSize, seed, groundSelect, mountain)
         } else {
-            finalOreModule = generateOresThreaded(worldSize, seed, cavesModule, mountain)
+            finalOreModule = generateOres(worldSize, seed, cavesModule, mountain)
         }
 
-        val finalModule: Module = finalOreModule
-
-        outputGeneratedWorldToBlockArrayThreaded(finalModule, worldSize, threadCount, threadNumber)
+        return WorldModules(blocks = finalOreModule, ground = if (noCaves) groundSelect else cavesModule)
+    }
 
-        counter.stop()
+    /**
+     * a checksum of the world @param modules generate: GENERATOR_VERSION, and
+     * the blocks and ground at a grid of points across it. so any change to
+     * the noise shows up in it, without having to generate the world
+     */
+    fun fingerprint(worldSize: OreWorld.WorldSize, modules: WorldModules): Long {
+        val scale = 1.0 / worldSize.height
+        val samples = ByteArray(FINGERPRINT_GRID * FINGERPRINT_GRID * 2)
+
+        var i = 0
+        for (gridX in 0 until FINGERPRINT_GRID) {
+            val x = (worldSize.width - 1) * gridX / (FINGERPRINT_GRID - 1) * scale
+            for (gridY in 0 until FINGERPRINT_GRID) {
+                val y = (worldSize.height - 1) * gridY / (FINGERPRINT_GRID - 1) * scale
+
+                //block types and solid or not, rather than the raw noise, so the
+                //last bits of a double coming out differently don't matter
+                samples[i++] = modules.blocks.get(x, y).toByte()
+                samples[i++] = if (modules.ground.get(x, y) >= 0.5) 1 else 0
+            }
+        }
 
-        workerThreadsRemainingLatch!!.countDown()
+        val crc = CRC32()
+        //all four bytes, CRC32.update(Int) only takes the low one
+        crc.update(ByteBuffer.allocate(4).putInt(GENERATOR_VERSION).array())
+        crc.update(samples)
+        return crc.value
     }
 
     data class GenerateTerrainResult(val groundSelect: Module, val highlandLowlandSelectCache: Module, val mountain: Module)
@@ -606,7 +918,7 @@ class WorldGenerator(private val world: OreWorld) {
         }
 
         val lowlandTerrain = ModuleTranslateDomain().apply {
-            setAxisYSource(lowlandYScale)
+            setAxisYSource(ModuleColumnCache(lowlandYScale))
             setSource(groundGradient)
         }
 
@@ -636,7 +948,7 @@ class WorldGenerator(private val world: OreWorld) {
         }
 
         val highlandTerrain = ModuleTranslateDomain().apply {
-            setAxisYSource(highlandYScale)
+            setAxisYSource(ModuleColumnCache(highlandYScale))
             setSource(groundGradient)
         }
 
@@ -725,8 +1037,8 @@ class WorldGenerator(private val world: OreWorld) {
             setSource(terrainAutoCorrect)
         }
 
-        val terrainTypeCache = ModuleCache()
-        terrainTypeCache.setSource(terrainTypeYScale)
+        //only decides which kind of terrain goes where, doesn't need sampling every column
+        val terrainTypeCache = ModuleColumnCache(terrainTypeYScale, TERRAIN_TYPE_LATTICE_STEP)
 
         ///////////////////////////////
 
@@ -765,7 +1077,7 @@ class WorldGenerator(private val world: OreWorld) {
         }
 
         val lakeTerrain = ModuleTranslateDomain().apply {
-            setAxisYSource(lakeYScale)
+            setAxisYSource(ModuleColumnCache(lakeYScale))
             setSource(groundGradient)
         }
 
@@ -817,8 +1129,7 @@ class WorldGenerator(private val world: OreWorld) {
             setFalloff(0.1) // .5
         }
 
-        val highlandLowlandSelectCache = ModuleCache()
-        highlandLowlandSelectCache.setSource(highlandLowlandSelect)
+        val highlandLowlandSelectCache = ModuleGridCache(highlandLowlandSelect)
 
         val groundSelect = ModuleSelect().apply {
             setLowSource(0.0)
@@ -833,10 +1144,10 @@ class WorldGenerator(private val world: OreWorld) {
         )
     }
 
-    private fun generateCavesThreaded(worldSize: OreWorld.WorldSize,
-                                      inputSeed: Long,
-                                      highlandLowlandSelectCache: Module,
-                                      groundSelect: Module): Module {
+    private fun generateCaves(worldSize: OreWorld.WorldSize,
+                              inputSeed: Long,
+                              highlandLowlandSelectCache: Module,
+                              groundSelect: Module): Module {
         val caveShape = ModuleFractal(ModuleFractal.FractalType.RIDGEMULTI, ModuleBasisFunction.BasisType.GRADIENT,
                 ModuleBasisFunction.InterpolationType.QUINTIC).apply {
             setNumOctaves(1)
@@ -892,10 +1203,10 @@ class WorldGenerator(private val world: OreWorld) {
     /**
      * @return the final module of the ores
      */
-    private fun generateOresThreaded(worldSize: OreWorld.WorldSize,
-                                     inputSeed: Long,
-                                     groundCaveMultiply: Module,
-                                     mountain: Module): Module {
+    private fun generateOres(worldSize: OreWorld.WorldSize,
+                             inputSeed: Long,
+                             groundCaveMultiply: Module,
+                             mountain: Module): Module {
 
         /////////////////////////////////////////////////////
         val mainGradient = ModuleGradient()
@@ -1213,45 +1524,53 @@ class WorldGenerator(private val world: OreWorld) {
     }
 
     /**
-     * samples from the final module, outputs it to the world array.
-     * meant to be called in a threaded fashion. (since each module.get()
-     * call on each of the indices in the world, takes a lot of time due
-     * to all the module chaining)
-     * Meant to be called from multiple threads, automatically partitions
-     * each worker into exclusive regions which they operate on the world with
+     * samples the final module over one tile, in a batch, then writes it
+     * into storage in one go. also puts the underground walls in behind
+     * whatever isn't air.
+     *
+     * @param samples scratch, at least TILE_WIDTH * BlockChunk.SIZE
+     * @param tileBlocks scratch, at least TILE_WIDTH * BlockChunk.SIZE * TILE_FIELDS.size
      */
-    private fun outputGeneratedWorldToBlockArrayThreaded(finalModule: Module,
-                                                         worldSize: OreWorld.WorldSize,
-                                                         threadCount: Int,
-                                                         threadNumber: Int) {
-        //divide the world into n threads, so that each can write to their own region simultaneously
-        val partitionedHeight = worldSize.height / threadCount
-
-        val startY = (threadNumber - 1) * partitionedHeight
-        val endY = startY + partitionedHeight
-        //fixme i'm very skeptical what happens if given an odd number of world size...maybe we need to use the remainder?
-        //don't want to be accidentally squishing 1 block per thread, or stretching by 1 block
-
-        for (y in startY until endY) {
-            for (x in 0 until worldSize.width) {
-
-                val xRatio = worldSize.width.toDouble() / worldSize.height.toDouble()
-                val value = finalModule.get(x.toDouble() / worldSize.width.toDouble() * xRatio,
-                        y.toDouble() / worldSize.height.toDouble())
-
-                //NOTE: we truncate the double to a byte. we don't care if it's 3.0 or 3.1 for an ore value,
-                //but obviously we need it to be a flat number.
-                //the reasoning for this happening in the first place, is due to falloff and the range of the
-                //modules, i believe.
-
-                //           assert (value == value.toInt().toDouble()) {
-                //              "output to world array, but units aren't in round numbers -- invalid ore types obtained from noise generator"
-                //         }
-
-                //things like water and stuff are never generated by noise. so it'll just be e.g. air
-                world.setBlockType(x, y, value.toByte())
-            }
-        }
+    private fun generateTile(finalModule: Module,
+                             worldSize: OreWorld.WorldSize,
+                             tilesHigh: Int,
+                             tile: Int,
+                             samples: DoubleArray,
+                             tileBlocks: ByteArray) {
+        val left = tile / tilesHigh * TILE_WIDTH
+        val top = tile % tilesHigh * BlockChunk.SIZE
+        val right = minOf(left + TILE_WIDTH, worldSize.width) - 1
+        val bottom = minOf(top + BlockChunk.SIZE, worldSize.height) - 1
+
+        val columnHeight = bottom - top + 1
+        val blockCount = (right - left + 1) * columnHeight
+
+        //the world spans 0..1 vertically, and however far its aspect ratio takes it horizontally
+        NoiseBatch.evaluate(finalModule, left, top, right - left + 1, columnHeight, 1.0 / worldSize.height,
+                            samples)
+
+        val air = OreBlock.BlockType.Air.oreValue
+        val noWall = OreBlock.WallType.Air.oreValue
+        val undergroundWall = OreBlock.WallType.DirtUnderground.oreValue
+
+        for (index in 0 until blockCount) {
+            val value = samples[index]
+
+            //NOTE: we truncate the double to a byte. we don't care if it's 3.0 or 3.1 for an ore value,
+            //but obviously we need it to be a flat number.
+            //the reasoning for this happening in the first place, is due to falloff and the range of the
+            //modules, i believe.
+
+            //things like water and stuff are never generated by noise. so it'll just be e.g. air
+            val type = value.toByte()
+            tileBlocks[index] = type
+
+            //hack, set block wall type for each part that's underground!
+            //obviously will need replaced with something less stupid
+            tileBlocks[blockCount + index] = if (type != air) undergroundWall else noWall
+        }
+
+        world.blockStorage.applyRegionFrom(TILE_FIELDS, left, top, right, bottom, tileBlocks)
     }
 
     //fixme don't use relative upward, fix game so it doesn't require working dir
@@ -1260,7 +1579,8 @@ class WorldGenerator(private val world: OreWorld) {
     private val WORLD_OUTPUT_IMAGE_BASE_PATH = "../saveData/worldImages/"
 
     /**
-     * output the entire world to a png.
+     * output the entire world to a png. the png gets encoded and written
+     * in the background, see imageWriter
      *
      * right now only blocks are handled. in the future, more stuff will be done
      */
@@ -1291,89 +1611,68 @@ class WorldGenerator(private val world: OreWorld) {
 
         graphics.drawString("y=200", 10, 190)
 
-        var fileUrl = WORLD_OUTPUT_IMAGE_BASE_PATH
-        val dir = File(fileUrl)
-        if (!dir.exists()) {
-            dir.mkdirs()
-        }
-
-        if (worldGenInfo.useUniqueImageName) {
-            fileUrl += "worldgeneration-${worldGenInfo.seed}.png"
+        val fileName = if (worldGenInfo.useUniqueImageName) {
+            "worldgeneration-${worldGenInfo.seed}.png"
         } else {
-            fileUrl += "worldgeneration.png"
+            "worldgeneration.png"
         }
 
         writeWorldImageLegendImprint(bufferedImage)
 
-        ImageIO.write(bufferedImage, "png", File(fileUrl))
-    }
-
-    class PeakResult() {
-        //val minima = mutableListOf<XYPair>()
-        val minima = HashMap <Int, Int>()
-        val maxima = HashMap <Int, Int>()
-
-        //data class XYPair(val x: Int, val y: Int)
+        queueImageWrite(bufferedImage, fileName)
     }
 
     /**
+     * encodes @param bufferedImage to a png on the image writer thread.
+     * the image mustn't be touched after. images are only for looking at,
+     * so failing to write one is just logged
      *
-     * @param values list of y values on a contour, to be checked for
-     * min and max. X values are currently implicitly the indices
-     * of this array
-     *
-     * @param delta difference between values to consider if it is
-     * a local max or min
-     *
-     * @return list of minima and maxima
-     *
-     * based on http://billauer.co.il/peakdet.html
+     * @return done once it's written (or failed to be)
      */
-    fun findPeaks(values: List<Int>, delta: Int): PeakResult {
-        val peakResult = PeakResult()
-
-        var maximum = 0
-        var minimum = 0
-
-        var maximumPos = 0
-        var minimumPos = 0
+    fun queueImageWrite(bufferedImage: BufferedImage, fileName: String): Future<*> =
+            imageWriter.submit(Runnable {
+                try {
+                    val dir = File(WORLD_OUTPUT_IMAGE_BASE_PATH)
+                    if (!dir.exists() && !dir.mkdirs()) {
+                        throw IOException("couldn't create $dir")
+                    }
 
-        var lookForMax = true
+                    if (!ImageIO.write(bufferedImage, "png", File(dir, fileName))) {
+                        throw IOException("no png writer")
+                    }
+                } catch (e: IOException) {
+                    OreWorld.log("world gen", "writing world image $fileName failed: $e")
+                }
+            })
 
-        for ((index, value) in values.withIndex()) {
-            if (value > maximum) {
-                maximum = value
-                maximumPos = index
-            }
+    class PeakResult() {
+        val minima = Peaks()
+        val maxima = Peaks()
+    }
 
-            if (value < minimum) {
-                minimum = value
-                minimumPos = index
-            }
+    /**
+     * x and y of each peak, in the order they were added. only the first
+     * count of xs and ys are used
+     */
+    class Peaks {
+        var count = 0
+            private set
 
-            if (lookForMax) {
-                if (value < maximum - delta) {
-                    //(x, y)
-                    peakResult.maxima.put(maximumPos, value)
+        var xs = IntArray(16)
+            private set
 
-                    minimum = value
-                    minimumPos = index
-                    lookForMax = false
-                }
-            } else {
-                if (value > minimum + delta) {
-                    //peakResult.minima.add(PeakResult.XYPair(x = minimumPos, y = value))
-                    peakResult.minima.put(minimumPos, value)
+        var ys = IntArray(16)
+            private set
 
-                    maximum = value
-                    maximumPos = index
-                    lookForMax = true
-                }
+        fun add(x: Int, y: Int) {
+            if (count == xs.size) {
+                xs = xs.copyOf(count * 2)
+                ys = ys.copyOf(count * 2)
             }
-        }
 
-        return peakResult
+            xs[count] = x
+            ys[count] = y
+            ++count
+        }
     }
 }
-
-
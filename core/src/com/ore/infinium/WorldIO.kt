@@ -1,55 +1,627 @@
 package com.ore.infinium
 
-import java.io.FileOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Callable
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.zip.CRC32
+import java.util.zip.Deflater
 
-class WorldIO(val oreWorld: OreWorld) {
+/**
+ * Saves and loads the world's blocks, and its entities (see EntityIO,
+ * they get a file of their own, entitySavePath).
+ *
+ * The save is chunked, so any one chunk can be read without reading the
+ * rest of the file (see WorldSaveReader):
+ *
+ * header (HEADER_SIZE bytes): magic, format version, world width, height,
+ * chunk size, number of saved fields, chunk encoding (CHUNKS_DEFLATED or
+ * CHUNKS_STORED), the offset, compressed length and CRC32 of the bitmaps
+ * section, then the offset of the index
+ *
+ * index: one INDEX_ENTRY_SIZE entry per chunk, in BlockStorage's chunk order
+ * (column by column). file offset (long), compressed length (int), CRC32 of
+ * the uncompressed payload (int). chunks that have never been written to
+ * (all air) have a length of 0 and no payload, as do chunks of lazily
+ * generated worlds that haven't been generated yet, which have an offset
+ * of UNGENERATED_CHUNK_OFFSET
+ *
+ * payloads: each chunk's blocks, deflated unless the save is CHUNKS_STORED.
+ * uncompressed it's the chunk's rect in the BlockStorage.copyRegionTo layout
+ * with SAVED_FIELDS, so it doesn't depend on how blocks happen to be laid
+ * out in memory. for a whole chunk that's also exactly BlockChunk's own
+ * (column-major) plane layout, which is what lets stored saves be
+ * memory mapped (mapBlocks)
+ *
+ * bitmaps: BlockStorage's solidBits and liquidBits words, then its surface
+ * heights, deflated. they could be rebuilt from the chunks, but having them
+ * lets a world be opened (openBlocks) without loading any chunks. then each
+ * chunk's lighting stamp (BlockStorage.lightingStamps), which version 4
+ * saves don't have, so all their chunks get relit. then the world seed
+ * (BlockStorage.worldSeed), which versions before 6 don't have
+ *
+ * A full save writes the index right after the header, then the payloads
+ * and bitmaps. Autosaves (WorldAutosaver) only append changed payloads,
+ * new bitmaps and a new index to the end, then point the header at them.
+ */
+class WorldIO(val oreWorld: OreWorld, val FILESAVE_BASE_PATH: String = "../saveData/") {
+
+    val saveFilePath = FILESAVE_BASE_PATH + "worldsave.save"
+
+    /**
+     * the block edit log's segments are named this plus a number
+     */
+    val editLogPath = FILESAVE_BASE_PATH + "worldsave.edits"
+
+    val entitySavePath = FILESAVE_BASE_PATH + "worldsave.entities"
+
+    /**
+     * server only, and only once the artemis world exists
+     */
+    val entityIO by lazy { EntityIO(oreWorld) }
+
+    /**
+     * set when the last save may be missing entities, because they were made
+     * since the last tick and artemis doesn't list them until the next one.
+     * AutosaveSystem saves them all again on the next tick, whatever the
+     * autosave interval
+     */
+    var entitiesUnsaved = false
+
+    /**
+     * saves changed chunks in the background, once started
+     */
+    var autosaver: WorldAutosaver? = null
+        private set
+
+    /**
+     * the last writeEntitiesLater that didn't have an autosaver to run on
+     */
+    private var pendingEntityWrite: Future<*>? = null
+
+    fun saveExists() = File(saveFilePath).exists()
+
+    /**
+     * opens the save, chunks get loaded from it as they're needed.
+     * the entities are all restored
+     */
     fun loadWorld() {
+        openWorldBlocks(File(saveFilePath).toPath())
+
+        loadEntities()
     }
 
-    val FILESAVE_BASE_PATH = "../saveData/"
+    /**
+     * opens the blocks of the save at @param path into the world, memory
+     * mapping them if that's enabled and the save allows it. otherwise
+     * chunks get loaded from it as they're needed
+     */
+    fun openWorldBlocks(path: Path) {
+        val start = System.currentTimeMillis()
 
-    fun saveWorld() {
-        val saveFilePath = FILESAVE_BASE_PATH + "worldsave.save"
-        val fs = FileOutputStream(saveFilePath).use { fs ->
+        if (mapSaves && mapBlocks(oreWorld.blockStorage, path)) {
+            OreWorld.log("world io", "mapped $path in ${System.currentTimeMillis() - start} ms")
+        } else {
+            openBlocks(oreWorld.blockStorage, path)
+
+            OreWorld.log("world io", "opened $path in ${System.currentTimeMillis() - start} ms, " +
+                    "${oreWorld.blockStorage.unloadedSaveChunks.cardinality()} chunks left to load on demand")
+        }
+    }
 
-            //writeWorldHeader(fs)
-            writeWorldData(fs)
+    private fun loadEntities() {
+        val file = File(entitySavePath)
+        if (!file.exists()) {
+            return
         }
+
+        val start = System.currentTimeMillis()
+        val restored = entityIO.restore(EntityIO.read(file.toPath()))
+
+        OreWorld.log("world io", "restored $restored entities in ${System.currentTimeMillis() - start} ms")
     }
 
-    private fun writeWorldHeader(fs: FileOutputStream) {
-        val header = PbWorldHeader.newBuilder().apply {
-            sizeX = oreWorld.worldSize.width
-            sizeY = oreWorld.worldSize.height
-            worldName = "TEST WORLD NAME"
-            worldSeed = 123456789L
-        }.build()
+    /**
+     * for autosaves, which happen on their own thread, so failing is only logged.
+     * the next one will try again
+     */
+    fun writeEntities(entities: PbEntities) {
+        try {
+            EntityIO.write(entities, File(entitySavePath).toPath())
+        } catch (e: IOException) {
+            OreWorld.log("world io", "saving entities failed: $e")
+        }
+    }
+
+    /**
+     * writes @param entities (a snapshot, taken on the game thread) in the
+     * background, so the game thread doesn't wait on the disk. on the
+     * autosave thread if we're autosaving, which writes entities too,
+     * otherwise on a thread of its own. either way after the last one
+     */
+    fun writeEntitiesLater(entities: PbEntities) {
+        val previous = pendingEntityWrite
+        val autosaver = autosaver
+        if (autosaver != null) {
+            autosaver.runInBackground {
+                previous?.get()
+                writeEntities(entities)
+            }
+            return
+        }
+
+        val write = FutureTask(Callable {
+            previous?.get()
+            writeEntities(entities)
+        })
+        Thread(write, "entity save").apply { isDaemon = true }.start()
+        pendingEntityWrite = write
+    }
 
-        header.writeTo(fs)
+    /**
+     * starts autosaving into the existing save (see WorldAutosaver).
+     * the save has to be current, so only right after saving or loading it
+     */
+    fun startAutosave() {
+        autosaver = WorldAutosaver(oreWorld.blockStorage, File(saveFilePath).toPath())
     }
 
-    private fun writeWorldData(fs: FileOutputStream) {
-        val blocks = PbBlocks.newBuilder()
-        for (y in 0 until oreWorld.worldSize.width) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                val blockType = oreWorld.blockType(x, y).toInt()
-                blocks.addBlockTypes(blockType)
+    /**
+     * saves the world. while autosaving that only means writing out
+     * the chunks changed since the last autosave, unless the save has
+     * built up enough replaced chunks that it's worth rewriting.
+     * the block edit log gets emptied, the save has all of it now.
+     * entities are always saved in full
+     */
+    fun saveWorld() {
+        val entities = entityIO.snapshot()
 
-                val blockWallType = oreWorld.blockWallType(x, y).toInt()
-                blocks.addBlockWallTypes(blockWallType)
+        //everything logged so far is about to be in the save
+        val editLog = oreWorld.blockEditLog
+        var sealedSegment = -1
+        if (editLog != null) {
+            editLog.append(oreWorld.blockChangeJournal)
+            sealedSegment = editLog.rollOver()
+        }
 
-                val blockFlags = oreWorld.blockFlags(x, y).toInt()
-                blocks.addBlockFlags(blockFlags)
+        val autosaver = autosaver
+        if (autosaver != null) {
+            this.autosaver = null
+            val saved = autosaver.saveAndStop()
 
-                val blockLightLevel = oreWorld.blockLightLevel(x, y).toInt()
-                blocks.addBlockLightLevel(blockLightLevel)
+            OreWorld.log("world io", autosaver.statsReport())
+            if (!saved) {
+                OreWorld.log("world io", "the last autosave failed, saving the whole world instead")
+                writeFullSave()
+            } else if (autosaver.shouldCompact) {
+                writeFullSave()
             }
+        } else {
+            writeFullSave()
         }
 
-        val b = PbWorldSave.newBuilder().setBlocks(blocks).build()
+        editLog?.discardThrough(sealedSegment)
 
-        b.writeTo(fs)
+        //an older snapshot mustn't land on top of this one
+        pendingEntityWrite?.get()
 
+        val start = System.currentTimeMillis()
+        val entitiesPath = File(entitySavePath).toPath()
+        EntityIO.write(entities, entitiesPath)
+
+        OreWorld.log("world io", "saved ${entities.count} entities in ${System.currentTimeMillis() - start} ms, " +
+                "${Files.size(entitiesPath) / 1024} KB")
     }
 
+    private fun writeFullSave() {
+        val start = System.currentTimeMillis()
+
+        val file = File(saveFilePath)
+        file.absoluteFile.parentFile.mkdirs()
+
+        //written alongside and then moved over the old save, which chunks
+        //that haven't been loaded yet are still being copied out of.
+        //mapped chunks keep reading the old one, which lives on for them (see mapSaves)
+        val tempPath = File(saveFilePath + ".tmp").toPath()
+        val storage = oreWorld.blockStorage
+        synchronized(storage) {
+            writeBlocks(storage, tempPath, deflateChunks = !mapSaves)
+
+            storage.save?.close()
+            Files.move(tempPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            if (storage.save != null) {
+                storage.save = WorldSaveReader(file.toPath())
+            }
+        }
+
+        OreWorld.log("world io", "saved world in ${System.currentTimeMillis() - start} ms, " +
+                "${file.length() / 1024} KB")
+    }
+
+    companion object {
+        private val isWindows = System.getProperty("os.name").startsWith("Windows")
+
+        /**
+         * whether saves get written to be memory mapped, and are (see mapBlocks).
+         * never on windows. full saves replace the save, which works while it's
+         * mapped elsewhere, as the old file lives on until it's unmapped. windows
+         * won't replace a mapped file at all, and java 8 can't unmap one
+         */
+        val mapSaves: Boolean
+            get() = OreSettings.mappedWorldSave && !isWindows
+
+        /**
+         * "OREW"
+         */
+        const val SAVE_MAGIC = 0x4F524557
+        const val SAVE_VERSION = 6
+
+        /**
+         * the oldest save version that can still be read
+         */
+        const val OLDEST_SAVE_VERSION = 4
+
+        const val HEADER_SIZE = 52
+        const val INDEX_ENTRY_SIZE = 16
+
+        /**
+         * index offset of chunks that haven't been generated yet, see BlockStorage.ungeneratedChunks
+         */
+        const val UNGENERATED_CHUNK_OFFSET = -1L
+
+        /**
+         * chunk encodings. stored saves are many times bigger, but can be mapped (see mapBlocks)
+         */
+        const val CHUNKS_DEFLATED = 1
+        const val CHUNKS_STORED = 0
+
+        /**
+         * what gets saved for each block. mesh types aren't, they get
+         * recomputed from the block types on load
+         */
+        val SAVED_FIELDS = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE,
+                                      OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE,
+                                      OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS,
+                                      OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL,
+                                      BlockChangeJournal.FIELD_LIQUID_LEVEL)
+
+        /**
+         * reads every chunk of the save at @param path into @param storage,
+         * which must be the same size as the saved world
+         */
+        fun readBlocks(storage: BlockStorage, path: Path) {
+            WorldSaveReader(path).use { reader ->
+                if (reader.width != storage.width || reader.height != storage.height) {
+                    error("world save is ${reader.width}x${reader.height}, " +
+                          "world is ${storage.width}x${storage.height}")
+                }
+
+                for (chunkX in 0 until reader.chunksWide) {
+                    for (chunkY in 0 until reader.chunksHigh) {
+                        if (reader.isChunkUngenerated(chunkX, chunkY)) {
+                            markUngenerated(storage, chunkX * storage.chunksHigh + chunkY)
+                            continue
+                        }
+
+                        val payload = reader.readChunk(chunkX, chunkY) ?: continue
+
+                        storage.applyRegionFrom(SAVED_FIELDS, chunkX * BlockChunk.SIZE, chunkY * BlockChunk.SIZE,
+                                                reader.chunkRight(chunkX), reader.chunkBottom(chunkY), payload)
+                    }
+                }
+
+                //the rest of the bitmaps were just rebuilt from the chunks, but the stamps can't be.
+                //(nor the parts of them from chunks that were generated, but weren't saved)
+                storage.worldSeed = reader.readBitmapsInto(storage.solidBits.words, storage.liquidBits.words,
+                                                           storage.surfaceHeights, storage.lightingStamps)
+            }
+        }
+
+        /**
+         * opens the save at @param path for @param storage (which must be the
+         * same size as the saved world) without loading any of its chunks.
+         * they stay BlockChunk.PAGED_OUT until something touches them, at which
+         * point BlockStorage loads them from the save. the save is kept open
+         * until the storage is disposed
+         */
+        fun openBlocks(storage: BlockStorage, path: Path) {
+            val reader = WorldSaveReader(path)
+            if (reader.width != storage.width || reader.height != storage.height) {
+                reader.close()
+                error("world save is ${reader.width}x${reader.height}, world is ${storage.width}x${storage.height}")
+            }
+
+            storage.worldSeed = reader.readBitmapsInto(storage.solidBits.words, storage.liquidBits.words,
+                                                       storage.surfaceHeights, storage.lightingStamps)
+
+            for (index in storage.chunks.indices) {
+                val chunkX = index / storage.chunksHigh
+                val chunkY = index % storage.chunksHigh
+                if (reader.isChunkUngenerated(chunkX, chunkY)) {
+                    markUngenerated(storage, index)
+                } else if (!reader.isChunkEmpty(chunkX, chunkY)) {
+                    storage.chunks[index] = BlockChunk.PAGED_OUT
+                    storage.unloadedSaveChunks.set(index)
+                }
+            }
+
+            storage.save = reader
+        }
+
+        /**
+         * memory maps the save at @param path (which must have been written with
+         * deflateChunks = false) and points @param storage's chunks straight at
+         * it, instead of copying any blocks into the heap. see BlockChunk.mapPlane.
+         * the OS pages blocks in as they're read, and each plane is copied into
+         * the heap the first time it's written to.
+         *
+         * chunks on the right and bottom edges of the world, which don't fill a
+         * whole chunk, and liquid levels of chunks with liquid in them (saved a
+         * byte per block, held as nibbles) are still loaded into the heap.
+         *
+         * unlike the other loads, mapped chunks are not CRC checked. that'd mean
+         * reading every block up front, which is what this is trying to avoid.
+         *
+         * the save must not be truncated or written over in place while it's
+         * mapped. saveWorld writes a new file and moves it over the old one,
+         * WorldAutosaver only appends, either is fine, except on windows (see mapSaves).
+         *
+         * @return false, having done nothing, if the save isn't stored or the
+         * storage doesn't use the column-major layout, so it can't be mapped
+         */
+        fun mapBlocks(storage: BlockStorage, path: Path): Boolean {
+            WorldSaveReader(path).use { reader ->
+                if (reader.width != storage.width || reader.height != storage.height) {
+                    error("world save is ${reader.width}x${reader.height}, " +
+                          "world is ${storage.width}x${storage.height}")
+                }
+
+                if (reader.chunksDeflated || storage.layout != BlockIndexLayout.ColumnMajor) {
+                    return false
+                }
+
+                storage.worldSeed = reader.readBitmapsInto(storage.solidBits.words, storage.liquidBits.words,
+                                                           storage.surfaceHeights, storage.lightingStamps)
+
+                val mapped = reader.mapFile()
+                val liquidField = SAVED_FIELDS.indexOf(BlockChangeJournal.FIELD_LIQUID_LEVEL)
+
+                for (chunkX in 0 until reader.chunksWide) {
+                    for (chunkY in 0 until reader.chunksHigh) {
+                        if (reader.isChunkUngenerated(chunkX, chunkY)) {
+                            markUngenerated(storage, chunkX * storage.chunksHigh + chunkY)
+                            continue
+                        }
+
+                        if (reader.isChunkEmpty(chunkX, chunkY)) {
+                            continue
+                        }
+
+                        val left = chunkX * BlockChunk.SIZE
+                        val top = chunkY * BlockChunk.SIZE
+                        val right = reader.chunkRight(chunkX)
+                        val bottom = reader.chunkBottom(chunkY)
+
+                        if (right - left + 1 != BlockChunk.SIZE || bottom - top + 1 != BlockChunk.SIZE) {
+                            storage.applyRegionFrom(SAVED_FIELDS, left, top, right, bottom,
+                                                    reader.readChunk(chunkX, chunkY)!!)
+                            continue
+                        }
+
+                        //planes that aren't saved start out packed, i.e. next to no memory
+                        val chunk = BlockChunk(chunkX, chunkY, packed = true)
+                        val offset = reader.chunkOffset(chunkX, chunkY).toInt()
+
+                        for (f in SAVED_FIELDS.indices) {
+                            val planeOffset = offset + f * BlockChunk.BLOCK_COUNT
+                            if (f == liquidField) {
+                                //liquid levels only mean anything for liquid blocks. skipping
+                                //the chunks that have none means their liquid planes never get paged in
+                                if (!storage.liquidBits.anyInRect(left, top, right, bottom)) {
+                                    continue
+                                }
+
+                                for (i in 0 until BlockChunk.BLOCK_COUNT) {
+                                    chunk.setLiquidNibble(i, mapped.get(planeOffset + i).toInt())
+                                }
+                            } else {
+                                val plane = mapped.duplicate()
+                                plane.position(planeOffset)
+                                plane.limit(planeOffset + BlockChunk.BLOCK_COUNT)
+                                chunk.mapPlane(SAVED_FIELDS[f], plane.slice())
+                            }
+                        }
+
+                        storage.chunks[storage.chunkIndex(left, top)] = chunk
+                    }
+                }
+            }
+
+            return true
+        }
+
+        /**
+         * the chunk gets generated when it's first touched. the storage
+         * needs a generator before then
+         */
+        private fun markUngenerated(storage: BlockStorage, index: Int) {
+            storage.chunks[index] = BlockChunk.PAGED_OUT
+            storage.ungeneratedChunks.set(index)
+        }
+
+        /**
+         * @param deflateChunks false stores chunk payloads as they are, so the
+         * save can be loaded with mapBlocks
+         */
+        fun writeBlocks(storage: BlockStorage, path: Path, deflateChunks: Boolean = true) {
+            FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING).use { channel ->
+                //zlib's memory is native, so it mustn't be left for the gc when something fails
+                val deflater = Deflater(Deflater.BEST_SPEED)
+                try {
+                    writeBlocks(storage, channel, deflateChunks, deflater)
+                } finally {
+                    deflater.end()
+                }
+            }
+        }
+
+        private fun writeBlocks(storage: BlockStorage, channel: FileChannel, deflateChunks: Boolean,
+                                deflater: Deflater) {
+            val chunkCount = storage.chunksWide * storage.chunksHigh
+
+            //header gets filled in last, once we know where the bitmaps ended up
+            val header = ByteBuffer.allocate(HEADER_SIZE + chunkCount * INDEX_ENTRY_SIZE)
+            header.position(HEADER_SIZE)
+
+            val payload = ByteArray(SAVED_FIELDS.size * BlockChunk.BLOCK_COUNT)
+            val compressed = ByteArray(maxDeflatedSize(payload.size))
+            val crc = CRC32()
+
+            var offset = header.capacity().toLong()
+            for (index in 0 until chunkCount) {
+                if (storage.ungeneratedChunks.get(index)) {
+                    //still comes out the same when it's generated after loading, no need to generate it now
+                    header.putLong(UNGENERATED_CHUNK_OFFSET).putInt(0).putInt(0)
+                    continue
+                }
+
+                if (storage.chunks[index] === BlockChunk.EMPTY) {
+                    header.putLong(0L).putInt(0).putInt(0)
+                    continue
+                }
+
+                val chunkX = index / storage.chunksHigh
+                val chunkY = index % storage.chunksHigh
+
+                val unloaded = storage.unloadedSaveChunks.get(index)
+                val save = storage.save
+                if (unloaded && save!!.chunksDeflated == deflateChunks) {
+                    //never loaded, so can't have changed. copy it over as is
+                    val raw = save.readRawChunk(chunkX, chunkY)!!
+                    val length = raw.remaining()
+                    writeFully(channel, raw, offset)
+
+                    header.putLong(offset).putInt(length).putInt(save.chunkCrc(chunkX, chunkY))
+                    offset += length
+                    continue
+                }
+
+                val left = chunkX * BlockChunk.SIZE
+                val top = chunkY * BlockChunk.SIZE
+                val right = minOf(left + BlockChunk.SIZE, storage.width) - 1
+                val bottom = minOf(top + BlockChunk.SIZE, storage.height) - 1
+                val size = storage.regionSize(SAVED_FIELDS.size, left, top, right, bottom)
+
+                if (unloaded) {
+                    //saved the other way, so it has to be decoded. still no need to load it
+                    val saved = save!!.readChunk(chunkX, chunkY)!!
+                    System.arraycopy(saved, 0, payload, 0, size)
+                } else {
+                    storage.copyRegionTo(SAVED_FIELDS, left, top, right, bottom, payload)
+                }
+
+                crc.reset()
+                crc.update(payload, 0, size)
+
+                val length = if (deflateChunks) {
+                    deflate(deflater, payload, size, compressed)
+                } else {
+                    System.arraycopy(payload, 0, compressed, 0, size)
+                    size
+                }
+                writeFully(channel, ByteBuffer.wrap(compressed, 0, length), offset)
+
+                header.putLong(offset).putInt(length).putInt(crc.value.toInt())
+                offset += length
+            }
+
+            val bitmaps = bitmapsBytes(storage.solidBits.words, storage.liquidBits.words, storage.surfaceHeights,
+                                       storage.lightingStamps, storage.worldSeed)
+            crc.reset()
+            crc.update(bitmaps)
+
+            val bitmapsCompressed = ByteArray(maxDeflatedSize(bitmaps.size))
+            val bitmapsLength = deflate(deflater, bitmaps, bitmaps.size, bitmapsCompressed)
+
+            writeFully(channel, ByteBuffer.wrap(bitmapsCompressed, 0, bitmapsLength), offset)
+
+            header.position(0)
+            putHeader(header, storage.width, storage.height, deflateChunks, bitmapsOffset = offset,
+                      bitmapsLength = bitmapsLength, bitmapsCrc = crc.value.toInt(), indexOffset = HEADER_SIZE.toLong())
+
+            header.position(0)
+            writeFully(channel, header, 0)
+        }
+
+        /**
+         * writes the HEADER_SIZE byte header at the buffer's position
+         */
+        internal fun putHeader(buffer: ByteBuffer, width: Int, height: Int, deflateChunks: Boolean,
+                               bitmapsOffset: Long, bitmapsLength: Int, bitmapsCrc: Int, indexOffset: Long) {
+            buffer.putInt(SAVE_MAGIC)
+            buffer.putInt(SAVE_VERSION)
+            buffer.putInt(width)
+            buffer.putInt(height)
+            buffer.putInt(BlockChunk.SIZE)
+            buffer.putInt(SAVED_FIELDS.size)
+            buffer.putInt(if (deflateChunks) CHUNKS_DEFLATED else CHUNKS_STORED)
+            buffer.putLong(bitmapsOffset)
+            buffer.putInt(bitmapsLength)
+            buffer.putInt(bitmapsCrc)
+            buffer.putLong(indexOffset)
+        }
+
+        /**
+         * the uncompressed bitmaps section
+         */
+        internal fun bitmapsBytes(solidWords: LongArray, liquidWords: LongArray, surfaceHeights: IntArray,
+                                  lightingStamps: IntArray, worldSeed: Long): ByteArray {
+            val intsStart = (solidWords.size + liquidWords.size) * 8
+            val seedStart = intsStart + (surfaceHeights.size + lightingStamps.size) * 4
+            val buffer = ByteBuffer.allocate(seedStart + 8)
+            buffer.asLongBuffer().put(solidWords).put(liquidWords)
+            buffer.position(intsStart)
+            buffer.asIntBuffer().put(surfaceHeights).put(lightingStamps)
+            buffer.putLong(seedStart, worldSeed)
+
+            return buffer.array()
+        }
+
+        /**
+         * deflate can (barely) grow incompressible data
+         */
+        internal fun maxDeflatedSize(size: Int) = size + size / 100 + 64
+
+        /**
+         * @return compressed length
+         * @throws IOException if it didn't all fit in @param output, rather than
+         * have a truncated chunk saved as if it were fine
+         */
+        internal fun deflate(deflater: Deflater, input: ByteArray, length: Int, output: ByteArray): Int {
+            deflater.reset()
+            deflater.setInput(input, 0, length)
+            deflater.finish()
+            val compressedLength = deflater.deflate(output)
+            if (!deflater.finished()) {
+                throw IOException("deflating $length bytes needed more than the ${output.size} byte buffer")
+            }
+
+            return compressedLength
+        }
+
+        internal fun writeFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+            var written = 0L
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, position + written)
+            }
+        }
+    }
 }
@@ -0,0 +1,286 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium
+
+import java.io.Closeable
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.zip.CRC32
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+
+/**
+ * Random access to the chunks of a world save, see WorldIO for the format.
+ * Reads the header and chunk index up front, then each chunk on request.
+ */
+class WorldSaveReader(path: Path) : Closeable {
+
+    private val channel = FileChannel.open(path, StandardOpenOption.READ)
+
+    /**
+     * format version, between WorldIO.OLDEST_SAVE_VERSION and SAVE_VERSION
+     */
+    val version: Int
+    val width: Int
+    val height: Int
+    val chunksWide: Int
+    val chunksHigh: Int
+
+    /**
+     * false if chunk payloads are stored as is, see WorldIO.writeBlocks
+     */
+    val chunksDeflated: Boolean
+
+    private val bitmapsOffset: Long
+    /**
+     * compressed size of the bitmaps section
+     */
+    val bitmapsLength: Int
+    private val bitmapsCrc: Int
+
+    private val offsets: LongArray
+    private val lengths: IntArray
+    private val crcs: IntArray
+
+    private val inflater = Inflater()
+    private val crc = CRC32()
+
+    init {
+        val header = readFully(0, WorldIO.HEADER_SIZE)
+        if (header.int != WorldIO.SAVE_MAGIC) {
+            throw IOException("$path is not a world save")
+        }
+
+        version = header.int
+        if (version !in WorldIO.OLDEST_SAVE_VERSION..WorldIO.SAVE_VERSION) {
+            throw IOException("$path is world save version $version, expected " +
+                              "${WorldIO.OLDEST_SAVE_VERSION} to ${WorldIO.SAVE_VERSION}")
+        }
+
+        width = header.int
+        height = header.int
+
+        val chunkSize = header.int
+        val fieldCount = header.int
+        if (chunkSize != BlockChunk.SIZE || fieldCount != WorldIO.SAVED_FIELDS.size) {
+            throw IOException("$path has chunk size $chunkSize and $fieldCount fields, " +
+                              "expected ${BlockChunk.SIZE} and ${WorldIO.SAVED_FIELDS.size}")
+        }
+
+        val chunkEncoding = header.int
+        chunksDeflated = when (chunkEncoding) {
+            WorldIO.CHUNKS_DEFLATED -> true
+            WorldIO.CHUNKS_STORED -> false
+            else -> throw IOException("$path has unknown chunk encoding $chunkEncoding")
+        }
+
+        bitmapsOffset = header.long
+        bitmapsLength = header.int
+        bitmapsCrc = header.int
+        val indexOffset = header.long
+
+        chunksWide = (width + BlockChunk.MASK) shr BlockChunk.SHIFT
+        chunksHigh = (height + BlockChunk.MASK) shr BlockChunk.SHIFT
+
+        val chunkCount = chunksWide * chunksHigh
+        offsets = LongArray(chunkCount)
+        lengths = IntArray(chunkCount)
+        crcs = IntArray(chunkCount)
+
+        val index = readFully(indexOffset, chunkCount * WorldIO.INDEX_ENTRY_SIZE)
+        for (i in 0 until chunkCount) {
+            offsets[i] = index.long
+            lengths[i] = index.int
+            crcs[i] = index.int
+        }
+    }
+
+    fun chunkRight(chunkX: Int) = minOf((chunkX + 1) * BlockChunk.SIZE, width) - 1
+    fun chunkBottom(chunkY: Int) = minOf((chunkY + 1) * BlockChunk.SIZE, height) - 1
+
+    /**
+     * @return true if this chunk has nothing saved, because it was never
+     * written to (it's all air) or because it hasn't been generated yet
+     */
+    fun isChunkEmpty(chunkX: Int, chunkY: Int) = lengths[chunkX * chunksHigh + chunkY] == 0
+
+    /**
+     * @return true if this chunk hasn't been generated yet, see BlockStorage.ungeneratedChunks
+     */
+    fun isChunkUngenerated(chunkX: Int, chunkY: Int): Boolean {
+        val index = chunkX * chunksHigh + chunkY
+        return lengths[index] == 0 && offsets[index] == WorldIO.UNGENERATED_CHUNK_OFFSET
+    }
+
+    /**
+     * @return the chunk's blocks, laid out as BlockStorage.copyRegionTo
+     * with WorldIO.SAVED_FIELDS over the chunk's rect. null if the chunk is empty
+     */
+    fun readChunk(chunkX: Int, chunkY: Int): ByteArray? {
+        val index = chunkX * chunksHigh + chunkY
+        if (lengths[index] == 0) {
+            return null
+        }
+
+        val left = chunkX * BlockChunk.SIZE
+        val top = chunkY * BlockChunk.SIZE
+        val size = (chunkRight(chunkX) - left + 1) * (chunkBottom(chunkY) - top + 1) * WorldIO.SAVED_FIELDS.size
+        val payload = ByteArray(size)
+
+        if (chunksDeflated) {
+            inflateChecked(offsets[index], lengths[index], crcs[index], payload, "chunk ($chunkX, $chunkY)")
+        } else {
+            if (lengths[index] != size) {
+                throw IOException("chunk ($chunkX, $chunkY) is ${lengths[index]} bytes, expected $size")
+            }
+
+            readFully(offsets[index], size).get(payload)
+            checkCrc(payload, crcs[index], "chunk ($chunkX, $chunkY)")
+        }
+
+        return payload
+    }
+
+    /**
+     * file offset of the chunk's payload, see copyIndex
+     */
+    fun chunkOffset(chunkX: Int, chunkY: Int) = offsets[chunkX * chunksHigh + chunkY]
+
+    /**
+     * maps the whole save read-only. the mapping stays valid after this
+     * reader is closed, and after the save is replaced by a newer one
+     * (the old file lives on until it's unmapped)
+     */
+    fun mapFile(): MappedByteBuffer {
+        val size = channel.size()
+        if (size > Int.MAX_VALUE) {
+            throw IOException("world save is $size bytes, too big to map")
+        }
+
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+    }
+
+    /**
+     * @return the chunk's payload as it is on disk, still compressed (if chunksDeflated), so it
+     * can be copied into a new save without decoding it. null if the chunk is empty
+     */
+    fun readRawChunk(chunkX: Int, chunkY: Int): ByteBuffer? {
+        val index = chunkX * chunksHigh + chunkY
+        if (lengths[index] == 0) {
+            return null
+        }
+
+        return readFully(offsets[index], lengths[index])
+    }
+
+    /**
+     * CRC32 of the chunk's uncompressed payload
+     */
+    fun chunkCrc(chunkX: Int, chunkY: Int) = crcs[chunkX * chunksHigh + chunkY]
+
+    /**
+     * copies of the whole chunk index, by BlockStorage chunk index.
+     * (offset, compressed length, CRC32)
+     */
+    fun copyIndex(): Triple<LongArray, IntArray, IntArray> = Triple(offsets.copyOf(), lengths.copyOf(), crcs.copyOf())
+
+    /**
+     * reads the saved solidity/liquid bitmaps and surface heights, which is
+     * all that's needed to start using a world before its chunks are loaded,
+     * and the chunks' lighting stamps (all 0 for saves from before they were
+     * saved). the arrays must be sized for this save's world
+     *
+     * @return the world seed, 0 for saves from before it was saved
+     */
+    fun readBitmapsInto(solidWords: LongArray, liquidWords: LongArray, surfaceHeights: IntArray,
+                        lightingStamps: IntArray): Long {
+        val hasStamps = version >= 5
+        val hasSeed = version >= 6
+        val seedStart = (solidWords.size + liquidWords.size) * 8 +
+                (surfaceHeights.size + if (hasStamps) lightingStamps.size else 0) * 4
+        val bytes = ByteArray(seedStart + if (hasSeed) 8 else 0)
+        inflateChecked(bitmapsOffset, bitmapsLength, bitmapsCrc, bytes, "solidity bitmaps")
+
+        val buffer = ByteBuffer.wrap(bytes)
+        buffer.asLongBuffer().get(solidWords).get(liquidWords)
+        buffer.position((solidWords.size + liquidWords.size) * 8)
+        val ints = buffer.asIntBuffer().get(surfaceHeights)
+        if (hasStamps) {
+            ints.get(lightingStamps)
+        } else {
+            Arrays.fill(lightingStamps, 0)
+        }
+
+        return if (hasSeed) buffer.getLong(seedStart) else 0L
+    }
+
+    private fun inflateChecked(position: Long, length: Int, expectedCrc: Int, dest: ByteArray, what: String) {
+        val compressed = readFully(position, length)
+
+        inflater.reset()
+        inflater.setInput(compressed.array(), 0, length)
+        val inflated = try {
+            inflater.inflate(dest)
+        } catch (e: DataFormatException) {
+            throw IOException("$what is corrupt", e)
+        }
+
+        if (inflated != dest.size || !inflater.finished()) {
+            throw IOException("$what inflated to $inflated bytes, expected ${dest.size}")
+        }
+
+        checkCrc(dest, expectedCrc, what)
+    }
+
+    private fun checkCrc(data: ByteArray, expectedCrc: Int, what: String) {
+        crc.reset()
+        crc.update(data, 0, data.size)
+        if (crc.value.toInt() != expectedCrc) {
+            throw IOException("$what failed its CRC check")
+        }
+    }
+
+    private fun readFully(position: Long, length: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocate(length)
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw IOException("world save ends early, wanted $length bytes at $position")
+            }
+        }
+
+        buffer.flip()
+        return buffer
+    }
+
+    override fun close() {
+        inflater.end()
+        channel.close()
+    }
+}
@@ -30,11 +30,9 @@ import com.ore.infinium.OreWorld
 import com.ore.infinium.components.ItemComponent
 import com.ore.infinium.components.SpriteComponent
 import com.ore.infinium.components.ToolComponent
-import com.ore.infinium.systems.server.ServerNetworkSystem
 import com.ore.infinium.util.allOf
 import com.ore.infinium.util.mapper
 import com.ore.infinium.util.require
-import com.ore.infinium.util.system
 
 @Wire(failOnNull = false)
 class ExplosiveSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf()) {
@@ -43,8 +41,6 @@ class ExplosiveSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf())
     private val mTool by require<ToolComponent>()
     private val mSprite by mapper<SpriteComponent>()
 
-    private val serverNetworkSystem by system<ServerNetworkSystem>()
-
     override fun process(entityId: Int) {
         val cItem = mItem.get(entityId)
         if (cItem.state != ItemComponent.State.InWorldState) {
@@ -81,7 +77,6 @@ class ExplosiveSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf())
             }
 
             oreWorld.serverDestroyEntity(entityId)
-            serverNetworkSystem.sendBlockRegionInterestedPlayers(left = left, right = right, top = top, bottom = bottom)
         }
     }
 }
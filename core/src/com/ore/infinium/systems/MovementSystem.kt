@@ -442,55 +442,46 @@ class MovementSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.al
 
         var walkedUpSingleBlock = false
         if (velocity.x > 0.0f) {
-            //try moving right, only loop over tiles on the right side
-            for (y in topY until bottomY) {
-                if (oreWorld.isBlockSolid(rightX, y)) {
-                    val tileRight = (rightX - 0).toFloat()
-
-                    if (y == bottomY - 1) {
-                        //we're at the last iteration, closest to the bottom,
-                        //this is the only block solid and it's on our feet,
-                        //we can walk over it
-                        //todo i bet this breaks awfully when some block is above you
-                        desiredPosition.x = tileRight - 1f
-                        desiredPosition.y -= 1f
-                        velocity.y = 0f
-                        walkedUpSingleBlock = true
-                        break
-                    }
-
+            //try moving right, only check tiles on the right side
+            val y = oreWorld.firstSolidBlockInColumn(rightX, topY, bottomY - 1)
+            if (y != -1) {
+                val tileRight = (rightX - 0).toFloat()
+
+                if (y == bottomY - 1) {
+                    //closest to the bottom, this is the only block solid
+                    //and it's on our feet, we can walk over it
+                    //todo i bet this breaks awfully when some block is above you
+                    desiredPosition.x = tileRight - 1f
+                    desiredPosition.y -= 1f
+                    velocity.y = 0f
+                    walkedUpSingleBlock = true
+                } else {
                     velocity.x = 0.0f
 
                     //fixme: super small threshold to prevent sticking to right side,
                     desiredPosition.x = tileRight - sizeMeters.x * 0.5f - epsilon
-                    break
-                } // else no collision
-            }
+                }
+            } // else no collision
         } else if (velocity.x < 0.0f) {
-            //try moving left, only loop over tiles on the left side
-            for (y in topY until bottomY) {
-                if (oreWorld.isBlockSolid(leftX, y)) {
-
-                    val tileLeft = (leftX + 1).toFloat()
-
-                    if (y == bottomY - 1) {
-                        //we're at the last iteration, closest to the bottom,
-                        //this is the only block solid and it's on our feet,
-                        //we can walk over it
-                        //todo i bet this breaks awfully when some block is above you
-                        desiredPosition.x = tileLeft + 1f
-                        desiredPosition.y -= 1f
-                        velocity.y = 0f
-                        walkedUpSingleBlock = true
-                        break
-                    }
-
+            //try moving left, only check tiles on the left side
+            val y = oreWorld.firstSolidBlockInColumn(leftX, topY, bottomY - 1)
+            if (y != -1) {
+                val tileLeft = (leftX + 1).toFloat()
+
+                if (y == bottomY - 1) {
+                    //closest to the bottom, this is the only block solid
+                    //and it's on our feet, we can walk over it
+                    //todo i bet this breaks awfully when some block is above you
+                    desiredPosition.x = tileLeft + 1f
+                    desiredPosition.y -= 1f
+                    velocity.y = 0f
+                    walkedUpSingleBlock = true
+                } else {
                     velocity.x = 0.0f
 
                     desiredPosition.x = tileLeft + sizeMeters.x * 0.5f + epsilon
-                    break
-                } // else no collision
-            }
+                }
+            } // else no collision
         }
 
         topY = oldTopY
@@ -501,36 +492,28 @@ class MovementSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.al
         var canJump = false
 
         if (velocity.y > 0.0f) {
-            //try moving down, only loop over tiles on the bottom side(inclusive, remember)
-            for (x in leftX..rightX) {
-                if (oreWorld.isBlockSolid(x, bottomY + 0)) {
-                    canJump = true
-                    if (walkedUpSingleBlock) {
-                        break
-                    }
-
+            //try moving down, only check tiles on the bottom side(inclusive, remember)
+            if (oreWorld.isAnyBlockSolidInRow(bottomY + 0, leftX, rightX)) {
+                canJump = true
+                if (!walkedUpSingleBlock) {
                     //collision occured, stop here
                     velocity.y = 0.0f
 
                     //indexes are top-left remember, due to how it's rendered and such.
                     val tileTop = bottomY.toFloat()
                     desiredPosition.y = tileTop - sizeMeters.y * 0.5f
-                    break
-                } // else noop, move freely
-            }
+                }
+            } // else noop, move freely
         } else if (velocity.y < 0.0f) {
-            //try moving up, only loop over tiles on the bottom side(inclusive, remember)
-            for (x in leftX..rightX) {
-                if (oreWorld.isBlockSolid(x, topY - 1)) {
-                    //collision occured, stop here
-                    velocity.y = 0.0f
-
-                    //indexes are top-left remember, due to how it's rendered and such.
-                    val tileBottom = topY.toFloat()
-                    desiredPosition.y = tileBottom + sizeMeters.y * 0.5f + epsilon
-                    break
-                } // else noop, move freely
-            }
+            //try moving up, only check tiles on the top side(inclusive, remember)
+            if (oreWorld.isAnyBlockSolidInRow(topY - 1, leftX, rightX)) {
+                //collision occured, stop here
+                velocity.y = 0.0f
+
+                //indexes are top-left remember, due to how it's rendered and such.
+                val tileBottom = topY.toFloat()
+                desiredPosition.y = tileBottom + sizeMeters.y * 0.5f + epsilon
+            } // else noop, move freely
         }
 
         mJump.ifPresent(entity) {
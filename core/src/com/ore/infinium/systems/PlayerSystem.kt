@@ -32,6 +32,7 @@ import com.ore.infinium.OreTimer
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.PlayerComponent
 import com.ore.infinium.components.SpriteComponent
+import com.ore.infinium.systems.server.ChunkResidencySystem
 import com.ore.infinium.systems.server.ServerNetworkSystem
 import com.ore.infinium.util.mapper
 import com.ore.infinium.util.require
@@ -44,6 +45,7 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
     private val mSprite by mapper<SpriteComponent>()
 
     private val serverNetworkSystem by system<ServerNetworkSystem>()
+    private val chunkResidencySystem by system<ChunkResidencySystem>()
 
     private val chunkTimer = OreTimer()
 
@@ -95,6 +97,7 @@ class PlayerSystem(private val oreWorld: OreWorld) : IteratingSystem(Aspect.all(
 
         val center = Vector2(cSprite.sprite.x, cSprite.sprite.y)
         loadedViewport.centerOn(center, oreWorld)
+        chunkResidencySystem.updateResidency()
 
         serverNetworkSystem.sendPlayerLoadedViewportMoved(playerEntity)
 
@@ -243,7 +243,7 @@ class ClientBlockDiggingSystem(private val oreWorld: OreWorld, private val clien
             //we will too, but mostly just so we know not to send these requests again
             clientNetworkSystem.sendBlockDigBegin(blockX, blockY)
 
-            val totalBlockHealth = OreBlock.blockAttributes[blockType]!!.blockTotalHealth
+            val totalBlockHealth = OreBlock.totalHealth(blockType)
 
             val blockToDig = BlockToDig().apply {
                 damagedBlockHealth = totalBlockHealth
@@ -552,26 +552,10 @@ class ClientNetworkSystem(private val oreWorld: OreWorld) : BaseSystem() {
     }
 
     private fun receiveBlockRegion(region: Network.Shared.BlockRegion) {
-        var sourceIndex = 0
-        for (y in region.y..region.y2) {
-            for (x in region.x..region.x2) {
-                val blockType = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE]
-                oreWorld.setBlockType(x, y, blockType)
+        oreWorld.applyRegionFrom(Network.Shared.BlockRegion.FIELDS, region.x, region.y, region.x2, region.y2,
+                                 region.blocks)
 
-                val wallType = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE]
-                oreWorld.setBlockWallType(x, y, wallType)
-
-                val lightLevel = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL]
-                oreWorld.setBlockLightLevel(x, y, lightLevel)
-
-                val flags = region.blocks[sourceIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS]
-                oreWorld.setBlockFlags(x, y, flags)
-
-                ++sourceIndex
-            }
-        }
-
-        //log("client block region", "received/loaded $sourceIndex tiles from server");
+        //log("client block region", "received/loaded ${region.blocks.size} bytes from server");
 
         //fixme should re transition tiles in this area
     }
@@ -259,7 +259,7 @@ class DebugTextRenderSystem(camera: OrthographicCamera, private val oreWorld: Or
         val hasGrass = oreWorld.blockHasFlag(x, y, OreBlock.BlockFlags.GrassBlock)
 
         val damagedBlockHealth = clientBlockDiggingSystem.blockHealthAtIndex(x, y)
-        val totalBlockHealth = OreBlock.blockAttributes[blockType]!!.blockTotalHealth
+        val totalBlockHealth = OreBlock.totalHealth(blockType)
 
         drawNextLeftString("blockHealth: $damagedBlockHealth / $totalBlockHealth")
 
@@ -29,6 +29,7 @@ import com.artemis.annotations.Wire
 import com.artemis.managers.TagManager
 import com.artemis.systems.IntervalSystem
 import com.badlogic.gdx.graphics.OrthographicCamera
+import com.ore.infinium.BlockChangeJournal
 import com.ore.infinium.LoadedViewport
 import com.ore.infinium.OreBlock
 import com.ore.infinium.OreWorld
@@ -46,6 +47,19 @@ class TileTransitionSystem(private val camera: OrthographicCamera, private val o
     private val tagManager by system<TagManager>()
     private val clientNetworkSystem by system<ClientNetworkSystem>()
 
+    private lateinit var blockChangeCursor: BlockChangeJournal.Cursor
+
+    /**
+     * positions (see BlockChangeJournal.position) of blocks changed since the last run
+     */
+    private val changedBlockPositions = LinkedHashSet<Int>()
+
+    private var lastBlockRegion: LoadedViewport.PlayerViewportBlockRegion? = null
+
+    override fun initialize() {
+        blockChangeCursor = oreWorld.blockChangeJournal.newCursor()
+    }
+
     /**
      * each flag here is handled (possibly, somewhat) differently depending on what kinda
      * block it is. The various types have their own logic, these are just sometimes-shared
@@ -102,140 +116,183 @@ class TileTransitionSystem(private val camera: OrthographicCamera, private val o
         val cPlayer = mPlayer.get(player)
         val blockRegion = cPlayer.loadedViewport.blockRegionInViewport()
 
-        transitionTiles(blockRegion)
-        transitionGrass(blockRegion)
+        changedBlockPositions.clear()
+        val journalIntact = oreWorld.blockChangeJournal.drain(blockChangeCursor) { record ->
+            //mesh types are our own output, lighting doesn't affect transitions
+            val field = BlockChangeJournal.field(record)
+            if (field == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE || field == OreBlock.BLOCK_BYTE_FIELD_INDEX_FLAGS) {
+                changedBlockPositions.add(BlockChangeJournal.position(record))
+            }
+        }
+
+        if (!journalIntact || viewportMoved(blockRegion)) {
+            transitionTiles(blockRegion)
+            transitionGrass(blockRegion)
+            return
+        }
+
+        //only redo tiles whose neighbors changed. grass looks 2 tiles left and right, 1 up and down
+        for (position in changedBlockPositions) {
+            val changedX = BlockChangeJournal.positionX(position)
+            val changedY = BlockChangeJournal.positionY(position)
+
+            for (y in (changedY - 1).coerceAtLeast(blockRegion.y)..(changedY + 1).coerceAtMost(blockRegion.height)) {
+                for (x in (changedX - 2).coerceAtLeast(blockRegion.x)..(changedX + 2).coerceAtMost(blockRegion.width)) {
+                    transitionTile(x, y)
+                    transitionGrassTile(x, y)
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the viewport is different from the one last time we were called,
+     * in which case the whole thing needs transitioning
+     */
+    private fun viewportMoved(blockRegion: LoadedViewport.PlayerViewportBlockRegion): Boolean {
+        val last = lastBlockRegion
+        if (last != null && last.x == blockRegion.x && last.y == blockRegion.y &&
+                last.width == blockRegion.width && last.height == blockRegion.height) {
+            return false
+        }
+
+        lastBlockRegion = blockRegion
+        return true
     }
 
     private fun transitionGrass(blockRegion: LoadedViewport.PlayerViewportBlockRegion) {
         for (y in blockRegion.y..blockRegion.height) {
             for (x in blockRegion.x..blockRegion.width) {
+                transitionGrassTile(x, y)
+            }
+        }
+    }
 
-                val leftLeftBlockType = oreWorld.blockTypeSafely(x - 2, y)
-                val rightRightBlockType = oreWorld.blockTypeSafely(x + 2, y)
-                val leftBlockType = oreWorld.blockTypeSafely(x - 1, y)
-                val rightBlockType = oreWorld.blockTypeSafely(x + 1, y)
-                val topBlockType = oreWorld.blockTypeSafely(x, y - 1)
-                val bottomBlockType = oreWorld.blockTypeSafely(x, y + 1)
-
-                val topLeftBlockType = oreWorld.blockTypeSafely(x - 1, y - 1)
-                val topRightBlockType = oreWorld.blockTypeSafely(x + 1, y - 1)
-                val bottomLeftBlockType = oreWorld.blockTypeSafely(x - 1, y + 1)
-                val bottomRightBlockType = oreWorld.blockTypeSafely(x + 1, y + 1)
-
-                val blockType = oreWorld.blockTypeSafely(x, y)
-                val blockHasGrass = oreWorld.blockHasFlag(x, y, OreBlock.BlockFlags.GrassBlock)
-                if (blockType == OreBlock.BlockType.Dirt.oreValue && blockHasGrass) {
-
-                    //should have grass on left side of this block..or not.
-                    val leftEmpty = leftBlockType == OreBlock.BlockType.Air.oreValue
-                    val leftLeftEmpty = leftLeftBlockType == OreBlock.BlockType.Air.oreValue
-
-                    val rightEmpty = rightBlockType == OreBlock.BlockType.Air.oreValue
-                    val rightRightEmpty = rightRightBlockType == OreBlock.BlockType.Air.oreValue
-
-                    val topEmpty = topBlockType == OreBlock.BlockType.Air.oreValue
-
-                    val bottomEmpty = bottomBlockType == OreBlock.BlockType.Air.oreValue
-
-                    //if block to the left is dirt..
-                    val leftDirt = leftBlockType == OreBlock.BlockType.Dirt.oreValue
-                    val rightDirt = rightBlockType == OreBlock.BlockType.Dirt.oreValue
-                    val topDirt = topBlockType == OreBlock.BlockType.Dirt.oreValue
-                    val bottomDirt = bottomBlockType == OreBlock.BlockType.Dirt.oreValue
-
-                    //handled a bit differently,
-                    val topLeftEmpty = topLeftBlockType == OreBlock.BlockType.Air.oreValue
-                    val topRightEmpty = topRightBlockType == OreBlock.BlockType.Air.oreValue
-                    val bottomLeftEmpty = bottomLeftBlockType == OreBlock.BlockType.Air.oreValue
-                    val bottomRightEmpty = bottomRightBlockType == OreBlock.BlockType.Air.oreValue
-
-                    val leftOre = OreBlock.blockAttributes[leftBlockType]!!.category == OreBlock.BlockAttributes.BlockCategory.Ore
-
-                    var finalMesh: Byte = -1
-
-                    if (leftDirt && rightDirt && topDirt && bottomDirt && topLeftEmpty && topRightEmpty &&
-                            bottomLeftEmpty && bottomRightEmpty) {
-                        finalMesh = 0
-                    } else if (leftEmpty && topEmpty && rightDirt && bottomDirt && !bottomRightEmpty) {
-                        finalMesh = 1
-                    } else if (leftDirt && topEmpty && rightDirt && bottomDirt &&
-                            !(bottomLeftEmpty && bottomRightEmpty)) {
-                        //fixme this is supsiciously different
-                        finalMesh = 2
-                    } else if (leftDirt && bottomDirt && rightEmpty && topEmpty) {
-                        // fixme check leftleftempty etc?
-                        finalMesh = 3
-                    } else if (topDirt && rightDirt && bottomDirt && leftEmpty) {
-                        finalMesh = 4
-                    } else if (leftDirt && topDirt && bottomDirt && rightEmpty) {
-                        finalMesh = 5
-                    } else if (topDirt && rightDirt && leftEmpty && bottomEmpty && !topRightEmpty) {
-                        finalMesh = 6
-                    } else if (topDirt && leftDirt && rightDirt && bottomEmpty) {
-                        finalMesh = 7
-                    } else if (leftDirt && topDirt && rightEmpty && bottomEmpty && !topLeftEmpty) {
-                        finalMesh = 8
-                    } else if (leftEmpty && topEmpty && rightEmpty && bottomDirt) {
-                        finalMesh = 9
-                    } else if (leftEmpty && rightEmpty && topDirt && bottomDirt) {
-                        finalMesh = 10
-                    } else if (leftEmpty && topEmpty && bottomEmpty && rightDirt) {
-                        finalMesh = 11
-                    } else if (leftDirt && rightDirt && topEmpty && bottomEmpty) {
-                        finalMesh = 12
-                    } else if (leftDirt && topEmpty && bottomEmpty && rightEmpty) {
-                        finalMesh = 13
-                    } else if (leftEmpty && rightEmpty && bottomEmpty && topDirt) {
-                        finalMesh = 14
-                    } else if (leftEmpty && rightEmpty && topEmpty && bottomEmpty) {
-                        finalMesh = 15
-                    } else if (leftDirt && topDirt && rightDirt && bottomDirt && topLeftEmpty) {
-                        finalMesh = 16
-                    } else if (leftDirt && topDirt && bottomDirt && rightDirt && topRightEmpty) {
-                        finalMesh = 17
-                    } else if (leftDirt && bottomDirt && topDirt && bottomLeftEmpty &&
-                            !topLeftEmpty) {
-                        //fixme ADD TOP BOTTOM ETC
-                        finalMesh = 18
-                    } else if (rightDirt && bottomDirt && topDirt && leftDirt && bottomRightEmpty) {
-                        finalMesh = 19
-                    } else if (leftDirt && rightDirt && topDirt && topLeftEmpty && topRightEmpty) {
-                        finalMesh = 20
-                    } else if (topDirt && bottomDirt && leftDirt && topLeftEmpty && bottomLeftEmpty) {
-                        finalMesh = 21
-                    } else if (topDirt && bottomDirt && rightDirt && topRightEmpty && bottomRightEmpty) {
-                        finalMesh = 22
-                    } else if (leftDirt && rightDirt && topDirt && bottomLeftEmpty && bottomRightEmpty) {
-                        finalMesh = 23
-                    } else if (topDirt && rightDirt && bottomDirt && topRightEmpty && bottomRightEmpty &&
-                            leftEmpty) {
-                        //fixme
-                        finalMesh = 24
-                    } else if (leftDirt && topDirt && bottomDirt && topLeftEmpty && bottomLeftEmpty && rightEmpty) {
-                        finalMesh = 25
-                    } else if (leftDirt && rightDirt && topDirt && topLeftEmpty && topRightEmpty && bottomEmpty) {
-                        finalMesh = 26
-                    } else if (leftDirt && rightDirt && bottomDirt && topEmpty && bottomLeftEmpty && bottomRightEmpty) {
-                        finalMesh = 27
-                    } else if (leftDirt && topDirt && topLeftEmpty && rightEmpty && bottomEmpty) {
-                        finalMesh = 28
-                    } else if (topDirt && rightDirt && topRightEmpty && leftEmpty && bottomEmpty) {
-                        finalMesh = 29
-                    } else if (leftDirt && bottomDirt && bottomRightEmpty && rightEmpty && topEmpty) {
-                        finalMesh = 30
-                    } else if (rightDirt && bottomDirt && bottomRightEmpty && leftEmpty && topEmpty) {
-                        finalMesh = 31
-                    } else {
-                        //failure
-                        finalMesh = 15
-                    }
-
-                    oreWorld.setBlockMeshType(x, y, finalMesh)
-
-                    if (finalMesh.toInt() == -1) {
-                        assert(false) { "invalid mesh type retrieval, for some reason" }
-                    }
-                }
+    private fun transitionGrassTile(x: Int, y: Int) {
+        val leftLeftBlockType = oreWorld.blockTypeSafely(x - 2, y)
+        val rightRightBlockType = oreWorld.blockTypeSafely(x + 2, y)
+        val leftBlockType = oreWorld.blockTypeSafely(x - 1, y)
+        val rightBlockType = oreWorld.blockTypeSafely(x + 1, y)
+        val topBlockType = oreWorld.blockTypeSafely(x, y - 1)
+        val bottomBlockType = oreWorld.blockTypeSafely(x, y + 1)
+
+        val topLeftBlockType = oreWorld.blockTypeSafely(x - 1, y - 1)
+        val topRightBlockType = oreWorld.blockTypeSafely(x + 1, y - 1)
+        val bottomLeftBlockType = oreWorld.blockTypeSafely(x - 1, y + 1)
+        val bottomRightBlockType = oreWorld.blockTypeSafely(x + 1, y + 1)
+
+        val blockType = oreWorld.blockTypeSafely(x, y)
+        val blockHasGrass = oreWorld.blockHasFlag(x, y, OreBlock.BlockFlags.GrassBlock)
+        if (blockType == OreBlock.BlockType.Dirt.oreValue && blockHasGrass) {
+
+            //should have grass on left side of this block..or not.
+            val leftEmpty = leftBlockType == OreBlock.BlockType.Air.oreValue
+            val leftLeftEmpty = leftLeftBlockType == OreBlock.BlockType.Air.oreValue
+
+            val rightEmpty = rightBlockType == OreBlock.BlockType.Air.oreValue
+            val rightRightEmpty = rightRightBlockType == OreBlock.BlockType.Air.oreValue
+
+            val topEmpty = topBlockType == OreBlock.BlockType.Air.oreValue
+
+            val bottomEmpty = bottomBlockType == OreBlock.BlockType.Air.oreValue
+
+            //if block to the left is dirt..
+            val leftDirt = leftBlockType == OreBlock.BlockType.Dirt.oreValue
+            val rightDirt = rightBlockType == OreBlock.BlockType.Dirt.oreValue
+            val topDirt = topBlockType == OreBlock.BlockType.Dirt.oreValue
+            val bottomDirt = bottomBlockType == OreBlock.BlockType.Dirt.oreValue
+
+            //handled a bit differently,
+            val topLeftEmpty = topLeftBlockType == OreBlock.BlockType.Air.oreValue
+            val topRightEmpty = topRightBlockType == OreBlock.BlockType.Air.oreValue
+            val bottomLeftEmpty = bottomLeftBlockType == OreBlock.BlockType.Air.oreValue
+            val bottomRightEmpty = bottomRightBlockType == OreBlock.BlockType.Air.oreValue
+
+            val leftOre = OreBlock.category(leftBlockType) == OreBlock.BlockAttributes.BlockCategory.Ore
+
+            var finalMesh: Byte = -1
+
+            if (leftDirt && rightDirt && topDirt && bottomDirt && topLeftEmpty && topRightEmpty &&
+                    bottomLeftEmpty && bottomRightEmpty) {
+                finalMesh = 0
+            } else if (leftEmpty && topEmpty && rightDirt && bottomDirt && !bottomRightEmpty) {
+                finalMesh = 1
+            } else if (leftDirt && topEmpty && rightDirt && bottomDirt &&
+                    !(bottomLeftEmpty && bottomRightEmpty)) {
+                //fixme this is supsiciously different
+                finalMesh = 2
+            } else if (leftDirt && bottomDirt && rightEmpty && topEmpty) {
+                // fixme check leftleftempty etc?
+                finalMesh = 3
+            } else if (topDirt && rightDirt && bottomDirt && leftEmpty) {
+                finalMesh = 4
+            } else if (leftDirt && topDirt && bottomDirt && rightEmpty) {
+                finalMesh = 5
+            } else if (topDirt && rightDirt && leftEmpty && bottomEmpty && !topRightEmpty) {
+                finalMesh = 6
+            } else if (topDirt && leftDirt && rightDirt && bottomEmpty) {
+                finalMesh = 7
+            } else if (leftDirt && topDirt && rightEmpty && bottomEmpty && !topLeftEmpty) {
+                finalMesh = 8
+            } else if (leftEmpty && topEmpty && rightEmpty && bottomDirt) {
+                finalMesh = 9
+            } else if (leftEmpty && rightEmpty && topDirt && bottomDirt) {
+                finalMesh = 10
+            } else if (leftEmpty && topEmpty && bottomEmpty && rightDirt) {
+                finalMesh = 11
+            } else if (leftDirt && rightDirt && topEmpty && bottomEmpty) {
+                finalMesh = 12
+            } else if (leftDirt && topEmpty && bottomEmpty && rightEmpty) {
+                finalMesh = 13
+            } else if (leftEmpty && rightEmpty && bottomEmpty && topDirt) {
+                finalMesh = 14
+            } else if (leftEmpty && rightEmpty && topEmpty && bottomEmpty) {
+                finalMesh = 15
+            } else if (leftDirt && topDirt && rightDirt && bottomDirt && topLeftEmpty) {
+                finalMesh = 16
+            } else if (leftDirt && topDirt && bottomDirt && rightDirt && topRightEmpty) {
+                finalMesh = 17
+            } else if (leftDirt && bottomDirt && topDirt && bottomLeftEmpty &&
+                    !topLeftEmpty) {
+                //fixme ADD TOP BOTTOM ETC
+                finalMesh = 18
+            } else if (rightDirt && bottomDirt && topDirt && leftDirt && bottomRightEmpty) {
+                finalMesh = 19
+            } else if (leftDirt && rightDirt && topDirt && topLeftEmpty && topRightEmpty) {
+                finalMesh = 20
+            } else if (topDirt && bottomDirt && leftDirt && topLeftEmpty && bottomLeftEmpty) {
+                finalMesh = 21
+            } else if (topDirt && bottomDirt && rightDirt && topRightEmpty && bottomRightEmpty) {
+                finalMesh = 22
+            } else if (leftDirt && rightDirt && topDirt && bottomLeftEmpty && bottomRightEmpty) {
+                finalMesh = 23
+            } else if (topDirt && rightDirt && bottomDirt && topRightEmpty && bottomRightEmpty &&
+                    leftEmpty) {
+                //fixme
+                finalMesh = 24
+            } else if (leftDirt && topDirt && bottomDirt && topLeftEmpty && bottomLeftEmpty && rightEmpty) {
+                finalMesh = 25
+            } else if (leftDirt && rightDirt && topDirt && topLeftEmpty && topRightEmpty && bottomEmpty) {
+                finalMesh = 26
+            } else if (leftDirt && rightDirt && bottomDirt && topEmpty && bottomLeftEmpty && bottomRightEmpty) {
+                finalMesh = 27
+            } else if (leftDirt && topDirt && topLeftEmpty && rightEmpty && bottomEmpty) {
+                finalMesh = 28
+            } else if (topDirt && rightDirt && topRightEmpty && leftEmpty && bottomEmpty) {
+                finalMesh = 29
+            } else if (leftDirt && bottomDirt && bottomRightEmpty && rightEmpty && topEmpty) {
+                finalMesh = 30
+            } else if (rightDirt && bottomDirt && bottomRightEmpty && leftEmpty && topEmpty) {
+                finalMesh = 31
+            } else {
+                //failure
+                finalMesh = 15
+            }
+
+            oreWorld.setBlockMeshType(x, y, finalMesh)
+
+            if (finalMesh.toInt() == -1) {
+                assert(false) { "invalid mesh type retrieval, for some reason" }
             }
         }
     }
@@ -259,19 +316,22 @@ class TileTransitionSystem(private val camera: OrthographicCamera, private val o
     private fun transitionTiles(blockRegion: LoadedViewport.PlayerViewportBlockRegion) {
         for (y in blockRegion.y..blockRegion.height) {
             for (x in blockRegion.x..blockRegion.width) {
+                transitionTile(x, y)
+            }
+        }
+    }
 
-                val type = oreWorld.blockType(x, y)
-                if (type == OreBlock.BlockType.Air.oreValue) {
-                    continue
-                }
+    private fun transitionTile(x: Int, y: Int) {
+        val type = oreWorld.blockType(x, y)
+        if (type == OreBlock.BlockType.Air.oreValue) {
+            return
+        }
 
-                if (type == OreBlock.BlockType.Dirt.oreValue) {
-                    //fixme may be able to be made generic. MAYBE.
-                    transitionDirtTile(x, y)
-                } else if (type == OreBlock.BlockType.Stone.oreValue) {
-                    transitionStoneTile(x, y)
-                }
-            }
+        if (type == OreBlock.BlockType.Dirt.oreValue) {
+            //fixme may be able to be made generic. MAYBE.
+            transitionDirtTile(x, y)
+        } else if (type == OreBlock.BlockType.Stone.oreValue) {
+            transitionStoneTile(x, y)
         }
     }
 
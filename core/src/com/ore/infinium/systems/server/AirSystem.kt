@@ -26,7 +26,6 @@ package com.ore.infinium.systems.server
 
 import com.artemis.annotations.Wire
 import com.artemis.systems.IteratingSystem
-import com.ore.infinium.OreBlock
 import com.ore.infinium.OreTimer
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.*
@@ -103,16 +102,6 @@ class AirSystem(private val oreWorld: OreWorld) : IteratingSystem(allOf(AirCompo
         val top = rect.top.toInt()
         val bottom = top + 1
 
-        for (y in top..bottom) {
-            for (x in left..right) {
-                val blockType = oreWorld.blockType(x, y)
-
-                if (blockType == OreBlock.BlockType.Water.oreValue) {
-                    return true
-                }
-            }
-        }
-
-        return false
+        return oreWorld.isAnyBlockLiquidInRect(left, top, right, bottom)
     }
 }
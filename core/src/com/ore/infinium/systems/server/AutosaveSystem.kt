@@ -0,0 +1,76 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.systems.server
+
+import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import com.ore.infinium.OreSettings
+import com.ore.infinium.OreTimer
+import com.ore.infinium.OreWorld
+
+/**
+ * takes a snapshot of the changed world chunks (and all the entities)
+ * every OreSettings.autosaveInterval seconds, for the world's
+ * WorldAutosaver (if it has one) to write out in the background.
+ * the block edit log is trimmed once each one is on disk.
+ *
+ * also saves the entities the last save couldn't see (see
+ * WorldIO.entitiesUnsaved), with or without autosaving. that's
+ * written in the background too, only the snapshot is taken here
+ *
+ * runs last, so each snapshot has everything from the tick it's taken in
+ */
+@Wire
+class AutosaveSystem(private val oreWorld: OreWorld) : BaseSystem() {
+
+    private val autosaveTimer = OreTimer()
+
+    override fun processSystem() {
+        val worldIO = oreWorld.worldIO
+        if (worldIO.entitiesUnsaved) {
+            worldIO.entitiesUnsaved = false
+            worldIO.writeEntitiesLater(worldIO.entityIO.snapshot())
+        }
+
+        val autosaver = worldIO.autosaver ?: return
+        val editLog = oreWorld.blockEditLog
+
+        //edits the log missed are only safe once they're saved, so don't wait for the timer
+        val editsLost = editLog != null && editLog.needsSave && !autosaver.isSaving
+        if (!autosaveTimer.resetIfSurpassed(OreSettings.autosaveInterval * 1000L) && !editsLost) {
+            return
+        }
+
+        //no use taking them if the snapshot's going to be skipped
+        val entities = if (autosaver.isSaving) null else oreWorld.worldIO.entityIO.snapshot()
+
+        //everything logged so far is about to be in the save
+        val sealedSegment = editLog?.rollOver() ?: -1
+        autosaver.snapshot {
+            editLog?.discardThrough(sealedSegment)
+            entities?.let { oreWorld.worldIO.writeEntities(it) }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+package com.ore.infinium.systems.server
+
+import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import com.ore.infinium.OreSettings
+import com.ore.infinium.OreTimer
+import com.ore.infinium.OreWorld
+
+/**
+ * appends each tick's block changes to the world's BlockEditLog (if it
+ * has one), and has it fsynced every OreSettings.editLogSyncInterval ms,
+ * in the background.
+ *
+ * runs after everything that changes blocks, and before AutosaveSystem
+ */
+@Wire
+class BlockEditLogSystem(private val oreWorld: OreWorld) : BaseSystem() {
+
+    private val syncTimer = OreTimer()
+
+    override fun processSystem() {
+        val editLog = oreWorld.blockEditLog ?: return
+
+        editLog.append(oreWorld.blockChangeJournal)
+
+        if (syncTimer.resetIfSurpassed(OreSettings.editLogSyncInterval.toLong())) {
+            editLog.sync()
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.ore.infinium.systems.server
+
+import com.artemis.BaseSystem
+import com.artemis.annotations.Wire
+import com.ore.infinium.OreTimer
+import com.ore.infinium.OreWorld
+import com.ore.infinium.components.PlayerComponent
+import com.ore.infinium.components.PowerDeviceComponent
+import com.ore.infinium.components.SpriteComponent
+import com.ore.infinium.util.forEach
+import com.ore.infinium.util.mapper
+
+/**
+ * drives the world's ChunkResidencyManager (if it has one, see
+ * OreSettings.chunkResidencyBudget). pins the chunks around every player's
+ * loaded viewport, and around machinery placed in the world, so only
+ * cold chunks get paged out.
+ */
+@Wire
+class ChunkResidencySystem(private val oreWorld: OreWorld) : BaseSystem() {
+
+    private val mPlayer by mapper<PlayerComponent>()
+    private val mSprite by mapper<SpriteComponent>()
+
+    private val pinTimer = OreTimer()
+
+    companion object {
+        /**
+         * blocks past the edge of each loaded viewport that also stay pinned,
+         * so walking around doesn't fault chunks in constantly
+         */
+        const val VIEWPORT_PIN_MARGIN = 64
+
+        const val PIN_INTERVAL_MS = 1000L
+    }
+
+    override fun processSystem() {
+        if (pinTimer.resetIfSurpassed(PIN_INTERVAL_MS)) {
+            updateResidency()
+        }
+    }
+
+    /**
+     * re-pins the chunks that should stay in memory, then evicts
+     * the least recently used of the rest until we're under budget.
+     *
+     * also called right after a player's loaded viewport moves
+     * (see PlayerSystem), so the new area gets paged in together
+     * before it is sent out.
+     */
+    fun updateResidency() {
+        val residency = oreWorld.blockStorage.residency ?: return
+
+        residency.beginPinPass()
+
+        for (player in oreWorld.players()) {
+            val region = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+            residency.pinBlockRect(left = region.x - VIEWPORT_PIN_MARGIN,
+                                   top = region.y - VIEWPORT_PIN_MARGIN,
+                                   right = region.width + VIEWPORT_PIN_MARGIN,
+                                   bottom = region.height + VIEWPORT_PIN_MARGIN)
+        }
+
+        //machinery keeps working when nobody is around, so keep what's under it resident
+        oreWorld.getEntitiesWithComponent<PowerDeviceComponent>().forEach { device ->
+            if (oreWorld.isItemPlacedInWorldOpt(device)) {
+                val sprite = mSprite.get(device).sprite
+                residency.pinBlockRect(left = (sprite.x - sprite.width * 0.5f).toInt(),
+                                       top = (sprite.y - sprite.height * 0.5f).toInt(),
+                                       right = (sprite.x + sprite.width * 0.5f).toInt(),
+                                       bottom = (sprite.y + sprite.height * 0.5f).toInt())
+            }
+        }
+
+        residency.endPinPass()
+    }
+
+    override fun dispose() {
+        val residency = oreWorld.blockStorage.residency ?: return
+
+        OreWorld.log("chunk residency system", residency.statsReport())
+        residency.dispose()
+    }
+}
@@ -50,7 +50,6 @@ class GrassBlockSystem(private val oreWorld: OreWorld) : BaseSystem() {
     private val mPowerConsumer by mapper<PowerConsumerComponent>()
     private val mPowerGenerator by mapper<PowerGeneratorComponent>()
 
-    private val serverNetworkSystem by system<ServerNetworkSystem>()
     private val playerSystem by system<PlayerSystem>()
 
     /**
@@ -139,10 +138,6 @@ class GrassBlockSystem(private val oreWorld: OreWorld) : BaseSystem() {
                                 topLeftBlockType == OreBlock.BlockType.Dirt.oreValue && topBlockType == OreBlock.BlockType.Air.oreValue) {
 
                             oreWorld.setBlockFlag(leftBlockX, leftBlockY, OreBlock.BlockFlags.GrassBlock)
-                            //                            server.sendPlayerSparseBlock(player, leftLeftBlock,
-                            // leftLeftX, leftLeftY);
-
-                            serverNetworkSystem.sendPlayerSingleBlock(playerEntity, leftBlockX, leftBlockY)
                         }
                     }
 
@@ -160,11 +155,6 @@ class GrassBlockSystem(private val oreWorld: OreWorld) : BaseSystem() {
                                 topRightBlockType == OreBlock.BlockType.Dirt.oreValue && topBlockType == OreBlock.BlockType.Air.oreValue) {
 
                             oreWorld.setBlockFlag(rightBlockX, rightBlockY, OreBlock.BlockFlags.GrassBlock)
-                            //    server.sendPlayerSparseBlock(player, topRightBlock, topRightX, topRightY);
-                            //                               server.sendPlayerSparseBlock(player,
-                            // rightRightBlock, rightRightX, rightRightY);
-
-                            serverNetworkSystem.sendPlayerSingleBlock(playerEntity, rightBlockX, rightBlockY)
                         }
                     }
 
@@ -180,8 +170,6 @@ class GrassBlockSystem(private val oreWorld: OreWorld) : BaseSystem() {
                                 rightBlockType == OreBlock.BlockType.Air.oreValue) {
 
                             oreWorld.setBlockFlag(bottomBlockX, bottomBlockY, OreBlock.BlockFlags.GrassBlock)
-
-                            serverNetworkSystem.sendPlayerSingleBlock(playerEntity, bottomBlockX, bottomBlockY)
                         }
                     }
 
@@ -197,8 +185,6 @@ class GrassBlockSystem(private val oreWorld: OreWorld) : BaseSystem() {
                                 rightBlockType == OreBlock.BlockType.Air.oreValue) {
 
                             oreWorld.setBlockFlag(topBlockX, topBlockY, OreBlock.BlockFlags.GrassBlock)
-
-                            serverNetworkSystem.sendPlayerSingleBlock(playerEntity, topBlockX, topBlockY)
                         }
                     }
 
@@ -30,16 +30,12 @@ import com.badlogic.gdx.math.RandomXS128
 import com.badlogic.gdx.math.Rectangle
 import com.ore.infinium.OreWorld
 import com.ore.infinium.components.PlayerComponent
-import com.ore.infinium.systems.PlayerSystem
 import com.ore.infinium.util.*
 
 @Wire
 class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
     private val mPlayer by mapper<PlayerComponent>()
 
-    private val serverNetworkSystem by system<ServerNetworkSystem>()
-    private val playerSystem by system<PlayerSystem>()
-
     override fun initialize() {
     }
 
@@ -55,15 +51,11 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
         for (player in oreWorld.players()) {
             val cPlayer = mPlayer.get(player)
             val rect = cPlayer.loadedViewport.rect
-            simulateFluidsInRegion(rect, player)
+            simulateFluidsInRegion(rect)
         }
     }
 
-    //probably want something better. like a region that self expands
-    //when modifications are done outside of it.
-    private var dirty = false
-    private var dirtyRegion = Rectangle()
-    private fun simulateFluidsInRegion(rect: Rectangle, player: Int) {
+    private fun simulateFluidsInRegion(rect: Rectangle) {
         val startX = oreWorld.blockXSafe(rect.lefti)
         val startY = oreWorld.blockYSafe(rect.topi)
         val endX = oreWorld.blockXSafe(rect.righti)
@@ -76,16 +68,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
                 }
             }
         }
-
-        if (dirty) {
-            playerSystem.sendPlayerBlockRegion(player)
-//            serverNetworkSystem.sendBlockRegionInterestedPlayers(oreWorld.blockXSafe(dirtyRegion.lefti),
-            //                                                                oreWorld.blockYSafe(dirtyRegion.topi),
-            //                                                               oreWorld.blockXSafe(dirtyRegion.righti - 1),
-            //                                                              oreWorld.blockYSafe(dirtyRegion.bottomi - 1))
-
-            dirty = false
-        }
     }
 
     fun processLiquidRange(left: Int, right: Int, top: Int, bottom: Int) {
@@ -185,8 +167,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //fill right
         oreWorld.setLiquidLevelWaterNotEmpty(rightSafeX, sourceY, (amountToSplit + remainder).toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
     private fun moveLiquidLeft(sourceX: Int, sourceY: Int, sourceAmount: Byte, leftLiquid: Byte) {
@@ -200,10 +180,12 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //fill left
         oreWorld.setLiquidLevelWaterNotEmpty(leftSafeX, sourceY, (amountToSpread + remainder).toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
+    /**
+     * unused while the spread direction is hardcoded. it isn't thread safe, and
+     * world gen settles lakes on several threads, so using it would need one per thread
+     */
     private val rand = RandomXS128()
     private fun moveLiquidLeftRight(sourceX: Int,
                                     sourceY: Int,
@@ -254,8 +236,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
 
         //empty current as much as possible (there still may be some left here, the source)
         oreWorld.setLiquidLevelClearIfEmpty(sourceX, sourceY, amountToSpread.toByte())
-
-        updateDirtyRegion(sourceX, sourceY)
     }
 
     /**
@@ -282,22 +262,6 @@ class LiquidSimulationSystem(private val oreWorld: OreWorld) : BaseSystem() {
         //fill bottom
         oreWorld.setLiquidLevelWaterNotEmpty(sourceX, bottomSafeY, (amountToMove + bottomLiquid).toByte())
 
-        updateDirtyRegion(sourceX, sourceY)
-
         return newSourceAmount
     }
-
-    private fun updateDirtyRegion(x: Int, y: Int) {
-        //hack
-        if (!dirty) {
-            dirtyRegion = Rectangle(oreWorld.posXSafe(x - 1).toFloat(),
-                                    oreWorld.posYSafe(y - 1).toFloat(),
-                                    1f,
-                                    1f)
-            dirty = true
-        } else {
-            dirtyRegion.merge(oreWorld.posXSafe(x), oreWorld.posYSafe(y))
-            val a = 2
-        }
-    }
 }
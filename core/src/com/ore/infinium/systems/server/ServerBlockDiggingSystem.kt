@@ -47,8 +47,6 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
     private val mItem by mapper<ItemComponent>()
     private val mTool by mapper<ToolComponent>()
 
-    private val serverNetworkSystem by system<ServerNetworkSystem>()
-    private val tileLightingSystem by system<TileLightingSystem>()
     private val gameTickSystem by system<GameTickSystem>()
 
     class BlockToDig(
@@ -98,7 +96,7 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         //this queued request will now be canceled.
         val cTool = mTool.opt(equippedItemEntityId) ?: return true
 
-        val totalBlockHealth = OreBlock.blockAttributes[blockType]!!.blockTotalHealth
+        val totalBlockHealth = OreBlock.totalHealth(blockType)
 
         val damagePerTick = cTool.blockDamage * getWorld().getDelta()
 
@@ -131,8 +129,6 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         val x = blockToDig.x
         val y = blockToDig.y
 
-        serverNetworkSystem.sendPlayerSingleBlock(playerEntityId, x, y)
-
         val droppedBlock = oreWorld.entityFactory.createBlockItem(blockType)
         mSprite.get(droppedBlock).apply {
             sprite.setPosition(x + 0.5f, y + 0.5f)
@@ -147,17 +143,8 @@ class ServerBlockDiggingSystem(private val oreWorld: OreWorld) : BaseSystem() {
             timeOfDropMs = TimeUtils.millis()
         }
 
+        //lighting and networking pick this up from the block change journal
         oreWorld.destroyBlock(x, y)
-
-        //update lighting in the area, has to be less than the existing block lighting,
-        //or digging anywhere actually lights up that area
-        val lightLevel = (oreWorld.blockLightLevel(x, y) - 1).coerceAtLeast(0)
-
-        tileLightingSystem.updateTileLighting(x, y, lightLevel.toByte())
-
-        //hack, this is a big region, and we'd have to calculate actual lights in this, as well i think.
-        //but we wouldn't want it to be bigger than the affected region
-        serverNetworkSystem.sendPlayerBlockRegion(playerEntityId, x - 20, x + 20, y - 20, y + 20)
     }
 
     //todo when the equipped item changes, abort all active digs for that player
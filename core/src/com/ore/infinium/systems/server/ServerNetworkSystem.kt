@@ -74,6 +74,14 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
 
     private val connectionListeners = Array<NetworkServerConnectionListener>()
 
+    private lateinit var blockChangeCursor: BlockChangeJournal.Cursor
+
+    /**
+     * positions (see BlockChangeJournal.position) of blocks that
+     * changed since last tick, each only once
+     */
+    private val changedBlockPositions = LinkedHashSet<Int>()
+
     internal class PlayerConnection : Connection() {
         /**
          * entityid of the player
@@ -175,10 +183,69 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         serverKryo.close()
     }
 
+    override fun initialize() {
+        blockChangeCursor = oreWorld.blockChangeJournal.newCursor()
+    }
+
     override fun processSystem() {
         processNetworkQueue()
+        sendChangedBlocks()
     }
 
+    /**
+     * sends each player the blocks that changed since last tick (according to the
+     * block change journal), that fall within their loaded viewport.
+     *
+     * if the journal overflowed, or there's just too many, their whole viewport
+     * gets resent instead.
+     */
+    private fun sendChangedBlocks() {
+        changedBlockPositions.clear()
+        val journalIntact = oreWorld.blockChangeJournal.drain(blockChangeCursor) { record ->
+            val fieldBit = BlockChangeJournal.fieldBit(BlockChangeJournal.field(record))
+            if (fieldBit and BlockChangeJournal.NETWORKED_FIELDS != 0) {
+                changedBlockPositions.add(BlockChangeJournal.position(record))
+            }
+        }
+
+        if (journalIntact && changedBlockPositions.isEmpty()) {
+            return
+        }
+
+        for (player in oreWorld.players()) {
+            val region = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+
+            if (!journalIntact) {
+                sendPlayerBlockRegion(player, region.x, region.width, region.y, region.height)
+                continue
+            }
+
+            val sparseBlockUpdate = Network.Shared.SparseBlockUpdate()
+            for (position in changedBlockPositions) {
+                val x = BlockChangeJournal.positionX(position)
+                val y = BlockChangeJournal.positionY(position)
+
+                if (x in region.x..region.width && y in region.y..region.height) {
+                    sparseBlockUpdate.blocks.add(sparseBlock(x, y))
+                }
+            }
+
+            if (sparseBlockUpdate.blocks.size > MAX_SPARSE_BLOCKS_PER_UPDATE) {
+                sendPlayerBlockRegion(player, region.x, region.width, region.y, region.height)
+            } else if (sparseBlockUpdate.blocks.isNotEmpty()) {
+                serverKryo.sendToTCP(mPlayer.get(player).connectionPlayerId, sparseBlockUpdate)
+            }
+        }
+    }
+
+    private fun sparseBlock(x: Int, y: Int) =
+            Network.Shared.SingleSparseBlock(x, y,
+                                             type = oreWorld.blockType(x, y),
+                                             wallType = oreWorld.blockWallType(x, y),
+                                             flags = oreWorld.blockFlags(x, y),
+                                             liquidLevel = oreWorld.liquidLevel(x, y),
+                                             lightLevel = oreWorld.blockLightLevel(x, y))
+
     /**
      * broadcasts to all clients that this player has spawned.
      * note this gets sent to the player who spawned, too (himself).
@@ -475,7 +542,11 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
             TODO("toggling devices other than lights..not implemented")
         }
 
-        tileLightingSystem.updateLightingForLight(entity)
+        if (mDevice.get(entity).running) {
+            tileLightingSystem.updateLightingForLight(entity)
+        } else {
+            tileLightingSystem.removeLightingForLight(entity)
+        }
     }
 
     private fun receiveDoorOpen(job: NetworkJob,
@@ -645,10 +716,6 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         if (!oreWorld.isWater(tileX, tileY)) {
             //fill with water
             oreWorld.setLiquidLevelWaterNotEmpty(tileX, tileY, LiquidSimulationSystem.MAX_LIQUID_LEVEL)
-
-            for (player in oreWorld.players()) {
-                this.sendPlayerSingleBlock(player, tileX, tileY)
-            }
         }
     }
 
@@ -901,19 +968,6 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
         serverKryo.sendToTCP(cPlayer.connectionPlayerId, v)
     }
 
-    /**
-     * Broadcasts to every player -- only the ones who can view it! --
-     * an updated block.
-     * Does this by checking to see if the block falls within their loaded regions
-
-     * @param x
-     * *
-     * @param y
-     */
-    fun sendSparseBlockBroadcast(x: Int, y: Int) {
-        throw UnsupportedOperationException()
-    }
-
     /**
      * @param playerEntityId
      * *         entity id
@@ -924,16 +978,8 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
      */
     fun sendPlayerSingleBlock(playerEntityId: Int, x: Int, y: Int) {
         val sparseBlockUpdate = Network.Shared.SparseBlockUpdate()
+        sparseBlockUpdate.blocks.add(sparseBlock(x, y))
 
-        //fixme just use a plain ol' byte array for all of these
-        val blockType = oreWorld.blockType(x, y)
-        val wallType = oreWorld.blockWallType(x, y)
-        val flags = oreWorld.blockFlags(x, y)
-        sparseBlockUpdate.blocks.add(Network.Shared.SingleSparseBlock(x, y, blockType, wallType, flags))
-
-        //fixme add to a send list and do it only every tick or so...obviously right now this defeats part of the
-        // purpose of this, whcih is to reduce the need to send an entire packet for 1 block. queue them up.
-        // so put it in a queue, etc so we can deliver it when we need to..
         val cPlayer = mPlayer.get(playerEntityId)
         serverKryo.sendToTCP(cPlayer.connectionPlayerId, sparseBlockUpdate)
     }
@@ -964,29 +1010,13 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
                               bottom: Int) {
         //FIXME: avoid array realloc, preferably
         val blockRegion = Network.Shared.BlockRegion(left, top, right, bottom)
-        val count = (right - left + 1) * (bottom - top + 1)
-
-        blockRegion.blocks = ByteArray(count * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT)
-        var blockIndex = 0
-        for (blockY in top..bottom) {
-            for (blockX in left..right) {
-
-                //note we never send mesh type. that is not serialized to net, client side only
-
-                //NOTE: order should be *ascending* (to hopefully avoid a bit of thrashing)
-                val blockType = oreWorld.blockType(blockX, blockY)
-                val wallType = oreWorld.blockWallType(blockX, blockY)
-                val lightLevel = oreWorld.blockLightLevel(blockX, blockY)
-                val flags = oreWorld.blockFlags(blockX, blockY)
-
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_TYPE] = blockType
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_WALLTYPE] = wallType
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_LIGHT_LEVEL] = lightLevel
-                blockRegion.blocks[blockIndex * Network.Shared.BlockRegion.BLOCK_FIELD_COUNT + Network.Shared.BlockRegion.BLOCK_FIELD_INDEX_FLAGS] = flags
-                ++blockIndex
-            }
-        }
-        //OreWorld.log("networkserversystem", "sendplayerblockregion blockcount: " + blockIndex);
+        val fields = Network.Shared.BlockRegion.FIELDS
+
+        //note we never send mesh type. that is not serialized to net, client side only
+        blockRegion.blocks = ByteArray(oreWorld.regionSize(fields.size, left, top, right, bottom))
+        oreWorld.copyRegionTo(fields, left, top, right, bottom, blockRegion.blocks)
+
+        //OreWorld.log("networkserversystem", "sendplayerblockregion bytes: " + blockRegion.blocks.size);
 
         val cPlayer = mPlayer.get(playerEntityId)
         serverKryo.sendToTCP(cPlayer.connectionPlayerId, blockRegion)
@@ -1066,4 +1096,12 @@ class ServerNetworkSystem(private val oreWorld: OreWorld, private val oreServer:
             serverKryo.sendToTCP(mPlayer.get(player).connectionPlayerId, objectToSend)
         }
     }
+
+    companion object {
+        /**
+         * past this many changed blocks in a player's viewport, we send the
+         * whole viewport as a block region instead, which packs tighter
+         */
+        const val MAX_SPARSE_BLOCKS_PER_UPDATE = 1000
+    }
 }
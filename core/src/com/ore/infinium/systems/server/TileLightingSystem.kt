@@ -27,10 +27,14 @@ package com.ore.infinium.systems.server
 import com.artemis.BaseSystem
 import com.artemis.annotations.Wire
 import com.artemis.utils.IntBag
+import com.ore.infinium.BlockChangeJournal
+import com.ore.infinium.BlockChunk
 import com.ore.infinium.OreBlock
 import com.ore.infinium.OreWorld
+import com.ore.infinium.WorldGenProgress
 import com.ore.infinium.components.*
 import com.ore.infinium.util.*
+import java.util.*
 
 @Wire
 class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
@@ -40,13 +44,29 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
     private val mSprite by mapper<SpriteComponent>()
     private val mDevice by mapper<PowerDeviceComponent>()
 
-    private val serverNetworkSystem by system<ServerNetworkSystem>()
-
     private var initialized = false
 
-    // todo find a good number, this is a complete guess.
-    // this happens when the world is mostly air, stack overflow otherwise
-    val MAX_LIGHTING_DEPTH = 20
+    private lateinit var blockChangeCursor: BlockChangeJournal.Cursor
+
+    /**
+     * chunks whose light levels can't be trusted (see LIGHTING_VERSION),
+     * relit STALE_CHUNKS_PER_TICK at a time, once players get near them
+     */
+    private val staleChunks = BitSet()
+
+    /**
+     * tiles whose light just went up (or was left standing by removeLight),
+     * so it still has to spread from them to their neighbors. packed, see packTile
+     */
+    private val lightQueue = IntRingQueue(LIGHT_QUEUE_CAPACITY)
+
+    /**
+     * tiles whose light was just cleared, so it still has to be cleared from
+     * whatever it spread to. packed, see packTile. removedLevels has what
+     * each one's light level was, in the same order
+     */
+    private val removalQueue = IntRingQueue(LIGHT_QUEUE_CAPACITY)
+    private val removedLevels = IntRingQueue(LIGHT_QUEUE_CAPACITY)
 
     companion object {
         /**
@@ -57,12 +77,41 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
          * haven't decided what for
          */
         const val MAX_TILE_LIGHT_LEVEL: Byte = 18
+
+        /**
+         * what chunks get stamped with once their lighting is computed (see
+         * BlockStorage.lightingStamps). bump it when lighting changes enough
+         * that light levels in existing saves are wrong, and their chunks get
+         * relit after loading instead
+         */
+        const val LIGHTING_VERSION = 1
+
+        /**
+         * each relit chunk writes a light level for every block in it (and
+         * more around it) into the block change journal. this keeps a tick's
+         * worth well short of overrunning it
+         */
+        const val STALE_CHUNKS_PER_TICK = 4
+
+        /**
+         * starting size of the queue light spreads through. it grows as needed
+         */
+        const val LIGHT_QUEUE_CAPACITY = 4096
+
+        /**
+         * y takes the low 16 bits of a packed tile, x the rest
+         */
+        private const val PACKED_Y_BITS = 16
+
+        private fun packTile(x: Int, y: Int) = (x shl PACKED_Y_BITS) or y
     }
 
     override fun initialize() {
         val aspectSubscriptionManager = world.aspectSubscriptionManager
         val subscription = aspectSubscriptionManager.get(allOf(LightComponent::class))
         subscription.addSubscriptionListener(LightingEntitySubscriptionListener())
+
+        blockChangeCursor = oreWorld.blockChangeJournal.newCursor()
     }
 
     /**
@@ -75,33 +124,48 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
      * sunlight bleeds through empty walls in the background.
      * this will not happen underground, because walls cannot
      * be removed underground. they are a permanent part of the world
+     *
+     * @param progress advanced a column at a time (each column is gone over twice), if given
      */
-    private fun computeWorldTileLighting() {
+    private fun computeWorldTileLighting(progress: WorldGenProgress? = null) {
         //TODO incorporate sunlight..this is all theoretical approaches.
         //check if light is greater than sunlight and if so don't touch it..
         //sets the flag to indicate it is caused by sunlight
 
-        //todo max y should be a reasonable base level, not far below ground, just as an optimization step
-        for (y in 0 until 200) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
+        //sunlight can't get past the surface, so each column only needs looking at down to it.
+        //nor (columns are generated top down) past the first chunk that hasn't been generated
+        for (x in 0 until oreWorld.worldSize.width) {
+            val start = System.nanoTime()
+            for (y in 0 until oreWorld.surfaceY(x)) {
+                if (!oreWorld.isBlockGenerated(x, y)) {
+                    break
+                }
+
+                if (oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
                     oreWorld.setBlockLightLevel(x, y, MAX_TILE_LIGHT_LEVEL)
                 }
             }
+
+            progress?.advance(WorldGenProgress.Stage.Lighting, 1, System.nanoTime() - start)
         }
 
-        for (y in 0 until 200) {
-            for (x in 0 until oreWorld.worldSize.width) {
-                if (!oreWorld.isBlockSolid(x, y) && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
+        for (x in 0 until oreWorld.worldSize.width) {
+            val start = System.nanoTime()
+            for (y in 0 until oreWorld.surfaceY(x)) {
+                if (!oreWorld.isBlockGenerated(x, y)) {
+                    break
+                }
+
+                if (oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue) {
                     val lightLevel = oreWorld.blockLightLevel(x, y)
 
                     //ambient/sunlight
                     updateTileLighting(x, y, lightLevel)
 
-//                    diamondSunlightFloodFill(x, y, lightLevel)
-                    //                   diamondSunlightFloodFill(x, y, lightLevel)
                 }
             }
+
+            progress?.advance(WorldGenProgress.Stage.Lighting, 1, System.nanoTime() - start)
         }
     }
 
@@ -123,119 +187,190 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
                     //ambient/sunlight
                     updateTileLighting(x, y, lightLevel)
 
-//                    diamondSunlightFloodFill(x, y, lightLevel)
-                    //                   diamondSunlightFloodFill(x, y, lightLevel)
                 }
             }
         }
     }
 
     /**
-     * updates tile lighting for a region
+     * updates tile lighting for a region. the four tiles around x, y get
+     * @param lightLevel, it only falls off past them
      */
     fun updateTileLighting(x: Int, y: Int, lightLevel: Byte) {
-        diamondSunlightFloodFill(x - 1, y, lightLevel)
-        diamondSunlightFloodFill(x + 1, y, lightLevel)
-        diamondSunlightFloodFill(x, y + 1, lightLevel)
-        diamondSunlightFloodFill(x, y - 1, lightLevel)
+        lightTile(x - 1, y, lightLevel.toInt(), attenuate = false)
+        lightTile(x + 1, y, lightLevel.toInt(), attenuate = false)
+        lightTile(x, y + 1, lightLevel.toInt(), attenuate = false)
+        lightTile(x, y - 1, lightLevel.toInt(), attenuate = false)
+
+        spreadLight()
     }
 
+    /**
+     * takes away the light a light of @param lightLevel at x, y spread (x, y
+     * itself should already be dark), then lets whatever light is left around
+     * it spread back in. other lights whose own tile was darkened along the
+     * way need updating again
+     */
     fun updateTileLightingRemove(x: Int, y: Int, lightLevel: Byte) {
-        diamondFloodFillLightRemove(x - 1, y, lightLevel)
-        diamondFloodFillLightRemove(x + 1, y, lightLevel)
-        diamondFloodFillLightRemove(x, y + 1, lightLevel)
-        diamondFloodFillLightRemove(x, y - 1, lightLevel)
+        //they got its light undiminished, see updateTileLighting
+        val removedLevel = lightLevel + 1
+        unlightTile(x - 1, y, removedLevel)
+        unlightTile(x + 1, y, removedLevel)
+        unlightTile(x, y + 1, removedLevel)
+        unlightTile(x, y - 1, removedLevel)
+
+        removeLight()
+        spreadLight()
     }
 
     /**
-     * @param depth current depth the function is going to (so we don't blow out the stack)
+     * clears light breadth first out from the queued tiles, the same way it
+     * spreads. a neighbor dimmer than the cleared tile was can only have been
+     * lit through it, so it's cleared too. a neighbor at least as bright is lit
+     * by something else, and gets queued to spread that back in (spreadLight)
      */
-    private fun diamondSunlightFloodFill(x: Int,
-                                         y: Int,
-                                         lastLightLevel: Byte,
-                                         firstRun: Boolean = true,
-                                         depth: Int = 0) {
+    private fun removeLight() {
+        while (!removalQueue.isEmpty()) {
+            val tile = removalQueue.remove()
+            val removedLevel = removedLevels.remove()
+            val x = tile ushr PACKED_Y_BITS
+            val y = tile and ((1 shl PACKED_Y_BITS) - 1)
+
+            unlightTile(x - 1, y, removedLevel)
+            unlightTile(x + 1, y, removedLevel)
+            unlightTile(x, y - 1, removedLevel)
+            unlightTile(x, y + 1, removedLevel)
+        }
+    }
+
+    /**
+     * clears x, y's light and queues it to be cleared further, if it's dimmer
+     * than @param removedLevel (what the tile it'd have been lit through had).
+     * otherwise queues it to spread what it has
+     */
+    private fun unlightTile(x: Int, y: Int, removedLevel: Int) {
         if (oreWorld.blockXSafe(x) != x || oreWorld.blockYSafe(y) != y) {
             //out of world bounds, abort
             return
         }
 
-        val blockType = oreWorld.blockType(x, y)
-        val wallType = oreWorld.blockWallType(x, y)
-
-        var lightAttenuation = when {
-        //fixme: this can't be right? 0? what if we change this to 1 too? how does this affect regular lights
-            blockType == OreBlock.BlockType.Air.oreValue && wallType == OreBlock.WallType.Air.oreValue -> 0
-        //dug-out underground bleeds off, but not as quickly as a solid block
-            blockType == OreBlock.BlockType.Air.oreValue && wallType != OreBlock.WallType.Air.oreValue -> 1
-            else -> 2
-        }
-
-        if (firstRun) {
-            lightAttenuation = 0
+        if (!oreWorld.isBlockGenerated(x, y)) {
+            return
         }
 
-        //light bleed off value
-        val newLightLevel = (lastLightLevel - lightAttenuation).toByte()
-
-        val currentLightLevel = oreWorld.blockLightLevel(x, y)
-
-        //don't overwrite previous light values that were greater
-        if (newLightLevel <= currentLightLevel) {
+        val lightLevel = oreWorld.blockLightLevel(x, y).toInt()
+        if (lightLevel == 0) {
             return
         }
 
-        oreWorld.setBlockLightLevel(x, y, newLightLevel)
-
-        if (depth == MAX_LIGHTING_DEPTH) {
-            return
+        if (lightLevel < removedLevel) {
+            oreWorld.setBlockLightLevel(x, y, 0)
+            removalQueue.add(packTile(x, y))
+            removedLevels.add(lightLevel)
+        } else {
+            lightQueue.add(packTile(x, y))
         }
+    }
 
-        val newDepth = depth + 1
-        diamondSunlightFloodFill(x - 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x + 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x, y - 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondSunlightFloodFill(x, y + 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
+    /**
+     * spreads light breadth first out from the queued tiles, until it's all
+     * spread. a tile only gets queued when its light goes up, which can't
+     * happen more than MAX_TILE_LIGHT_LEVEL times, so this costs however
+     * much gets lit, and light always reaches as far as it should
+     */
+    private fun spreadLight() {
+        while (!lightQueue.isEmpty()) {
+            val tile = lightQueue.remove()
+            val x = tile ushr PACKED_Y_BITS
+            val y = tile and ((1 shl PACKED_Y_BITS) - 1)
+
+            //it may have gone up again since it was queued, in which case it spreads that
+            val lightLevel = oreWorld.blockLightLevel(x, y).toInt()
+
+            lightTile(x - 1, y, lightLevel, attenuate = true)
+            lightTile(x + 1, y, lightLevel, attenuate = true)
+            lightTile(x, y - 1, lightLevel, attenuate = true)
+            lightTile(x, y + 1, lightLevel, attenuate = true)
+        }
     }
 
-    private fun diamondFloodFillLightRemove(x: Int,
-                                            y: Int,
-                                            lastLightLevel: Byte,
-                                            firstRun: Boolean = true,
-                                            depth: Int = 0) {
+    /**
+     * raises x, y's light to what @param lastLightLevel bleeds off to
+     * through it, and queues it to spread further, if that's any brighter
+     *
+     * @param attenuate false if it gets lastLightLevel undiminished
+     */
+    private fun lightTile(x: Int, y: Int, lastLightLevel: Int, attenuate: Boolean) {
         if (oreWorld.blockXSafe(x) != x || oreWorld.blockYSafe(y) != y) {
             //out of world bounds, abort
             return
         }
-        //OreWorld.log("tiles lighting system - diamondFloodFillLightRemove", "begin, depth: $depth")
+
+        //lighting it would generate it. it gets lit once something else does
+        if (!oreWorld.isBlockGenerated(x, y)) {
+            return
+        }
 
         val blockType = oreWorld.blockType(x, y)
         val wallType = oreWorld.blockWallType(x, y)
 
-        //light bleed off value
-        val newLightLevel = 0.toByte()
+        val lightAttenuation = when {
+            !attenuate -> 0
+        //fixme: this can't be right? 0? what if we change this to 1 too? how does this affect regular lights
+            blockType == OreBlock.BlockType.Air.oreValue && wallType == OreBlock.WallType.Air.oreValue -> 0
+        //dug-out underground bleeds off, but not as quickly as a solid block
+            blockType == OreBlock.BlockType.Air.oreValue && wallType != OreBlock.WallType.Air.oreValue -> 1
+            else -> 2
+        }
 
-        oreWorld.setBlockLightLevel(x, y, newLightLevel)
+        //light bleed off value
+        val newLightLevel = lastLightLevel - lightAttenuation
 
-        if (depth == 5 + 3 /*MAX_LIGHTING_DEPTH*/) {
+        //don't overwrite previous light values that were greater
+        if (newLightLevel <= oreWorld.blockLightLevel(x, y)) {
             return
         }
 
-        //OreWorld.log("tiles lighting system - diamondFloodFillLightRemove", "recursive calls being made, depth: $depth")
+        oreWorld.setBlockLightLevel(x, y, newLightLevel.toByte())
+        lightQueue.add(packTile(x, y))
+    }
+
+    /**
+     * lights the whole world, as the last stage of generating it. normally
+     * on the first tick, but a world that's about to be cached (see
+     * WorldCache) needs it done right away
+     */
+    fun lightWholeWorld() {
+        val progress = oreWorld.worldGenProgress
+        progress.beginStage(WorldGenProgress.Stage.Lighting, oreWorld.worldSize.width.toLong() * 2, threadCount = 1)
 
-        val newDepth = depth + 1
-        diamondFloodFillLightRemove(x - 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x + 1, y, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x, y - 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
-        diamondFloodFillLightRemove(x, y + 1, lastLightLevel = newLightLevel, firstRun = false, depth = newDepth)
+        computeWorldTileLighting(progress)
+        Arrays.fill(oreWorld.blockStorage.lightingStamps, LIGHTING_VERSION)
+
+        progress.endStage(WorldGenProgress.Stage.Lighting)
+        OreWorld.log("world gen", progress.stageReport(WorldGenProgress.Stage.Lighting))
+
+        initialized = true
     }
 
     override fun processSystem() {
         if (!initialized) {
-            computeWorldTileLighting()
-            initialized = true
+            //saves have their light levels in them already, so only
+            //the chunks those can't be trusted for are redone, over time.
+            //lazily generated worlds light their chunks as they're generated, the same way
+            if (oreWorld.loadedFromSave || oreWorld.loadedFromCache || oreWorld.blockStorage.generator != null) {
+                findStaleChunks()
+                initialized = true
+            } else {
+                lightWholeWorld()
+            }
         }
 
+        relightChangedBlocks()
+
+        oreWorld.blockStorage.takeGeneratedChunks(staleChunks)
+        relightStaleChunks()
+
         //oreWorld.players().forEach {
         //    val cPlayer = mPlayer.get(it)
         //    val rect = cPlayer.loadedViewport.rect
@@ -244,17 +379,216 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         //}
     }
 
+    /**
+     * after loading a save. chunks are stale if their lighting was computed
+     * by some other LIGHTING_VERSION (or never), or if blocks in them were
+     * replayed from the block edit log, which doesn't have light levels.
+     * chunks that haven't been generated yet aren't, they'll be lit once they are
+     */
+    private fun findStaleChunks() {
+        val storage = oreWorld.blockStorage
+        for (index in storage.lightingStamps.indices) {
+            if (storage.lightingStamps[index] != LIGHTING_VERSION && !storage.ungeneratedChunks.get(index)) {
+                staleChunks.set(index)
+            }
+        }
+
+        val journalIntact = oreWorld.blockChangeJournal.drain(blockChangeCursor) { record ->
+            val field = BlockChangeJournal.field(record)
+            if (field == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE || field == OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE) {
+                staleChunks.set(storage.chunkIndex(BlockChangeJournal.x(record), BlockChangeJournal.y(record)))
+            }
+        }
+
+        if (!journalIntact) {
+            //only chunks that have been loaded can have been replayed into
+            for (index in storage.chunks.indices) {
+                if (!storage.chunks[index].isSentinel) {
+                    staleChunks.set(index)
+                }
+            }
+        }
+
+        OreWorld.log("tiles lighting system", "${staleChunks.cardinality()} chunks need relighting")
+    }
+
+    /**
+     * relights stale chunks in (or with light that could reach into) each
+     * player's loaded viewport. the rest wait until someone gets near them.
+     * relighting a chunk means loading it and what's around it, so going
+     * through all of them would load the whole world, lazily opened,
+     * mapped or paged out as it may be
+     */
+    private fun relightStaleChunks() {
+        if (staleChunks.isEmpty) {
+            return
+        }
+
+        val storage = oreWorld.blockStorage
+        var lightsByChunk: Map<Int, List<Int>>? = null
+        var relit = 0
+
+        for (player in oreWorld.players()) {
+            val region = mPlayer.get(player).loadedViewport.blockRegionInViewport()
+            val startChunkX = oreWorld.blockXSafe(region.x - MAX_TILE_LIGHT_LEVEL) shr BlockChunk.SHIFT
+            val endChunkX = oreWorld.blockXSafe(region.width + MAX_TILE_LIGHT_LEVEL) shr BlockChunk.SHIFT
+            val startChunkY = oreWorld.blockYSafe(region.y - MAX_TILE_LIGHT_LEVEL) shr BlockChunk.SHIFT
+            val endChunkY = oreWorld.blockYSafe(region.height + MAX_TILE_LIGHT_LEVEL) shr BlockChunk.SHIFT
+
+            for (chunkX in startChunkX..endChunkX) {
+                for (chunkY in startChunkY..endChunkY) {
+                    val index = chunkX * storage.chunksHigh + chunkY
+                    if (!staleChunks.get(index)) {
+                        continue
+                    }
+
+                    if (relit == STALE_CHUNKS_PER_TICK) {
+                        return
+                    }
+
+                    //only gathered when something actually needs relighting
+                    val lights = lightsByChunk ?: lightsByChunk()
+                    lightsByChunk = lights
+
+                    relightChunk(index, lights)
+                    staleChunks.clear(index)
+                    ++relit
+                }
+            }
+        }
+    }
+
+    /**
+     * every light entity, by the index of the chunk it's in
+     */
+    private fun lightsByChunk(): Map<Int, List<Int>> {
+        val lights = HashMap<Int, MutableList<Int>>()
+        oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
+            val sprite = mSprite.get(light).sprite
+            val index = oreWorld.blockStorage.chunkIndex(oreWorld.blockXSafe(sprite.x.toInt()),
+                                                         oreWorld.blockYSafe(sprite.y.toInt()))
+            lights.getOrPut(index) { mutableListOf() }.add(light)
+        }
+
+        return lights
+    }
+
+    /**
+     * computes a chunk's lighting over, from nothing: sunlight in it
+     * (same as computeWorldTileLighting), light spilling in from the
+     * blocks around it, and lights close enough to reach it
+     *
+     * @param lightsByChunk see lightsByChunk()
+     */
+    private fun relightChunk(index: Int, lightsByChunk: Map<Int, List<Int>>) {
+        val storage = oreWorld.blockStorage
+        val left = (index / storage.chunksHigh) * BlockChunk.SIZE
+        val top = (index % storage.chunksHigh) * BlockChunk.SIZE
+        val right = minOf(left + BlockChunk.SIZE, storage.width) - 1
+        val bottom = minOf(top + BlockChunk.SIZE, storage.height) - 1
+
+        for (x in left..right) {
+            val surfaceY = oreWorld.surfaceY(x)
+            for (y in top..bottom) {
+                val sunlit = y < surfaceY && oreWorld.blockWallType(x, y) == OreBlock.WallType.Air.oreValue
+                oreWorld.setBlockLightLevel(x, y, if (sunlit) MAX_TILE_LIGHT_LEVEL else 0)
+            }
+        }
+
+        for (x in left..right) {
+            for (y in top..bottom) {
+                val lightLevel = oreWorld.blockLightLevel(x, y)
+                if (lightLevel > 0) {
+                    updateTileLighting(x, y, lightLevel)
+                }
+            }
+        }
+
+        for (x in left..right) {
+            spillLightFrom(x, top - 1)
+            spillLightFrom(x, bottom + 1)
+        }
+
+        for (y in top..bottom) {
+            spillLightFrom(left - 1, y)
+            spillLightFrom(right + 1, y)
+        }
+
+        //light doesn't reach as far as a chunk is wide, so only the chunks around this one can have any
+        val chunkX = index / storage.chunksHigh
+        val chunkY = index % storage.chunksHigh
+        for (lightChunkX in maxOf(chunkX - 1, 0)..minOf(chunkX + 1, storage.chunksWide - 1)) {
+            for (lightChunkY in maxOf(chunkY - 1, 0)..minOf(chunkY + 1, storage.chunksHigh - 1)) {
+                lightsByChunk[lightChunkX * storage.chunksHigh + lightChunkY]?.forEach { light ->
+                    val cSprite = mSprite.get(light)
+                    val x = cSprite.sprite.x.toInt()
+                    val y = cSprite.sprite.y.toInt()
+                    if (x in left - MAX_TILE_LIGHT_LEVEL..right + MAX_TILE_LIGHT_LEVEL &&
+                            y in top - MAX_TILE_LIGHT_LEVEL..bottom + MAX_TILE_LIGHT_LEVEL) {
+                        updateLightingForLight(light)
+                    }
+                }
+            }
+        }
+
+        storage.lightingStamps[index] = LIGHTING_VERSION
+    }
+
+    private fun spillLightFrom(x: Int, y: Int) {
+        if (x < 0 || x >= oreWorld.worldSize.width || y < 0 || y >= oreWorld.worldSize.height) {
+            return
+        }
+
+        if (!oreWorld.isBlockGenerated(x, y)) {
+            return
+        }
+
+        val lightLevel = oreWorld.blockLightLevel(x, y)
+        if (lightLevel > 0) {
+            updateTileLighting(x, y, lightLevel)
+        }
+    }
+
+    /**
+     * relights around every block that was opened up (went from solid to not)
+     * since last tick, according to the block change journal. e.g. dug or blown up.
+     * changes to lighting itself are ignored, they're our own doing.
+     */
+    private fun relightChangedBlocks() {
+        val journalIntact = oreWorld.blockChangeJournal.drain(blockChangeCursor) { record ->
+            if (BlockChangeJournal.field(record) == OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE &&
+                    OreBlock.isSolid(BlockChangeJournal.oldValue(record)) &&
+                    !OreBlock.isSolid(BlockChangeJournal.newValue(record))) {
+                val x = BlockChangeJournal.x(record)
+                val y = BlockChangeJournal.y(record)
+
+                //has to be less than the existing block lighting,
+                //or digging anywhere actually lights up that area
+                val lightLevel = (oreWorld.blockLightLevel(x, y) - 1).coerceAtLeast(0)
+
+                updateTileLighting(x, y, lightLevel.toByte())
+            }
+        }
+
+        if (!journalIntact) {
+            //only happens when far more changed than we could sanely relight piece by piece
+            OreWorld.log("tiles lighting system", "block change journal overran, skipping relight of changed blocks")
+        }
+    }
+
     /**
      * occurs when the lighting for this light must be reprocessed.
      * updates all lighting in the area.
      *
-     * this must be called for if a light turns on/off,
-     * if a light is placed or created.
+     * this must be called for if a light turns on,
+     * if a light is placed or created. a light that's off has
+     * no light to add, so this leaves it alone.
      *
-     * the exception being if a light is removed (deleted from the world)
-     * that is the case that will automatically be handled properly.
+     * when a light turns off, call removeLightingForLight instead.
+     * a light being removed (deleted from the world) is handled
+     * automatically.
      */
-    fun updateLightingForLight(entityId: Int, sendUpdate: Boolean = true) {
+    fun updateLightingForLight(entityId: Int) {
         val cItem = mItem.get(entityId)
         if (cItem.state != ItemComponent.State.InWorldState) {
             return
@@ -264,21 +598,47 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
         val cDevice = mDevice.get(entityId)
         val cLight = mLight.get(entityId)
         val lightLevel = lightLevelForLight(deviceRunning = cDevice.running, lightRadius = cLight.radius)
+        if (lightLevel == 0.toByte()) {
+            return
+        }
 
         val cSprite = mSprite.get(entityId)
         val x = cSprite.sprite.x.toInt()
         val y = cSprite.sprite.y.toInt()
 
         oreWorld.setBlockLightLevel(x, y, lightLevel)
-        if (lightLevel == 0.toByte()) {
-//            updateTileLightingRemove(x, y, lightLevel)
-        } else {
-            updateTileLighting(x, y, lightLevel)
-        }
+        updateTileLighting(x, y, lightLevel)
+    }
 
-        if (sendUpdate) {
-            serverNetworkSystem.sendBlockRegionInterestedPlayers(left = x - 20, right = x + 20, top = y - 20,
-                                                                 bottom = y + 20)
+    /**
+     * takes away the light this light gave off (when it was running),
+     * for when it turns off or is removed. only the area it lit is touched,
+     * then the lights around it are updated again, in case their own
+     * tiles got darkened along the way (see updateTileLightingRemove)
+     */
+    fun removeLightingForLight(entityId: Int) {
+        val cLight = mLight.get(entityId)
+        val lightLevel = lightLevelForLight(deviceRunning = true, lightRadius = cLight.radius)
+
+        val cSprite = mSprite.get(entityId)
+        val x = cSprite.sprite.x.toInt()
+        val y = cSprite.sprite.y.toInt()
+
+        oreWorld.setBlockLightLevel(x, y, 0)
+        updateTileLightingRemove(x, y, lightLevel)
+
+        //anything that got darkened was within its reach, and only lights within theirs can light it back
+        val reach = lightLevel + MAX_TILE_LIGHT_LEVEL
+        oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
+            if (light == entityId || !mSprite.has(light)) {
+                return@forEach
+            }
+
+            val cLightSprite = mSprite.get(light)
+            if (Math.abs(cLightSprite.sprite.x.toInt() - x) <= reach &&
+                    Math.abs(cLightSprite.sprite.y.toInt() - y) <= reach) {
+                updateLightingForLight(light)
+            }
         }
     }
 
@@ -303,42 +663,55 @@ class TileLightingSystem(private val oreWorld: OreWorld) : BaseSystem() {
                 }
 
                 //turn it off before we update the lighting
-                mDevice.get(entity).running = false
+                val cDevice = mDevice.get(entity)
+                val wasRunning = cDevice.running
+                cDevice.running = false
 
-                val cSprite = mSprite.get(entity)
+                if (wasRunning) {
+                    removeLightingForLight(entity)
+                }
+            }
+        }
+    }
+}
 
-                OreWorld.log("tiles lighting system", "calculating light removal")
+/**
+ * a fifo of ints, on a ring buffer that doubles when it fills up
+ *
+ * @param initialCapacity a power of two
+ */
+private class IntRingQueue(initialCapacity: Int) {
+    private var elements = IntArray(initialCapacity)
+    private var head = 0
+    private var size = 0
 
-                val x = cSprite.sprite.x.toInt()
-                val y = cSprite.sprite.y.toInt()
-                //updateTileLightingRemove(x, y, 0)
+    fun isEmpty() = size == 0
 
-                //wipe the lighting
-                //todo, only do it in sane region
-                for (x2 in 0 until oreWorld.worldSize.width) {
-                    for (y2 in 0 until oreWorld.worldSize.height) {
-                        oreWorld.setBlockLightLevel(x2, y2, 0)
-                    }
-                }
-//                recomputeLighting(startX = x - 100, endX = x + 100, startY = y - 100, endY = y + 100)
-                computeWorldTileLighting()
+    fun add(value: Int) {
+        if (size == elements.size) {
+            grow()
+        }
 
-                updateAllLightsWithoutSending()
-                //               computeWorldTileLighting()
+        elements[(head + size) and (elements.size - 1)] = value
+        ++size
+    }
 
-//                updateLightingForLight(entity)
-                serverNetworkSystem.sendBlockRegionInterestedPlayers(left = x - 100, right = x + 100, top = y - 100,
-                                                                     bottom = y + 100)
-            }
+    fun remove(): Int {
+        val value = elements[head]
+        head = (head + 1) and (elements.size - 1)
+        --size
 
-            //fixme
-            //TODO("remove lighting in the area of this light/update that area")
-        }
+        return value
     }
 
-    private fun updateAllLightsWithoutSending() {
-        val lights = oreWorld.getEntitiesWithComponent<LightComponent>().forEach { light ->
-            updateLightingForLight(entityId = light, sendUpdate = false)
-        }
+    private fun grow() {
+        //unwrapped, oldest first
+        val grown = IntArray(elements.size * 2)
+        val untilEnd = elements.size - head
+        System.arraycopy(elements, head, grown, 0, untilEnd)
+        System.arraycopy(elements, 0, grown, untilEnd, head)
+
+        elements = grown
+        head = 0
     }
 }
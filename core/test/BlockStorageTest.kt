@@ -0,0 +1,686 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.BlockBitmap
+import com.ore.infinium.BlockChangeJournal
+import com.ore.infinium.BlockChunk
+import com.ore.infinium.BlockIndexLayout
+import com.ore.infinium.BlockStorage
+import com.ore.infinium.ChunkGenerator
+import com.ore.infinium.ChunkResidencyManager
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.PalettedPlane
+import org.junit.Assert.*
+import org.junit.Ignore
+import org.junit.Test
+import java.util.*
+
+class BlockStorageTest {
+
+    @Test
+    fun testPalettedPlaneGrowsAndOverflows() {
+        val plane = PalettedPlane(BlockChunk.BLOCK_COUNT)
+        assertEquals(0.toByte(), plane[123])
+
+        for (i in 0 until PalettedPlane.MAX_PALETTE_SIZE) {
+            assertTrue(plane.set(i, i.toByte()))
+        }
+
+        for (i in 0 until PalettedPlane.MAX_PALETTE_SIZE) {
+            assertEquals(i.toByte(), plane[i])
+        }
+        assertEquals(0.toByte(), plane[BlockChunk.BLOCK_COUNT - 1])
+
+        //17th distinct value doesn't fit
+        assertFalse(plane.set(500, 100))
+        assertEquals(0.toByte(), plane[500])
+    }
+
+    @Test
+    fun testCompactedChunkPromotesOnOverflow() {
+        val storage = BlockStorage(128, 128)
+        storage.setType(5, 5, OreBlock.BlockType.Stone.oreValue)
+        storage.setType(6, 5, OreBlock.BlockType.Dirt.oreValue)
+
+        val chunk = storage.chunkAt(5, 5)
+        val rawSize = chunk.sizeBytes
+
+        assertEquals(OreBlock.BLOCK_BYTE_FIELD_COUNT, storage.compactChunks())
+        assertTrue(chunk.isPacked(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE))
+        assertTrue(chunk.sizeBytes < rawSize)
+        assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(5, 5))
+        assertEquals(OreBlock.BlockType.Dirt.oreValue, storage.type(6, 5))
+
+        //more distinct light levels than a palette can hold
+        for (i in 0 until 20) {
+            storage.setLightLevel(i, 0, i.toByte())
+        }
+
+        assertFalse(chunk.isPacked(OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL))
+        assertTrue(chunk.isPacked(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE))
+        for (i in 0 until 20) {
+            assertEquals(i.toByte(), storage.lightLevel(i, 0))
+        }
+        assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(5, 5))
+    }
+
+    @Test
+    fun testJournalRecordsOnlyChanges() {
+        val storage = BlockStorage(128, 128)
+        val journal = BlockChangeJournal()
+        storage.journal = journal
+        val cursor = journal.newCursor()
+
+        storage.setType(100, 70, OreBlock.BlockType.Stone.oreValue)
+        //same value again, not a change
+        storage.setType(100, 70, OreBlock.BlockType.Stone.oreValue)
+        storage.setLiquidNibble(3, 4, 15)
+
+        val records = mutableListOf<Long>()
+        assertTrue(journal.drain(cursor) { records.add(it) })
+        assertEquals(2, records.size)
+
+        val record = records[0]
+        assertEquals(100, BlockChangeJournal.x(record))
+        assertEquals(70, BlockChangeJournal.y(record))
+        assertEquals(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, BlockChangeJournal.field(record))
+        assertEquals(OreBlock.BlockType.Air.oreValue, BlockChangeJournal.oldValue(record))
+        assertEquals(OreBlock.BlockType.Stone.oreValue, BlockChangeJournal.newValue(record))
+
+        val position = BlockChangeJournal.position(record)
+        assertEquals(100, BlockChangeJournal.positionX(position))
+        assertEquals(70, BlockChangeJournal.positionY(position))
+
+        assertEquals(BlockChangeJournal.FIELD_LIQUID_LEVEL, BlockChangeJournal.field(records[1]))
+        assertEquals(15.toByte(), BlockChangeJournal.newValue(records[1]))
+
+        //caught up, nothing new
+        assertTrue(journal.drain(cursor) { fail() })
+    }
+
+    @Test
+    fun testJournalReportsOverrun() {
+        val storage = BlockStorage(128, 128)
+        val journal = BlockChangeJournal(capacityShift = 4)
+        storage.journal = journal
+        val cursor = journal.newCursor()
+
+        for (i in 0..journal.capacity) {
+            storage.setLightLevel(i, 0, 1)
+        }
+
+        assertFalse(journal.drain(cursor) { fail() })
+
+        //cursor was moved up, so it's back in sync
+        storage.setLightLevel(0, 1, 1)
+        var count = 0
+        assertTrue(journal.drain(cursor) { ++count })
+        assertEquals(1, count)
+    }
+
+    @Test
+    fun testResidencyPagesOutAndFaultsBackIn() {
+        val storage = BlockStorage(256, 256)
+        val residency = ChunkResidencyManager(storage, maxResidentChunks = 2)
+        storage.residency = residency
+
+        //one block in each of 4 chunks along the top
+        for (i in 0 until 4) {
+            storage.setType(i * BlockChunk.SIZE, 0, OreBlock.BlockType.Stone.oreValue)
+            storage.setLightLevel(i * BlockChunk.SIZE + 1, 1, i.toByte())
+        }
+
+        assertEquals(2, residency.residentChunkCount)
+        assertEquals(2, residency.pagedOutChunkCount)
+        assertEquals(2, storage.allocatedChunkCount())
+        assertTrue(storage.chunkAt(0, 0) === BlockChunk.PAGED_OUT)
+
+        //reading faults them back in, with what they had
+        for (i in 0 until 4) {
+            assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(i * BlockChunk.SIZE, 0))
+            assertEquals(i.toByte(), storage.lightLevel(i * BlockChunk.SIZE + 1, 1))
+        }
+
+        assertEquals(2, residency.residentChunkCount)
+        assertTrue(residency.misses >= 2)
+
+        //every chunk is on disk by now and nothing changed, so nothing needs writing again
+        val evictionsBefore = residency.evictions
+        val cleanEvictionsBefore = residency.cleanEvictions
+        for (i in 0 until 4) {
+            assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(i * BlockChunk.SIZE, 0))
+        }
+
+        assertTrue(residency.evictions > evictionsBefore)
+        assertEquals(residency.evictions - evictionsBefore, residency.cleanEvictions - cleanEvictionsBefore)
+
+        //pinned chunks stay resident, even over budget
+        residency.beginPinPass()
+        residency.pinBlockRect(0, 0, 3 * BlockChunk.SIZE, 0)
+        residency.endPinPass()
+        for (i in 0 until 4) {
+            assertFalse(storage.chunkAt(i * BlockChunk.SIZE, 0).isSentinel)
+        }
+
+        residency.beginPinPass()
+        residency.endPinPass()
+        assertEquals(2, residency.residentChunkCount)
+
+        //rects pinned later in a pass don't get evicted to make room for earlier ones,
+        //so each paged out chunk only faults in once
+        val pagedOut = (0 until 4).count { storage.chunkAt(it * BlockChunk.SIZE, 0) === BlockChunk.PAGED_OUT }
+        val missesBefore = residency.misses
+        val evictionsBeforePass = residency.evictions
+        residency.beginPinPass()
+        for (i in 0 until 4) {
+            residency.pinBlockRect(i * BlockChunk.SIZE, 0, i * BlockChunk.SIZE, 0)
+        }
+
+        assertEquals(evictionsBeforePass, residency.evictions)
+        residency.endPinPass()
+        assertEquals(missesBefore + pagedOut, residency.misses)
+
+        residency.dispose()
+    }
+
+    @Test
+    fun testLazyGenerationFillsColumnsTopDown() {
+        val storage = BlockStorage(128, 128)
+        val generated = mutableListOf<Pair<Int, Int>>()
+
+        //stone from y 40 down, so the top chunk of each column is all air
+        storage.generator = object : ChunkGenerator {
+            override fun generateChunk(chunkX: Int, chunkY: Int, dest: ByteArray): Boolean {
+                generated.add(chunkX to chunkY)
+
+                val blockCount = BlockChunk.BLOCK_COUNT
+                Arrays.fill(dest, 0)
+                for (index in 0 until blockCount) {
+                    if (chunkY * BlockChunk.SIZE + index % BlockChunk.SIZE >= 40) {
+                        dest[index] = OreBlock.BlockType.Stone.oreValue
+                    }
+                }
+
+                return chunkY > 0
+            }
+        }
+        storage.markAllUngenerated()
+
+        assertFalse(storage.isGenerated(5, 50))
+
+        //touching a chunk generates everything above it in its column first
+        assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(5, 50))
+        assertEquals(listOf(0 to 0, 0 to 1), generated)
+        assertTrue(storage.chunkAt(5, 0) === BlockChunk.EMPTY)
+        assertTrue(storage.isGenerated(5, 0))
+        assertFalse(storage.isGenerated(5, 70))
+        assertEquals(40, storage.surfaceHeights[5])
+
+        val fresh = BitSet()
+        storage.takeGeneratedChunks(fresh)
+        assertEquals(2, fresh.cardinality())
+        assertTrue(fresh.get(storage.chunkIndex(5, 0)) && fresh.get(storage.chunkIndex(5, 50)))
+
+        storage.takeGeneratedChunks(fresh.apply { clear() })
+        assertTrue(fresh.isEmpty)
+
+        //only as far down as the surface
+        generated.clear()
+        storage.generateDownToSurface(40)
+        assertEquals(listOf(1 to 0, 1 to 1), generated)
+        assertEquals(40, storage.surfaceHeights[40])
+
+        //writes to ungenerated chunks land on top of what gets generated
+        storage.setType(100, 100, OreBlock.BlockType.Dirt.oreValue)
+        assertEquals(OreBlock.BlockType.Dirt.oreValue, storage.type(100, 100))
+        assertEquals(OreBlock.BlockType.Stone.oreValue, storage.type(100, 101))
+        assertEquals(40, storage.surfaceHeights[100])
+    }
+
+    @Test
+    fun testRegionCopyRoundTrip() {
+        val source = BlockStorage(256, 256)
+        for (x in 20..100) {
+            for (y in 10..90) {
+                source.setType(x, y, ((x + y) % 7).toByte())
+                source.setLightLevel(x, y, (x % 18).toByte())
+                source.setLiquidNibble(x, y, y % 16)
+            }
+        }
+
+        val fields = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL,
+                                BlockChangeJournal.FIELD_LIQUID_LEVEL)
+        //straddles chunk boundaries and untouched chunks on every side
+        val left = 5
+        val top = 3
+        val right = 130
+        val bottom = 97
+        val region = ByteArray(source.regionSize(fields.size, left, top, right, bottom))
+        source.copyRegionTo(fields, left, top, right, bottom, region)
+
+        val dest = BlockStorage(256, 256)
+        dest.applyRegionFrom(fields, left, top, right, bottom, region)
+
+        for (x in left..right) {
+            for (y in top..bottom) {
+                assertEquals(source.type(x, y), dest.type(x, y))
+                assertEquals(source.lightLevel(x, y), dest.lightLevel(x, y))
+                assertEquals(source.liquidNibble(x, y), dest.liquidNibble(x, y))
+            }
+        }
+
+        //air only chunks in the region didn't get allocated
+        assertEquals(source.allocatedChunkCount(), dest.allocatedChunkCount())
+    }
+
+    @Test
+    fun testFillRectAndSlices() {
+        val storage = BlockStorage(128, 128)
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 10, 20, 70, 100, OreBlock.BlockType.Dirt.oreValue)
+
+        assertEquals(OreBlock.BlockType.Air.oreValue, storage.type(9, 20))
+        assertEquals(OreBlock.BlockType.Air.oreValue, storage.type(10, 19))
+        assertEquals(OreBlock.BlockType.Dirt.oreValue, storage.type(10, 20))
+        assertEquals(OreBlock.BlockType.Dirt.oreValue, storage.type(70, 100))
+        assertEquals(OreBlock.BlockType.Air.oreValue, storage.type(71, 100))
+
+        val row = ByteArray(128)
+        storage.copyRow(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 50, 0, 127, row)
+        for (x in 0..127) {
+            assertEquals(storage.type(x, 50), row[x])
+        }
+
+        val column = ByteArray(128)
+        storage.copyColumn(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 40, 0, 127, column)
+        for (y in 0..127) {
+            assertEquals(storage.type(40, y), column[y])
+        }
+    }
+
+    @Test
+    fun testBulkWritesAreJournaled() {
+        val storage = BlockStorage(128, 128)
+        val journal = BlockChangeJournal(capacityShift = 8)
+        storage.journal = journal
+        val cursor = journal.newCursor()
+
+        //small enough to record block by block
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 0, 3, 3, OreBlock.BlockType.Stone.oreValue)
+        var count = 0
+        assertTrue(journal.drain(cursor) { ++count })
+        assertEquals(16, count)
+
+        //too big, consumers are told to resync instead
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 0, 127, 127, OreBlock.BlockType.Dirt.oreValue)
+        assertFalse(journal.drain(cursor) { fail() })
+
+        val lateCursor = journal.newCursor()
+        storage.setType(0, 0, OreBlock.BlockType.Stone.oreValue)
+        assertTrue(journal.drain(lateCursor) { })
+    }
+
+    @Test
+    fun testLayoutOffsetsAreAPermutation() {
+        for (layout in BlockIndexLayout.values()) {
+            val seen = BooleanArray(BlockChunk.BLOCK_COUNT)
+            for (x in 0 until BlockChunk.SIZE) {
+                for (y in 0 until BlockChunk.SIZE) {
+                    val index = layout.xOffsets[x] or layout.yOffsets[y]
+                    assertFalse("${layout.name} maps two blocks to $index", seen[index])
+                    seen[index] = true
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testMortonLayoutMatchesColumnMajor() {
+        val columnMajor = BlockStorage(128, 128, BlockIndexLayout.ColumnMajor)
+        val morton = BlockStorage(128, 128, BlockIndexLayout.Morton)
+        for (storage in arrayOf(columnMajor, morton)) {
+            for (x in 3..90) {
+                for (y in 7..120) {
+                    storage.setType(x, y, ((x * 3 + y) % 11).toByte())
+                    storage.setLiquidNibble(x, y, (x + y) % 16)
+                }
+            }
+
+            storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, 30, 5, 100, 70, 4)
+        }
+
+        val fields = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE,
+                                BlockChangeJournal.FIELD_LIQUID_LEVEL)
+        val size = columnMajor.regionSize(fields.size, 0, 0, 127, 127)
+        val fromColumnMajor = ByteArray(size)
+        val fromMorton = ByteArray(size)
+        columnMajor.copyRegionTo(fields, 0, 0, 127, 127, fromColumnMajor)
+        morton.copyRegionTo(fields, 0, 0, 127, 127, fromMorton)
+        assertArrayEquals(fromColumnMajor, fromMorton)
+
+        val columnMajorRow = ByteArray(128)
+        val mortonRow = ByteArray(128)
+        columnMajor.copyRow(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 40, 0, 127, columnMajorRow)
+        morton.copyRow(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 40, 0, 127, mortonRow)
+        assertArrayEquals(columnMajorRow, mortonRow)
+
+        //regions are layout independent, so they can go between worlds of either layout
+        val roundTrip = BlockStorage(128, 128, BlockIndexLayout.Morton)
+        roundTrip.applyRegionFrom(fields, 0, 0, 127, 127, fromColumnMajor)
+        for (x in 0..127) {
+            for (y in 0..127) {
+                assertEquals(columnMajor.type(x, y), roundTrip.type(x, y))
+                assertEquals(columnMajor.wallType(x, y), roundTrip.wallType(x, y))
+                assertEquals(columnMajor.liquidNibble(x, y), roundTrip.liquidNibble(x, y))
+            }
+        }
+    }
+
+    @Test
+    fun testBitmapRowAndColumnQueries() {
+        val bitmap = BlockBitmap(200, 10)
+        bitmap.fillRect(60, 2, 130, 4, true)
+        bitmap[5, 3] = true
+
+        assertTrue(bitmap.allInRow(3, 60, 130))
+        assertFalse(bitmap.allInRow(3, 59, 130))
+        assertFalse(bitmap.allInRow(3, 60, 131))
+        assertEquals(72, bitmap.countInRow(3, 0, 199))
+        assertEquals(5, bitmap.firstInRow(3, 0, 199))
+        assertEquals(60, bitmap.firstInRow(3, 6, 199))
+        assertEquals(-1, bitmap.firstInRow(3, 131, 199))
+        assertFalse(bitmap.anyInRow(1, 0, 199))
+
+        assertEquals(2, bitmap.firstInColumn(64, 0, 9))
+        assertEquals(-1, bitmap.firstInColumn(64, 5, 9))
+        assertTrue(bitmap.allInRect(60, 2, 130, 4))
+        assertTrue(bitmap.anyInRect(0, 0, 5, 3))
+        assertFalse(bitmap.anyInRect(0, 5, 199, 9))
+
+        bitmap.fillRect(64, 3, 127, 3, false)
+        assertEquals(8, bitmap.countInRow(3, 0, 199))
+        assertTrue(bitmap.allInRow(2, 60, 130))
+    }
+
+    @Test
+    fun testSolidAndLiquidBitsFollowTypeWrites() {
+        val storage = BlockStorage(128, 128)
+        val dirt = OreBlock.BlockType.Dirt.oreValue
+        val water = OreBlock.BlockType.Water.oreValue
+
+        storage.setType(10, 10, dirt)
+        storage.setType(11, 10, water)
+        assertTrue(storage.solidBits[10, 10])
+        assertFalse(storage.liquidBits[10, 10])
+        assertTrue(storage.liquidBits[11, 10])
+        assertFalse(storage.solidBits[11, 10])
+
+        storage.setType(10, 10, OreBlock.BlockType.Air.oreValue)
+        assertFalse(storage.solidBits[10, 10])
+
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 50, 127, 60, dirt)
+        assertTrue(storage.solidBits.allInRect(0, 50, 127, 60))
+
+        //regions coming in over the network update them too
+        val fields = intArrayOf(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE)
+        val region = ByteArray(storage.regionSize(1, 0, 0, 127, 127))
+        storage.copyRegionTo(fields, 0, 0, 127, 127, region)
+        val dest = BlockStorage(128, 128)
+        dest.applyRegionFrom(fields, 0, 0, 127, 127, region)
+        assertArrayEquals(storage.solidBits.words, dest.solidBits.words)
+        assertArrayEquals(storage.liquidBits.words, dest.liquidBits.words)
+
+        //other fields leave them alone
+        storage.setWallType(20, 20, OreBlock.WallType.DirtUnderground.oreValue)
+        assertFalse(storage.solidBits[20, 20])
+    }
+
+    @Test
+    fun testSurfaceHeightsFollowWrites() {
+        val storage = BlockStorage(100, 80)
+        val stone = OreBlock.BlockType.Stone.oreValue
+        val air = OreBlock.BlockType.Air.oreValue
+        assertEquals(80, storage.surfaceHeights[5])
+
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, 40, 99, 79, stone)
+        assertEquals(40, storage.surfaceHeights[5])
+
+        storage.setType(5, 30, stone)
+        assertEquals(30, storage.surfaceHeights[5])
+
+        //water isn't solid, doesn't count as the surface
+        storage.setType(6, 20, OreBlock.BlockType.Water.oreValue)
+        assertEquals(40, storage.surfaceHeights[6])
+
+        //digging out the surface finds the next solid block down
+        storage.setType(5, 30, air)
+        assertEquals(40, storage.surfaceHeights[5])
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 5, 40, 5, 60, air)
+        assertEquals(61, storage.surfaceHeights[5])
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 7, 0, 7, 79, air)
+        assertEquals(80, storage.surfaceHeights[7])
+
+        val incremental = storage.surfaceHeights.copyOf()
+        storage.rebuildSurfaceHeights()
+        assertArrayEquals(incremental, storage.surfaceHeights)
+
+        //a range of words only touches its own columns
+        Arrays.fill(storage.surfaceHeights, -1)
+        storage.rebuildSurfaceHeights(1, 1)
+        assertEquals(-1, storage.surfaceHeights[63])
+        assertArrayEquals(incremental.copyOfRange(64, 100), storage.surfaceHeights.copyOfRange(64, 100))
+    }
+
+    /**
+     * times the neighbourhood heavy passes the game does every so often, on
+     * each block index layout. roughly what tile transitions (8 neighbours),
+     * grass spreading (x-2..x+2, y-1..y+1) and lighting (flood fill from
+     * each light source) do, plus a plain row walk like saving does
+     */
+    @Test
+    @Ignore
+    fun printNeighbourhoodPassTimingsPerLayout() {
+        val width = OreWorld.WorldSize.Small.width
+        val height = OreWorld.WorldSize.Small.height
+
+        for (layout in BlockIndexLayout.values()) {
+            val storage = BlockStorage(width, height, layout)
+            val surface = height / 4
+            for (x in 0 until width) {
+                for (y in surface until height) {
+                    val type = when {
+                        (x * 31 + y * 17) % 13 == 0 -> OreBlock.BlockType.Air.oreValue
+                        y < surface + 40 -> OreBlock.BlockType.Dirt.oreValue
+                        else -> OreBlock.BlockType.Stone.oreValue
+                    }
+
+                    storage.setType(x, y, type)
+                }
+            }
+
+            //first round is jit warmup
+            for (round in 0..3) {
+                val transitions = timePass { transitionPass(storage) }
+                val grass = timePass { grassPass(storage) }
+                val lighting = timePass { lightingPass(storage, surface) }
+                val rows = timePass { rowPass(storage) }
+
+                if (round > 0) {
+                    println("${layout.name}: transitions ${transitions}ms, grass ${grass}ms, " +
+                                    "lighting ${lighting}ms, row walk ${rows}ms")
+                }
+            }
+        }
+    }
+
+    private inline fun timePass(pass: () -> Int): Long {
+        val start = System.nanoTime()
+        //keep the result live so the pass doesn't get optimized away
+        if (pass() == -1) {
+            println()
+        }
+
+        return (System.nanoTime() - start) / 1000000
+    }
+
+    private fun isSolid(storage: BlockStorage, x: Int, y: Int) =
+            storage.type(x, y) != OreBlock.BlockType.Air.oreValue
+
+    private fun transitionPass(storage: BlockStorage): Int {
+        var total = 0
+        for (x in 1 until storage.width - 1) {
+            for (y in 1 until storage.height - 1) {
+                if (!isSolid(storage, x, y)) {
+                    continue
+                }
+
+                var mask = 0
+                for (i in 0..7) {
+                    val dx = NEIGHBOUR_X[i]
+                    val dy = NEIGHBOUR_Y[i]
+                    if (isSolid(storage, x + dx, y + dy)) {
+                        mask = mask or (1 shl i)
+                    }
+                }
+
+                total += mask
+            }
+        }
+
+        return total
+    }
+
+    private fun grassPass(storage: BlockStorage): Int {
+        var total = 0
+        for (x in 2 until storage.width - 2) {
+            for (y in 1 until storage.height - 1) {
+                if (storage.type(x, y) != OreBlock.BlockType.Dirt.oreValue) {
+                    continue
+                }
+
+                var airAround = 0
+                for (dx in -2..2) {
+                    for (dy in -1..1) {
+                        if (!isSolid(storage, x + dx, y + dy)) {
+                            airAround++
+                        }
+                    }
+                }
+
+                total += airAround
+            }
+        }
+
+        return total
+    }
+
+    /**
+     * flood fills light 18 blocks out from a light source every 40 blocks
+     * along, underground
+     */
+    private fun lightingPass(storage: BlockStorage, surface: Int): Int {
+        val maxLight = 18
+        val stack = IntArray(1 shl 16)
+        var visited = 0
+
+        for (sourceX in 20 until storage.width - 20 step 40) {
+            for (sourceY in surface + 20 until storage.height - 20 step 40) {
+                var size = 0
+                stack[size++] = sourceX shl 16 or sourceY
+                storage.setLightLevel(sourceX, sourceY, maxLight.toByte())
+
+                while (size > 0) {
+                    val packed = stack[--size]
+                    val x = packed ushr 16
+                    val y = packed and 0xFFFF
+                    val next = storage.lightLevel(x, y) - (if (isSolid(storage, x, y)) 2 else 1)
+                    visited++
+
+                    for (i in 0..7 step 2) {
+                        val nx = x + NEIGHBOUR_X[i]
+                        val ny = y + NEIGHBOUR_Y[i]
+                        if (next > storage.lightLevel(nx, ny)) {
+                            storage.setLightLevel(nx, ny, next.toByte())
+                            stack[size++] = nx shl 16 or ny
+                        }
+                    }
+                }
+            }
+        }
+
+        //so the next round has to do it all again
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_LIGHT_LEVEL, 0, 0, storage.width - 1,
+                         storage.height - 1, 0)
+
+        return visited
+    }
+
+    private fun rowPass(storage: BlockStorage): Int {
+        val row = ByteArray(storage.width)
+        var total = 0
+        for (y in 0 until storage.height) {
+            storage.copyRow(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, y, 0, storage.width - 1, row)
+            total += row[y % row.size]
+        }
+
+        return total
+    }
+
+    /**
+     * prints how much memory blocks take for each world size, flat layout vs
+     * chunked vs chunked + palette packed. fills each world with a rough
+     * stand-in for generated terrain (air sky, dirt, stone with ore veins)
+     */
+    @Test
+    @Ignore
+    fun printMemoryReportPerWorldSize() {
+        for (worldSize in OreWorld.WorldSize.values()) {
+            val storage = BlockStorage(worldSize.width, worldSize.height)
+            val surface = worldSize.height / 4
+
+            for (x in 0 until worldSize.width) {
+                for (y in surface until worldSize.height) {
+                    val type = when {
+                        y < surface + 40 -> OreBlock.BlockType.Dirt.oreValue
+                        (x * 31 + y * 17) % 97 == 0 -> OreBlock.BlockType.Copper.oreValue
+                        else -> OreBlock.BlockType.Stone.oreValue
+                    }
+
+                    storage.setType(x, y, type)
+                    storage.setWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
+                }
+            }
+
+            println("${worldSize.name} chunked:  ${storage.memoryReport()}")
+            storage.compactChunks()
+            println("${worldSize.name} palette:  ${storage.memoryReport()}")
+        }
+    }
+
+    companion object {
+        //clockwise from the right. even entries are the 4 edge neighbours
+        private val NEIGHBOUR_X = intArrayOf(1, 1, 0, -1, -1, -1, 0, 1)
+        private val NEIGHBOUR_Y = intArrayOf(0, 1, 1, 1, 0, -1, -1, -1)
+    }
+}
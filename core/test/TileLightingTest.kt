@@ -0,0 +1,93 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.OreBlock
+import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.server.TileLightingSystem
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class TileLightingTest {
+    internal var world = OreWorld(null, null, OreWorld.WorldInstanceType.Server, OreWorld.WorldSize.TestTiny)
+
+    @Test
+    fun lightReachesItsFullRadiusInADugOutCave() {
+        //dug out underground, so light falls off by 1 a tile
+        for (x in 0 until 64) {
+            for (y in 0 until 64) {
+                world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
+            }
+        }
+
+        world.setBlockLightLevel(32, 32, TileLightingSystem.MAX_TILE_LIGHT_LEVEL)
+        TileLightingSystem(world).updateTileLighting(32, 32, TileLightingSystem.MAX_TILE_LIGHT_LEVEL)
+
+        for (x in 0 until 64) {
+            for (y in 0 until 64) {
+                val distance = Math.abs(x - 32) + Math.abs(y - 32)
+
+                //the tiles right next to it get its full light
+                val expected = when (distance) {
+                    0 -> TileLightingSystem.MAX_TILE_LIGHT_LEVEL.toInt()
+                    else -> maxOf(0, TileLightingSystem.MAX_TILE_LIGHT_LEVEL + 1 - distance)
+                }
+
+                assertEquals("$x, $y", expected, world.blockLightLevel(x, y).toInt())
+            }
+        }
+    }
+
+    @Test
+    fun removingALightLeavesOnlyTheLightsAroundIt() {
+        for (x in 0 until 64) {
+            for (y in 0 until 64) {
+                world.setBlockWallType(x, y, OreBlock.WallType.DirtUnderground.oreValue)
+            }
+        }
+
+        val lighting = TileLightingSystem(world)
+        val lightLevel: Byte = 10
+
+        //close enough that their light overlaps
+        world.setBlockLightLevel(28, 32, lightLevel)
+        lighting.updateTileLighting(28, 32, lightLevel)
+        world.setBlockLightLevel(36, 32, lightLevel)
+        lighting.updateTileLighting(36, 32, lightLevel)
+
+        world.setBlockLightLevel(28, 32, 0)
+        lighting.updateTileLightingRemove(28, 32, lightLevel)
+
+        for (x in 0 until 64) {
+            for (y in 0 until 64) {
+                val distance = Math.abs(x - 36) + Math.abs(y - 32)
+                val expected = when (distance) {
+                    0 -> lightLevel.toInt()
+                    else -> maxOf(0, lightLevel + 1 - distance)
+                }
+
+                assertEquals("$x, $y", expected, world.blockLightLevel(x, y).toInt())
+            }
+        }
+    }
+}
@@ -22,8 +22,10 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
  */
 
+import com.ore.infinium.BlockChunk
 import com.ore.infinium.OreBlock
 import com.ore.infinium.OreWorld
+import com.ore.infinium.systems.server.LiquidSimulationSystem
 import org.junit.Assert.*
 import org.junit.Before
 import org.junit.Test
@@ -37,7 +39,35 @@ class WorldBlockTest {
 
     @Test
     fun testBlockArrayInitialized() {
-        assertNotNull(world.blocks)
+        assertNotNull(world.blockStorage)
+    }
+
+    @Test
+    fun testUntouchedChunksShareEmptySentinel() {
+        assertEquals(0, world.blockStorage.allocatedChunkCount())
+        assertEquals(OreBlock.BlockType.Air.oreValue, world.blockType(700, 700))
+
+        //writing air into an untouched chunk shouldn't allocate it
+        world.setBlockType(700, 700, OreBlock.BlockType.Air.oreValue)
+        assertTrue(world.blockStorage.chunkAt(700, 700).isEmptySentinel)
+
+        world.setBlockType(700, 700, OreBlock.BlockType.Stone.oreValue)
+        assertFalse(world.blockStorage.chunkAt(700, 700).isEmptySentinel)
+        assertEquals(1, world.blockStorage.allocatedChunkCount())
+        assertEquals(OreBlock.BlockType.Stone.oreValue, world.blockType(700, 700))
+
+        //neighbor across the chunk boundary is still untouched
+        assertTrue(world.blockStorage.chunkAt(700 + BlockChunk.SIZE, 700).isEmptySentinel)
+    }
+
+    @Test
+    fun testChunkVersionIncrementsOnWrite() {
+        world.setBlockType(10, 10, OreBlock.BlockType.Dirt.oreValue)
+        val chunk = world.blockStorage.chunkAt(10, 10)
+        val version = chunk.version
+
+        world.setBlockWallType(11, 11, OreBlock.WallType.Dirt.oreValue)
+        assertTrue(chunk.version > version)
     }
 
     @Test
@@ -52,17 +82,58 @@ class WorldBlockTest {
         assertTrue(world.isBlockSolid(100, 100))
     }
 
+    @Test
+    fun testAttributeTablesMatchAttributes() {
+        for ((type, attributes) in OreBlock.blockAttributes) {
+            assertEquals(attributes.collision == OreBlock.BlockAttributes.Collision.True, OreBlock.isSolid(type))
+            assertEquals(attributes.category == OreBlock.BlockAttributes.BlockCategory.Liquid,
+                         OreBlock.isLiquid(type))
+            assertEquals(attributes.category, OreBlock.category(type))
+            assertEquals(attributes.blockTotalHealth, OreBlock.totalHealth(type), 0f)
+        }
+
+        //unknown types shouldn't blow up, just be non solid
+        assertFalse(OreBlock.isSolid((-1).toByte()))
+    }
+
     @Test
     fun testBlockLiquidLevelFields() {
         var level = 1.toByte()
         var x = 0
         var y = 0
-        world.setLiquidLevel(x, y, level)
+        world.setLiquidLevelWaterNotEmpty(x, y, level)
+
+        var retrievedLevel = world.liquidLevel(x, y)
+        assertEquals(level, retrievedLevel)
 
-        val retrievedLevel = world.liquidLevel(x, y)
+        level = LiquidSimulationSystem.MAX_LIQUID_LEVEL
+        world.setLiquidLevelWaterNotEmpty(x, y, level)
+
+        retrievedLevel = world.liquidLevel(x, y)
         assertEquals(level, retrievedLevel)
     }
 
+    @Test
+    fun testLiquidLevelDoesNotClobberFlags() {
+        world.setBlockFlag(5, 5, OreBlock.BlockFlags.GrassBlock)
+        world.setLiquidLevelWaterNotEmpty(5, 5, 7)
+
+        assertTrue(world.blockHasFlag(5, 5, OreBlock.BlockFlags.GrassBlock))
+        assertEquals(7.toByte(), world.liquidLevel(5, 5))
+
+        //neighbor sharing the same packed byte is untouched
+        assertEquals(0.toByte(), world.liquidLevel(5, 6))
+    }
+
+    @Test
+    fun testUnsetBlockFlagKeepsOtherFlags() {
+        world.setBlockFlag(6, 6, OreBlock.BlockFlags.GrassBlock)
+        world.setBlockFlag(6, 6, OreBlock.BlockFlags.SunlightVisible)
+        world.unsetBlockFlag(6, 6, OreBlock.BlockFlags.GrassBlock)
+
+        assertFalse(world.blockHasFlag(6, 6, OreBlock.BlockFlags.GrassBlock))
+        assertTrue(world.blockHasFlag(6, 6, OreBlock.BlockFlags.SunlightVisible))
+    }
 
     /*
     //tile origin is top left
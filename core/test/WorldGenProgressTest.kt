@@ -0,0 +1,61 @@
+/**
+MIT License
+
+Copyright (c) 2016 Shaun Reich <sreich02@gmail.com>
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+
+import com.ore.infinium.WorldGenProgress
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class WorldGenProgressTest {
+    @Test
+    fun stagesReportFractionRateAndUtilisation() {
+        val progress = WorldGenProgress()
+        progress.start(listOf(WorldGenProgress.Stage.Blocks, WorldGenProgress.Stage.Lakes))
+        assertEquals(0f, progress.fractionDone())
+
+        progress.beginStage(WorldGenProgress.Stage.Blocks, units = 4, threadCount = 2)
+        assertEquals(WorldGenProgress.Stage.Blocks, progress.currentStage)
+
+        progress.timed(WorldGenProgress.Stage.Blocks, 1) { Thread.sleep(5) }
+        assertEquals(0.25f, progress.fractionDone(WorldGenProgress.Stage.Blocks))
+        assertEquals(0.125f, progress.fractionDone())
+
+        progress.advance(WorldGenProgress.Stage.Blocks, 3, 0)
+        progress.endStage(WorldGenProgress.Stage.Blocks)
+        assertEquals(1f, progress.fractionDone(WorldGenProgress.Stage.Blocks))
+        assertTrue(progress.unitsPerSecond(WorldGenProgress.Stage.Blocks) > 0.0)
+
+        //one of the two threads was busy for the part of the stage it slept
+        val utilisation = progress.threadUtilisation(WorldGenProgress.Stage.Blocks)
+        assertTrue(utilisation > 0.0 && utilisation <= 0.5)
+
+        //a stage with nothing to do is done once it's ended
+        progress.beginStage(WorldGenProgress.Stage.Lakes, units = 0, threadCount = 1)
+        assertEquals(0f, progress.fractionDone(WorldGenProgress.Stage.Lakes))
+        progress.endStage(WorldGenProgress.Stage.Lakes)
+        assertEquals(1f, progress.fractionDone())
+
+        assertEquals(2, progress.report().lines().size)
+    }
+}
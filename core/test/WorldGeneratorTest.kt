@@ -25,9 +25,12 @@ SOFTWARE.
 import com.artemis.World
 import com.artemis.WorldConfigurationBuilder
 import com.badlogic.gdx.utils.GdxNativesLoader
-import com.ore.infinium.OreWorld
-import com.ore.infinium.WorldGenerator
+import com.ore.infinium.*
 import com.ore.infinium.systems.server.LiquidSimulationSystem
+import com.sudoplay.joise.module.ModuleCache
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
 import org.junit.Ignore
 import org.junit.Test
 
@@ -57,8 +60,172 @@ class WorldGeneratorTest {
     @Throws(Exception::class)
     fun generateWorldAndOutputMultipleImages() {
         GdxNativesLoader.load()
-//        WorldGenerator.generate1()
-        //       WorldGenerator.generateWorldAndOutputMultipleImages(numberOfImages = 500)
+
+        val worldSize = OreWorld.WorldSize.Small
+
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = worldSize)
+
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        WorldGenerator(world = world).previewSeeds(worldSize, numberOfImages = 500)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun previewRejectsAStepUnderOne() {
+        val worldSize = OreWorld.WorldSize.TestTiny
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = worldSize)
+
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        WorldGenerator(world = world).previewSeeds(worldSize, numberOfImages = 1, step = 0)
+    }
+
+    @Test
+    fun findPeaksFindsMountainsAndValleysLeftToRight() {
+        //y grows downward, so a dip in y is a mountain (minimum) and a rise is a valley (maximum)
+        val contour = intArrayOf(50, 50, 60, 70, 60, 50, 40, 30, 40, 50, 60, 60)
+        val peaks = WorldGenerator.findPeaks(contour, 6)
+
+        assertEquals(1, peaks.maxima.count)
+        assertEquals(3, peaks.maxima.xs[0])
+
+        assertEquals(1, peaks.minima.count)
+        assertEquals(7, peaks.minima.xs[0])
+    }
+
+    /**
+     * a source that's a plane in x and y, and counts how often it's sampled
+     */
+    private class CountingSource : ModuleCache() {
+        var samples = 0
+
+        override fun get(x: Double, y: Double): Double {
+            ++samples
+            return x * 3.0 + y
+        }
+    }
+
+    @Test
+    fun batchEvaluationMatchesPointSampling() {
+        val source = CountingSource()
+        val cache = ModuleGridCache(source)
+        val out = DoubleArray(16 * 8)
+
+        NoiseBatch.evaluate(cache, 32, 64, 16, 8, 0.5, out)
+
+        for (i in 0 until 16) {
+            for (j in 0 until 8) {
+                assertEquals((32 + i) * 0.5 * 3.0 + (64 + j) * 0.5, out[i * 8 + j], 0.0)
+            }
+        }
+
+        assertEquals(16 * 8, source.samples)
+
+        //off the grid, it's just passed through
+        assertEquals(source.get(0.25, 0.25), cache.get(0.25, 0.25), 0.0)
     }
 
+    @Test
+    fun columnCacheSamplesEachColumnOnce() {
+        val source = CountingSource()
+        val out = DoubleArray(10 * 20)
+
+        NoiseBatch.evaluate(ModuleColumnCache(source), 5, 0, 10, 20, 1.0, out)
+
+        assertEquals(10, source.samples)
+        for (i in 0 until 10) {
+            for (j in 0 until 20) {
+                //only ever sampled along y = 0
+                assertEquals((5 + i) * 3.0, out[i * 20 + j], 0.0)
+            }
+        }
+    }
+
+    @Test
+    fun columnCacheLatticeInterpolatesBetweenWorldAlignedColumns() {
+        val source = CountingSource()
+        val out = DoubleArray(10)
+
+        NoiseBatch.evaluate(ModuleColumnCache(source, latticeStep = 4), 5, 0, 10, 1, 1.0, out)
+
+        //lattice columns 4, 8, 12, 16 cover 5..14
+        assertEquals(4, source.samples)
+
+        //the source is linear, so interpolating it is exact
+        for (i in 0 until 10) {
+            assertEquals((5 + i) * 3.0, out[i], 1e-9)
+        }
+    }
+
+    @Test
+    fun columnCacheLatticeHandlesSteppedColumns() {
+        val source = CountingSource()
+        val out = DoubleArray(5)
+
+        //columns 6, 9, 12, 15, 18
+        NoiseBatch.evaluate(ModuleColumnCache(source, latticeStep = 4), 6, 0, 5, 1, 1.0, out, columnStep = 3)
+
+        //lattice columns 4, 8, 12, 16, 20. 12 lands right on one, so it doesn't need 16
+        assertEquals(5, source.samples)
+
+        for (i in 0 until 5) {
+            assertEquals((6 + i * 3) * 3.0, out[i], 1e-9)
+        }
+    }
+
+    @Test
+    fun lazyChunksHoldFullLiquidAndRegenerateTheSame() {
+        val worldSize = OreWorld.WorldSize.TestTiny
+        val world = OreWorld(client = null, server = null, worldInstanceType = OreWorld.WorldInstanceType.Server,
+                             worldSize = worldSize)
+
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        val worldgen = WorldGenerator(world = world)
+        val chunksWide = (worldSize.width + BlockChunk.SIZE - 1) / BlockChunk.SIZE
+        val chunksHigh = (worldSize.height + BlockChunk.SIZE - 1) / BlockChunk.SIZE
+        val dest = ByteArray(BlockChunk.BLOCK_COUNT * 3)
+
+        //the first chunk, of the first seed, that any lake or volcano reaches into
+        var found: IntArray? = null
+        var modules: WorldGenerator.WorldModules? = null
+        var seed = 0L
+        while (found == null && seed < 10) {
+            modules = worldgen.buildWorldModules(worldSize, seed)
+            val generator = LazyChunkGenerator(worldSize, modules)
+
+            search@ for (chunkX in 0 until chunksWide) {
+                for (chunkY in 0 until chunksHigh) {
+                    generator.generateChunk(chunkX, chunkY, dest)
+                    val index = (0 until BlockChunk.BLOCK_COUNT).firstOrNull { OreBlock.isLiquid(dest[it]) }
+                    if (index != null) {
+                        found = intArrayOf(chunkX, chunkY, index)
+                        break@search
+                    }
+                }
+            }
+
+            ++seed
+        }
+
+        assertNotNull(found)
+        val (chunkX, chunkY, index) = found!!
+        val generated = dest.copyOf()
+
+        //a fresh generator, which hasn't found any features yet, comes up with the same blocks
+        val regenerated = ByteArray(dest.size)
+        LazyChunkGenerator(worldSize, modules!!).generateChunk(chunkX, chunkY, regenerated)
+        assertArrayEquals(generated, regenerated)
+
+        //and liquid pages in full
+        world.blockStorage.generator = LazyChunkGenerator(worldSize, modules)
+        world.blockStorage.markAllUngenerated()
+
+        //payloads are column major (see ChunkGenerator.generateChunk)
+        val x = chunkX * BlockChunk.SIZE + index / BlockChunk.SIZE
+        val y = chunkY * BlockChunk.SIZE + index % BlockChunk.SIZE
+        assertEquals(LiquidSimulationSystem.MAX_LIQUID_LEVEL, world.liquidLevel(x, y))
+    }
 }
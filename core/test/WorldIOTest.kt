@@ -22,10 +22,35 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
  */
 
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
+import com.ore.infinium.BlockChangeJournal
+import com.ore.infinium.BlockChunk
+import com.ore.infinium.BlockEditLog
+import com.ore.infinium.BlockStorage
+import com.ore.infinium.ChunkGenerator
+import com.ore.infinium.EntityIO
 import com.ore.infinium.OreBlock
+import com.ore.infinium.OreEntityFactory
 import com.ore.infinium.OreWorld
+import com.ore.infinium.WorldAutosaver
+import com.ore.infinium.WorldIO
+import com.ore.infinium.WorldSaveReader
+import com.ore.infinium.components.*
+import com.ore.infinium.util.allOf
+import com.ore.infinium.util.entities
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
 import org.junit.Ignore
 import org.junit.Test
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.util.*
+import java.util.zip.Deflater
 import kotlin.test.assertEquals
 
 class WorldIOTest {
@@ -54,5 +79,644 @@ class WorldIOTest {
         }
     }
 
+    @Test
+    fun chunkedSaveRoundTrip() {
+        //not a multiple of the chunk size, so the edge chunks are partial
+        val source = fillTerrain(BlockStorage(200, 150))
+        source.setLiquidNibble(10, 60, 7)
+        source.setLightLevel(11, 60, 12)
+
+        val file = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(source, file.toPath())
+
+            val dest = BlockStorage(200, 150)
+            WorldIO.readBlocks(dest, file.toPath())
+
+            for (x in 0 until 200) {
+                for (y in 0 until 150) {
+                    assertEquals(source.type(x, y), dest.type(x, y))
+                    assertEquals(source.wallType(x, y), dest.wallType(x, y))
+                    assertEquals(source.flags(x, y), dest.flags(x, y))
+                    assertEquals(source.lightLevel(x, y), dest.lightLevel(x, y))
+                    assertEquals(source.liquidNibble(x, y), dest.liquidNibble(x, y))
+                }
+            }
+
+            assertEquals(source.allocatedChunkCount(), dest.allocatedChunkCount())
+
+            WorldSaveReader(file.toPath()).use { reader ->
+                //sky chunks aren't saved at all
+                assertNull(reader.readChunk(0, 0))
+
+                //any single chunk can be read on its own
+                val chunk = reader.readChunk(6, 4)!!
+                val expected = ByteArray(chunk.size)
+                source.copyRegionTo(WorldIO.SAVED_FIELDS, 192, 128, 199, 149, expected)
+                assertArrayEquals(expected, chunk)
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun lazilyOpenedSaveLoadsChunksOnDemand() {
+        val source = fillTerrain(BlockStorage(200, 150))
+        //lit, except one chunk
+        Arrays.fill(source.lightingStamps, 1)
+        source.lightingStamps[12] = 0
+        val file = File.createTempFile("ore-world", ".save")
+        val resaved = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(source, file.toPath())
+
+            val dest = BlockStorage(200, 150)
+            WorldIO.openBlocks(dest, file.toPath())
+
+            //nothing loaded, but collision and the surface already work
+            assertEquals(0, dest.allocatedChunkCount())
+            assertArrayEquals(source.solidBits.words, dest.solidBits.words)
+            assertArrayEquals(source.surfaceHeights, dest.surfaceHeights)
+            assertArrayEquals(source.lightingStamps, dest.lightingStamps)
+            assertEquals(BlockChunk.EMPTY, dest.chunkAt(0, 0))
+            assertEquals(BlockChunk.PAGED_OUT, dest.chunkAt(100, 100))
+
+            assertEquals(source.type(100, 100), dest.type(100, 100))
+            assertEquals(1, dest.allocatedChunkCount())
+
+            //writes to an unloaded chunk load it first
+            dest.setType(10, 140, OreBlock.BlockType.Diamond.oreValue)
+            assertEquals(2, dest.allocatedChunkCount())
+
+            //saving copies the chunks that never got loaded straight across
+            WorldIO.writeBlocks(dest, resaved.toPath())
+            dest.save!!.close()
+
+            val reloaded = BlockStorage(200, 150)
+            WorldIO.readBlocks(reloaded, resaved.toPath())
+            for (x in 0 until 200) {
+                for (y in 0 until 150) {
+                    val expected = if (x == 10 && y == 140) OreBlock.BlockType.Diamond.oreValue else source.type(x, y)
+                    assertEquals(expected, reloaded.type(x, y))
+                    assertEquals(source.wallType(x, y), reloaded.wallType(x, y))
+                }
+            }
+
+            assertArrayEquals(source.lightingStamps, reloaded.lightingStamps)
+        } finally {
+            file.delete()
+            resaved.delete()
+        }
+    }
+
+    @Test
+    fun ungeneratedChunksStayUngeneratedInSaves() {
+        //stone from y 40 down
+        val generator = object : ChunkGenerator {
+            override fun generateChunk(chunkX: Int, chunkY: Int, dest: ByteArray): Boolean {
+                Arrays.fill(dest, 0)
+                for (index in 0 until BlockChunk.BLOCK_COUNT) {
+                    if (chunkY * BlockChunk.SIZE + index % BlockChunk.SIZE >= 40) {
+                        dest[index] = OreBlock.BlockType.Stone.oreValue
+                    }
+                }
+
+                return chunkY > 0
+            }
+        }
+
+        val source = BlockStorage(128, 128)
+        source.generator = generator
+        source.worldSeed = 1234L
+        source.markAllUngenerated()
+        source.setType(5, 60, OreBlock.BlockType.Diamond.oreValue)
+
+        val file = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(source, file.toPath())
+
+            WorldSaveReader(file.toPath()).use { reader ->
+                assertFalse(reader.isChunkUngenerated(0, 1))
+                assertTrue(reader.isChunkUngenerated(3, 3))
+            }
+
+            val dest = BlockStorage(128, 128)
+            WorldIO.readBlocks(dest, file.toPath())
+            assertEquals(1234L, dest.worldSeed)
+            assertTrue(dest.isGenerated(5, 60))
+            assertFalse(dest.isGenerated(100, 100))
+            assertEquals(BlockChunk.PAGED_OUT, dest.chunkAt(100, 100))
+
+            //the rest gets generated again, from the same seed
+            dest.generator = generator
+            assertEquals(OreBlock.BlockType.Diamond.oreValue, dest.type(5, 60))
+            assertEquals(OreBlock.BlockType.Stone.oreValue, dest.type(100, 100))
+            assertEquals(40, dest.surfaceHeights[100])
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun corruptChunkFailsCrc() {
+        val file = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(fillTerrain(BlockStorage(64, 64)), file.toPath())
+
+            WorldSaveReader(file.toPath()).use { reader ->
+                //flip the last byte of the first chunk's payload, which comes right after the index
+                val corruptAt = WorldIO.HEADER_SIZE + 4L * WorldIO.INDEX_ENTRY_SIZE +
+                        reader.readRawChunk(0, 0)!!.limit() - 1
+                RandomAccessFile(file, "rw").use { raf ->
+                    raf.seek(corruptAt)
+                    val byte = raf.read()
+                    raf.seek(corruptAt)
+                    raf.write(byte xor 0xFF)
+                }
+
+                reader.readChunk(0, 0)
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun deflateFailsWhenItDoesntFit() {
+        val input = ByteArray(4096)
+        Random(1).nextBytes(input)
+
+        val deflater = Deflater(Deflater.BEST_SPEED)
+        try {
+            WorldIO.deflate(deflater, input, input.size, ByteArray(input.size / 2))
+        } finally {
+            deflater.end()
+        }
+    }
+
+    @Test
+    fun autosaveWritesOnlyChangedChunks() {
+        val storage = fillTerrain(BlockStorage(200, 150))
+        val file = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(storage, file.toPath())
+            val fullSaveLength = file.length()
+            val autosaver = WorldAutosaver(storage, file.toPath())
+
+            //nothing changed yet
+            assertTrue(autosaver.snapshot())
+            autosaver.awaitPendingSave()
+            assertEquals(0, autosaver.saveCount)
+
+            //two blocks in one chunk, one in another
+            storage.setType(10, 140, OreBlock.BlockType.Diamond.oreValue)
+            storage.setType(11, 140, OreBlock.BlockType.Diamond.oreValue)
+            storage.setType(150, 60, OreBlock.BlockType.Air.oreValue)
+            assertTrue(storage.hasUnsavedChanges(storage.chunkIndex(10, 140)))
+
+            assertTrue(autosaver.snapshot())
+            assertFalse(storage.hasUnsavedChanges(storage.chunkIndex(10, 140)))
+            autosaver.awaitPendingSave()
+            assertEquals(1, autosaver.saveCount)
+            assertEquals(2, autosaver.lastDirtyChunks)
+
+            storage.setType(190, 10, OreBlock.BlockType.Stone.oreValue)
+            autosaver.saveAndStop()
+            assertEquals(2, autosaver.saveCount)
+            assertEquals(3L, autosaver.totalDirtyChunks)
+            //only ever appended to
+            assertEquals(fullSaveLength + autosaver.totalBytesWritten, file.length())
+
+            //both the lazy and the full load see the autosaved blocks
+            val opened = BlockStorage(200, 150)
+            WorldIO.openBlocks(opened, file.toPath())
+            assertArrayEquals(storage.solidBits.words, opened.solidBits.words)
+            assertArrayEquals(storage.surfaceHeights, opened.surfaceHeights)
+            opened.save!!.close()
+
+            val reloaded = BlockStorage(200, 150)
+            WorldIO.readBlocks(reloaded, file.toPath())
+            for (x in 0 until 200) {
+                for (y in 0 until 150) {
+                    assertEquals(storage.type(x, y), reloaded.type(x, y))
+                    assertEquals(storage.wallType(x, y), reloaded.wallType(x, y))
+                }
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun mappedSaveServesReadsUntilWritten() {
+        val source = fillTerrain(BlockStorage(200, 150))
+        source.setType(40, 70, OreBlock.BlockType.Water.oreValue)
+        source.setLiquidNibble(40, 70, 9)
+        val deflated = File.createTempFile("ore-world", ".save")
+        val stored = File.createTempFile("ore-world", ".save")
+        try {
+            WorldIO.writeBlocks(source, deflated.toPath())
+            WorldIO.writeBlocks(source, stored.toPath(), deflateChunks = false)
+            assertTrue(stored.length() > deflated.length())
+
+            assertFalse(WorldIO.mapBlocks(BlockStorage(200, 150), deflated.toPath()))
+
+            val mapped = BlockStorage(200, 150)
+            assertTrue(WorldIO.mapBlocks(mapped, stored.toPath()))
+
+            val chunk = mapped.chunkAt(40, 60)
+            assertTrue(chunk.isMapped(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE))
+            assertArrayEquals(source.solidBits.words, mapped.solidBits.words)
+            for (x in 0 until 200) {
+                for (y in 0 until 150) {
+                    assertEquals(source.type(x, y), mapped.type(x, y))
+                    assertEquals(source.wallType(x, y), mapped.wallType(x, y))
+                    assertEquals(source.liquidNibble(x, y), mapped.liquidNibble(x, y))
+                }
+            }
+
+            //the first write copies the plane into the heap, the save isn't touched
+            mapped.setType(40, 60, OreBlock.BlockType.Diamond.oreValue)
+            assertFalse(chunk.isMapped(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE))
+            assertTrue(chunk.isMapped(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE))
+            assertEquals(OreBlock.BlockType.Diamond.oreValue, mapped.type(40, 60))
+            assertEquals(source.type(40, 61), mapped.type(40, 61))
+
+            val reloaded = BlockStorage(200, 150)
+            WorldIO.readBlocks(reloaded, stored.toPath())
+            assertEquals(source.type(40, 60), reloaded.type(40, 60))
+
+            //saving copies out of the mapping like any other chunk
+            WorldIO.writeBlocks(mapped, deflated.toPath())
+            WorldIO.readBlocks(reloaded, deflated.toPath())
+            assertEquals(OreBlock.BlockType.Diamond.oreValue, reloaded.type(40, 60))
+            assertEquals(source.wallType(40, 60), reloaded.wallType(40, 60))
+        } finally {
+            deflated.delete()
+            stored.delete()
+        }
+    }
+
+    @Test
+    fun blockEditLogReplaysEditsSinceSave() {
+        val storage = fillTerrain(BlockStorage(100, 100))
+        val journal = BlockChangeJournal()
+        storage.journal = journal
+
+        val directory = Files.createTempDirectory("ore-world").toFile()
+        val save = File(directory, "world.save")
+        val logPath = File(directory, "world.edits")
+        try {
+            WorldIO.writeBlocks(storage, save.toPath())
+
+            val editLog = BlockEditLog(logPath)
+            editLog.start(journal)
+
+            storage.setType(10, 50, OreBlock.BlockType.Air.oreValue)
+            storage.setLightLevel(10, 50, 7)
+            editLog.append(journal)
+
+            storage.setType(10, 50, OreBlock.BlockType.Water.oreValue)
+            storage.setLiquidNibble(10, 50, 12)
+            storage.setWallType(90, 90, OreBlock.WallType.Air.oreValue)
+            editLog.append(journal)
+            editLog.close()
+            assertEquals(4L, editLog.recordsWritten)
+
+            //half a batch, as if we died while writing it
+            File(logPath.path + ".1").appendBytes(byteArrayOf(0, 0, 0, 5, 1, 2, 3))
+
+            val recovered = BlockStorage(100, 100)
+            WorldIO.readBlocks(recovered, save.toPath())
+            val reopened = BlockEditLog(logPath)
+            assertEquals(4, reopened.replay(recovered))
+
+            assertEquals(OreBlock.BlockType.Water.oreValue, recovered.type(10, 50))
+            assertEquals(12, recovered.liquidNibble(10, 50))
+            assertEquals(OreBlock.WallType.Air.oreValue, recovered.wallType(90, 90))
+            assertTrue(recovered.liquidBits[10, 50])
+            //light isn't logged, it gets recomputed
+            assertEquals(0.toByte(), recovered.lightLevel(10, 50))
+
+            //once a save has everything, the log is emptied
+            reopened.discardThrough(reopened.rollOver())
+            reopened.close()
+            assertEquals(0, BlockEditLog(logPath).replay(BlockStorage(100, 100)))
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun blockEditLogNeedsSaveAfterJournalOverflow() {
+        val storage = BlockStorage(100, 100)
+        val journal = BlockChangeJournal(capacityShift = 4)
+        storage.journal = journal
+
+        val directory = Files.createTempDirectory("ore-world").toFile()
+        try {
+            val editLog = BlockEditLog(File(directory, "world.edits"))
+            editLog.start(journal)
+
+            for (x in 0 until 20) {
+                storage.setType(x, 0, OreBlock.BlockType.Stone.oreValue)
+            }
+            editLog.append(journal)
+            assertTrue(editLog.needsSave)
+
+            //a save sealed before the gap doesn't fix it, one after does
+            editLog.discardThrough(0)
+            assertTrue(editLog.needsSave)
+            editLog.discardThrough(editLog.rollOver())
+            assertFalse(editLog.needsSave)
+            editLog.close()
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun blockEditLogIgnoresLightOnlyJournalOverflow() {
+        val storage = BlockStorage(100, 100)
+        val journal = BlockChangeJournal(capacityShift = 4)
+        storage.journal = journal
+
+        val directory = Files.createTempDirectory("ore-world").toFile()
+        try {
+            val editLog = BlockEditLog(File(directory, "world.edits"))
+            editLog.start(journal)
+
+            //light levels aren't logged, so losing them loses nothing
+            storage.setType(0, 0, OreBlock.BlockType.Stone.oreValue)
+            editLog.append(journal)
+            for (x in 0 until 20) {
+                storage.setLightLevel(x, 0, 5)
+            }
+            storage.setType(1, 0, OreBlock.BlockType.Stone.oreValue)
+            editLog.append(journal)
+
+            assertFalse(editLog.needsSave)
+            assertEquals(2L, editLog.recordsWritten)
+
+            //but a logged edit that's pushed out is a gap
+            storage.setType(2, 0, OreBlock.BlockType.Stone.oreValue)
+            for (x in 0 until 20) {
+                storage.setLightLevel(x, 1, 5)
+            }
+            editLog.append(journal)
+
+            assertTrue(editLog.needsSave)
+            editLog.close()
+        } finally {
+            directory.deleteRecursively()
+        }
+    }
+
+    /**
+     * prints how long saving and loading a large world takes, and how big the save is
+     */
+    @Test
+    fun entitiesRoundTrip() {
+        val source = entityWorld()
+        val factory = OreEntityFactory(source)
+        val mSprite = source.artemisWorld.getMapper(SpriteComponent::class.java)
+        val mItem = source.artemisWorld.getMapper(ItemComponent::class.java)
+
+        val door = factory.createDoor()
+        mSprite.get(door).sprite.setPosition(5f, 7f)
+        source.artemisWorld.getMapper(DoorComponent::class.java).get(door).state = DoorComponent.DoorState.Open
+
+        val generator = factory.createPowerGenerator()
+        val fuel = factory.createBlockItem(OreBlock.BlockType.Copper.oreValue)
+        mItem.get(fuel).stackSize = 12
+        source.artemisWorld.getMapper(PowerGeneratorComponent::class.java).get(generator).fuelSources!!.setSlot(3, fuel)
+
+        val tree = factory.createWoodenTree(FloraComponent.TreeSize.Large)
+        source.artemisWorld.getMapper(HealthComponent::class.java).get(tree).health = 1234f
+
+        //carried by some player, who isn't saved
+        val drill = factory.createDrill()
+        mItem.get(drill).state = ItemComponent.State.InInventoryState
+
+        //artemis only lists them after a tick
+        source.artemisWorld.process()
+
+        val file = Files.createTempFile("ore-entities", ".save")
+        try {
+            EntityIO.write(EntityIO(source).snapshot(), file)
+
+            val restoredWorld = entityWorld()
+            assertEquals(4, EntityIO(restoredWorld).restore(EntityIO.read(file)))
+            restoredWorld.artemisWorld.process()
+
+            val artemisWorld = restoredWorld.artemisWorld
+            assertEquals(0, artemisWorld.entities(allOf(ToolComponent::class)).size())
+
+            val restoredDoor = artemisWorld.entities(allOf(DoorComponent::class)).get(0)
+            assertEquals(DoorComponent.DoorState.Open, artemisWorld.getMapper(DoorComponent::class.java).get(restoredDoor).state)
+            val doorSprite = artemisWorld.getMapper(SpriteComponent::class.java).get(restoredDoor)
+            assertEquals(5f, doorSprite.sprite.x)
+            assertEquals(7f, doorSprite.sprite.y)
+            assertEquals(3f, doorSprite.sprite.height)
+            assertEquals("door-closed-16x36", doorSprite.textureName)
+            assertTrue(artemisWorld.getMapper(ItemComponent::class.java).get(restoredDoor).placementAdjacencyHints
+                               .contains(ItemComponent.PlacementAdjacencyHints.TopSolid))
+
+            val restoredGenerator = artemisWorld.entities(allOf(PowerGeneratorComponent::class)).get(0)
+            val fuelSources = artemisWorld.getMapper(PowerGeneratorComponent::class.java).get(restoredGenerator).fuelSources!!
+            val restoredFuel = fuelSources.itemEntity(3)
+            assertEquals(OreBlock.BlockType.Copper.oreValue,
+                         artemisWorld.getMapper(BlockComponent::class.java).get(restoredFuel).blockType)
+            assertEquals(12, artemisWorld.getMapper(ItemComponent::class.java).get(restoredFuel).stackSize)
+            assertEquals(ItemComponent.State.InInventoryState,
+                         artemisWorld.getMapper(ItemComponent::class.java).get(restoredFuel).state)
+
+            val restoredTree = artemisWorld.entities(allOf(FloraComponent::class)).get(0)
+            assertEquals(1234f, artemisWorld.getMapper(HealthComponent::class.java).get(restoredTree).health)
+            assertEquals(4, artemisWorld.getMapper(FloraComponent::class.java).get(restoredTree).numberOfDropsWhenDestroyed)
+        } finally {
+            Files.delete(file)
+        }
+    }
+
+    @Test
+    fun shutdownSaveSurvivesAFailedAutosave() {
+        val dir = Files.createTempDirectory("ore-save").toFile()
+        try {
+            val world = entityWorld()
+            val worldIO = WorldIO(world, dir.path + "/")
+            val factory = OreEntityFactory(world)
+
+            factory.createDoor()
+            world.artemisWorld.process()
+            worldIO.saveWorld()
+
+            //a save of a smaller world than this one makes the autosave's write run off the
+            //end of its index, which is a runtime exception, not an io one
+            WorldIO.writeBlocks(BlockStorage(64, 64), File(worldIO.saveFilePath).toPath())
+            worldIO.startAutosave()
+
+            world.setBlockType(512, 512, OreBlock.BlockType.Stone.oreValue)
+            factory.createWoodenTree(FloraComponent.TreeSize.Large)
+            world.artemisWorld.process()
+
+            worldIO.saveWorld()
+
+            assertEquals(2, EntityIO.read(File(worldIO.entitySavePath).toPath()).count)
+
+            //and the blocks got saved in full instead
+            val saved = BlockStorage(world.worldSize.width, world.worldSize.height)
+            WorldIO.openBlocks(saved, File(worldIO.saveFilePath).toPath())
+            assertEquals(OreBlock.BlockType.Stone.oreValue, saved.type(512, 512))
+            saved.save?.close()
+        } finally {
+            dir.deleteRecursively()
+        }
+    }
+
+    private fun entityWorld() =
+            OreWorld(null, null, OreWorld.WorldInstanceType.Server, OreWorld.WorldSize.TestTiny).apply {
+                artemisWorld = World(WorldConfigurationBuilder().build())
+            }
+
+    @Test
+    @Ignore
+    fun printLargeWorldSaveTimings() {
+        val worldSize = OreWorld.WorldSize.Large
+        val storage = fillTerrain(BlockStorage(worldSize.width, worldSize.height))
+
+        val file = File.createTempFile("ore-world", ".save")
+        try {
+            for (round in 0..2) {
+                val saveStart = System.currentTimeMillis()
+                WorldIO.writeBlocks(storage, file.toPath())
+                val saveMs = System.currentTimeMillis() - saveStart
+
+                val loadStart = System.currentTimeMillis()
+                WorldIO.readBlocks(BlockStorage(worldSize.width, worldSize.height), file.toPath())
+                val loadMs = System.currentTimeMillis() - loadStart
+
+                val openStart = System.currentTimeMillis()
+                val opened = BlockStorage(worldSize.width, worldSize.height)
+                WorldIO.openBlocks(opened, file.toPath())
+                val openMs = System.currentTimeMillis() - openStart
+                opened.save!!.close()
+
+                println("${worldSize.name}: saved in $saveMs ms, loaded in $loadMs ms, opened lazily in $openMs ms, " +
+                        "${file.length() / 1024} KB")
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    /**
+     * prints load time, heap and RSS for loading every world size from a
+     * regular (deflated) save into the heap, vs memory mapping a stored one.
+     * also how long a pass over every block takes after loading, and the RSS
+     * after it, since mapped blocks only get paged in once they're read.
+     *
+     * RSS hardly ever goes back down within a JVM, so the mapped load goes
+     * first, and what the heap load adds may be understated by whatever
+     * the mapped one left behind. run it for one world size at a time if
+     * that matters
+     */
+    @Test
+    @Ignore
+    fun printMappedLoadBenchmark() {
+        for (worldSize in OreWorld.WorldSize.values()) {
+            val deflated = File.createTempFile("ore-world", ".save")
+            val stored = File.createTempFile("ore-world", ".save")
+            try {
+                val storage = fillTerrain(BlockStorage(worldSize.width, worldSize.height))
+                WorldIO.writeBlocks(storage, deflated.toPath())
+                WorldIO.writeBlocks(storage, stored.toPath(), deflateChunks = false)
+
+                for ((mapped, file) in listOf(true to stored, false to deflated)) {
+                    println("${worldSize.name} ${worldSize.width}x${worldSize.height}, " +
+                            "${if (mapped) "mapped" else "heap"} (${file.length() / 1024} KB save): " +
+                            loadAndReadAll(file, worldSize, mapped))
+                }
+            } finally {
+                deflated.delete()
+                stored.delete()
+            }
+        }
+    }
+
+    private fun loadAndReadAll(file: File, worldSize: OreWorld.WorldSize, mapped: Boolean): String {
+        val storage = BlockStorage(worldSize.width, worldSize.height)
+
+        val rssBefore = residentSetKb()
+        val heapBefore = usedHeapKb()
+
+        val loadStart = System.currentTimeMillis()
+        if (mapped) {
+            WorldIO.mapBlocks(storage, file.toPath())
+        } else {
+            WorldIO.readBlocks(storage, file.toPath())
+        }
+        val loadMs = System.currentTimeMillis() - loadStart
+
+        val heapKb = usedHeapKb() - heapBefore
+        val rssKb = residentSetKb() - rssBefore
+
+        val passStart = System.currentTimeMillis()
+        var solidCount = 0
+        val column = ByteArray(storage.height)
+        for (x in 0 until storage.width) {
+            storage.copyColumn(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, x, 0, storage.height - 1, column)
+            solidCount += column.count { OreBlock.isSolid(it) }
+        }
+        val passMs = System.currentTimeMillis() - passStart
+
+        return "loaded in $loadMs ms, +${heapKb / 1024} MB heap, +${rssKb / 1024} MB RSS. " +
+                "pass over all types in $passMs ms ($solidCount solid), " +
+                "+${(residentSetKb() - rssBefore) / 1024} MB RSS after it"
+    }
+
+    private fun usedHeapKb(): Long {
+        System.gc()
+        val runtime = Runtime.getRuntime()
+        return (runtime.totalMemory() - runtime.freeMemory()) / 1024
+    }
+
+    /**
+     * VmRSS, 0 where there's no /proc (not linux)
+     */
+    private fun residentSetKb(): Long {
+        val status = File("/proc/self/status")
+        if (!status.exists()) {
+            return 0
+        }
+
+        val line = status.readLines().firstOrNull { it.startsWith("VmRSS:") } ?: return 0
+        return line.substringAfter(':').trim().substringBefore(' ').toLong()
+    }
+
+    /**
+     * air sky, dirt then stone with some ore, underground walls
+     */
+    private fun fillTerrain(storage: BlockStorage): BlockStorage {
+        val surface = storage.height / 3
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, surface, storage.width - 1, storage.height - 1,
+                         OreBlock.BlockType.Stone.oreValue)
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_TYPE, 0, surface, storage.width - 1, surface + 20,
+                         OreBlock.BlockType.Dirt.oreValue)
+        storage.fillRect(OreBlock.BLOCK_BYTE_FIELD_INDEX_WALL_TYPE, 0, surface, storage.width - 1,
+                         storage.height - 1, OreBlock.WallType.DirtUnderground.oreValue)
+
+        for (x in 0 until storage.width) {
+            for (y in surface + 21 until storage.height) {
+                if ((x * 31 + y * 17) % 97 == 0) {
+                    storage.setType(x, y, OreBlock.BlockType.Copper.oreValue)
+                }
+            }
+        }
+
+        return storage
+    }
+
     //WorldGenerator.generateWorldAndOutputImage()
 }
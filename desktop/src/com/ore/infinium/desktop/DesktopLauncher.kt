@@ -1,10 +1,13 @@
 package com.ore.infinium.desktop
 
+import com.artemis.World
+import com.artemis.WorldConfigurationBuilder
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3Application
 import com.badlogic.gdx.backends.lwjgl3.Lwjgl3ApplicationConfiguration
 import com.beust.jcommander.JCommander
 import com.ore.infinium.*
 import com.ore.infinium.desktop.texturepacker.TexturePacker
+import com.ore.infinium.systems.server.LiquidSimulationSystem
 import kotlin.system.measureTimeMillis
 
 class DesktopLauncher {
@@ -30,6 +33,11 @@ class DesktopLauncher {
             return
         }
 
+        if (OreSettings.previewWorlds > 0) {
+            previewWorlds()
+            return
+        }
+
         //LwjglInput.keyRepeatTime = 0.08f
         //LwjglInput.keyRepeatInitialTime = 0.15f
 
@@ -70,6 +78,22 @@ class DesktopLauncher {
         world.shutdown()
     }
 
+    private fun previewWorlds() {
+        if (OreSettings.previewStep < 1) {
+            OreWorld.log("DesktopLauncher previewWorlds",
+                         "--previewStep must be at least 1, got ${OreSettings.previewStep}. exiting.")
+            return
+        }
+
+        OreWorld.log("DesktopLauncher previewWorlds", "previewing ${OreSettings.previewWorlds} seeds and exiting.")
+        val worldSize = OreWorld.WorldSize.Small
+        val world = OreWorld(client = null, server = null,
+                             worldInstanceType = OreWorld.WorldInstanceType.Server, worldSize = worldSize)
+        world.artemisWorld = World(WorldConfigurationBuilder().with(LiquidSimulationSystem(world)).build())
+
+        WorldGenerator(world).previewSeeds(worldSize, OreSettings.previewWorlds, OreSettings.previewStep)
+    }
+
     private fun packTextures() {
         val settings = TexturePacker.Settings().apply {
             this.fast = true